@@ -0,0 +1,158 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.benchmark;
+
+import fr.jmmc.jmcs.gui.component.BasicTableSorter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.swing.table.AbstractTableModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BasicTableSorter: sort a table model having 100k rows on a numeric column, a string column
+ * and on two columns (headless: no table header)
+ *
+ * @author Laurent BOURGES.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class BasicTableSorterBenchmark {
+
+    /** number of rows */
+    @Param({"100000"})
+    public int rows;
+    /** sorter */
+    private BasicTableSorter _sorter;
+
+    @Setup
+    public void setup() {
+        _sorter = new BasicTableSorter(new RowTableModel(rows), null);
+    }
+
+    /**
+     * Sort the given columns and return the model index of the first row
+     * @param columns columns to sort (ascending)
+     * @return model index of the first row
+     */
+    private int sort(final int... columns) {
+        for (int c = 0, len = _sorter.getColumnCount(); c < len; c++) {
+            _sorter.setSortingStatus(c, BasicTableSorter.NOT_SORTED);
+        }
+        for (int c : columns) {
+            _sorter.setSortingStatus(c, BasicTableSorter.ASCENDING);
+        }
+        // sort is lazy:
+        return _sorter.modelIndex(0);
+    }
+
+    @Benchmark
+    public int sortDouble() {
+        return sort(1);
+    }
+
+    @Benchmark
+    public int sortString() {
+        return sort(2);
+    }
+
+    @Benchmark
+    public int sortIntegerThenDouble() {
+        return sort(3, 1);
+    }
+
+    /**
+     * Immutable table model: id, value (Double), name (String), group (Integer)
+     */
+    private static final class RowTableModel extends AbstractTableModel {
+
+        /** default serial UID for Serializable interface */
+        private static final long serialVersionUID = 1L;
+        /** column names */
+        private static final String[] COLUMNS = new String[]{"id", "value", "name", "group"};
+        /** column classes */
+        private static final Class<?>[] CLASSES = new Class<?>[]{Integer.class, Double.class, String.class, Integer.class};
+        /** data */
+        private final Object[][] _data;
+
+        /**
+         * Constructor
+         * @param rows number of rows
+         */
+        RowTableModel(final int rows) {
+            final Random random = new Random(42L);
+            _data = new Object[rows][];
+            for (int i = 0; i < rows; i++) {
+                _data[i] = new Object[]{
+                    Integer.valueOf(i),
+                    Double.valueOf(random.nextGaussian()),
+                    "HD " + random.nextInt(rows),
+                    Integer.valueOf(random.nextInt(100))
+                };
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return _data.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(final int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(final int column) {
+            return CLASSES[column];
+        }
+
+        @Override
+        public Object getValueAt(final int row, final int column) {
+            return _data[row][column];
+        }
+    }
+}
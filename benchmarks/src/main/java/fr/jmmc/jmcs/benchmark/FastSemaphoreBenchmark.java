@@ -0,0 +1,107 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.benchmark;
+
+import fr.jmmc.jmcs.util.concurrent.FastSemaphore;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FastSemaphore vs java.util.concurrent.Semaphore: acquire / release cycle under contention (4 threads)
+ * for a mutex (1 permit) and a semaphore having 2 permits
+ *
+ * @author Laurent BOURGES.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@Threads(4)
+public class FastSemaphoreBenchmark {
+
+    /** fast mutex */
+    private final FastSemaphore _fastMutex = new FastSemaphore(1);
+    /** fast semaphore (2 permits) */
+    private final FastSemaphore _fast2 = new FastSemaphore(2);
+    /** fair fast mutex */
+    private final FastSemaphore _fastFairMutex = new FastSemaphore(1, true);
+    /** JDK mutex */
+    private final Semaphore _jdkMutex = new Semaphore(1);
+    /** JDK semaphore (2 permits) */
+    private final Semaphore _jdk2 = new Semaphore(2);
+    /** fair JDK mutex */
+    private final Semaphore _jdkFairMutex = new Semaphore(1, true);
+
+    @Benchmark
+    public void fastMutex() throws InterruptedException {
+        _fastMutex.acquire();
+        _fastMutex.release();
+    }
+
+    @Benchmark
+    public void fastTwoPermits() throws InterruptedException {
+        _fast2.acquire();
+        _fast2.release();
+    }
+
+    @Benchmark
+    public void fastFairMutex() throws InterruptedException {
+        _fastFairMutex.acquire();
+        _fastFairMutex.release();
+    }
+
+    @Benchmark
+    public void jdkMutex() throws InterruptedException {
+        _jdkMutex.acquire();
+        _jdkMutex.release();
+    }
+
+    @Benchmark
+    public void jdkTwoPermits() throws InterruptedException {
+        _jdk2.acquire();
+        _jdk2.release();
+    }
+
+    @Benchmark
+    public void jdkFairMutex() throws InterruptedException {
+        _jdkFairMutex.acquire();
+        _jdkFairMutex.release();
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.benchmark;
+
+import fr.jmmc.jmcs.util.concurrent.IntRangeBody;
+import fr.jmmc.jmcs.util.concurrent.ParallelJobExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ParallelJobExecutor: forkAndJoin overhead for tiny jobs (divide the score by the number of jobs to get
+ * the overhead per task) compared to the sequential loop and parallelFor
+ *
+ * @author Laurent BOURGES.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelJobExecutorBenchmark {
+
+    /** number of jobs per fork and join */
+    @Param({"4", "64"})
+    public int jobs;
+    /** job work (tokens consumed per job) */
+    @Param({"100", "10000"})
+    public int work;
+    /** executor */
+    private ParallelJobExecutor _executor;
+    /** job array */
+    private Runnable[] _jobs;
+    /** completed job counter */
+    private final AtomicLong _done = new AtomicLong();
+
+    @Setup
+    public void setup() {
+        _executor = ParallelJobExecutor.getInstance();
+        _jobs = new Runnable[jobs];
+        for (int i = 0; i < jobs; i++) {
+            _jobs[i] = new Runnable() {
+                @Override
+                public void run() {
+                    Blackhole.consumeCPU(work);
+                    _done.incrementAndGet();
+                }
+            };
+        }
+    }
+
+    @Benchmark
+    public long forkAndJoin() {
+        _executor.forkAndJoin("benchmark", _jobs);
+        return _done.get();
+    }
+
+    @Benchmark
+    public long sequential() {
+        for (Runnable job : _jobs) {
+            job.run();
+        }
+        return _done.get();
+    }
+
+    @Benchmark
+    public long parallelFor() {
+        _executor.parallelFor("benchmark-range", 0, jobs, 1, new IntRangeBody() {
+            @Override
+            public void run(final int from, final int to) {
+                for (int i = from; i < to; i++) {
+                    _jobs[i].run();
+                }
+            }
+        });
+        return _done.get();
+    }
+}
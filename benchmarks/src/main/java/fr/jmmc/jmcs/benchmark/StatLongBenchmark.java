@@ -0,0 +1,98 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.benchmark;
+
+import fr.jmmc.jmcs.util.timer.AbstractTimer;
+import fr.jmmc.jmcs.util.timer.HistogramTimer;
+import fr.jmmc.jmcs.util.timer.StatLong;
+import fr.jmmc.jmcs.util.timer.TimerFactory;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * StatLong.add (single thread) and shared timers (Timer, HistogramTimer) recording from 4 threads
+ *
+ * @author Laurent BOURGES.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-DTimerFactory.calibration=none")
+public class StatLongBenchmark {
+
+    /** per-thread state */
+    @State(Scope.Thread)
+    public static class LocalState {
+
+        /** statistics */
+        final StatLong stat = new StatLong();
+        /** value */
+        double value = 0d;
+    }
+
+    /** shared state */
+    @State(Scope.Benchmark)
+    public static class SharedState {
+
+        /** shared timer */
+        final AbstractTimer timer = TimerFactory.getSimpleTimer("benchmark-timer", TimerFactory.UNIT.ns);
+        /** shared histogram timer */
+        final HistogramTimer histogram = TimerFactory.getHistogramTimer("benchmark-histogram", TimerFactory.UNIT.ns);
+    }
+
+    @Benchmark
+    public StatLong statLongAdd(final LocalState state) {
+        state.value += 1.5d;
+        state.stat.add(state.value);
+        return state.stat;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void timerAdd(final LocalState state, final SharedState shared) {
+        state.value += 1.5d;
+        shared.timer.add(state.value);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void histogramRecord(final LocalState state, final SharedState shared) {
+        state.value += 1.5d;
+        shared.histogram.record((long) state.value);
+    }
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.benchmark;
+
+import fr.jmmc.jmcs.util.StringUtils;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * StringUtils: regular expression helpers
+ *
+ * @author Laurent BOURGES.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringUtilsBenchmark {
+
+    /** text with accents, redundant white spaces and special characters */
+    private final String _text = "  Étoile   HD 1234 :  V=5.6  [réf. Ségransan et al.]\t(2010)  ";
+    /** HTML text */
+    private final String _html = "<html><body><b>Vega</b> is an <i>A0V</i> star<br/>at 7.68 pc</body></html>";
+
+    @Benchmark
+    public String removeAccents() {
+        return StringUtils.removeAccents(_text);
+    }
+
+    @Benchmark
+    public String cleanWhiteSpaces() {
+        return StringUtils.cleanWhiteSpaces(_text);
+    }
+
+    @Benchmark
+    public String removeRedundantWhiteSpaces() {
+        return StringUtils.removeRedundantWhiteSpaces(_text);
+    }
+
+    @Benchmark
+    public String replaceNonAlphaNumericChars() {
+        return StringUtils.replaceNonAlphaNumericCharsByUnderscore(_text);
+    }
+
+    @Benchmark
+    public String[] splitNonNumericChars() {
+        return StringUtils.splitNonNumericChars(_text);
+    }
+
+    @Benchmark
+    public String removeTags() {
+        return StringUtils.removeTags(_html);
+    }
+
+    @Benchmark
+    public String encodeTagContent() {
+        return StringUtils.encodeTagContent(_html);
+    }
+}
@@ -0,0 +1,18 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!-- XSLT used by XslTransformBenchmark: converts rows to an HTML table -->
+<xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
+    <xsl:output method="html" indent="no"/>
+
+    <xsl:template match="/rows">
+        <table>
+            <xsl:for-each select="row">
+                <xsl:sort select="@name"/>
+                <tr>
+                    <td><xsl:value-of select="@id"/></td>
+                    <td><xsl:value-of select="@name"/></td>
+                    <td><xsl:value-of select="format-number(@value, '0.000')"/></td>
+                </tr>
+            </xsl:for-each>
+        </table>
+    </xsl:template>
+</xsl:stylesheet>
@@ -45,6 +45,8 @@ import fr.jmmc.jmcs.gui.util.WindowUtils;
 import fr.jmmc.jmcs.logging.LoggingService;
 import fr.jmmc.jmcs.network.NetworkSettings;
 import fr.jmmc.jmcs.network.interop.SampManager;
+import fr.jmmc.jmcs.network.http.Http;
+import fr.jmmc.jmcs.network.http.HttpConnectionPool;
 import fr.jmmc.jmcs.util.IntrospectionUtils;
 import fr.jmmc.jmcs.util.JVMUtils;
 import fr.jmmc.jmcs.util.MCSExceptionHandler;
@@ -638,6 +640,12 @@ public final class Bootstrapper {
             // Disconnect from SAMP Hub (if any)
             SampManager.shutdown();
 
+            // Dump HTTP connection pool statistics (if any)
+            final HttpConnectionPool connectionPool = Http.getConnectionPool();
+            if (connectionPool != null && _jmmcLogger.isInfoEnabled()) {
+                _jmmcLogger.info(connectionPool.dumpStats());
+            }
+
             // Close all HTTP connections (http client) (if any)
             MultiThreadedHttpConnectionManager.shutdownAll();
 
@@ -926,17 +926,15 @@ public class FeedbackReport extends javax.swing.JDialog implements KeyListener {
 
                 _logger.debug("All post parameters have been set");
 
-                // Send feedback report to PHP script
-                client.executeMethod(method);
+                // Send feedback report to PHP script (compressed response / request body if enabled)
+                // and get PHP script result (either SUCCESS or FAILURE):
+                final String response = Http.execute(client, method);
 
                 _logger.debug("The report mail has been send");
 
-                // Get PHP script result (either SUCCESS or FAILURE)
-                final String response = method.getResponseBodyAsString();
-
                 _logger.debug("HTTP response : {}", response);
 
-                statusFlag = (!response.contains("FAILED")) && (method.isRequestSent());
+                statusFlag = (response != null) && (!response.contains("FAILED")) && (method.isRequestSent());
 
                 if (_logger.isDebugEnabled()) {
                     _logger.debug("Report sent : {}", (statusFlag) ? "YES" : "NO");
@@ -0,0 +1,368 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.network.http;
+
+import fr.jmmc.jmcs.util.FileUtils;
+import fr.jmmc.jmcs.util.concurrent.PollingTask;
+import fr.jmmc.jmcs.util.concurrent.ThreadExecutors;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.httpclient.HttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous HTTP requests: GET / POST requests are performed by the I/O thread pool
+ * (virtual threads if available, see ThreadExecutors.getIOExecutor()) and return a HttpRequestHandle
+ * (Future) immediately so many requests can be fired concurrently without blocking the caller.
+ * 
+ * Response bodies are consumed by streaming body handlers (HttpBodyHandler), requests can have
+ * a timeout (the request fails and its HTTP method is aborted) and are cancelled using their handle.
+ * Completion can also be notified by a callback (HttpCallback).
+ * 
+ * GET requests use the same code path as Http.download() (HTTP cache, authentication).
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class AsyncHttp {
+
+    /** logger */
+    private final static Logger _logger = LoggerFactory.getLogger(AsyncHttp.class.getName());
+    /** timeout thread pool name */
+    public static final String TIMEOUT_THREAD_POOL = "AsyncHttpTimeout";
+    /** no timeout */
+    public static final long NO_TIMEOUT = 0L;
+    /** timeout check interval (100 ms) */
+    public static final long CHECK_INTERVAL = 100L;
+    /** string body handler */
+    private static final HttpBodyHandler<String> STRING_HANDLER = new HttpBodyHandler<String>() {
+        /**
+         * Read the given response body into a string and CLOSE it anyway (try/finally)
+         * @param in response body stream
+         * @return response body as string
+         * @throws IOException if any IO error occurs
+         */
+        @Override
+        public String handle(final InputStream in) throws IOException {
+            return FileUtils.readStream(in);
+        }
+    };
+    /** timeout checker */
+    private static final TimeoutChecker TIMEOUT_CHECKER = new TimeoutChecker();
+
+    /**
+     * Forbidden constructor
+     */
+    private AsyncHttp() {
+        super();
+    }
+
+    /**
+     * Return the body handler reading the response body into a string
+     * @return string body handler
+     */
+    public static HttpBodyHandler<String> stringHandler() {
+        return STRING_HANDLER;
+    }
+
+    /**
+     * Return a body handler saving the response body into the given file (deleted if the transfer fails)
+     * @param outputFile file to save into
+     * @return file body handler returning the given file
+     */
+    public static HttpBodyHandler<File> fileHandler(final File outputFile) {
+        return new HttpBodyHandler<File>() {
+            /**
+             * Save the given response body into the output file and CLOSE it anyway (try/finally)
+             * @param in response body stream
+             * @return output file
+             * @throws IOException if any IO error occurs
+             */
+            @Override
+            public File handle(final InputStream in) throws IOException {
+                try {
+                    FileUtils.saveStream(in, outputFile);
+                } catch (IOException ioe) {
+                    if (outputFile.exists()) {
+                        _logger.debug("File '{}' deleted (partial download).", outputFile);
+                        outputFile.delete();
+                    }
+                    throw ioe;
+                }
+                return outputFile;
+            }
+        };
+    }
+
+    /**
+     * Download asynchronously the document located at the given URI into the given file
+     * as sent by the server (no content decoding, see Http.download(URI, File, boolean))
+     * 
+     * @param uri URI to download
+     * @param outputFile file to save into
+     * @param useDedicatedClient use one dedicated HttpClient if true (proxy resolver) or the shared multi-threaded one else
+     * @param timeout request timeout in milliseconds (0 means no timeout)
+     * @param callback optional completion callback
+     * @return request handle giving the output file or null if no result
+     */
+    public static HttpRequestHandle<File> download(final URI uri, final File outputFile, final boolean useDedicatedClient,
+                                                   final long timeout, final HttpCallback<File> callback) {
+        return get(uri, useDedicatedClient, fileHandler(outputFile), timeout, callback, false);
+    }
+
+    /**
+     * Read asynchronously a text file from the given URI into a string
+     * 
+     * @param uri URI to load
+     * @param useDedicatedClient use one dedicated HttpClient if true (proxy resolver) or the shared multi-threaded one else
+     * @param timeout request timeout in milliseconds (0 means no timeout)
+     * @param callback optional completion callback
+     * @return request handle giving the text file content or null if no result
+     */
+    public static HttpRequestHandle<String> download(final URI uri, final boolean useDedicatedClient,
+                                                     final long timeout, final HttpCallback<String> callback) {
+        return get(uri, useDedicatedClient, STRING_HANDLER, timeout, callback);
+    }
+
+    /**
+     * Perform asynchronously a GET request to the given URI and use the given handler to consume the response body
+     * 
+     * @param <T> result type
+     * @param uri URI to load
+     * @param useDedicatedClient use one dedicated HttpClient if true (proxy resolver) or the shared multi-threaded one else
+     * @param bodyHandler response body handler
+     * @param timeout request timeout in milliseconds (0 means no timeout)
+     * @param callback optional completion callback
+     * @return request handle giving the handler result or null if no result (http status != 200)
+     */
+    public static <T> HttpRequestHandle<T> get(final URI uri, final boolean useDedicatedClient,
+                                               final HttpBodyHandler<T> bodyHandler,
+                                               final long timeout, final HttpCallback<T> callback) {
+        return get(uri, useDedicatedClient, bodyHandler, timeout, callback, true);
+    }
+
+    /**
+     * Perform asynchronously a GET request to the given URI and use the given handler to consume the response body
+     * 
+     * @param <T> result type
+     * @param uri URI to load
+     * @param useDedicatedClient use one dedicated HttpClient if true (proxy resolver) or the shared multi-threaded one else
+     * @param bodyHandler response body handler
+     * @param timeout request timeout in milliseconds (0 means no timeout)
+     * @param callback optional completion callback
+     * @param decode true to use the HTTP cache and decode compressed responses; false to get the body as sent by the server
+     * @return request handle giving the handler result or null if no result (http status != 200)
+     */
+    private static <T> HttpRequestHandle<T> get(final URI uri, final boolean useDedicatedClient,
+                                                final HttpBodyHandler<T> bodyHandler,
+                                                final long timeout, final HttpCallback<T> callback,
+                                                final boolean decode) {
+        return submit(new HttpRequestHandle<T>(uri, new Callable<T>() {
+            /**
+             * Perform the GET request
+             * @return handler result or null if no result
+             * @throws IOException if any I/O operation fails (HTTP or file)
+             */
+            @Override
+            public T call() throws IOException {
+                final HttpClient client = Http.getHttpClient(uri, useDedicatedClient);
+                final HandlerProcessor<T> processor = new HandlerProcessor<T>(bodyHandler);
+
+                final boolean ok = (decode) ? Http.download(uri, client, processor) : Http.downloadRaw(uri, client, processor, null);
+                return (ok) ? processor.getResult() : null;
+            }
+        }, timeout, callback));
+    }
+
+    /**
+     * Post asynchronously a request to the given URI and get a string as result.
+     * 
+     * @param uri URI to load
+     * @param useDedicatedClient use one dedicated HttpClient if true (proxy resolver) or the shared multi-threaded one else
+     * @param queryProcessor post query processor to define query parameters
+     * @param timeout request timeout in milliseconds (0 means no timeout)
+     * @param callback optional completion callback
+     * @return request handle giving the result as string or null if no result
+     */
+    public static HttpRequestHandle<String> post(final URI uri, final boolean useDedicatedClient,
+                                                 final PostQueryProcessor queryProcessor,
+                                                 final long timeout, final HttpCallback<String> callback) {
+        return post(uri, useDedicatedClient, queryProcessor, STRING_HANDLER, timeout, callback);
+    }
+
+    /**
+     * Post asynchronously a request to the given URI and use the given handler to consume the response body
+     * 
+     * @param <T> result type
+     * @param uri URI to load
+     * @param useDedicatedClient use one dedicated HttpClient if true (proxy resolver) or the shared multi-threaded one else
+     * @param queryProcessor post query processor to define query parameters
+     * @param bodyHandler response body handler
+     * @param timeout request timeout in milliseconds (0 means no timeout)
+     * @param callback optional completion callback
+     * @return request handle giving the handler result or null if no result (http status != 200)
+     */
+    public static <T> HttpRequestHandle<T> post(final URI uri, final boolean useDedicatedClient,
+                                                final PostQueryProcessor queryProcessor,
+                                                final HttpBodyHandler<T> bodyHandler,
+                                                final long timeout, final HttpCallback<T> callback) {
+        return submit(new HttpRequestHandle<T>(uri, new Callable<T>() {
+            /**
+             * Perform the POST request
+             * @return handler result or null if no result
+             * @throws IOException if any I/O operation fails (HTTP or file)
+             */
+            @Override
+            public T call() throws IOException {
+                final HttpClient client = Http.getHttpClient(uri, useDedicatedClient);
+                final HandlerProcessor<T> processor = new HandlerProcessor<T>(bodyHandler);
+
+                return (Http.post(uri, client, queryProcessor, processor)) ? processor.getResult() : null;
+            }
+        }, timeout, callback));
+    }
+
+    /**
+     * Submit the given request to the I/O thread pool and watch its timeout
+     * @param <T> result type
+     * @param handle request handle
+     * @return given request handle
+     */
+    private static <T> HttpRequestHandle<T> submit(final HttpRequestHandle<T> handle) {
+        _logger.debug("submit: {}", handle);
+
+        try {
+            // request failures are given by the handle (not reported as uncaught exceptions by the pool):
+            ThreadExecutors.getIOExecutor().execute(new Runnable() {
+                /**
+                 * Perform the request
+                 */
+                @Override
+                public void run() {
+                    handle.run();
+                }
+            });
+        } catch (IllegalStateException ise) {
+            handle.reject(ise);
+            return handle;
+        }
+
+        if (handle.getTimeout() > 0L) {
+            TIMEOUT_CHECKER.watch(handle);
+        }
+        return handle;
+    }
+
+    /**
+     * StreamProcessor adapter for HttpBodyHandler
+     * @param <T> result type
+     */
+    private static final class HandlerProcessor<T> implements StreamProcessor {
+
+        /** body handler */
+        private final HttpBodyHandler<T> _bodyHandler;
+        /** handler result */
+        private T _result = null;
+
+        /**
+         * Protected constructor
+         * @param bodyHandler body handler
+         */
+        HandlerProcessor(final HttpBodyHandler<T> bodyHandler) {
+            _bodyHandler = bodyHandler;
+        }
+
+        /**
+         * Process the given input stream and CLOSE it anyway (try/finally)
+         * @param in input stream to process
+         * @throws IOException if any IO error occurs
+         */
+        @Override
+        public void process(final InputStream in) throws IOException {
+            _result = _bodyHandler.handle(in);
+        }
+
+        /**
+         * Return the handler result
+         * @return handler result
+         */
+        T getResult() {
+            return _result;
+        }
+    }
+
+    /**
+     * Timeout checker: fails the requests reaching their deadline (single thread running while requests are watched)
+     */
+    private static final class TimeoutChecker extends PollingTask<HttpRequestHandle<?>> {
+
+        /** check interval in nanoseconds */
+        private static final long CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(CHECK_INTERVAL);
+
+        /**
+         * Protected constructor
+         */
+        TimeoutChecker() {
+            super(TIMEOUT_THREAD_POOL);
+        }
+
+        /**
+         * Watch the timeout of the given request
+         * @param handle request handle
+         */
+        void watch(final HttpRequestHandle<?> handle) {
+            try {
+                add(handle);
+            } catch (IllegalStateException ise) {
+                _logger.warn("AsyncHttp.watch : timeout checker unavailable : ", ise);
+            }
+        }
+
+        /**
+         * Check the timeout of all watched requests once
+         * @param handles watched requests
+         * @return check interval
+         */
+        @Override
+        protected long poll(final List<HttpRequestHandle<?>> handles) {
+            final long now = System.nanoTime();
+
+            for (int i = handles.size() - 1; i >= 0; i--) {
+                if (handles.get(i).checkTimeout(now)) {
+                    handles.remove(i);
+                }
+            }
+            return CHECK_INTERVAL_NANOS;
+        }
+    }
+}
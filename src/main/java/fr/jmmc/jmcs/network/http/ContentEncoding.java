@@ -0,0 +1,231 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.network.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HTTP content encoding support (gzip / deflate) used by all Http entry points:
+ * - requests advertise 'Accept-Encoding: gzip, deflate' (ContentEncoding.enabled system property, true by default),
+ * - compressed response bodies are decompressed on the fly (streaming) according to their 'Content-Encoding'
+ * only if the request advertised encodings and the content type is not already a gzip type (fits.gz ...),
+ * so file downloads (no Accept-Encoding) are saved as sent by the server,
+ * - large POST bodies can be sent gzip compressed ('Content-Encoding: gzip') if the server supports it:
+ * set the ContentEncoding.postThreshold system property to the minimum body size in bytes (0 i.e. disabled by default).
+ * 
+ * @author Laurent BOURGES.
+ */
+final class ContentEncoding {
+
+    /** logger */
+    private final static Logger _logger = LoggerFactory.getLogger(ContentEncoding.class.getName());
+    /** system property to enable / disable response compression (true by default) */
+    static final String PROPERTY_ENABLED = "ContentEncoding.enabled";
+    /** system property giving the minimum POST body size (bytes) to compress (0 means disabled) */
+    static final String PROPERTY_POST_THRESHOLD = "ContentEncoding.postThreshold";
+    /** flag to accept compressed responses */
+    static final boolean ENABLED = Boolean.valueOf(System.getProperty(PROPERTY_ENABLED, "true")).booleanValue();
+    /** minimum POST body size (bytes) to compress (0 means disabled) */
+    static final int POST_THRESHOLD = Integer.getInteger(PROPERTY_POST_THRESHOLD, 0).intValue();
+    /** HTTP header Accept-Encoding */
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    /** HTTP header Content-Encoding */
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    /** HTTP header Content-Type */
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    /** supported encodings */
+    private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+    /** gzip encoding */
+    private static final String GZIP = "gzip";
+    /** deflate encoding */
+    private static final String DEFLATE = "deflate";
+    /** form content type */
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded; charset=UTF-8";
+    /** stream buffer size */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Forbidden constructor
+     */
+    private ContentEncoding() {
+        super();
+    }
+
+    /**
+     * Advertise supported encodings (gzip, deflate) unless the given method defines its own Accept-Encoding header
+     * @param method http method
+     */
+    static void acceptEncoding(final HttpMethodBase method) {
+        if (ENABLED && method.getRequestHeader(HEADER_ACCEPT_ENCODING) == null) {
+            method.setRequestHeader(HEADER_ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+        }
+    }
+
+    /**
+     * Return the response body stream decompressed according to its Content-Encoding header.
+     * The body is returned as is if the request did not advertise encodings (Accept-Encoding)
+     * or if the content type is already a gzip type (compressed file sent with Content-Encoding: gzip)
+     * @param method executed http method
+     * @return buffered (decompressed) response body stream
+     * @throws IOException if any I/O error occurs
+     */
+    static InputStream getResponseBody(final HttpMethodBase method) throws IOException {
+        final InputStream in = method.getResponseBodyAsStream();
+        if (in == null) {
+            // no response body:
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        final Header header = method.getResponseHeader(HEADER_CONTENT_ENCODING);
+        final String encoding = (header != null) ? header.getValue().trim().toLowerCase() : null;
+
+        if (encoding == null || encoding.length() == 0 || "identity".equals(encoding)
+                || method.getRequestHeader(HEADER_ACCEPT_ENCODING) == null) {
+            return new BufferedInputStream(in);
+        }
+        _logger.debug("Response content encoding: {}", encoding);
+
+        if (GZIP.equals(encoding) || "x-gzip".equals(encoding)) {
+            final Header contentType = method.getResponseHeader(HEADER_CONTENT_TYPE);
+            if (contentType != null && contentType.getValue().toLowerCase().contains(GZIP)) {
+                // gzip file (application/gzip, application/x-gzip ...): keep it compressed:
+                _logger.debug("Response content type: {} (not decoded)", contentType.getValue());
+                return new BufferedInputStream(in);
+            }
+            return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE));
+        }
+        if (DEFLATE.equals(encoding)) {
+            // 'deflate' should be zlib wrapped but some servers send raw deflate data:
+            final BufferedInputStream bin = new BufferedInputStream(in, BUFFER_SIZE);
+            bin.mark(2);
+            final int b0 = bin.read();
+            final int b1 = bin.read();
+            bin.reset();
+
+            final boolean zlib = (b0 != -1 && b1 != -1) && ((b0 & 0x0F) == 8) && (((b0 << 8) | b1) % 31 == 0);
+            return new BufferedInputStream(new InflaterInputStream(bin, new Inflater(!zlib), BUFFER_SIZE));
+        }
+        throw new IOException("Unsupported content encoding: " + encoding);
+    }
+
+    /**
+     * Compress the form body of the given POST method (gzip) if it is larger than the POST threshold
+     * @param method post method whose parameters are defined
+     * @throws IOException if any I/O error occurs
+     */
+    static void compressRequest(final PostMethod method) throws IOException {
+        compressRequest(method, POST_THRESHOLD);
+    }
+
+    /**
+     * Compress the form body of the given POST method (gzip) if it is larger than the given threshold
+     * @param method post method whose parameters are defined
+     * @param threshold minimum body size (bytes) to compress (0 means disabled)
+     * @throws IOException if any I/O error occurs
+     */
+    static void compressRequest(final PostMethod method, final int threshold) throws IOException {
+        if (threshold <= 0 || method.getRequestHeader(HEADER_CONTENT_ENCODING) != null) {
+            return;
+        }
+        final NameValuePair[] params = method.getParameters();
+        final RequestEntity entity = method.getRequestEntity();
+
+        final byte[] body;
+        final String contentType;
+        if (params.length != 0) {
+            body = encodeForm(params);
+            contentType = FORM_CONTENT_TYPE;
+        } else if (entity != null && entity.isRepeatable() && entity.getContentLength() >= threshold) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int) entity.getContentLength());
+            entity.writeRequest(out);
+            body = out.toByteArray();
+            contentType = entity.getContentType();
+        } else {
+            return;
+        }
+        if (body.length < threshold) {
+            return;
+        }
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4);
+        final GZIPOutputStream gzip = new GZIPOutputStream(buffer, BUFFER_SIZE);
+        gzip.write(body);
+        gzip.close();
+        final byte[] compressed = buffer.toByteArray();
+
+        if (compressed.length >= body.length) {
+            // not compressible:
+            return;
+        }
+        for (NameValuePair param : params) {
+            method.removeParameter(param.getName());
+        }
+        method.setRequestEntity(new ByteArrayRequestEntity(compressed, contentType));
+        method.setRequestHeader(HEADER_CONTENT_ENCODING, GZIP);
+
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("POST body compressed: {} to {} bytes", body.length, compressed.length);
+        }
+    }
+
+    /**
+     * Encode the given parameters as an url-encoded form (UTF-8)
+     * @param params form parameters
+     * @return url-encoded form
+     * @throws IOException if UTF-8 is not supported
+     */
+    private static byte[] encodeForm(final NameValuePair[] params) throws IOException {
+        final StringBuilder sb = new StringBuilder(1024);
+        for (NameValuePair param : params) {
+            if (sb.length() != 0) {
+                sb.append('&');
+            }
+            sb.append(URLEncoder.encode(param.getName(), "UTF-8")).append('=');
+            if (param.getValue() != null) {
+                sb.append(URLEncoder.encode(param.getValue(), "UTF-8"));
+            }
+        }
+        return sb.toString().getBytes("UTF-8");
+    }
+}
@@ -32,14 +32,21 @@ import fr.jmmc.jmcs.network.NetworkSettings;
 import static fr.jmmc.jmcs.network.NetworkSettings.getJmmcHttpURI;
 import fr.jmmc.jmcs.network.ProxyConfig;
 import fr.jmmc.jmcs.util.FileUtils;
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 import org.apache.commons.httpclient.Credentials;
 import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
 import org.apache.commons.httpclient.HostConfiguration;
@@ -48,7 +55,6 @@ import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpMethodRetryHandler;
 import org.apache.commons.httpclient.HttpState;
 import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
@@ -65,7 +71,11 @@ import org.slf4j.LoggerFactory;
  *  This utility class is dedicated to gather code associated to HTTP domain.
  *
  *  It actually :
- * - returns a well configured apache commons HttpClient (legacy project)
+ * - returns a well configured apache commons HttpClient (legacy project) sharing the HttpConnectionPool (limits, idle eviction, statistics)
+ * - downloads documents through the HttpCache (conditional revalidation)
+ * - negotiates compressed responses (gzip, deflate) decompressed on the fly (see ContentEncoding)
+ * - saves files as sent by the server (no content negotiation nor decoding, not cached) so compressed files (fits.gz) are kept as is
+ * - see AsyncHttp for asynchronous requests and RangedDownload for large files
  * 
  * @author Guillaume MELLA, Laurent BOURGES.
  */
@@ -75,11 +85,15 @@ public final class Http {
     private final static Logger _logger = LoggerFactory.getLogger(Http.class.getName());
     /** HTTP GET value for the read timeout in milliseconds (30 seconds) */
     public static final int GET_SOCKET_READ_TIMEOUT = 30 * 1000;
+    /** HTTP date format (RFC 1123) */
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    /** temporary file extension used by revalidate() */
+    private static final String EXT_REVALIDATE = ".revalidate";
 
     /** shared HTTP Client (thread safe) */
     private static volatile HttpClient _sharedHttpClient = null;
-    /** shared connection manager (thread safe) */
-    private static volatile MultiThreadedHttpConnectionManager _sharedConnectionManager = null;
+    /** shared connection pool (thread safe) */
+    private static volatile HttpConnectionPool _sharedConnectionManager = null;
     /** shared Http retry handler that disables http retries */
     private static final HttpMethodRetryHandler _httpNoRetryHandler = new DefaultHttpMethodRetryHandler(0, false);
     /** shared Http retry handler that uses 3 http retries */
@@ -128,12 +142,12 @@ public final class Http {
      *
      * @return httpClient instance
      */
-    private static synchronized HttpClient getHttpClient(final URI uri, final boolean useDedicatedClient) {
-        // Create an HttpClient with the MultiThreadedHttpConnectionManager.
+    static synchronized HttpClient getHttpClient(final URI uri, final boolean useDedicatedClient) {
+        // Create an HttpClient with the shared connection pool.
         if (_sharedConnectionManager == null) {
             // This connection manager must be used if more than one thread will
-            // be using the HttpClient.
-            _sharedConnectionManager = new MultiThreadedHttpConnectionManager();
+            // be using the HttpClient (limits, idle connection eviction and statistics).
+            _sharedConnectionManager = new HttpConnectionPool();
         }
         final HttpClient httpClient;
         if (useDedicatedClient) {
@@ -171,10 +185,7 @@ public final class Http {
         httpParams.setConnectionTimeout(NetworkSettings.DEFAULT_CONNECT_TIMEOUT);
         // define read timeout:
         httpParams.setSoTimeout(NetworkSettings.DEFAULT_SOCKET_READ_TIMEOUT);
-
-        // define connection parameters:
-        httpParams.setMaxTotalConnections(NetworkSettings.DEFAULT_MAX_TOTAL_CONNECTIONS);
-        httpParams.setDefaultMaxConnectionsPerHost(NetworkSettings.DEFAULT_MAX_HOST_CONNECTIONS);
+        // connection limits are defined by the HttpConnectionPool (see system properties)
 
         // set content-encoding to UTF-8 instead of default ISO-8859
         final HttpClientParams httpClientParams = httpClient.getParams();
@@ -189,6 +200,32 @@ public final class Http {
         httpClientParams.setParameter(HttpMethodParams.USER_AGENT, System.getProperty(NetworkSettings.PROPERTY_USER_AGENT));
     }
 
+    /**
+     * Return the shared connection pool (statistics, limits)
+     * @return shared connection pool or null if no HTTP client was created yet
+     */
+    public static HttpConnectionPool getConnectionPool() {
+        return _sharedConnectionManager;
+    }
+
+    /**
+     * Execute the given HTTP method and record its latency (until the response headers are received) per host
+     * @param client http client to use
+     * @param method http method to execute
+     * @return http status code
+     * @throws IOException if any I/O error occurs
+     */
+    static int executeMethod(final HttpClient client, final HttpMethodBase method) throws IOException {
+        final long start = System.nanoTime();
+        final int resultCode = client.executeMethod(method);
+
+        final HttpConnectionPool pool = _sharedConnectionManager;
+        if (pool != null && client.getHttpConnectionManager() == pool) {
+            pool.recordRequest(method.getURI().getHost(), start, System.nanoTime());
+        }
+        return resultCode;
+    }
+
     /**
      * Transform the given URL in URI if valid.
      * @param url URL as string
@@ -204,7 +241,7 @@ public final class Http {
     }
 
     /**
-     * Save the document located at the given URI in the given file. 
+     * Save the document located at the given URI in the given file as sent by the server (no content decoding).
      * Requests with dedicatedClient will instance one new client with proxies compatible with given URI. 
      * Other requests will use the common multi-threaded HTTP client .
      * 
@@ -218,7 +255,7 @@ public final class Http {
         // Create an HTTP client for the given URI to detect proxies for this host or use common one depending of given flag
         final HttpClient client = (useDedicatedClient) ? Http.createNewHttpClient(uri) : Http.getHttpClient();
 
-        return download(uri, client, new StreamProcessor() {
+        return downloadRaw(uri, client, new StreamProcessor() {
             /**
              * Process the given input stream and CLOSE it anyway (try/finally)
              * @param in input stream to process
@@ -239,7 +276,99 @@ public final class Http {
                     throw ioe;
                 }
             }
-        });
+        }, null);
+    }
+
+    /**
+     * Revalidate the given local copy of the document located at the given URI using a conditional GET request
+     * (If-Modified-Since the local file date): the local file is left unchanged if the server answers '304 Not Modified',
+     * else the document is saved (as sent by the server) into a temporary file that atomically replaces the local file once complete.
+     * The local file date is then set to the Last-Modified date given by the server.
+     * 
+     * @param uri URI to download
+     * @param localFile local copy to revalidate
+     * @param useDedicatedClient use one dedicated HttpClient if true (proxy resolver) or the shared multi-threaded one else
+     * @return true if the local copy is up to date (not modified or updated)
+     * @throws IOException if any I/O operation fails (HTTP or file)
+     */
+    public static boolean revalidate(final URI uri, final File localFile, final boolean useDedicatedClient) throws IOException {
+        // Create an HTTP client for the given URI to detect proxies for this host or use common one depending of given flag
+        final HttpClient client = (useDedicatedClient) ? Http.createNewHttpClient(uri) : Http.getHttpClient();
+
+        // conditional request using the local file date:
+        final HttpCache.Validator validator = new HttpCache.Validator(null, formatDate(localFile.lastModified()));
+
+        // temporary file in the same directory (atomic rename), distinct from RangedDownload part files:
+        final File tmpFile = File.createTempFile(localFile.getName() + '.', EXT_REVALIDATE, localFile.getAbsoluteFile().getParentFile());
+        try {
+            final boolean ok = downloadRaw(uri, client, new StreamProcessor() {
+                /**
+                 * Process the given input stream and CLOSE it anyway (try/finally)
+                 * @param in input stream to process
+                 * @throws IOException if any IO error occurs
+                 */
+                @Override
+                public void process(final InputStream in) throws IOException {
+                    FileUtils.saveStream(in, tmpFile);
+                }
+            }, validator);
+
+            if (!ok) {
+                return false;
+            }
+            if (validator.isNotModified()) {
+                _logger.debug("File '{}' not modified.", localFile);
+                return true;
+            }
+            // use the server date to revalidate the local copy next time:
+            final long lastModified = parseDate(validator.getLastModified());
+            if (lastModified > 0L) {
+                tmpFile.setLastModified(lastModified);
+            }
+            try {
+                Files.move(tmpFile.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                _logger.debug("Atomic move not supported: ", amnse);
+                Files.move(tmpFile.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("File '{}' updated ({} bytes).", localFile, localFile.length());
+            }
+            return true;
+        } finally {
+            if (tmpFile.exists()) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Format the given date using the HTTP date format (RFC 1123)
+     * @param time date in milliseconds
+     * @return HTTP date
+     */
+    private static String formatDate(final long time) {
+        final SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+
+    /**
+     * Parse the given HTTP date (RFC 1123)
+     * @param date HTTP date or null
+     * @return date in milliseconds or -1 if undefined or invalid
+     */
+    private static long parseDate(final String date) {
+        if (date != null) {
+            final SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return format.parse(date).getTime();
+            } catch (ParseException pe) {
+                _logger.debug("Invalid HTTP date: {}", date);
+            }
+        }
+        return -1L;
     }
 
     /**
@@ -403,9 +532,49 @@ public final class Http {
      * @return true if successful
      * @throws IOException if any I/O operation fails (HTTP or file) 
      */
-    private static boolean download(final URI uri, final HttpClient client,
-                                    final StreamProcessor resultProcessor) throws IOException {
-        return download(uri, client, resultProcessor, 0);
+    static boolean download(final URI uri, final HttpClient client,
+                            final StreamProcessor resultProcessor) throws IOException {
+        if (HttpCache.isEnabled()) {
+            // revalidate any cached copy (conditional GET):
+            return HttpCache.getInstance().download(uri, client, resultProcessor);
+        }
+        return download(uri, client, resultProcessor, null);
+    }
+
+    /**
+     * Save the document located at the given URI and use the given processor to get the result.
+     * If validators are given, the request is conditional and returns true without processing
+     * any response body when the server answers '304 Not Modified' (see Validator.isNotModified()).
+     * 
+     * @param uri URI to download
+     * @param client http client to use
+     * @param resultProcessor stream processor to use to consume HTTP response
+     * @param validator optional cache validators (HttpCache)
+     * @return true if successful
+     * @throws IOException if any I/O operation fails (HTTP or file) 
+     */
+    static boolean download(final URI uri, final HttpClient client,
+                            final StreamProcessor resultProcessor,
+                            final HttpCache.Validator validator) throws IOException {
+        return download(uri, client, resultProcessor, validator, true, 0);
+    }
+
+    /**
+     * Save the document located at the given URI and use the given processor to get the response body
+     * as sent by the server: no Accept-Encoding is sent and the body is not decoded nor cached,
+     * so compressed files (fits.gz, oifits.gz) are saved as is.
+     * 
+     * @param uri URI to download
+     * @param client http client to use
+     * @param resultProcessor stream processor to use to consume HTTP response
+     * @param validator optional conditional request validators
+     * @return true if successful
+     * @throws IOException if any I/O operation fails (HTTP or file) 
+     */
+    static boolean downloadRaw(final URI uri, final HttpClient client,
+                               final StreamProcessor resultProcessor,
+                               final HttpCache.Validator validator) throws IOException {
+        return download(uri, client, resultProcessor, validator, false, 0);
     }
 
     /**
@@ -416,6 +585,8 @@ public final class Http {
      * @param uri URI to download
      * @param resultProcessor stream processor to use to consume HTTP response
      * @param client http client to use
+     * @param validator optional cache validators (HttpCache)
+     * @param decode true to accept and decode compressed responses (gzip, deflate)
      * @param level recursion level (authentication attempt)
      * @return true if successful
      * @throws IOException if any I/O operation fails (HTTP or file) 
@@ -423,6 +594,8 @@ public final class Http {
      */
     private static boolean download(final URI uri, final HttpClient client,
                                     final StreamProcessor resultProcessor,
+                                    final HttpCache.Validator validator,
+                                    final boolean decode,
                                     final int level) throws IOException {
 
         final String url = uri.toString();
@@ -434,6 +607,15 @@ public final class Http {
         // allow http retries (GET):
         httpMethodParams.setParameter(HttpMethodParams.RETRY_HANDLER, _httpRetryHandler);
 
+        if (validator != null) {
+            // conditional request (If-None-Match / If-Modified-Since):
+            validator.prepare(method);
+        }
+        if (decode) {
+            // accept compressed response (gzip, deflate):
+            ContentEncoding.acceptEncoding(method);
+        }
+
         if (_logger.isDebugEnabled()) {
             _logger.debug("HTTP client and GET method have been created. doAuthentication = {}", method.getDoAuthentication());
         }
@@ -444,7 +626,7 @@ public final class Http {
             HttpMethodThreadMap.setCurrentThread(method);
 
             // Send HTTP GET query:
-            resultCode = client.executeMethod(method);
+            resultCode = executeMethod(client, method);
             if (_logger.isDebugEnabled()) {
                 _logger.debug("The query has been sent. Status code: {}", resultCode);
             }
@@ -452,13 +634,24 @@ public final class Http {
             // If everything went fine
             if (resultCode == HttpStatus.SC_OK) {
 
+                if (validator != null) {
+                    // get ETag / Last-Modified:
+                    validator.update(method);
+                }
+
                 // Get response
-                final InputStream in = new BufferedInputStream(method.getResponseBodyAsStream());
+                final InputStream in = ContentEncoding.getResponseBody(method);
                 resultProcessor.process(in);
 
                 return true;
             }
 
+            // cached copy is still valid:
+            if (resultCode == HttpStatus.SC_NOT_MODIFIED && validator != null && validator.isConditional()) {
+                validator.setNotModified();
+                return true;
+            }
+
         } finally {
             // Release the connection.
             releaseConnection(method);
@@ -522,7 +715,7 @@ public final class Http {
                     state.setCredentials(authScope, credentials);
 
                     if (!shouldSkip(credentials)) {
-                        return download(nextURI, client, resultProcessor, level + 1);
+                        return download(nextURI, client, resultProcessor, validator, decode, level + 1);
                     }
                 }
             }
@@ -554,8 +747,8 @@ public final class Http {
      * @return true if successful
      * @throws IOException if any I/O operation fails (HTTP or file) 
      */
-    private static boolean post(final URI uri, final HttpClient client,
-                                final PostQueryProcessor queryProcessor, final StreamProcessor resultProcessor) throws IOException {
+    static boolean post(final URI uri, final HttpClient client,
+                        final PostQueryProcessor queryProcessor, final StreamProcessor resultProcessor) throws IOException {
 
         final PostMethod method = new PostMethod(uri.toString());
         _logger.debug("HTTP client and POST method have been created");
@@ -564,11 +757,15 @@ public final class Http {
             // Define HTTP POST parameters
             queryProcessor.process(method);
 
+            // accept compressed response and compress large request body:
+            ContentEncoding.acceptEncoding(method);
+            ContentEncoding.compressRequest(method);
+
             // memorize HTTPMethodBase associated to the current thread:
             HttpMethodThreadMap.setCurrentThread(method);
 
             // Send HTTP query
-            final int resultCode = client.executeMethod(method);
+            final int resultCode = executeMethod(client, method);
             if (_logger.isDebugEnabled()) {
                 _logger.debug("The query has been sent. Status code: {}", resultCode);
             }
@@ -576,7 +773,7 @@ public final class Http {
             // If everything went fine
             if (resultCode == HttpStatus.SC_OK) {
                 // Get response
-                final InputStream in = new BufferedInputStream(method.getResponseBodyAsStream());
+                final InputStream in = ContentEncoding.getResponseBody(method);
                 resultProcessor.process(in);
 
                 return true;
@@ -601,11 +798,17 @@ public final class Http {
     private static boolean execute(final HttpClient client,
                                    final HttpMethodBase method, final StreamProcessor resultProcessor) throws IOException {
         try {
+            // accept compressed response and compress large request body:
+            ContentEncoding.acceptEncoding(method);
+            if (method instanceof PostMethod) {
+                ContentEncoding.compressRequest((PostMethod) method);
+            }
+
             // memorize HTTPMethodBase associated to the current thread:
             HttpMethodThreadMap.setCurrentThread(method);
 
             // Send HTTP query
-            final int resultCode = client.executeMethod(method);
+            final int resultCode = executeMethod(client, method);
             if (_logger.isDebugEnabled()) {
                 _logger.debug("The query has been sent. Status code: {}", resultCode);
             }
@@ -613,7 +816,7 @@ public final class Http {
             // If everything went fine
             if (resultCode == HttpStatus.SC_OK) {
                 // Get response
-                final InputStream in = new BufferedInputStream(method.getResponseBodyAsStream());
+                final InputStream in = ContentEncoding.getResponseBody(method);
                 resultProcessor.process(in);
 
                 return true;
@@ -0,0 +1,949 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.network.http;
+
+import fr.jmmc.jmcs.util.FileUtils;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk-backed HTTP response cache used by Http.download() to avoid transferring again
+ * documents that did not change on the server (catalogs, application descriptions, release notes ...).
+ * 
+ * Response bodies are stored under FileUtils.getPlatformCachesPath() (or the HttpCache.dir system property) with their validators
+ * (ETag / Last-Modified response headers) and revalidated on every request using conditional
+ * GET requests (If-None-Match / If-Modified-Since): a '304 Not Modified' answer costs no transfer
+ * and the cached body is served instead.
+ * 
+ * The cache is bounded by a size budget (HttpCache.maxSize system property, bytes) and evicts
+ * least recently used entries. Responses without validator (neither ETag nor Last-Modified) or larger than
+ * the size budget are never cached: they are streamed directly to the caller. Concurrent requests for the same URI are coalesced (single-flight):
+ * only one thread performs the HTTP request and the other ones are served from its result.
+ * 
+ * Set the HttpCache.enabled system property to false to disable the cache.
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class HttpCache {
+
+    /** logger */
+    private final static Logger _logger = LoggerFactory.getLogger(HttpCache.class.getName());
+    /** system property to enable / disable the cache (true by default) */
+    public static final String PROPERTY_ENABLED = "HttpCache.enabled";
+    /** system property to define the cache size budget (bytes) */
+    public static final String PROPERTY_MAX_SIZE = "HttpCache.maxSize";
+    /** system property to define the cache directory (absolute path) */
+    public static final String PROPERTY_DIR = "HttpCache.dir";
+    /** default cache size budget (128 Mb) */
+    public static final long DEFAULT_MAX_SIZE = 128L * 1024L * 1024L;
+    /** cache directory name (in the platform caches folder) */
+    private static final String CACHE_DIR = "jmcs-http-cache";
+    /** body file extension */
+    private static final String EXT_BODY = ".body";
+    /** meta data file extension */
+    private static final String EXT_META = ".meta";
+    /** temporary file extension */
+    private static final String EXT_TMP = ".tmp";
+    /** delay (1 day) before deleting orphaned temporary files */
+    private static final long TMP_FILE_EXPIRY = 24L * 3600L * 1000L;
+    /** meta data key: uri */
+    private static final String KEY_URI = "uri";
+    /** meta data key: ETag */
+    private static final String KEY_ETAG = "etag";
+    /** meta data key: Last-Modified */
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    /** meta data key: body size */
+    private static final String KEY_SIZE = "size";
+    /** HTTP header ETag */
+    private static final String HEADER_ETAG = "ETag";
+    /** HTTP header Last-Modified */
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    /** HTTP header If-None-Match */
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    /** HTTP header If-Modified-Since */
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    /** hexadecimal digits */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    /** marker entry: the response was not cached but directly consumed */
+    private static final Entry NOT_CACHED = new Entry(null, "", "", null, null, 0L);
+    /** singleton */
+    private static volatile HttpCache INSTANCE = new HttpCache(getDefaultCacheDir(),
+            Long.getLong(PROPERTY_MAX_SIZE, DEFAULT_MAX_SIZE).longValue());
+    // Members
+    /** cache directory */
+    private final File _cacheDir;
+    /** cache size budget (bytes) */
+    private final long _maxSize;
+    /** cache entries in access order (LRU first) keyed by URI hash (guarded by this) */
+    private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    /** total size of cached bodies (guarded by this) */
+    private long _size = 0L;
+    /** flag indicating that the cache directory was scanned (guarded by this) */
+    private boolean _loaded = false;
+    /** in-flight requests keyed by URI hash */
+    private final ConcurrentHashMap<String, Flight> _flights = new ConcurrentHashMap<String, Flight>(16);
+    /** number of responses served from the cache after revalidation (304) */
+    private final AtomicLong _hitCount = new AtomicLong();
+    /** number of responses transferred (200) */
+    private final AtomicLong _missCount = new AtomicLong();
+    /** number of requests served by another in-flight request */
+    private final AtomicLong _sharedCount = new AtomicLong();
+
+    /**
+     * Return the HTTP cache singleton
+     * @return HTTP cache singleton
+     */
+    public static HttpCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Replace the HTTP cache singleton by a cache using the given directory (tests)
+     * @param cacheDir cache directory
+     * @param maxSize cache size budget (bytes)
+     * @return previous HTTP cache singleton
+     */
+    static HttpCache setInstance(final File cacheDir, final long maxSize) {
+        final HttpCache previous = INSTANCE;
+        INSTANCE = new HttpCache(cacheDir, maxSize);
+        return previous;
+    }
+
+    /**
+     * Restore the given HTTP cache singleton (tests)
+     * @param cache HTTP cache singleton
+     */
+    static void setInstance(final HttpCache cache) {
+        INSTANCE = cache;
+    }
+
+    /**
+     * Return the cache directory defined by the HttpCache.dir system property
+     * or the jmcs-http-cache folder in the platform caches folder
+     * @return cache directory
+     */
+    private static File getDefaultCacheDir() {
+        final String path = System.getProperty(PROPERTY_DIR);
+        if (path != null && path.trim().length() != 0) {
+            return new File(path.trim());
+        }
+        return new File(FileUtils.getPlatformCachesPath(), CACHE_DIR);
+    }
+
+    /**
+     * Return true if the HTTP cache is enabled (HttpCache.enabled system property)
+     * @return true if the HTTP cache is enabled
+     */
+    public static boolean isEnabled() {
+        return Boolean.valueOf(System.getProperty(PROPERTY_ENABLED, "true")).booleanValue();
+    }
+
+    /**
+     * Private constructor
+     * @param cacheDir cache directory
+     * @param maxSize cache size budget (bytes)
+     */
+    private HttpCache(final File cacheDir, final long maxSize) {
+        _cacheDir = cacheDir;
+        _maxSize = maxSize;
+    }
+
+    /**
+     * Return the cache directory
+     * @return cache directory
+     */
+    public File getCacheDir() {
+        return _cacheDir;
+    }
+
+    /**
+     * Return the cache size budget (bytes)
+     * @return cache size budget (bytes)
+     */
+    public long getMaxSize() {
+        return _maxSize;
+    }
+
+    /**
+     * Return the total size of cached bodies (bytes)
+     * @return total size of cached bodies (bytes)
+     */
+    public synchronized long getSize() {
+        load();
+        return _size;
+    }
+
+    /**
+     * Return the number of cached entries
+     * @return number of cached entries
+     */
+    public synchronized int getEntryCount() {
+        load();
+        return _entries.size();
+    }
+
+    /**
+     * Return the number of responses served from the cache after revalidation (304)
+     * @return number of responses served from the cache after revalidation
+     */
+    public long getHitCount() {
+        return _hitCount.get();
+    }
+
+    /**
+     * Return the number of responses transferred (200)
+     * @return number of responses transferred
+     */
+    public long getMissCount() {
+        return _missCount.get();
+    }
+
+    /**
+     * Return the number of requests served by another in-flight request for the same URI
+     * @return number of requests served by another in-flight request
+     */
+    public long getSharedCount() {
+        return _sharedCount.get();
+    }
+
+    /**
+     * Remove all cached entries
+     */
+    public synchronized void clear() {
+        load();
+        for (Iterator<Entry> it = _entries.values().iterator(); it.hasNext();) {
+            final Entry entry = it.next();
+            it.remove();
+            _size -= entry.getSize();
+            entry.delete();
+        }
+        _logger.info("HTTP cache cleared: {}", _cacheDir);
+    }
+
+    /**
+     * Download the document located at the given URI (revalidating any cached copy)
+     * and use the given processor to consume the (cached) response body.
+     * 
+     * @param uri URI to download
+     * @param client http client to use
+     * @param resultProcessor stream processor to use to consume HTTP response
+     * @return true if successful
+     * @throws IOException if any I/O operation fails (HTTP or file)
+     */
+    boolean download(final URI uri, final HttpClient client, final StreamProcessor resultProcessor) throws IOException {
+        final String key = getKey(uri);
+
+        Entry entry;
+        for (;;) {
+            final Flight flight = new Flight();
+            final Flight running = _flights.putIfAbsent(key, flight);
+
+            if (running == null) {
+                // this thread performs the HTTP request:
+                try {
+                    entry = fetch(key, uri, client, resultProcessor);
+                    flight.setEntry(entry);
+                } catch (IOException ioe) {
+                    flight.failed(ioe);
+                    throw ioe;
+                } catch (RuntimeException re) {
+                    flight.failed(new IOException("HTTP cache failure: " + uri, re));
+                    throw re;
+                } finally {
+                    _flights.remove(key, flight);
+                    // wake up waiting threads (if not failed):
+                    flight.done();
+                }
+                break;
+            }
+            // wait for the in-flight request for the same URI:
+            _logger.debug("Waiting for in-flight request: {}", uri);
+            _sharedCount.incrementAndGet();
+
+            entry = running.await(uri);
+            if (entry == NOT_CACHED) {
+                // response not cacheable: perform its own request:
+                return Http.download(uri, client, resultProcessor, null);
+            }
+            if (entry == null || entry.exists()) {
+                break;
+            }
+            // entry evicted meanwhile, retry
+        }
+
+        if (entry == null) {
+            // http status != 200 and 304:
+            return false;
+        }
+        if (entry == NOT_CACHED) {
+            // already consumed by the result processor:
+            return true;
+        }
+        return serve(entry, resultProcessor);
+    }
+
+    /**
+     * Perform the conditional HTTP request and update the cache entry.
+     * Responses that can not be cached (no validator or larger than the size budget) are directly
+     * consumed by the given processor.
+     * @param key URI hash
+     * @param uri URI to download
+     * @param client http client to use
+     * @param resultProcessor stream processor to use to consume a response that is not cached
+     * @return up-to-date cache entry, NOT_CACHED if the response was consumed by the given processor
+     * or null if the request failed (http status != 200 and 304)
+     * @throws IOException if any I/O operation fails (HTTP or file)
+     */
+    private Entry fetch(final String key, final URI uri, final HttpClient client,
+                        final StreamProcessor resultProcessor) throws IOException {
+        final Entry cached = getEntry(key);
+        final Validator validator = new Validator(cached);
+
+        if (!_cacheDir.isDirectory() && !_cacheDir.mkdirs()) {
+            throw new IOException("Unable to create the HTTP cache directory: " + _cacheDir);
+        }
+        final File tmpFile = File.createTempFile(key, EXT_TMP, _cacheDir);
+
+        try {
+            final boolean ok = Http.download(uri, client, new StreamProcessor() {
+                /**
+                 * Process the given input stream and CLOSE it anyway (try/finally)
+                 * @param in input stream to process
+                 * @throws IOException if any IO error occurs
+                 */
+                @Override
+                public void process(final InputStream in) throws IOException {
+                    if (validator.isCacheable(_maxSize)) {
+                        FileUtils.saveStream(in, tmpFile);
+                    } else {
+                        // no validator or too large: stream directly to the destination:
+                        validator.setNotCached();
+                        resultProcessor.process(in);
+                    }
+                }
+            }, validator);
+
+            if (!ok) {
+                if (cached != null) {
+                    // the document is no more available:
+                    remove(cached);
+                }
+                return null;
+            }
+            if (validator.isNotModified()) {
+                _hitCount.incrementAndGet();
+                _logger.debug("Not modified: {}", uri);
+                touch(cached);
+                return cached;
+            }
+            _missCount.incrementAndGet();
+
+            if (validator.isNotCached() || tmpFile.length() > _maxSize) {
+                if (cached != null) {
+                    // the cached copy is stale:
+                    remove(cached);
+                }
+                if (!validator.isNotCached()) {
+                    // decoded body larger than the size budget:
+                    _logger.debug("Not cached {} ({} bytes)", uri, tmpFile.length());
+                    serveFile(tmpFile, resultProcessor);
+                }
+                return NOT_CACHED;
+            }
+            return store(key, uri, tmpFile, validator);
+
+        } finally {
+            if (tmpFile.exists()) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Consume the body of the given cache entry using the given processor
+     * @param entry cache entry
+     * @param resultProcessor stream processor
+     * @return true if successful
+     * @throws IOException if any I/O operation fails
+     */
+    private boolean serve(final Entry entry, final StreamProcessor resultProcessor) throws IOException {
+        try {
+            serveFile(entry.getBodyFile(), resultProcessor);
+        } catch (FileNotFoundException fnfe) {
+            _logger.info("HTTP cache entry lost: {}", entry.getBodyFile());
+            remove(entry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Consume the given file using the given processor
+     * @param file file to read
+     * @param resultProcessor stream processor
+     * @throws FileNotFoundException if the file is missing
+     * @throws IOException if any I/O operation fails
+     */
+    private static void serveFile(final File file, final StreamProcessor resultProcessor) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            resultProcessor.process(in);
+        } finally {
+            FileUtils.closeStream(in);
+        }
+    }
+
+    /**
+     * Return the cache entry for the given key
+     * @param key URI hash
+     * @return cache entry or null if missing
+     */
+    private synchronized Entry getEntry(final String key) {
+        load();
+        final Entry entry = _entries.get(key);
+        if (entry != null && !entry.exists()) {
+            remove(entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Mark the given entry as recently used
+     * @param entry cache entry
+     */
+    private synchronized void touch(final Entry entry) {
+        // update access order:
+        _entries.get(entry.getKey());
+        // keep access order across sessions:
+        entry.getBodyFile().setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Remove the given entry from the cache and delete its files
+     * @param entry cache entry
+     */
+    private synchronized void remove(final Entry entry) {
+        if (_entries.get(entry.getKey()) == entry) {
+            _entries.remove(entry.getKey());
+            _size -= entry.getSize();
+        }
+        entry.delete();
+    }
+
+    /**
+     * Store the downloaded body in the cache and evict least recently used entries
+     * @param key URI hash
+     * @param uri downloaded URI
+     * @param tmpFile temporary file containing the response body
+     * @param validator validators returned by the server
+     * @return new cache entry
+     * @throws IOException if any I/O operation fails
+     */
+    private synchronized Entry store(final String key, final URI uri, final File tmpFile, final Validator validator) throws IOException {
+        final Entry entry = new Entry(_cacheDir, key, uri.toString(), validator.getETag(), validator.getLastModified(), tmpFile.length());
+
+        final Entry old = _entries.remove(key);
+        if (old != null) {
+            _size -= old.getSize();
+        }
+
+        final File bodyFile = entry.getBodyFile();
+        if (!tmpFile.renameTo(bodyFile)) {
+            // target may exist (windows):
+            bodyFile.delete();
+            if (!tmpFile.renameTo(bodyFile)) {
+                throw new IOException("Unable to store the HTTP cache entry: " + bodyFile);
+            }
+        }
+        entry.saveMeta();
+
+        _entries.put(key, entry);
+        _size += entry.getSize();
+
+        _logger.debug("Cached {} ({} bytes)", uri, entry.getSize());
+
+        // evict least recently used entries (the new entry is smaller than the size budget and the most recent one):
+        for (Iterator<Entry> it = _entries.values().iterator(); _size > _maxSize && it.hasNext();) {
+            final Entry lru = it.next();
+            if (lru != entry) {
+                it.remove();
+                _size -= lru.getSize();
+                lru.delete();
+                _logger.debug("Evicted {} ({} bytes)", lru.getUri(), lru.getSize());
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Scan the cache directory once to rebuild the LRU index
+     */
+    private void load() {
+        if (_loaded) {
+            return;
+        }
+        _loaded = true;
+
+        final File[] files = _cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final List<Entry> loaded = new ArrayList<Entry>(files.length / 2);
+
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(EXT_META)) {
+                final Entry entry = Entry.loadMeta(_cacheDir, name.substring(0, name.length() - EXT_META.length()));
+                if (entry != null) {
+                    loaded.add(entry);
+                }
+            } else if (name.endsWith(EXT_TMP) && (now - file.lastModified()) > TMP_FILE_EXPIRY) {
+                file.delete();
+            }
+        }
+
+        // restore access order from body file dates:
+        Collections.sort(loaded, new Comparator<Entry>() {
+            @Override
+            public int compare(final Entry e1, final Entry e2) {
+                final long t1 = e1.getBodyFile().lastModified();
+                final long t2 = e2.getBodyFile().lastModified();
+                return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+            }
+        });
+        for (Entry entry : loaded) {
+            _entries.put(entry.getKey(), entry);
+            _size += entry.getSize();
+        }
+        _logger.debug("HTTP cache loaded: {} entries ({} bytes)", _entries.size(), _size);
+    }
+
+    /**
+     * Return the cache key (MD5 hash in hexadecimal) of the given URI
+     * @param uri URI
+     * @return cache key
+     */
+    private static String getKey(final URI uri) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(uri.toString().getBytes("UTF-8"));
+            final char[] key = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                key[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+                key[2 * i + 1] = HEX_DIGITS[digest[i] & 0xF];
+            }
+            return new String(key);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException("MD5 unsupported", nsae);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("UTF-8 unsupported", ioe);
+        }
+    }
+
+    /**
+     * Conditional request validators: request headers from the cached entry and response headers
+     */
+    static final class Validator {
+
+        /** ETag of the cached entry */
+        private final String _cachedETag;
+        /** Last-Modified of the cached entry */
+        private final String _cachedLastModified;
+        /** ETag returned by the server */
+        private String _etag = null;
+        /** Last-Modified returned by the server */
+        private String _lastModified = null;
+        /** response content length (-1 if unknown) */
+        private long _contentLength = -1L;
+        /** true if the server answered 304 Not Modified */
+        private boolean _notModified = false;
+        /** true if the response body was not cached */
+        private boolean _notCached = false;
+
+        /**
+         * Protected constructor
+         * @param cached cached entry or null
+         */
+        Validator(final Entry cached) {
+            this((cached != null) ? cached.getETag() : null, (cached != null) ? cached.getLastModified() : null);
+        }
+
+        /**
+         * Protected constructor
+         * @param cachedETag ETag of the local copy or null
+         * @param cachedLastModified Last-Modified date (HTTP format) of the local copy or null
+         */
+        Validator(final String cachedETag, final String cachedLastModified) {
+            _cachedETag = cachedETag;
+            _cachedLastModified = cachedLastModified;
+        }
+
+        /**
+         * Add conditional headers to the given request
+         * @param method http method
+         */
+        void prepare(final HttpMethodBase method) {
+            if (_cachedETag != null) {
+                method.setRequestHeader(HEADER_IF_NONE_MATCH, _cachedETag);
+            }
+            if (_cachedLastModified != null) {
+                method.setRequestHeader(HEADER_IF_MODIFIED_SINCE, _cachedLastModified);
+            }
+        }
+
+        /**
+         * Return true if the request is conditional
+         * @return true if the request is conditional
+         */
+        boolean isConditional() {
+            return _cachedETag != null || _cachedLastModified != null;
+        }
+
+        /**
+         * Get validators from the given response (200)
+         * @param method http method
+         */
+        void update(final HttpMethodBase method) {
+            _etag = getHeader(method, HEADER_ETAG);
+            _lastModified = getHeader(method, HEADER_LAST_MODIFIED);
+            _contentLength = method.getResponseContentLength();
+        }
+
+        /**
+         * Return true if the response (200) can be cached: it has a validator (ETag or Last-Modified)
+         * and its content length is unknown or smaller than the given size budget
+         * @param maxSize cache size budget (bytes)
+         * @return true if the response can be cached
+         */
+        boolean isCacheable(final long maxSize) {
+            return (_etag != null || _lastModified != null) && _contentLength <= maxSize;
+        }
+
+        /**
+         * Mark the response body as not cached (consumed directly)
+         */
+        void setNotCached() {
+            _notCached = true;
+        }
+
+        /**
+         * Return true if the response body was not cached (consumed directly)
+         * @return true if the response body was not cached
+         */
+        boolean isNotCached() {
+            return _notCached;
+        }
+
+        /**
+         * Mark the cached entry as not modified (304)
+         */
+        void setNotModified() {
+            _notModified = true;
+        }
+
+        /**
+         * Return true if the server answered 304 Not Modified
+         * @return true if the server answered 304 Not Modified
+         */
+        boolean isNotModified() {
+            return _notModified;
+        }
+
+        /**
+         * Return the ETag returned by the server
+         * @return ETag or null
+         */
+        String getETag() {
+            return _etag;
+        }
+
+        /**
+         * Return the Last-Modified date returned by the server
+         * @return Last-Modified date or null
+         */
+        String getLastModified() {
+            return _lastModified;
+        }
+
+        /**
+         * Return the value of the given response header
+         * @param method http method
+         * @param name header name
+         * @return header value or null if missing
+         */
+        private static String getHeader(final HttpMethodBase method, final String name) {
+            final Header header = method.getResponseHeader(name);
+            return (header != null) ? header.getValue() : null;
+        }
+    }
+
+    /**
+     * Cache entry: body and meta data files
+     */
+    private static final class Entry {
+
+        /** URI hash */
+        private final String _key;
+        /** URI */
+        private final String _uri;
+        /** ETag or null */
+        private final String _etag;
+        /** Last-Modified or null */
+        private final String _lastModified;
+        /** body size */
+        private final long _size;
+        /** body file */
+        private final File _bodyFile;
+        /** meta data file */
+        private final File _metaFile;
+
+        /**
+         * Protected constructor
+         * @param cacheDir cache directory
+         * @param key URI hash
+         * @param uri URI
+         * @param etag ETag or null
+         * @param lastModified Last-Modified or null
+         * @param size body size
+         */
+        Entry(final File cacheDir, final String key, final String uri, final String etag, final String lastModified, final long size) {
+            _key = key;
+            _uri = uri;
+            _etag = etag;
+            _lastModified = lastModified;
+            _size = size;
+            _bodyFile = new File(cacheDir, key + EXT_BODY);
+            _metaFile = new File(cacheDir, key + EXT_META);
+        }
+
+        /**
+         * Load the cache entry from its meta data file
+         * @param cacheDir cache directory
+         * @param key URI hash
+         * @return cache entry or null if invalid (files deleted)
+         */
+        static Entry loadMeta(final File cacheDir, final String key) {
+            final File metaFile = new File(cacheDir, key + EXT_META);
+            final Properties meta = new Properties();
+            InputStream in = null;
+            try {
+                in = new FileInputStream(metaFile);
+                meta.load(in);
+            } catch (IOException ioe) {
+                _logger.debug("Unable to load {}: ", metaFile, ioe);
+            } finally {
+                FileUtils.closeStream(in);
+            }
+            final String uri = meta.getProperty(KEY_URI);
+            long size = -1L;
+            try {
+                size = Long.parseLong(meta.getProperty(KEY_SIZE, "-1"));
+            } catch (NumberFormatException nfe) {
+                _logger.debug("Invalid size in {}", metaFile);
+            }
+            final Entry entry = new Entry(cacheDir, key, uri, meta.getProperty(KEY_ETAG), meta.getProperty(KEY_LAST_MODIFIED), size);
+
+            // check consistency (interrupted store):
+            if (uri == null || size < 0L || entry.getBodyFile().length() != size) {
+                _logger.debug("Invalid HTTP cache entry: {}", metaFile);
+                entry.delete();
+                return null;
+            }
+            return entry;
+        }
+
+        /**
+         * Save the meta data file
+         * @throws IOException if any I/O operation fails
+         */
+        void saveMeta() throws IOException {
+            final Properties meta = new Properties();
+            meta.setProperty(KEY_URI, _uri);
+            meta.setProperty(KEY_SIZE, Long.toString(_size));
+            if (_etag != null) {
+                meta.setProperty(KEY_ETAG, _etag);
+            }
+            if (_lastModified != null) {
+                meta.setProperty(KEY_LAST_MODIFIED, _lastModified);
+            }
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(_metaFile);
+                meta.store(out, null);
+            } finally {
+                FileUtils.closeStream(out);
+            }
+        }
+
+        /**
+         * Return true if the body file exists
+         * @return true if the body file exists
+         */
+        boolean exists() {
+            return _bodyFile.exists();
+        }
+
+        /**
+         * Delete the body and meta data files
+         */
+        void delete() {
+            _metaFile.delete();
+            _bodyFile.delete();
+        }
+
+        /**
+         * Return the URI hash
+         * @return URI hash
+         */
+        String getKey() {
+            return _key;
+        }
+
+        /**
+         * Return the URI
+         * @return URI
+         */
+        String getUri() {
+            return _uri;
+        }
+
+        /**
+         * Return the ETag
+         * @return ETag or null
+         */
+        String getETag() {
+            return _etag;
+        }
+
+        /**
+         * Return the Last-Modified date
+         * @return Last-Modified date or null
+         */
+        String getLastModified() {
+            return _lastModified;
+        }
+
+        /**
+         * Return the body size
+         * @return body size
+         */
+        long getSize() {
+            return _size;
+        }
+
+        /**
+         * Return the body file
+         * @return body file
+         */
+        File getBodyFile() {
+            return _bodyFile;
+        }
+    }
+
+    /**
+     * In-flight request shared by concurrent requests for the same URI
+     */
+    private static final class Flight {
+
+        /** completion latch */
+        private final CountDownLatch _done = new CountDownLatch(1);
+        /** resulting entry (null if the request failed) */
+        private volatile Entry _entry = null;
+        /** failure */
+        private volatile IOException _failure = null;
+
+        /**
+         * Set the resulting entry
+         * @param entry cache entry or null (http status != 200 and 304)
+         */
+        void setEntry(final Entry entry) {
+            _entry = entry;
+        }
+
+        /**
+         * Set the failure
+         * @param failure exception
+         */
+        void failed(final IOException failure) {
+            _failure = failure;
+        }
+
+        /**
+         * Release waiting threads
+         */
+        void done() {
+            _done.countDown();
+        }
+
+        /**
+         * Wait for the in-flight request completion
+         * @param uri URI (log)
+         * @return resulting entry or null (http status != 200 and 304)
+         * @throws IOException if the in-flight request failed or the current thread is interrupted
+         */
+        Entry await(final URI uri) throws IOException {
+            try {
+                _done.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + uri);
+            }
+            if (_failure != null) {
+                throw new IOException("Shared request failed: " + uri, _failure);
+            }
+            return _entry;
+        }
+    }
+}
@@ -0,0 +1,622 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.network.http;
+
+import fr.jmmc.jmcs.network.NetworkSettings;
+import fr.jmmc.jmcs.util.timer.HistogramSnapshot;
+import fr.jmmc.jmcs.util.timer.HistogramTimer;
+import fr.jmmc.jmcs.util.timer.TimerFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Managed HTTP connection pool shared by Http clients: a MultiThreadedHttpConnectionManager with
+ * configurable limits, stale connection checks, idle connection eviction and per-host statistics
+ * (leased / available / pending connections, connect and request latency histograms).
+ * 
+ * System properties:
+ * - HttpConnectionPool.maxTotal: maximum number of connections (NetworkSettings.DEFAULT_MAX_TOTAL_CONNECTIONS by default),
+ * - HttpConnectionPool.maxPerHost: default maximum number of connections per host (NetworkSettings.DEFAULT_MAX_HOST_CONNECTIONS by default),
+ * - HttpConnectionPool.hosts: per-host limits as 'host1=n1,host2=n2',
+ * - HttpConnectionPool.idleTimeout: delay in milliseconds before closing idle connections (60s by default, 0 to disable),
+ * - HttpConnectionPool.staleCheck: check stale connections before reusing them (true by default).
+ * 
+ * Idle connections are closed by a commons-httpclient IdleConnectionTimeoutThread (daemon) checking the pool
+ * every max(1s, idleTimeout / 2); this thread is stopped when the pool is shut down.
+ * 
+ * Latency histograms are HistogramTimer instances registered in the TimerFactory
+ * ('HttpConnectionPool.connect[host]' and 'HttpConnectionPool.request[host]').
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class HttpConnectionPool extends MultiThreadedHttpConnectionManager {
+
+    /** logger */
+    private final static Logger _logger = LoggerFactory.getLogger(HttpConnectionPool.class.getName());
+    /** system property: maximum number of connections */
+    public static final String PROPERTY_MAX_TOTAL = "HttpConnectionPool.maxTotal";
+    /** system property: default maximum number of connections per host */
+    public static final String PROPERTY_MAX_PER_HOST = "HttpConnectionPool.maxPerHost";
+    /** system property: per-host limits ('host1=n1,host2=n2') */
+    public static final String PROPERTY_HOSTS = "HttpConnectionPool.hosts";
+    /** system property: idle timeout in milliseconds */
+    public static final String PROPERTY_IDLE_TIMEOUT = "HttpConnectionPool.idleTimeout";
+    /** system property: stale connection check */
+    public static final String PROPERTY_STALE_CHECK = "HttpConnectionPool.staleCheck";
+    /** default idle timeout (60s) */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60L * 1000L;
+    /** idle connection evictor thread name */
+    public static final String EVICTOR_THREAD_NAME = "HttpConnectionEvictor";
+    /** timer category prefix: connect latency */
+    private static final String CATEGORY_CONNECT = "HttpConnectionPool.connect[";
+    /** timer category prefix: request latency */
+    private static final String CATEGORY_REQUEST = "HttpConnectionPool.request[";
+    /** flag indicating that the socket factories were instrumented */
+    private static final AtomicBoolean _instrumented = new AtomicBoolean(false);
+    // Members
+    /** idle timeout in milliseconds (0 means disabled) */
+    private final long _idleTimeout;
+    /** per-host limits */
+    private final Map<String, Integer> _hostLimits = new ConcurrentHashMap<String, Integer>(4);
+    /** per-host statistics */
+    private final ConcurrentMap<String, HostStats> _hostStats = new ConcurrentHashMap<String, HostStats>(8);
+    /** idle connection evictor thread (null if disabled) */
+    private final IdleConnectionTimeoutThread _evictor;
+
+    /**
+     * Create the connection pool configured by system properties
+     */
+    public HttpConnectionPool() {
+        super();
+        _idleTimeout = Long.getLong(PROPERTY_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT).longValue();
+
+        final HttpConnectionManagerParams params = getParams();
+        params.setMaxTotalConnections(Integer.getInteger(PROPERTY_MAX_TOTAL, NetworkSettings.DEFAULT_MAX_TOTAL_CONNECTIONS).intValue());
+        params.setDefaultMaxConnectionsPerHost(Integer.getInteger(PROPERTY_MAX_PER_HOST, NetworkSettings.DEFAULT_MAX_HOST_CONNECTIONS).intValue());
+        params.setStaleCheckingEnabled(Boolean.valueOf(System.getProperty(PROPERTY_STALE_CHECK, "true")).booleanValue());
+
+        final String hosts = System.getProperty(PROPERTY_HOSTS);
+        if (hosts != null) {
+            for (String item : hosts.split(",")) {
+                final int pos = item.indexOf('=');
+                if (pos > 0) {
+                    try {
+                        setMaxConnectionsPerHost(item.substring(0, pos).trim(), Integer.parseInt(item.substring(pos + 1).trim()));
+                    } catch (NumberFormatException nfe) {
+                        _logger.warn("Invalid host limit '{}' in {}", item, PROPERTY_HOSTS);
+                    }
+                }
+            }
+        }
+        instrumentSocketFactories();
+
+        if (_idleTimeout > 0L) {
+            _evictor = new IdleConnectionTimeoutThread();
+            _evictor.setName(EVICTOR_THREAD_NAME);
+            _evictor.setConnectionTimeout(_idleTimeout);
+            _evictor.setTimeoutInterval(Math.max(1000L, _idleTimeout / 2L));
+            _evictor.addConnectionManager(this);
+            _evictor.start();
+        } else {
+            _evictor = null;
+        }
+
+        _logger.debug("HttpConnectionPool: maxTotal = {}, maxPerHost = {}, hosts = {}, idleTimeout = {} ms",
+                params.getMaxTotalConnections(), params.getDefaultMaxConnectionsPerHost(), _hostLimits, _idleTimeout);
+    }
+
+    /**
+     * Define the maximum number of connections for the given host
+     * @param host host name
+     * @param max maximum number of connections
+     */
+    public void setMaxConnectionsPerHost(final String host, final int max) {
+        _hostLimits.put(host, Integer.valueOf(max));
+        // host configurations already used:
+        final HostStats stats = _hostStats.get(host);
+        if (stats != null) {
+            for (HostConfiguration hostConfiguration : stats.getHostConfigurations()) {
+                getParams().setMaxConnectionsPerHost(hostConfiguration, max);
+            }
+        }
+    }
+
+    /**
+     * Return the idle timeout in milliseconds
+     * @return idle timeout in milliseconds (0 means disabled)
+     */
+    public long getIdleTimeout() {
+        return _idleTimeout;
+    }
+
+    /**
+     * Return a snapshot of the statistics per host
+     * @return statistics per host (sorted by host name)
+     */
+    public Map<String, HostStatsSnapshot> getStats() {
+        final Map<String, HostStatsSnapshot> stats = new TreeMap<String, HostStatsSnapshot>();
+        for (HostStats hostStats : _hostStats.values()) {
+            stats.put(hostStats.getHost(), hostStats.snapshot(this));
+        }
+        return stats;
+    }
+
+    /**
+     * Return a string representation of the statistics per host
+     * @return string representation of the statistics per host
+     */
+    public String dumpStats() {
+        final StringBuilder sb = new StringBuilder(512);
+        sb.append("HTTP connection pool statistics: ").append(getConnectionsInPool()).append(" connections");
+        for (HostStatsSnapshot hostStats : getStats().values()) {
+            sb.append("\n").append(hostStats);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Lease a connection for the given host: track pending / leased connections and apply per-host limits
+     * @param hostConfiguration host configuration
+     * @param timeout timeout in milliseconds to wait for a connection
+     * @return leased connection
+     * @throws ConnectionPoolTimeoutException if no connection becomes available before the timeout
+     */
+    @Override
+    public HttpConnection getConnectionWithTimeout(final HostConfiguration hostConfiguration, final long timeout)
+            throws ConnectionPoolTimeoutException {
+
+        final HostStats stats = getHostStats(hostConfiguration.getHost());
+
+        if (stats.addHostConfiguration(hostConfiguration)) {
+            final Integer max = _hostLimits.get(stats.getHost());
+            if (max != null) {
+                getParams().setMaxConnectionsPerHost(new HostConfiguration(hostConfiguration), max.intValue());
+            }
+        }
+
+        stats._pending.incrementAndGet();
+        final HttpConnection connection;
+        try {
+            connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+        } finally {
+            stats._pending.decrementAndGet();
+        }
+        stats._leased.incrementAndGet();
+        return connection;
+    }
+
+    /**
+     * Release the given connection: track leased connections
+     * @param connection released connection
+     */
+    @Override
+    public void releaseConnection(final HttpConnection connection) {
+        getHostStats(connection.getHost())._leased.decrementAndGet();
+        super.releaseConnection(connection);
+    }
+
+    /**
+     * Stop the idle connection evictor (if any) and close all connections
+     */
+    @Override
+    public void shutdown() {
+        if (_evictor != null) {
+            _evictor.shutdown();
+        }
+        super.shutdown();
+    }
+
+    /**
+     * Record the request latency (until the response headers are received) for the given host
+     * @param host host name
+     * @param start start time (nanoTime)
+     * @param now end time (nanoTime)
+     */
+    void recordRequest(final String host, final long start, final long now) {
+        getHostStats(host)._requestTimer.recordNanoSeconds(start, now);
+    }
+
+    /**
+     * Return the statistics of the given host (created if needed)
+     * @param host host name
+     * @return host statistics
+     */
+    HostStats getHostStats(final String host) {
+        final String key = (host != null) ? host : "";
+        HostStats stats = _hostStats.get(key);
+        if (stats == null) {
+            stats = new HostStats(key);
+            final HostStats old = _hostStats.putIfAbsent(key, stats);
+            if (old != null) {
+                stats = old;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Return the connect latency timer of the given host
+     * @param host host name
+     * @return connect latency timer
+     */
+    private static HistogramTimer getConnectTimer(final String host) {
+        return TimerFactory.getHistogramTimer(CATEGORY_CONNECT + host + ']', TimerFactory.UNIT.ms);
+    }
+
+    /**
+     * Wrap the socket factories of the http and https protocols (once) to measure connect latency per host
+     */
+    private static void instrumentSocketFactories() {
+        if (_instrumented.compareAndSet(false, true)) {
+            for (String scheme : new String[]{"http", "https"}) {
+                try {
+                    final Protocol protocol = Protocol.getProtocol(scheme);
+                    final ProtocolSocketFactory factory = protocol.getSocketFactory();
+
+                    final ProtocolSocketFactory timedFactory = (factory instanceof SecureProtocolSocketFactory)
+                            ? new TimedSecureSocketFactory((SecureProtocolSocketFactory) factory)
+                            : new TimedSocketFactory(factory);
+
+                    Protocol.registerProtocol(scheme, new Protocol(scheme, timedFactory, protocol.getDefaultPort()));
+                } catch (IllegalStateException ise) {
+                    _logger.debug("Unsupported protocol: {}", scheme, ise);
+                }
+            }
+        }
+    }
+
+    /**
+     * Live statistics of one host
+     */
+    static final class HostStats {
+
+        /** host name */
+        private final String _host;
+        /** host configurations used to lease connections (proxy, port ...) */
+        private final Set<HostConfiguration> _hostConfigurations;
+        /** number of leased connections (connections reclaimed by the garbage collector are never released) */
+        final AtomicInteger _leased = new AtomicInteger();
+        /** number of requests waiting for a connection */
+        final AtomicInteger _pending = new AtomicInteger();
+        /** request latency timer (until the response headers are received) */
+        final HistogramTimer _requestTimer;
+        /** connect latency timer */
+        private final HistogramTimer _connectTimer;
+
+        /**
+         * Protected constructor
+         * @param host host name
+         */
+        HostStats(final String host) {
+            _host = host;
+            _hostConfigurations = Collections.newSetFromMap(new ConcurrentHashMap<HostConfiguration, Boolean>(2));
+            _requestTimer = TimerFactory.getHistogramTimer(CATEGORY_REQUEST + host + ']', TimerFactory.UNIT.ms);
+            _connectTimer = HttpConnectionPool.getConnectTimer(host);
+        }
+
+        /**
+         * Return a snapshot of these statistics
+         * @param pool connection pool
+         * @return snapshot
+         */
+        HostStatsSnapshot snapshot(final HttpConnectionPool pool) {
+            int connections = 0;
+            for (HostConfiguration hostConfiguration : _hostConfigurations) {
+                connections += pool.getConnectionsInPool(hostConfiguration);
+            }
+            final int leased = _leased.get();
+            return new HostStatsSnapshot(_host, leased, _pending.get(), Math.max(0, connections - leased),
+                    _connectTimer.getSnapshot(), _requestTimer.getSnapshot());
+        }
+
+        /**
+         * Register the given host configuration
+         * @param hostConfiguration host configuration
+         * @return true if the host configuration was not known
+         */
+        boolean addHostConfiguration(final HostConfiguration hostConfiguration) {
+            return !_hostConfigurations.contains(hostConfiguration)
+                    && _hostConfigurations.add(new HostConfiguration(hostConfiguration));
+        }
+
+        /**
+         * Return the host configurations used to lease connections
+         * @return host configurations
+         */
+        Set<HostConfiguration> getHostConfigurations() {
+            return _hostConfigurations;
+        }
+
+        /**
+         * Return the host name
+         * @return host name
+         */
+        String getHost() {
+            return _host;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the statistics of one host
+     */
+    public static final class HostStatsSnapshot {
+
+        /** host name */
+        private final String _host;
+        /** number of leased connections */
+        private final int _leased;
+        /** number of requests waiting for a connection */
+        private final int _pending;
+        /** number of available (idle) connections in the pool */
+        private final int _available;
+        /** connect latency histogram */
+        private final HistogramSnapshot _connectHistogram;
+        /** request latency histogram (until the response headers are received) */
+        private final HistogramSnapshot _requestHistogram;
+
+        /**
+         * Protected constructor
+         * @param host host name
+         * @param leased number of leased connections
+         * @param pending number of requests waiting for a connection
+         * @param available number of available connections
+         * @param connectHistogram connect latency histogram
+         * @param requestHistogram request latency histogram
+         */
+        HostStatsSnapshot(final String host, final int leased, final int pending, final int available,
+                          final HistogramSnapshot connectHistogram, final HistogramSnapshot requestHistogram) {
+            _host = host;
+            _leased = leased;
+            _pending = pending;
+            _available = available;
+            _connectHistogram = connectHistogram;
+            _requestHistogram = requestHistogram;
+        }
+
+        /**
+         * Return the host name
+         * @return host name
+         */
+        public String getHost() {
+            return _host;
+        }
+
+        /**
+         * Return the number of leased connections
+         * @return number of leased connections
+         */
+        public int getLeased() {
+            return _leased;
+        }
+
+        /**
+         * Return the number of requests waiting for a connection
+         * @return number of requests waiting for a connection
+         */
+        public int getPending() {
+            return _pending;
+        }
+
+        /**
+         * Return the number of available (idle) connections
+         * @return number of available connections
+         */
+        public int getAvailable() {
+            return _available;
+        }
+
+        /**
+         * Return the connect latency histogram
+         * @return connect latency histogram
+         */
+        public HistogramSnapshot getConnectHistogram() {
+            return _connectHistogram;
+        }
+
+        /**
+         * Return the request latency histogram (until the response headers are received)
+         * @return request latency histogram
+         */
+        public HistogramSnapshot getRequestHistogram() {
+            return _requestHistogram;
+        }
+
+        /**
+         * Return a string representation
+         * @return string representation
+         */
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(256);
+            sb.append(_host).append(": leased = ").append(_leased)
+                    .append(" available = ").append(_available)
+                    .append(" pending = ").append(_pending)
+                    .append("\n  connect [").append(_connectHistogram.getUnit()).append("]\t");
+            _connectHistogram.toString(sb, false);
+            sb.append("\n  request [").append(_requestHistogram.getUnit()).append("]\t");
+            _requestHistogram.toString(sb, false);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Socket factory measuring the connect latency per host
+     */
+    static class TimedSocketFactory implements ProtocolSocketFactory {
+
+        /** wrapped socket factory */
+        private final ProtocolSocketFactory _factory;
+
+        /**
+         * Protected constructor
+         * @param factory wrapped socket factory
+         */
+        TimedSocketFactory(final ProtocolSocketFactory factory) {
+            _factory = factory;
+        }
+
+        /**
+         * Create a connected socket
+         * @param host host name
+         * @param port port
+         * @param localAddress local address
+         * @param localPort local port
+         * @return connected socket
+         * @throws IOException if any I/O error occurs
+         * @throws UnknownHostException if the host is unknown
+         */
+        @Override
+        public Socket createSocket(final String host, final int port,
+                                   final InetAddress localAddress, final int localPort) throws IOException, UnknownHostException {
+            final long start = System.nanoTime();
+            final Socket socket = _factory.createSocket(host, port, localAddress, localPort);
+            getConnectTimer(host).recordNanoSeconds(start, System.nanoTime());
+            return socket;
+        }
+
+        /**
+         * Create a connected socket
+         * @param host host name
+         * @param port port
+         * @param localAddress local address
+         * @param localPort local port
+         * @param params connection parameters (connect timeout)
+         * @return connected socket
+         * @throws IOException if any I/O error occurs
+         * @throws UnknownHostException if the host is unknown
+         * @throws ConnectTimeoutException if the connection can not be established before the timeout
+         */
+        @Override
+        public Socket createSocket(final String host, final int port,
+                                   final InetAddress localAddress, final int localPort,
+                                   final HttpConnectionParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+            final long start = System.nanoTime();
+            final Socket socket = _factory.createSocket(host, port, localAddress, localPort, params);
+            getConnectTimer(host).recordNanoSeconds(start, System.nanoTime());
+            return socket;
+        }
+
+        /**
+         * Create a connected socket
+         * @param host host name
+         * @param port port
+         * @return connected socket
+         * @throws IOException if any I/O error occurs
+         * @throws UnknownHostException if the host is unknown
+         */
+        @Override
+        public Socket createSocket(final String host, final int port) throws IOException, UnknownHostException {
+            final long start = System.nanoTime();
+            final Socket socket = _factory.createSocket(host, port);
+            getConnectTimer(host).recordNanoSeconds(start, System.nanoTime());
+            return socket;
+        }
+
+        /**
+         * Return true if the given object wraps the same socket factory
+         * @param obj object to compare
+         * @return true if the given object wraps the same socket factory
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            return _factory.equals(((TimedSocketFactory) obj)._factory);
+        }
+
+        /**
+         * Return the hash code of the wrapped socket factory
+         * @return hash code of the wrapped socket factory
+         */
+        @Override
+        public int hashCode() {
+            return _factory.hashCode();
+        }
+    }
+
+    /**
+     * Secure socket factory measuring the connect latency per host (TLS handshake included when done by the factory)
+     */
+    private static final class TimedSecureSocketFactory extends TimedSocketFactory implements SecureProtocolSocketFactory {
+
+        /** wrapped secure socket factory */
+        private final SecureProtocolSocketFactory _secureFactory;
+
+        /**
+         * Protected constructor
+         * @param factory wrapped secure socket factory
+         */
+        TimedSecureSocketFactory(final SecureProtocolSocketFactory factory) {
+            super(factory);
+            _secureFactory = factory;
+        }
+
+        /**
+         * Create a secure socket layered over the given socket (tunnel through proxy)
+         * @param socket connected socket
+         * @param host host name
+         * @param port port
+         * @param autoClose true to close the given socket when the secure socket is closed
+         * @return secure socket
+         * @throws IOException if any I/O error occurs
+         * @throws UnknownHostException if the host is unknown
+         */
+        @Override
+        public Socket createSocket(final Socket socket, final String host, final int port,
+                                   final boolean autoClose) throws IOException, UnknownHostException {
+            return _secureFactory.createSocket(socket, host, port, autoClose);
+        }
+    }
+}
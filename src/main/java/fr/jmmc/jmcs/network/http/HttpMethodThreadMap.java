@@ -35,6 +35,7 @@ import org.slf4j.LoggerFactory;
 
 /**
  * This class holds the mapping thread (name) &lt;=&gt; HTTPMethod
+ * or attaches the HTTPMethod to the asynchronous request handle bound to the current thread
  *
  * @author Laurent BOURGES.
  */
@@ -44,6 +45,8 @@ public final class HttpMethodThreadMap {
     private final static Logger _logger = LoggerFactory.getLogger(HttpMethodThreadMap.class.getName());
     /** singleton instance */
     private static final HttpMethodThreadMap _methodThreadMap = new HttpMethodThreadMap();
+    /** asynchronous request handle bound to the current thread (AsyncHttp) */
+    private static final ThreadLocal<HttpRequestHandle<?>> _currentHandle = new ThreadLocal<HttpRequestHandle<?>>();
 
     /**
      * Return the singleton instance
@@ -66,10 +69,31 @@ public final class HttpMethodThreadMap {
      * @param method method to assicate
      */
     public static void setCurrentThread(final HttpMethodBase method) {
+        final HttpRequestHandle<?> handle = _currentHandle.get();
+        if (handle != null) {
+            // asynchronous request: cancelled by its handle:
+            handle.attach(method);
+            return;
+        }
         // memorize HTTPMethodBase associated to the current thread:
         get().set(Thread.currentThread().getName(), method);
     }
 
+    /**
+     * Attach the HTTP methods executed by the current thread to the given asynchronous request handle
+     * @param handle asynchronous request handle
+     */
+    static void bind(final HttpRequestHandle<?> handle) {
+        _currentHandle.set(handle);
+    }
+
+    /**
+     * Detach the current thread from its asynchronous request handle
+     */
+    static void unbind() {
+        _currentHandle.remove();
+    }
+
     /* members */
     /** mapping thread <name => HTTPMethod (thread-safe) */
     private final Map<String, HttpMethodBase> methodMap = new ConcurrentHashMap<String, HttpMethodBase>(32);
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.network.http;
+
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handle of an asynchronous HTTP request (AsyncHttp): a Future giving the request result
+ * that can be cancelled directly (the running HTTP method is aborted) instead of using
+ * the thread name (Http.abort(threadName)).
+ * 
+ * @param <T> result type
+ * @author Laurent BOURGES.
+ */
+public final class HttpRequestHandle<T> extends FutureTask<T> {
+
+    /** logger */
+    private final static Logger _logger = LoggerFactory.getLogger(HttpRequestHandle.class.getName());
+    // Members
+    /** request URI */
+    private final URI _uri;
+    /** request timeout in milliseconds (0 means no timeout) */
+    private final long _timeout;
+    /** deadline (nanoTime) */
+    private final long _deadline;
+    /** optional completion callback */
+    private final HttpCallback<T> _callback;
+    /** running HTTP method */
+    private volatile HttpMethodBase _method = null;
+    /** flag indicating that the request timed out */
+    private volatile boolean _timedOut = false;
+
+    /**
+     * Protected constructor
+     * @param uri request URI
+     * @param request request performing the HTTP method
+     * @param timeout request timeout in milliseconds (0 means no timeout)
+     * @param callback optional completion callback
+     */
+    HttpRequestHandle(final URI uri, final Callable<T> request, final long timeout, final HttpCallback<T> callback) {
+        super(request);
+        _uri = uri;
+        _timeout = timeout;
+        _deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        _callback = callback;
+    }
+
+    /**
+     * Return the request URI
+     * @return request URI
+     */
+    public URI getURI() {
+        return _uri;
+    }
+
+    /**
+     * Return the request timeout in milliseconds (0 means no timeout)
+     * @return request timeout in milliseconds
+     */
+    public long getTimeout() {
+        return _timeout;
+    }
+
+    /**
+     * Return true if the request timed out
+     * @return true if the request timed out
+     */
+    public boolean isTimedOut() {
+        return _timedOut;
+    }
+
+    /**
+     * Perform the request: the HTTP methods executed by the current thread are attached to this handle
+     */
+    @Override
+    public void run() {
+        HttpMethodThreadMap.bind(this);
+        try {
+            super.run();
+        } finally {
+            HttpMethodThreadMap.unbind();
+            _method = null;
+        }
+    }
+
+    /**
+     * Cancel the request and abort the running HTTP method
+     * @param mayInterruptIfRunning true to interrupt the thread performing the request
+     * @return false if the request could not be cancelled (already completed)
+     */
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        final boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            abort();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Attach the HTTP method executed by the request (see HttpMethodThreadMap.setCurrentThread)
+     * @param method HTTP method
+     */
+    void attach(final HttpMethodBase method) {
+        _method = method;
+        if (isDone()) {
+            // cancelled or timed out meanwhile:
+            abort();
+        }
+    }
+
+    /**
+     * Fail the request if its deadline is reached
+     * @param now current time (nanoTime)
+     * @return true if the request is done (completed, cancelled or timed out)
+     */
+    boolean checkTimeout(final long now) {
+        if (isDone()) {
+            return true;
+        }
+        if (now - _deadline >= 0L) {
+            _timedOut = true;
+            setException(new InterruptedIOException("HTTP request timeout (" + _timeout + " ms): " + _uri));
+            abort();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fail the request that can not be performed
+     * @param th exception
+     */
+    void reject(final Throwable th) {
+        setException(th);
+    }
+
+    /**
+     * Abort the running HTTP method (if any) to release the thread performing the request
+     */
+    private void abort() {
+        final HttpMethodBase method = _method;
+        if (method != null) {
+            _logger.debug("abort: {}", _uri);
+            method.abort();
+        }
+    }
+
+    /**
+     * Invoke the completion callback
+     */
+    @Override
+    protected void done() {
+        if (_callback != null) {
+            try {
+                if (isCancelled()) {
+                    _callback.cancelled();
+                } else {
+                    final T result;
+                    try {
+                        result = get();
+                    } catch (ExecutionException ee) {
+                        _callback.failed(ee.getCause());
+                        return;
+                    }
+                    _callback.completed(result);
+                }
+            } catch (InterruptedException ie) {
+                // should not happen (done):
+                Thread.currentThread().interrupt();
+            } catch (CancellationException ce) {
+                _callback.cancelled();
+            } catch (RuntimeException re) {
+                _logger.error("HTTP callback failure: {}", _uri, re);
+            }
+        }
+    }
+
+    /**
+     * Return a string representation
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        return "HttpRequestHandle[" + _uri + ((isDone()) ? ", done" : "") + ((_timedOut) ? ", timed out" : "") + "]";
+    }
+}
@@ -0,0 +1,586 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.network.http;
+
+import fr.jmmc.jmcs.util.FileUtils;
+import fr.jmmc.jmcs.util.concurrent.ThreadExecutors;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ranged download of large files: the file is split in blocks fetched by several parallel
+ * 'Range' requests written at their position into a preallocated part file (positional FileChannel writes).
+ * 
+ * Completed blocks are checkpointed in a state file next to the part file so an interrupted
+ * download (network failure, application exit) resumes with the missing blocks only if the remote
+ * file did not change (same length and ETag / Last-Modified validator, also checked by If-Range).
+ * 
+ * Small files and servers not supporting byte ranges (no 'Accept-Ranges: bytes' header or unknown length)
+ * are downloaded using a single stream (Http.download).
+ * 
+ * System properties:
+ * - RangedDownload.parts: number of parallel requests (4 by default, limited by the connections per host),
+ * - RangedDownload.minSize: minimum file size in bytes to use ranges (8 Mb by default),
+ * - RangedDownload.blockSize: block size in bytes i.e. checkpoint granularity (4 Mb by default).
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class RangedDownload {
+
+    /** logger */
+    private final static Logger _logger = LoggerFactory.getLogger(RangedDownload.class.getName());
+    /** system property: number of parallel requests */
+    public static final String PROPERTY_PARTS = "RangedDownload.parts";
+    /** system property: minimum file size to use ranges */
+    public static final String PROPERTY_MIN_SIZE = "RangedDownload.minSize";
+    /** system property: block size */
+    public static final String PROPERTY_BLOCK_SIZE = "RangedDownload.blockSize";
+    /** number of parallel requests */
+    public static final int PARTS = Integer.getInteger(PROPERTY_PARTS, 4).intValue();
+    /** minimum file size to use ranges (8 Mb) */
+    public static final long MIN_SIZE = Long.getLong(PROPERTY_MIN_SIZE, 8L * 1024L * 1024L).longValue();
+    /** block size (4 Mb) */
+    public static final long BLOCK_SIZE = Long.getLong(PROPERTY_BLOCK_SIZE, 4L * 1024L * 1024L).longValue();
+    /** number of attempts per block */
+    private static final int MAX_ATTEMPTS = 3;
+    /** transfer buffer size (64K) */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** part file extension */
+    private static final String EXT_PART = ".part";
+    /** state file extension */
+    private static final String EXT_STATE = ".state";
+    /** state key: uri */
+    private static final String KEY_URI = "uri";
+    /** state key: length */
+    private static final String KEY_LENGTH = "length";
+    /** state key: validator (ETag or Last-Modified) */
+    private static final String KEY_VALIDATOR = "validator";
+    /** state key: block size */
+    private static final String KEY_BLOCK_SIZE = "blockSize";
+    /** state key: completed blocks ('1' per completed block) */
+    private static final String KEY_BLOCKS = "blocks";
+
+    /**
+     * Forbidden constructor
+     */
+    private RangedDownload() {
+        super();
+    }
+
+    /**
+     * Save the document located at the given URI in the given file using parallel ranged requests
+     * (resuming any interrupted download) or a single stream if ranges are not supported.
+     * 
+     * @param uri URI to download
+     * @param outputFile file to save into
+     * @param useDedicatedClient use one dedicated HttpClient if true (proxy resolver) or the shared multi-threaded one else
+     * @return true if successful
+     * @throws IOException if any I/O operation fails (HTTP or file); the part file is kept to resume the download
+     */
+    public static boolean download(final URI uri, final File outputFile, final boolean useDedicatedClient) throws IOException {
+        final HttpClient client = Http.getHttpClient(uri, useDedicatedClient);
+
+        final Resource resource = probe(uri, client);
+
+        if (resource == null || resource.getLength() < MIN_SIZE || PARTS <= 1) {
+            _logger.debug("Single stream download: {}", uri);
+            return Http.download(uri, outputFile, useDedicatedClient);
+        }
+
+        final Transfer transfer = new Transfer(uri, client, resource, outputFile);
+        try {
+            return transfer.run();
+        } catch (RemoteChangedException rce) {
+            _logger.info("{}: use a single stream", rce.getMessage());
+            transfer.discard();
+            return Http.download(uri, outputFile, useDedicatedClient);
+        }
+    }
+
+    /**
+     * Send a HEAD request to get the remote file length, validator and range support
+     * @param uri URI to download
+     * @param client http client to use
+     * @return remote resource or null if ranges are not supported
+     * @throws IOException if any I/O operation fails
+     */
+    private static Resource probe(final URI uri, final HttpClient client) throws IOException {
+        final HeadMethod method = new HeadMethod(uri.toString());
+        method.getParams().setSoTimeout(Http.GET_SOCKET_READ_TIMEOUT);
+        try {
+            HttpMethodThreadMap.setCurrentThread(method);
+
+            final int resultCode = Http.executeMethod(client, method);
+            if (resultCode != HttpStatus.SC_OK) {
+                _logger.debug("HEAD {}: status {}", uri, resultCode);
+                return null;
+            }
+            final String acceptRanges = getHeader(method, "Accept-Ranges");
+            final String contentLength = getHeader(method, "Content-Length");
+
+            if (acceptRanges == null || !acceptRanges.toLowerCase().contains("bytes") || contentLength == null) {
+                _logger.debug("HEAD {}: ranges not supported", uri);
+                return null;
+            }
+            final long length;
+            try {
+                length = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException nfe) {
+                return null;
+            }
+            // prefer strong ETag for If-Range:
+            String validator = getHeader(method, "ETag");
+            if (validator == null || validator.startsWith("W/")) {
+                validator = getHeader(method, "Last-Modified");
+            }
+            return new Resource(length, validator);
+
+        } finally {
+            Http.releaseConnection(method);
+        }
+    }
+
+    /**
+     * Return the value of the given response header
+     * @param method http method
+     * @param name header name
+     * @return header value or null if missing
+     */
+    private static String getHeader(final HttpMethodBase method, final String name) {
+        final Header header = method.getResponseHeader(name);
+        return (header != null) ? header.getValue() : null;
+    }
+
+    /**
+     * Exception raised when a range request returns the whole file (remote file changed or ranges ignored)
+     */
+    private static final class RemoteChangedException extends IOException {
+
+        /** default serial UID for Serializable interface */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Public constructor
+         * @param message message
+         */
+        RemoteChangedException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Remote resource properties
+     */
+    private static final class Resource {
+
+        /** content length */
+        private final long _length;
+        /** validator (ETag or Last-Modified) or null */
+        private final String _validator;
+
+        /**
+         * Protected constructor
+         * @param length content length
+         * @param validator validator (ETag or Last-Modified) or null
+         */
+        Resource(final long length, final String validator) {
+            _length = length;
+            _validator = validator;
+        }
+
+        /**
+         * Return the content length
+         * @return content length
+         */
+        long getLength() {
+            return _length;
+        }
+
+        /**
+         * Return the validator
+         * @return validator (ETag or Last-Modified) or null
+         */
+        String getValidator() {
+            return _validator;
+        }
+    }
+
+    /**
+     * Ranged transfer of one file
+     */
+    private static final class Transfer {
+
+        /** URI to download */
+        private final URI _uri;
+        /** http client */
+        private final HttpClient _client;
+        /** remote resource */
+        private final Resource _resource;
+        /** output file */
+        private final File _outputFile;
+        /** part file */
+        private final File _partFile;
+        /** state file */
+        private final File _stateFile;
+        /** completed blocks (guarded by this) */
+        private final boolean[] _done;
+        /** next pending block index */
+        private final AtomicInteger _next = new AtomicInteger();
+        /** running methods (aborted on failure) */
+        private final Set<HttpMethodBase> _methods = Collections.newSetFromMap(new ConcurrentHashMap<HttpMethodBase, Boolean>(8));
+        /** failure flag */
+        private volatile boolean _failed = false;
+        /** first failure (guarded by this) */
+        private IOException _failure = null;
+        /** blocks to fetch */
+        private int[] _pending = null;
+        /** part file channel */
+        private FileChannel _channel = null;
+
+        /**
+         * Protected constructor
+         * @param uri URI to download
+         * @param client http client
+         * @param resource remote resource
+         * @param outputFile output file
+         */
+        Transfer(final URI uri, final HttpClient client, final Resource resource, final File outputFile) {
+            _uri = uri;
+            _client = client;
+            _resource = resource;
+            _outputFile = outputFile;
+            _partFile = new File(outputFile.getPath() + EXT_PART);
+            _stateFile = new File(outputFile.getPath() + EXT_PART + EXT_STATE);
+            _done = new boolean[(int) ((resource.getLength() + BLOCK_SIZE - 1L) / BLOCK_SIZE)];
+        }
+
+        /**
+         * Perform the transfer
+         * @return true if successful
+         * @throws IOException if any I/O operation fails
+         */
+        boolean run() throws IOException {
+            final long length = _resource.getLength();
+
+            restoreState();
+
+            final List<Integer> pending = new ArrayList<Integer>(_done.length);
+            for (int i = 0; i < _done.length; i++) {
+                if (!_done[i]) {
+                    pending.add(Integer.valueOf(i));
+                }
+            }
+            _pending = new int[pending.size()];
+            for (int i = 0; i < _pending.length; i++) {
+                _pending[i] = pending.get(i).intValue();
+            }
+
+            _logger.info("Ranged download {}: {} bytes, {} / {} blocks to fetch", _uri, length, _pending.length, _done.length);
+
+            final RandomAccessFile raf = new RandomAccessFile(_partFile, "rw");
+            try {
+                // preallocate:
+                if (raf.length() != length) {
+                    raf.setLength(length);
+                }
+                _channel = raf.getChannel();
+
+                final int parts = Math.min(PARTS, _pending.length);
+                final List<Future<Void>> futures = new ArrayList<Future<Void>>(parts);
+
+                for (int i = 0; i < parts; i++) {
+                    futures.add(ThreadExecutors.getIOExecutor().submit(new Callable<Void>() {
+                        /**
+                         * Fetch pending blocks (I/O failures are not reported as uncaught exceptions by the pool)
+                         * @return null
+                         */
+                        @Override
+                        public Void call() {
+                            try {
+                                fetchBlocks();
+                            } catch (IOException ioe) {
+                                // stop other requests:
+                                fail(ioe);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+
+                for (Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException ie) {
+                        // cancel: stop all requests:
+                        fail(new InterruptedIOException("Download interrupted: " + _uri));
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException ee) {
+                        fail(new IOException("Download failed: " + _uri, ee.getCause()));
+                    }
+                }
+                if (_failure != null) {
+                    throw _failure;
+                }
+                _channel.force(false);
+
+            } finally {
+                _channel = null;
+                raf.close();
+            }
+
+            // all blocks written:
+            if (_outputFile.exists()) {
+                _outputFile.delete();
+            }
+            if (!_partFile.renameTo(_outputFile)) {
+                throw new IOException("Unable to rename '" + _partFile + "' to '" + _outputFile + "'");
+            }
+            _stateFile.delete();
+
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("File '{}' saved ({} bytes).", _outputFile, _outputFile.length());
+            }
+            return true;
+        }
+
+        /**
+         * Fetch pending blocks until none remains or the transfer failed
+         * @throws IOException if any I/O operation fails
+         */
+        void fetchBlocks() throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+            for (int i; !_failed && (i = _next.getAndIncrement()) < _pending.length;) {
+                final int block = _pending[i];
+                final long start = block * BLOCK_SIZE;
+                final long end = Math.min(start + BLOCK_SIZE, _resource.getLength());
+
+                final long[] pos = new long[]{start};
+                for (int attempt = 1;; attempt++) {
+                    try {
+                        fetchRange(pos, end, buffer);
+                        break;
+                    } catch (IOException ioe) {
+                        if (_failed || attempt >= MAX_ATTEMPTS
+                                || ioe instanceof InterruptedIOException || ioe instanceof RemoteChangedException) {
+                            throw ioe;
+                        }
+                        // flaky network: retry from the last written position:
+                        _logger.info("Ranged download {}: retry block {} at {} ({})", _uri, block, pos[0], ioe.getMessage());
+                    }
+                }
+                checkpoint(block);
+            }
+        }
+
+        /**
+         * Fetch the given range and write it into the part file
+         * @param position first byte position updated while bytes are written
+         * @param end last byte position (exclusive)
+         * @param buffer transfer buffer
+         * @throws IOException if any I/O operation fails
+         */
+        private void fetchRange(final long[] position, final long end, final ByteBuffer buffer) throws IOException {
+            final long start = position[0];
+            final GetMethod method = new GetMethod(_uri.toString());
+            final HttpMethodParams httpMethodParams = method.getParams();
+            httpMethodParams.setSoTimeout(Http.GET_SOCKET_READ_TIMEOUT);
+
+            method.setRequestHeader("Range", "bytes=" + start + '-' + (end - 1L));
+            if (_resource.getValidator() != null) {
+                // ensure the remote file did not change:
+                method.setRequestHeader("If-Range", _resource.getValidator());
+            }
+
+            _methods.add(method);
+            try {
+                if (_failed) {
+                    throw new InterruptedIOException("Download aborted: " + _uri);
+                }
+                final int resultCode = Http.executeMethod(_client, method);
+
+                if (resultCode != HttpStatus.SC_PARTIAL_CONTENT) {
+                    // 200 means the remote file changed (If-Range) or ranges are ignored:
+                    throw new RemoteChangedException("Ranged download " + _uri + " failed: status " + resultCode);
+                }
+
+                final InputStream in = method.getResponseBodyAsStream();
+                final byte[] bytes = buffer.array();
+                long pos = start;
+                try {
+                    int n;
+                    while (pos < end && (n = in.read(bytes, 0, (int) Math.min(bytes.length, end - pos))) > 0) {
+                        buffer.clear();
+                        buffer.limit(n);
+                        while (buffer.hasRemaining()) {
+                            pos += _channel.write(buffer, pos);
+                        }
+                        position[0] = pos;
+                    }
+                } finally {
+                    FileUtils.closeStream(in);
+                }
+                if (pos < end) {
+                    throw new IOException("Ranged download " + _uri + ": premature end of range at " + pos);
+                }
+
+            } finally {
+                _methods.remove(method);
+                method.releaseConnection();
+            }
+        }
+
+        /**
+         * Delete the part and state files
+         */
+        void discard() {
+            _stateFile.delete();
+            _partFile.delete();
+        }
+
+        /**
+         * Stop the transfer: abort running requests
+         * @param cause failure cause (the first one is kept)
+         */
+        synchronized void fail(final IOException cause) {
+            if (_failure == null) {
+                _failure = cause;
+            }
+            _failed = true;
+            for (HttpMethodBase method : _methods) {
+                method.abort();
+            }
+        }
+
+        /**
+         * Mark the given block as completed and save the state file
+         * @param block completed block
+         * @throws IOException if any I/O operation fails
+         */
+        synchronized void checkpoint(final int block) throws IOException {
+            _done[block] = true;
+
+            final char[] blocks = new char[_done.length];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = (_done[i]) ? '1' : '0';
+            }
+            final Properties state = new Properties();
+            state.setProperty(KEY_URI, _uri.toString());
+            state.setProperty(KEY_LENGTH, Long.toString(_resource.getLength()));
+            state.setProperty(KEY_BLOCK_SIZE, Long.toString(BLOCK_SIZE));
+            if (_resource.getValidator() != null) {
+                state.setProperty(KEY_VALIDATOR, _resource.getValidator());
+            }
+            state.setProperty(KEY_BLOCKS, new String(blocks));
+
+            // written blocks must be on disk before the state file:
+            _channel.force(false);
+
+            final File tmpFile = new File(_stateFile.getPath() + ".tmp");
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(tmpFile);
+                state.store(out, null);
+            } finally {
+                FileUtils.closeStream(out);
+            }
+            _stateFile.delete();
+            if (!tmpFile.renameTo(_stateFile)) {
+                throw new IOException("Unable to write the state file: " + _stateFile);
+            }
+        }
+
+        /**
+         * Restore the completed blocks from the state file if it matches the remote resource
+         */
+        private void restoreState() {
+            if (!_stateFile.exists() || !_partFile.exists()) {
+                return;
+            }
+            final Properties state = new Properties();
+            InputStream in = null;
+            try {
+                in = new FileInputStream(_stateFile);
+                state.load(in);
+            } catch (IOException ioe) {
+                _logger.debug("Unable to load {}: ", _stateFile, ioe);
+                return;
+            } finally {
+                FileUtils.closeStream(in);
+            }
+            final String validator = _resource.getValidator();
+            final String blocks = state.getProperty(KEY_BLOCKS, "");
+
+            if (validator == null
+                    || !validator.equals(state.getProperty(KEY_VALIDATOR))
+                    || !_uri.toString().equals(state.getProperty(KEY_URI))
+                    || !Long.toString(_resource.getLength()).equals(state.getProperty(KEY_LENGTH))
+                    || !Long.toString(BLOCK_SIZE).equals(state.getProperty(KEY_BLOCK_SIZE))
+                    || blocks.length() != _done.length) {
+                _logger.info("Ranged download {}: remote file changed, restart", _uri);
+                return;
+            }
+            int count = 0;
+            for (int i = 0; i < _done.length; i++) {
+                if (blocks.charAt(i) == '1') {
+                    _done[i] = true;
+                    count++;
+                }
+            }
+            _logger.info("Ranged download {}: resume ({} / {} blocks done)", _uri, count, _done.length);
+        }
+    }
+}
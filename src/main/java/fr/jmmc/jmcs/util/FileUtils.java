@@ -30,6 +30,7 @@ package fr.jmmc.jmcs.util;
 import fr.jmmc.jmcs.data.MimeType;
 import fr.jmmc.jmcs.gui.component.StatusBar;
 import fr.jmmc.jmcs.network.http.Http;
+import fr.jmmc.jmcs.network.http.RangedDownload;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
@@ -793,13 +794,23 @@ public final class FileUtils {
         if (!localFile.exists()) {
             StatusBar.show("downloading file: " + remoteLocation + " ...");
 
-            if (!Http.download(new URI(remoteLocation), localFile, false)) {
+            // large files are fetched using parallel range requests (resumed if interrupted):
+            if (!RangedDownload.download(new URI(remoteLocation), localFile, false)) {
                 // http status != 200
                 return null;
             }
         } else {
-            // TODO: use HEAD HTTP method to check remote file date / checksum ...
-            _logger.info("Use local copy '{}', skip downloading '{}'", localFile, remoteLocation);
+            // revalidate the local copy (conditional GET: 304 if not modified since the local file date):
+            StatusBar.show("checking file: " + remoteLocation + " ...");
+
+            try {
+                // the local copy is only replaced (atomically) once the new version is completely downloaded:
+                if (!Http.revalidate(new URI(remoteLocation), localFile, false)) {
+                    _logger.info("Use local copy '{}', unable to check '{}'", localFile, remoteLocation);
+                }
+            } catch (IOException ioe) {
+                _logger.info("Use local copy '{}', unable to check '{}': {}", localFile, remoteLocation, ioe.getMessage());
+            }
         }
 
         return localFile;
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PriorityBlockingQueue having a maximum capacity: offer() fails when the queue is full
+ * so the thread pool can create more threads or apply its rejection policy.
+ *
+ * Capacity is managed by a semaphore (one permit per free slot).
+ *
+ * @param <E> element type
+ * @author Laurent BOURGES.
+ */
+public final class BoundedPriorityBlockingQueue<E> extends PriorityBlockingQueue<E> {
+
+    /** default serial UID for Serializable interface */
+    private static final long serialVersionUID = 1L;
+    // Members
+    /** queue capacity */
+    private final int _capacity;
+    /** free slots */
+    private final Semaphore _permits;
+
+    /**
+     * Constructor
+     * @param capacity queue capacity
+     */
+    public BoundedPriorityBlockingQueue(final int capacity) {
+        super(Math.min(capacity, 64));
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        _capacity = capacity;
+        _permits = new Semaphore(capacity);
+    }
+
+    /**
+     * Return the queue capacity
+     * @return queue capacity
+     */
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * Inserts the specified element into this priority queue if the queue is not full
+     * @param e the element to add
+     * @return true if the element was added to this queue, else false
+     */
+    @Override
+    public boolean offer(final E e) {
+        if (!_permits.tryAcquire()) {
+            return false;
+        }
+        return doOffer(e);
+    }
+
+    /**
+     * Inserts the specified element into this priority queue, waiting up to the
+     * specified wait time if necessary for space to become available.
+     * @param e the element to add
+     * @param timeout how long to wait before giving up, in units of unit
+     * @param unit a TimeUnit determining how to interpret the timeout parameter
+     * @return true if the element was added to this queue, else false (timeout or interrupted)
+     */
+    @Override
+    public boolean offer(final E e, final long timeout, final TimeUnit unit) {
+        try {
+            if (!_permits.tryAcquire(timeout, unit)) {
+                return false;
+            }
+        } catch (InterruptedException ie) {
+            // restore the interrupted flag:
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return doOffer(e);
+    }
+
+    /**
+     * Inserts the specified element into this priority queue, waiting if necessary for space to become available.
+     * @param e the element to add
+     */
+    @Override
+    public void put(final E e) {
+        _permits.acquireUninterruptibly();
+        doOffer(e);
+    }
+
+    /**
+     * Inserts the specified element into this priority queue (permit already acquired)
+     * @param e the element to add
+     * @return true
+     */
+    private boolean doOffer(final E e) {
+        boolean done = false;
+        try {
+            done = super.offer(e);
+        } finally {
+            if (!done) {
+                _permits.release();
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Retrieves and removes the head of this queue
+     * @return the head of this queue, or null if this queue is empty
+     */
+    @Override
+    public E poll() {
+        return released(super.poll());
+    }
+
+    /**
+     * Retrieves and removes the head of this queue, waiting up to the specified wait time if necessary for an element to become available.
+     * @param timeout how long to wait before giving up, in units of unit
+     * @param unit a TimeUnit determining how to interpret the timeout parameter
+     * @return the head of this queue, or null if the specified waiting time elapses before an element is available
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Override
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return released(super.poll(timeout, unit));
+    }
+
+    /**
+     * Retrieves and removes the head of this queue, waiting if necessary until an element becomes available.
+     * @return the head of this queue
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Override
+    public E take() throws InterruptedException {
+        return released(super.take());
+    }
+
+    /**
+     * Release one permit if the given element is not null
+     * @param e removed element or null
+     * @return given element
+     */
+    private E released(final E e) {
+        if (e != null) {
+            _permits.release();
+        }
+        return e;
+    }
+
+    /**
+     * Removes a single instance of the specified element from this queue, if it is present.
+     * @param o element to be removed from this queue, if present
+     * @return true if this queue changed as a result of the call
+     */
+    @Override
+    public boolean remove(final Object o) {
+        if (super.remove(o)) {
+            _permits.release();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes all available elements from this queue and adds them to the given collection.
+     * @param c the collection to transfer elements into
+     * @return the number of elements transferred
+     */
+    @Override
+    public int drainTo(final Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes at most the given number of available elements from this queue and adds them to the given collection.
+     * @param c the collection to transfer elements into
+     * @param maxElements the maximum number of elements to transfer
+     * @return the number of elements transferred
+     */
+    @Override
+    public int drainTo(final Collection<? super E> c, final int maxElements) {
+        final int n = super.drainTo(c, maxElements);
+        if (n > 0) {
+            _permits.release(n);
+        }
+        return n;
+    }
+
+    /**
+     * Atomically removes all of the elements from this queue.
+     */
+    @Override
+    public void clear() {
+        drainTo(new ArrayList<E>(size()));
+    }
+
+    /**
+     * Return the number of additional elements that this queue can accept without blocking
+     * @return remaining capacity
+     */
+    @Override
+    public int remainingCapacity() {
+        return _permits.availablePermits();
+    }
+
+    /**
+     * Returns an iterator over the elements in this queue (snapshot); its remove() method releases the slot
+     * @return an iterator over the elements in this queue
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<E> it = super.iterator();
+        return new Iterator<E>() {
+            /** last returned element */
+            private E _last = null;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                _last = it.next();
+                return _last;
+            }
+
+            @Override
+            public void remove() {
+                if (_last == null) {
+                    throw new IllegalStateException();
+                }
+                BoundedPriorityBlockingQueue.this.remove(_last);
+                _last = null;
+            }
+        };
+    }
+}
@@ -28,17 +28,28 @@
 package fr.jmmc.jmcs.util.concurrent;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Custom ThreadPoolExecutor to add extensions
+ * Custom ThreadPoolExecutor to add extensions:
+ * - task priorities (TaskPriority) when the work queue is a PriorityBlockingQueue
+ * - rejection policies (PoolProfile.RejectPolicy)
+ * - queue depth and rejection statistics
  * @author Laurent BOURGES (voparis).
  */
 public final class CustomThreadPoolExecutor extends ThreadPoolExecutor {
@@ -50,6 +61,22 @@ public final class CustomThreadPoolExecutor extends ThreadPoolExecutor {
     // Members
     /** thread pool name */
     private final String _name;
+    /** true if the work queue is a priority queue */
+    private final boolean _priorityQueue;
+    /** task sequence used to keep FIFO order among tasks having the same priority */
+    private final AtomicLong _sequence = new AtomicLong();
+    /** rejection policy */
+    private volatile PoolProfile.RejectPolicy _rejectPolicy = PoolProfile.RejectPolicy.ABORT;
+    /** block timeout (ms) used by the BLOCK rejection policy */
+    private volatile long _blockTimeout = PoolProfile.DEFAULT_BLOCK_TIMEOUT;
+    /** peak queue size */
+    private final AtomicInteger _peakQueueSize = new AtomicInteger();
+    /** number of rejected tasks */
+    private final AtomicLong _rejectedCount = new AtomicLong();
+    /** number of tasks run by the caller thread (CALLER_RUNS) */
+    private final AtomicLong _callerRunsCount = new AtomicLong();
+    /** number of tasks that blocked the caller thread (BLOCK) */
+    private final AtomicLong _blockedCount = new AtomicLong();
 
     /**
      * Single constructor allowed
@@ -80,6 +107,8 @@ public final class CustomThreadPoolExecutor extends ThreadPoolExecutor {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
                 threadFactory);
         _name = pPoolName;
+        _priorityQueue = (workQueue instanceof PriorityBlockingQueue);
+        setRejectedExecutionHandler(new PolicyRejectedExecutionHandler());
     }
 
     /**
@@ -90,6 +119,185 @@ public final class CustomThreadPoolExecutor extends ThreadPoolExecutor {
         return _name;
     }
 
+    /**
+     * Define the rejection policy used when the queue is full and all threads are busy
+     * @param rejectPolicy rejection policy
+     * @param blockTimeout block timeout (ms) used by the BLOCK rejection policy
+     */
+    public void setRejectPolicy(final PoolProfile.RejectPolicy rejectPolicy, final long blockTimeout) {
+        _rejectPolicy = (rejectPolicy != null) ? rejectPolicy : PoolProfile.RejectPolicy.ABORT;
+        _blockTimeout = blockTimeout;
+    }
+
+    /**
+     * Return the rejection policy
+     * @return rejection policy
+     */
+    public PoolProfile.RejectPolicy getRejectPolicy() {
+        return _rejectPolicy;
+    }
+
+    /**
+     * Return true if the work queue is a priority queue
+     * @return true if the work queue is a priority queue
+     */
+    public boolean isPriorityQueue() {
+        return _priorityQueue;
+    }
+
+    /**
+     * Executes the given task sometime in the future (default priority if the work queue is a priority queue)
+     * @param command the task to execute
+     * @throws RejectedExecutionException if the task can not be accepted
+     */
+    @Override
+    public void execute(final Runnable command) {
+        if (_priorityQueue && !(command instanceof PriorityFutureTask)) {
+            super.execute(new PriorityFutureTask<Object>(command, null, TaskPriority.INTERACTIVE, _sequence.incrementAndGet()));
+        } else {
+            super.execute(command);
+        }
+        updatePeakQueueSize();
+    }
+
+    /**
+     * Submits a Runnable task with the given priority for execution and returns a Future representing that task.
+     * @param task the task to submit
+     * @param priority task priority (only used if the work queue is a priority queue)
+     * @return a Future representing pending completion of the task
+     * @throws RejectedExecutionException if the task can not be accepted
+     */
+    public Future<?> submit(final Runnable task, final TaskPriority priority) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        final PriorityFutureTask<Object> ftask = new PriorityFutureTask<Object>(task, null, priority, _sequence.incrementAndGet());
+        execute(ftask);
+        return ftask;
+    }
+
+    /**
+     * Submits a Callable task with the given priority for execution and returns a Future representing that task.
+     * @param <T> result type
+     * @param task the task to submit
+     * @param priority task priority (only used if the work queue is a priority queue)
+     * @return a Future representing pending completion of the task
+     * @throws RejectedExecutionException if the task can not be accepted
+     */
+    public <T> Future<T> submit(final Callable<T> task, final TaskPriority priority) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        final PriorityFutureTask<T> ftask = new PriorityFutureTask<T>(task, priority, _sequence.incrementAndGet());
+        execute(ftask);
+        return ftask;
+    }
+
+    /**
+     * Returns a RunnableFuture for the given runnable and default value (default priority)
+     * @param <T> the type of the given value
+     * @param runnable the runnable task being wrapped
+     * @param value the default value for the returned future
+     * @return a RunnableFuture
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, final T value) {
+        if (_priorityQueue) {
+            return new PriorityFutureTask<T>(runnable, value, TaskPriority.INTERACTIVE, _sequence.incrementAndGet());
+        }
+        return super.newTaskFor(runnable, value);
+    }
+
+    /**
+     * Returns a RunnableFuture for the given callable task (default priority)
+     * @param <T> the type of the callable's result
+     * @param callable the callable task being wrapped
+     * @return a RunnableFuture
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(final Callable<T> callable) {
+        if (_priorityQueue) {
+            return new PriorityFutureTask<T>(callable, TaskPriority.INTERACTIVE, _sequence.incrementAndGet());
+        }
+        return super.newTaskFor(callable);
+    }
+
+    /**
+     * Update the peak queue size
+     */
+    private void updatePeakQueueSize() {
+        final int size = getQueue().size();
+        for (;;) {
+            final int peak = _peakQueueSize.get();
+            if (size <= peak || _peakQueueSize.compareAndSet(peak, size)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return the current number of queued tasks
+     * @return current number of queued tasks
+     */
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    /**
+     * Return the peak number of queued tasks
+     * @return peak number of queued tasks
+     */
+    public int getPeakQueueSize() {
+        return _peakQueueSize.get();
+    }
+
+    /**
+     * Return the number of rejected tasks
+     * @return number of rejected tasks
+     */
+    public long getRejectedCount() {
+        return _rejectedCount.get();
+    }
+
+    /**
+     * Return the number of tasks run by the caller thread (CALLER_RUNS policy)
+     * @return number of tasks run by the caller thread
+     */
+    public long getCallerRunsCount() {
+        return _callerRunsCount.get();
+    }
+
+    /**
+     * Return the number of tasks that blocked the caller thread (BLOCK policy)
+     * @return number of tasks that blocked the caller thread
+     */
+    public long getBlockedCount() {
+        return _blockedCount.get();
+    }
+
+    /**
+     * Reset the peak queue size and rejection counters
+     */
+    public void resetStatistics() {
+        _peakQueueSize.set(getQueue().size());
+        _rejectedCount.set(0L);
+        _callerRunsCount.set(0L);
+        _blockedCount.set(0L);
+    }
+
+    /**
+     * Return the statistics of this thread pool as a string
+     * @return statistics
+     */
+    public String getStatistics() {
+        final int remaining = getQueue().remainingCapacity();
+        return _name + ": threads = " + getActiveCount() + " active / " + getPoolSize() + " (largest = " + getLargestPoolSize()
+                + ", max = " + getMaximumPoolSize() + ") queue = " + getQueueSize() + " (peak = " + getPeakQueueSize()
+                + ", remaining = " + ((remaining == Integer.MAX_VALUE) ? "unbounded" : Integer.toString(remaining))
+                + ") completed = " + getCompletedTaskCount() + " rejected = " + getRejectedCount()
+                + " callerRuns = " + getCallerRunsCount() + " blocked = " + getBlockedCount();
+    }
+
     /**
      * Called before a task is run
      * @param t thread used to run the task
@@ -156,4 +364,101 @@ public final class CustomThreadPoolExecutor extends ThreadPoolExecutor {
     protected void terminated() {
         _logger.debug("{}.terminated.", _name);
     }
+
+    /**
+     * FutureTask having a priority (TaskPriority) and a sequence number (FIFO order among tasks having the same priority)
+     * @param <V> result type
+     */
+    static final class PriorityFutureTask<V> extends FutureTask<V> implements Comparable<PriorityFutureTask<?>> {
+
+        /** task priority */
+        private final TaskPriority _priority;
+        /** task sequence */
+        private final long _seq;
+
+        /**
+         * Constructor for a Callable task
+         * @param callable the callable task
+         * @param priority task priority
+         * @param seq task sequence
+         */
+        PriorityFutureTask(final Callable<V> callable, final TaskPriority priority, final long seq) {
+            super(callable);
+            _priority = (priority != null) ? priority : TaskPriority.INTERACTIVE;
+            _seq = seq;
+        }
+
+        /**
+         * Constructor for a Runnable task
+         * @param runnable the runnable task
+         * @param result the result to return on successful completion
+         * @param priority task priority
+         * @param seq task sequence
+         */
+        PriorityFutureTask(final Runnable runnable, final V result, final TaskPriority priority, final long seq) {
+            super(runnable, result);
+            _priority = (priority != null) ? priority : TaskPriority.INTERACTIVE;
+            _seq = seq;
+        }
+
+        /**
+         * Return the task priority
+         * @return task priority
+         */
+        TaskPriority getPriority() {
+            return _priority;
+        }
+
+        /**
+         * Compare tasks by priority then by sequence
+         * @param other other task
+         * @return comparison result
+         */
+        @Override
+        public int compareTo(final PriorityFutureTask<?> other) {
+            final int cmp = _priority.compareTo(other._priority);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return (_seq < other._seq) ? -1 : ((_seq == other._seq) ? 0 : 1);
+        }
+    }
+
+    /**
+     * RejectedExecutionHandler implementing the rejection policies
+     */
+    private final class PolicyRejectedExecutionHandler implements RejectedExecutionHandler {
+
+        /**
+         * Method invoked when a task can not be accepted
+         * @param r the runnable task requested to be executed
+         * @param executor the executor attempting to execute this task
+         * @throws RejectedExecutionException if the task is rejected
+         */
+        @Override
+        public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+            if (!executor.isShutdown()) {
+                switch (_rejectPolicy) {
+                    case CALLER_RUNS:
+                        _callerRunsCount.incrementAndGet();
+                        r.run();
+                        return;
+                    case BLOCK:
+                        _blockedCount.incrementAndGet();
+                        try {
+                            if (executor.getQueue().offer(r, _blockTimeout, TimeUnit.MILLISECONDS)) {
+                                return;
+                            }
+                        } catch (InterruptedException ie) {
+                            _logger.debug("{}.rejectedExecution : interrupted: {}", _name, ie);
+                            Thread.currentThread().interrupt();
+                        }
+                        break;
+                    default:
+                }
+            }
+            _rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException(_name + ": task rejected: " + r);
+        }
+    }
 }
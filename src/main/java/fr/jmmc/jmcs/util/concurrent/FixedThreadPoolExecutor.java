@@ -27,8 +27,11 @@
  ******************************************************************************/
 package fr.jmmc.jmcs.util.concurrent;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -54,6 +57,8 @@ public class FixedThreadPoolExecutor extends ThreadPoolExecutor {
     private final AtomicInteger _runningWorkerCounter = new AtomicInteger(0);
     /** waiters */
     private final ConcurrentLinkedQueue<Thread> _waiters = new ConcurrentLinkedQueue<Thread>();
+    /** flag to create timed tasks (submit, start and end times) */
+    private volatile boolean _timing = false;
 
     /**
      * Create the Fixed Thread pool executor
@@ -66,6 +71,53 @@ public class FixedThreadPoolExecutor extends ThreadPoolExecutor {
         prestartAllCoreThreads();
     }
 
+    /**
+     * Return true if submitted tasks are timed (TimedFutureTask)
+     * @return true if submitted tasks are timed
+     */
+    public boolean isTiming() {
+        return _timing;
+    }
+
+    /**
+     * Define the flag to create timed tasks (TimedFutureTask) on submit
+     * @param timing true to create timed tasks
+     */
+    public void setTiming(final boolean timing) {
+        _timing = timing;
+    }
+
+    /**
+     * Returns a RunnableFuture for the given runnable and default value (TimedFutureTask if timing is enabled)
+     *
+     * @param <T> the type of the given value
+     * @param runnable the runnable task being wrapped
+     * @param value the default value for the returned future
+     * @return a RunnableFuture
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, final T value) {
+        if (_timing) {
+            return new TimedFutureTask<T>(runnable, value);
+        }
+        return super.newTaskFor(runnable, value);
+    }
+
+    /**
+     * Returns a RunnableFuture for the given callable task (TimedFutureTask if timing is enabled)
+     *
+     * @param <T> the type of the callable's result
+     * @param callable the callable task being wrapped
+     * @return a RunnableFuture
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(final Callable<T> callable) {
+        if (_timing) {
+            return new TimedFutureTask<T>(callable);
+        }
+        return super.newTaskFor(callable);
+    }
+
     /**
      * Method invoked prior to executing the given Runnable in the given thread:
      * - increments the running worker counter
@@ -176,4 +228,82 @@ public class FixedThreadPoolExecutor extends ThreadPoolExecutor {
             }
         }
     }
+
+    /**
+     * FutureTask keeping its submit, start and end times (System.nanoTime)
+     * @param <T> result type
+     */
+    static final class TimedFutureTask<T> extends FutureTask<T> {
+
+        /** submit time (ns) */
+        private final long _submitTime;
+        /** start time (ns) */
+        private volatile long _startTime = 0L;
+        /** end time (ns) */
+        private volatile long _endTime = 0L;
+
+        /**
+         * Creates a TimedFutureTask for the given callable
+         * @param callable the callable task
+         */
+        TimedFutureTask(final Callable<T> callable) {
+            super(callable);
+            _submitTime = System.nanoTime();
+        }
+
+        /**
+         * Creates a TimedFutureTask for the given runnable
+         * @param runnable the runnable task
+         * @param result the result to return on successful completion
+         */
+        TimedFutureTask(final Runnable runnable, final T result) {
+            super(runnable, result);
+            _submitTime = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                // cancelled or already run:
+                return;
+            }
+            _startTime = System.nanoTime();
+            super.run();
+        }
+
+        @Override
+        protected void set(final T v) {
+            // set end time before completion (visible when joined):
+            _endTime = System.nanoTime();
+            super.set(v);
+        }
+
+        @Override
+        protected void setException(final Throwable th) {
+            // set end time before completion (visible when joined):
+            _endTime = System.nanoTime();
+            super.setException(th);
+        }
+
+        /**
+         * @return true if start and end times are defined
+         */
+        boolean isTimed() {
+            return _endTime != 0L;
+        }
+
+        /**
+         * @return queue wait time (ns) = start - submit
+         */
+        long getQueueWaitTime() {
+            return _startTime - _submitTime;
+        }
+
+        /**
+         * @return run time (ns) = end - start
+         */
+        long getRunTime() {
+            return _endTime - _startTime;
+        }
+    }
 }
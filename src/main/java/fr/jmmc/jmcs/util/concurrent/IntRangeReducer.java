@@ -0,0 +1,60 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.concurrent;
+
+/**
+ * This interface defines a parallel reduction operating on an integer range [from; to[:
+ * each sub range is reduced to a partial result and partial results are then combined
+ * in the range order (left to right).
+ *
+ * Note: implementations must be thread safe as sub ranges are processed concurrently by several threads.
+ *
+ * @param <T> result type
+ * @see ParallelJobExecutor#parallelReduce(String, int, int, int, IntRangeReducer)
+ * @author Laurent BOURGES.
+ */
+public interface IntRangeReducer<T> {
+
+    /**
+     * Reduce the given sub range [from; to[ to a partial result
+     *
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return partial result
+     */
+    public T reduce(final int from, final int to);
+
+    /**
+     * Combine two partial results
+     *
+     * @param left partial result of the lower sub range
+     * @param right partial result of the upper sub range
+     * @return combined result
+     */
+    public T combine(final T left, final T right);
+}
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.concurrent;
+
+import fr.jmmc.jmcs.util.NumberUtils;
+import fr.jmmc.jmcs.util.ToStringable;
+import fr.jmmc.jmcs.util.timer.StatLong;
+
+/**
+ * This class gathers statistics on parallel jobs sharing the same job name:
+ * fork count, task count, queue wait time, run time per task, join wait time,
+ * imbalance ratio (max / average run time per fork) and cancellations.
+ *
+ * Times are given in milliseconds. This class is thread safe.
+ *
+ * @see ParallelJobExecutor#setMetricsEnabled(boolean)
+ * @author Laurent BOURGES.
+ */
+public final class JobMetrics implements ToStringable {
+
+    /** conversion ratio between nanoseconds and milliseconds */
+    private final static double CONVERT_NS_INTO_MS = 1e-6d;
+    // Members
+    /** job name */
+    private final String _jobName;
+    /** fork count */
+    private long _forkCount = 0L;
+    /** task count */
+    private long _taskCount = 0L;
+    /** cancelled fork count */
+    private long _cancelCount = 0L;
+    /** queue wait time per task (ms) */
+    private final StatLong _queueWait = new StatLong();
+    /** run time per task (ms) */
+    private final StatLong _runTime = new StatLong();
+    /** join wait time per fork (ms) */
+    private final StatLong _joinWait = new StatLong();
+    /** imbalance ratio per fork (max / average run time) */
+    private final StatLong _imbalance = new StatLong();
+
+    /**
+     * Protected constructor
+     * @param jobName job name
+     */
+    JobMetrics(final String jobName) {
+        _jobName = jobName;
+    }
+
+    /**
+     * Record one fork / join cycle
+     *
+     * @param taskCount number of tasks
+     * @param queueWaitNanos queue wait times (ns) or null if undefined
+     * @param runNanos run times (ns) per task or per worker thread
+     * @param count number of defined values in queueWaitNanos and runNanos
+     * @param joinWaitNanos join wait time (ns)
+     * @param cancelled true if the fork was cancelled (interrupted or failed)
+     */
+    synchronized void record(final int taskCount, final long[] queueWaitNanos, final long[] runNanos, final int count,
+                             final long joinWaitNanos, final boolean cancelled) {
+        _forkCount++;
+        _taskCount += taskCount;
+        if (cancelled) {
+            _cancelCount++;
+        }
+        _joinWait.add(CONVERT_NS_INTO_MS * joinWaitNanos);
+
+        long max = 0L, sum = 0L;
+        for (int i = 0; i < count; i++) {
+            if (queueWaitNanos != null) {
+                _queueWait.add(CONVERT_NS_INTO_MS * queueWaitNanos[i]);
+            }
+            final long run = runNanos[i];
+            _runTime.add(CONVERT_NS_INTO_MS * run);
+            sum += run;
+            if (run > max) {
+                max = run;
+            }
+        }
+        if (count > 1 && sum > 0L) {
+            _imbalance.add(((double) max * count) / sum);
+        }
+    }
+
+    /**
+     * Return the job name
+     * @return job name
+     */
+    public String getJobName() {
+        return _jobName;
+    }
+
+    /**
+     * Return the fork count
+     * @return fork count
+     */
+    public synchronized long getForkCount() {
+        return _forkCount;
+    }
+
+    /**
+     * Return the task count
+     * @return task count
+     */
+    public synchronized long getTaskCount() {
+        return _taskCount;
+    }
+
+    /**
+     * Return the cancelled fork count
+     * @return cancelled fork count
+     */
+    public synchronized long getCancelCount() {
+        return _cancelCount;
+    }
+
+    /**
+     * Return a copy of the queue wait time statistics (ms)
+     * @return queue wait time statistics (ms)
+     */
+    public synchronized StatLong getQueueWait() {
+        return copy(_queueWait);
+    }
+
+    /**
+     * Return a copy of the run time statistics per task (ms)
+     * @return run time statistics per task (ms)
+     */
+    public synchronized StatLong getRunTime() {
+        return copy(_runTime);
+    }
+
+    /**
+     * Return a copy of the join wait time statistics (ms)
+     * @return join wait time statistics (ms)
+     */
+    public synchronized StatLong getJoinWait() {
+        return copy(_joinWait);
+    }
+
+    /**
+     * Return a copy of the imbalance ratio statistics (max / average run time per fork)
+     * @return imbalance ratio statistics
+     */
+    public synchronized StatLong getImbalance() {
+        return copy(_imbalance);
+    }
+
+    /**
+     * Return a copy of the given statistics
+     * @param stat statistics to copy
+     * @return new statistics
+     */
+    private static StatLong copy(final StatLong stat) {
+        final StatLong copy = new StatLong();
+        if (stat.getCounter() != 0) {
+            copy.add(stat);
+        }
+        return copy;
+    }
+
+    /**
+     * Return a string representation
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(256);
+        toString(sb, true);
+        return sb.toString();
+    }
+
+    /**
+     * toString() implementation using string builder
+     *
+     * @param sb string builder to append to
+     * @param full true to get complete information; false to get main information (shorter)
+     */
+    @Override
+    public synchronized void toString(final StringBuilder sb, final boolean full) {
+        sb.append("Job [").append(_jobName).append("] forks = ").append(_forkCount);
+        sb.append(", tasks = ").append(_taskCount).append(", cancelled = ").append(_cancelCount);
+        if (_forkCount != 0L) {
+            sb.append(", tasks per fork = ").append(NumberUtils.trimTo5Digits(((double) _taskCount) / _forkCount));
+        }
+        if (_queueWait.getCounter() != 0) {
+            sb.append("\n  queue wait (ms) : ");
+            _queueWait.toString(sb, full);
+        }
+        if (_runTime.getCounter() != 0) {
+            sb.append("\n  run time (ms)   : ");
+            _runTime.toString(sb, full);
+        }
+        if (_joinWait.getCounter() != 0) {
+            sb.append("\n  join wait (ms)  : ");
+            _joinWait.toString(sb, full);
+        }
+        if (_imbalance.getCounter() != 0) {
+            sb.append("\n  imbalance       : ");
+            _imbalance.toString(sb, full);
+        }
+    }
+}
@@ -32,19 +32,30 @@ import fr.jmmc.jmcs.util.JVMUtils;
 import fr.jmmc.jmcs.logging.LoggingService;
 import fr.jmmc.jmcs.util.MCSExceptionHandler;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This class gathers one thread pool dedicated to execute parallel computation jobs
+ * This class gathers thread pools dedicated to execute parallel computation jobs:
+ * - a fixed thread pool to fork and join caller-built jobs (Runnable / Callable)
+ * - a fork/join pool (work-stealing) to process integer ranges with adaptive splitting (parallelFor / parallelReduce)
  *
  * @author Laurent BOURGES.
  */
@@ -58,6 +69,10 @@ public final class ParallelJobExecutor {
     private static volatile ParallelJobExecutor _instance = null;
     /** The ThreadLocal storing thread indexes */
     private static final ThreadLocal<Integer> _localIndex = new ThreadLocal<Integer>();
+    /** maximum number of queued tasks (surplus) before the range splitting stops (adaptive splitting) */
+    private static final int SURPLUS_QUEUED_TASKS = 3;
+    /** system property to enable job metrics at startup */
+    public static final String PROPERTY_METRICS = "ParallelJobExecutor.metrics";
     /* members */
     /** number of available processors */
     private final int _cpuCount;
@@ -65,6 +80,12 @@ public final class ParallelJobExecutor {
     private int _maxParallelJob;
     /** thread pool dedicated to this computation */
     private final FixedThreadPoolExecutor _parallelExecutor;
+    /** fork/join pool (work-stealing) dedicated to range jobs */
+    private final ForkJoinPool _forkJoinPool;
+    /** job metrics flag */
+    private volatile boolean _metricsEnabled = false;
+    /** job metrics keyed by job name */
+    private final ConcurrentHashMap<String, JobMetrics> _metrics = new ConcurrentHashMap<String, JobMetrics>(16);
 
     /**
      * Return the singleton instance
@@ -84,6 +105,7 @@ public final class ParallelJobExecutor {
     public static synchronized void shutdown() {
         if (_instance != null) {
             _instance.getParallelExecutor().shutdownNow();
+            _instance._forkJoinPool.shutdownNow();
             _instance = null;
             _logger.info("ParallelJobExecutor stopped.");
         }
@@ -104,8 +126,13 @@ public final class ParallelJobExecutor {
         // create threads now:
         _parallelExecutor.prestartAllCoreThreads();
 
+        // fork/join pool (LIFO mode for recursive decomposition):
+        _forkJoinPool = new ForkJoinPool(threadCount, new JobForkWorkerThreadFactory(), null, false);
+
         _logger.info("ParallelJobExecutor ready with {} threads", _parallelExecutor.getMaximumPoolSize());
 
+        setMetricsEnabled(Boolean.getBoolean(PROPERTY_METRICS));
+
         if (DEBUG_JOBS) {
             LoggingService.setLoggerLevel(_logger, Level.DEBUG);
         }
@@ -147,6 +174,111 @@ public final class ParallelJobExecutor {
         return _cpuCount;
     }
 
+    /**
+     * Return true if job metrics are recorded
+     *
+     * @return true if job metrics are recorded
+     */
+    public boolean isMetricsEnabled() {
+        return _metricsEnabled;
+    }
+
+    /**
+     * Define the flag to record job metrics (disabled by default).
+     * Note: metrics can also be enabled at startup using the system property 'ParallelJobExecutor.metrics=true'
+     *
+     * @param enabled true to record job metrics
+     */
+    public void setMetricsEnabled(final boolean enabled) {
+        _metricsEnabled = enabled;
+        _parallelExecutor.setTiming(enabled);
+    }
+
+    /**
+     * Return the metrics for the given job name
+     *
+     * @param jobName job name
+     * @return job metrics or null if undefined
+     */
+    public JobMetrics getJobMetrics(final String jobName) {
+        return _metrics.get(jobName);
+    }
+
+    /**
+     * Return a copy of all job metrics sorted by job name
+     *
+     * @return job metrics keyed by job name
+     */
+    public Map<String, JobMetrics> getJobMetrics() {
+        return new TreeMap<String, JobMetrics>(_metrics);
+    }
+
+    /**
+     * Reset all job metrics
+     */
+    public void resetMetrics() {
+        _metrics.clear();
+    }
+
+    /**
+     * Return a string representation for all job metrics
+     *
+     * @return string representation for all job metrics
+     */
+    public String dumpMetrics() {
+        final StringBuilder sb = new StringBuilder(1024);
+        for (JobMetrics metrics : getJobMetrics().values()) {
+            sb.append('\n');
+            metrics.toString(sb, true);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the metrics for the given job name (lazy)
+     *
+     * @param jobName job name
+     * @return job metrics
+     */
+    private JobMetrics getOrCreateJobMetrics(final String jobName) {
+        JobMetrics metrics = _metrics.get(jobName);
+        if (metrics == null) {
+            metrics = new JobMetrics(jobName);
+            final JobMetrics old = _metrics.putIfAbsent(jobName, metrics);
+            if (old != null) {
+                metrics = old;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Record metrics of the given futures (timed tasks only)
+     *
+     * @param jobName job name
+     * @param futures Future objects joined
+     * @param joinWaitNanos join wait time (ns)
+     * @param cancelled true if the fork was cancelled (interrupted or failed)
+     */
+    private void recordMetrics(final String jobName, final Future<?>[] futures, final long joinWaitNanos, final boolean cancelled) {
+        final int len = futures.length;
+        final long[] queueWaits = new long[len];
+        final long[] runTimes = new long[len];
+        int n = 0;
+
+        for (int i = 0; i < len; i++) {
+            if (futures[i] instanceof FixedThreadPoolExecutor.TimedFutureTask) {
+                final FixedThreadPoolExecutor.TimedFutureTask<?> task = (FixedThreadPoolExecutor.TimedFutureTask<?>) futures[i];
+                if (task.isTimed()) {
+                    queueWaits[n] = task.getQueueWaitTime();
+                    runTimes[n] = task.getRunTime();
+                    n++;
+                }
+            }
+        }
+        getOrCreateJobMetrics(jobName).record(len, queueWaits, runTimes, n, joinWaitNanos, cancelled);
+    }
+
     /**
      * Return the thread pool dedicated to this computation
      *
@@ -161,7 +293,8 @@ public final class ParallelJobExecutor {
      * @return true if the current thread is a Job worker thread  
      */
     public boolean isWorkerThread() {
-        return Thread.currentThread() instanceof JobWorkerThread;
+        final Thread currentTh = Thread.currentThread();
+        return (currentTh instanceof JobWorkerThread) || (currentTh instanceof JobForkWorkerThread);
     }
 
     /**
@@ -406,6 +539,9 @@ public final class ParallelJobExecutor {
      * Waits for all threads to complete computation.
      * If the current thread is interrupted (canceled), then futures are canceled too.
      *
+     * Nested jobs: if the current thread is a job worker thread, it runs itself the given jobs
+     * still queued (helping join) instead of blocking a pool thread so nested forks are safe and still parallel.
+     *
      * @param jobName job name used when throwing an exception
      * @param futures Future objects to wait for
      * @return results as List&lt;Object&gt; or null if interrupted
@@ -430,10 +566,20 @@ public final class ParallelJobExecutor {
 
         final List<Object> results = new ArrayList<Object>(len);
 
+        final Thread currentTh = Thread.currentThread(); // local var
+        final boolean isJobWorker = (currentTh instanceof JobWorkerThread);
+        final boolean isForkWorker = (currentTh instanceof JobForkWorkerThread);
+        final long joinStart = (_metricsEnabled) ? System.nanoTime() : 0L;
+
         int done = 0;
         boolean doCancel = false;
         Future<?> future;
         try {
+            if (isJobWorker) {
+                // nested job: run queued jobs using the current thread:
+                helpJoin(futures);
+            }
+
             // Wait on running job:
             for (int i = 0; i < len; i++) {
                 future = futures[i];
@@ -442,6 +588,11 @@ public final class ParallelJobExecutor {
                     _logger.debug("wait for job: {}", future);
                 }
 
+                if (isForkWorker && !future.isDone()) {
+                    // let the fork/join pool compensate the blocked worker thread:
+                    ForkJoinPool.managedBlock(new FutureBlocker(future));
+                }
+
                 results.add(future.get());
                 done++;
             }
@@ -478,10 +629,16 @@ public final class ParallelJobExecutor {
                 }
 
                 // Wait for threads to finish their task (cancellation):
-                _parallelExecutor.waitForTaskFinished();
+                // note: a job worker thread can not wait for the pool as it is counted as running:
+                if (!isJobWorker) {
+                    _parallelExecutor.waitForTaskFinished();
+                }
 
                 // Anyway: interrupt this thread again anyway:
-                Thread.currentThread().interrupt();
+                currentTh.interrupt();
+            }
+            if (joinStart != 0L) {
+                recordMetrics(jobName, futures, System.nanoTime() - joinStart, doCancel);
             }
         }
 
@@ -492,6 +649,407 @@ public final class ParallelJobExecutor {
         return results;
     }
 
+    /**
+     * Helping join: run the given jobs still queued using the current thread (in reverse order
+     * as pool threads take queued jobs in submission order)
+     *
+     * @param futures Future objects to help
+     */
+    private void helpJoin(final Future<?>[] futures) {
+        Future<?> future;
+        for (int i = futures.length - 1; i >= 0; i--) {
+            future = futures[i];
+
+            // remove the job from the queue to ensure it is only run by the current thread:
+            if ((future instanceof Runnable) && !future.isDone() && _parallelExecutor.remove((Runnable) future)) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("help job: {}", future);
+                }
+                ((Runnable) future).run();
+            }
+        }
+    }
+
+    /**
+     * Process the given integer range [from; to[ in parallel and wait for its completion.
+     * The range is split recursively into sub ranges (at least grain indexes) processed by the
+     * fork/join pool (work-stealing) so idle threads steal remaining sub ranges (load balancing).
+     * If the current thread is interrupted (canceled), then remaining sub ranges are canceled too.
+     *
+     * @param jobName job name used when throwing an exception
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param grain minimum number of indexes processed by a sub range (1 or more)
+     * @param body range body to process sub ranges
+     *
+     * @throws InterruptedJobException if the current thread is interrupted (canceled)
+     * @throws RuntimeException if any exception occurred during the computation
+     */
+    public void parallelFor(final String jobName, final int from, final int to, final int grain,
+                            final IntRangeBody body) throws InterruptedJobException, RuntimeException {
+        if (body == null) {
+            // illegal state ?
+            return;
+        }
+        parallelReduce(jobName, from, to, grain, new IntRangeReducer<Object>() {
+            @Override
+            public Object reduce(final int from, final int to) {
+                body.run(from, to);
+                return null;
+            }
+
+            @Override
+            public Object combine(final Object left, final Object right) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Reduce the given integer range [from; to[ in parallel and wait for its completion.
+     * The range is split recursively into sub ranges (at least grain indexes) processed by the
+     * fork/join pool (work-stealing); partial results are combined in the range order (left to right).
+     * If the current thread is interrupted (canceled), then remaining sub ranges are canceled too.
+     *
+     * @param <T> result type
+     * @param jobName job name used when throwing an exception
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param grain minimum number of indexes processed by a sub range (1 or more)
+     * @param reducer range reducer to process sub ranges and combine partial results
+     * @return combined result or null if the range is empty
+     *
+     * @throws InterruptedJobException if the current thread is interrupted (canceled)
+     * @throws RuntimeException if any exception occurred during the computation
+     */
+    public <T> T parallelReduce(final String jobName, final int from, final int to, final int grain,
+                                final IntRangeReducer<T> reducer) throws InterruptedJobException, RuntimeException {
+        if (reducer == null || from >= to) {
+            // illegal state ?
+            return null;
+        }
+
+        final Thread currentTh = Thread.currentThread(); // local var
+
+        // fast interrupt :
+        if (currentTh.isInterrupted()) {
+            throw new InterruptedJobException(jobName + ": interrupted");
+        }
+
+        final int minSize = (grain > 1) ? grain : 1;
+
+        final T result;
+
+        if (isEnabled() && (to - from) > minSize) {
+            final long joinStart = (_metricsEnabled) ? System.nanoTime() : 0L;
+            final RangeJob<T> job = new RangeJob<T>(reducer, minSize, joinStart != 0L);
+            final RangeTask<T> root = new RangeTask<T>(job, from, to);
+
+            if (currentTh instanceof JobForkWorkerThread) {
+                // nested range job: the current worker processes and joins sub ranges (work-stealing):
+                result = root.invoke();
+
+                if (joinStart != 0L) {
+                    job.recordMetrics(getOrCreateJobMetrics(jobName), System.nanoTime() - joinStart);
+                }
+
+                if (job.getFailure() != null) {
+                    throw new RuntimeException(jobName + ": failed:", job.getFailure());
+                }
+                if (job.isCancelled()) {
+                    // cancelled by an interrupted sub range:
+                    currentTh.interrupt();
+                    throw new InterruptedJobException(jobName + ": interrupted");
+                }
+                return result;
+            }
+
+            // execute sub ranges in parallel:
+            _forkJoinPool.execute(root);
+
+            _logger.debug("wait for range job to terminate ...");
+
+            try {
+                result = root.get();
+            } catch (ExecutionException ee) {
+                throw new RuntimeException(jobName + ": failed:", ee.getCause());
+            } catch (InterruptedException ie) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("parallelReduce: waiting thread cancelled:", ie);
+                }
+                _logger.debug("cancel range job:");
+
+                // Cancel and interrupt any running sub range:
+                job.cancel();
+
+                // Wait for threads to finish their task (cancellation):
+                root.quietlyJoin();
+
+                // Anyway: interrupt this thread again anyway:
+                currentTh.interrupt();
+
+                throw new InterruptedJobException(jobName + ": interrupted", ie);
+            } finally {
+                if (joinStart != 0L) {
+                    job.recordMetrics(getOrCreateJobMetrics(jobName), System.nanoTime() - joinStart);
+                }
+            }
+
+            if (job.getFailure() != null) {
+                throw new RuntimeException(jobName + ": failed:", job.getFailure());
+            }
+            if (job.isCancelled()) {
+                // cancelled by an interrupted sub range:
+                throw new InterruptedJobException(jobName + ": interrupted");
+            }
+        } else {
+            try {
+                // execute the range using the current thread:
+                result = reducer.reduce(from, to);
+            } catch (Exception e) {
+                throw new RuntimeException(jobName + ": failed:", e);
+            }
+        }
+
+        // fast interrupt :
+        if (currentTh.isInterrupted()) {
+            throw new InterruptedJobException(jobName + ": interrupted");
+        }
+
+        return result;
+    }
+
+    /**
+     * Shared state of one range job (reducer, cancellation and failure)
+     * @param <T> result type
+     */
+    private static final class RangeJob<T> {
+
+        /** range reducer */
+        final IntRangeReducer<T> _reducer;
+        /** minimum number of indexes processed by a sub range */
+        final int _grain;
+        /** cancellation flag */
+        private volatile boolean _cancelled = false;
+        /** first failure */
+        private volatile Throwable _failure = null;
+        /** threads processing sub ranges (to interrupt them if cancelled) */
+        private final Set<Thread> _runningThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        /** busy time (ns) per thread or null if metrics are disabled */
+        private final Map<Thread, AtomicLong> _busyTimes;
+        /** sub range count */
+        private final AtomicInteger _taskCount = new AtomicInteger(0);
+
+        /**
+         * Constructor
+         * @param reducer range reducer
+         * @param grain minimum number of indexes processed by a sub range
+         * @param metrics true to record busy time per thread
+         */
+        RangeJob(final IntRangeReducer<T> reducer, final int grain, final boolean metrics) {
+            _reducer = reducer;
+            _grain = grain;
+            _busyTimes = (metrics) ? new ConcurrentHashMap<Thread, AtomicLong>(8) : null;
+        }
+
+        /**
+         * Record metrics of this job: sub range count, busy time per thread
+         * @param metrics job metrics to update
+         * @param joinWaitNanos join wait time (ns)
+         */
+        void recordMetrics(final JobMetrics metrics, final long joinWaitNanos) {
+            final long[] busyTimes = new long[_busyTimes.size()];
+            int n = 0;
+            for (AtomicLong busyTime : _busyTimes.values()) {
+                if (n < busyTimes.length) {
+                    busyTimes[n++] = busyTime.get();
+                }
+            }
+            metrics.record(_taskCount.get(), null, busyTimes, n, joinWaitNanos, _cancelled);
+        }
+
+        /**
+         * @return true if this job is cancelled (interrupted or failed)
+         */
+        boolean isCancelled() {
+            return _cancelled;
+        }
+
+        /**
+         * @return first failure or null
+         */
+        Throwable getFailure() {
+            return _failure;
+        }
+
+        /**
+         * Cancel this job and interrupt threads processing sub ranges
+         */
+        synchronized void cancel() {
+            _cancelled = true;
+            for (Thread th : _runningThreads) {
+                th.interrupt();
+            }
+        }
+
+        /**
+         * Reduce the given sub range using the current thread
+         * @param from first index (inclusive)
+         * @param to last index (exclusive)
+         * @return partial result or null if cancelled or failed
+         */
+        T reduce(final int from, final int to) {
+            final Thread currentTh = Thread.currentThread();
+            // register the thread before checking the cancel flag so that cancel() can not miss it:
+            _runningThreads.add(currentTh);
+            long start = 0L;
+            try {
+                if (_cancelled) {
+                    return null;
+                }
+                if (_busyTimes != null) {
+                    start = System.nanoTime();
+                }
+                final T result = _reducer.reduce(from, to);
+                if (currentTh.isInterrupted()) {
+                    // interrupted by an enclosing job:
+                    cancel();
+                }
+                return result;
+            } catch (Throwable th) {
+                if (_failure == null) {
+                    _failure = th;
+                }
+                cancel();
+                return null;
+            } finally {
+                if (start != 0L) {
+                    addBusyTime(currentTh, System.nanoTime() - start);
+                }
+                synchronized (this) {
+                    _runningThreads.remove(currentTh);
+                    if (_cancelled) {
+                        // clear interrupt flag to avoid interrupting the next task run by this worker:
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add the busy time of the given thread
+         * @param thread thread
+         * @param nanos busy time (ns)
+         */
+        private void addBusyTime(final Thread thread, final long nanos) {
+            _taskCount.incrementAndGet();
+            AtomicLong busyTime = _busyTimes.get(thread);
+            if (busyTime == null) {
+                // only the given thread creates its entry:
+                busyTime = new AtomicLong(0L);
+                _busyTimes.put(thread, busyTime);
+            }
+            busyTime.addAndGet(nanos);
+        }
+
+        /**
+         * Combine two partial results
+         * @param left partial result of the lower sub range
+         * @param right partial result of the upper sub range
+         * @return combined result or null if cancelled
+         */
+        T combine(final T left, final T right) {
+            if (_cancelled) {
+                return null;
+            }
+            return _reducer.combine(left, right);
+        }
+    }
+
+    /**
+     * Fork/join task processing a sub range with adaptive splitting:
+     * the upper half is forked as long as the sub range is larger than the grain and
+     * only few tasks are queued (idle threads need work); else the sub range is processed
+     * by grain chunks checking again if other threads need work.
+     * @param <T> result type
+     */
+    private static final class RangeTask<T> extends RecursiveTask<T> {
+
+        /** serial UID for Serializable interface */
+        private static final long serialVersionUID = 1L;
+        /** shared job state */
+        private final RangeJob<T> _job;
+        /** first index (inclusive) */
+        private final int _from;
+        /** last index (exclusive) */
+        private final int _to;
+        /** next forked task (linked list) */
+        private final RangeTask<T> _next;
+
+        /**
+         * Constructor for the root task
+         * @param job shared job state
+         * @param from first index (inclusive)
+         * @param to last index (exclusive)
+         */
+        RangeTask(final RangeJob<T> job, final int from, final int to) {
+            this(job, from, to, null);
+        }
+
+        /**
+         * Constructor
+         * @param job shared job state
+         * @param from first index (inclusive)
+         * @param to last index (exclusive)
+         * @param next next forked task
+         */
+        private RangeTask(final RangeJob<T> job, final int from, final int to, final RangeTask<T> next) {
+            _job = job;
+            _from = from;
+            _to = to;
+            _next = next;
+        }
+
+        @Override
+        protected T compute() {
+            final RangeJob<T> job = _job;
+            final int grain = job._grain;
+
+            int lo = _from;
+            int hi = _to;
+
+            // forked tasks (lower ranges first):
+            RangeTask<T> forked = null;
+            T result = null;
+            boolean first = true;
+
+            while (lo < hi && !job.isCancelled()) {
+                if ((hi - lo) > grain && getSurplusQueuedTaskCount() <= SURPLUS_QUEUED_TASKS) {
+                    // fork the upper half:
+                    final int mid = (lo + hi) >>> 1;
+                    forked = new RangeTask<T>(job, mid, hi, forked);
+                    forked.fork();
+                    hi = mid;
+                } else {
+                    // process one chunk:
+                    final int end = ((hi - lo) > grain) ? lo + grain : hi;
+                    final T partial = job.reduce(lo, end);
+                    result = (first) ? partial : job.combine(result, partial);
+                    first = false;
+                    lo = end;
+                }
+            }
+
+            // join forked tasks in range order:
+            for (RangeTask<T> task = forked; task != null; task = task._next) {
+                final T partial = task.join();
+                result = (first) ? partial : job.combine(result, partial);
+                first = false;
+            }
+            return result;
+        }
+    }
+
     /**
      * Custom ThreadFactory implementation
      */
@@ -578,6 +1136,109 @@ public final class ParallelJobExecutor {
         }
     }
 
+    /**
+     * ManagedBlocker implementation to wait for a future from a fork/join worker thread
+     */
+    private static final class FutureBlocker implements ForkJoinPool.ManagedBlocker {
+
+        /** future to wait for */
+        private final Future<?> _future;
+
+        /**
+         * Constructor
+         * @param future future to wait for
+         */
+        FutureBlocker(final Future<?> future) {
+            _future = future;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            try {
+                _future.get();
+            } catch (ExecutionException ee) {
+                // handled by the caller
+            } catch (CancellationException ce) {
+                // handled by the caller
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return _future.isDone();
+        }
+    }
+
+    /**
+     * Custom ForkJoinWorkerThreadFactory implementation
+     */
+    private static final class JobForkWorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+        /**
+         * Constructs a new {@code ForkJoinWorkerThread}.
+         *
+         * @param pool the pool this thread works in
+         * @return constructed thread
+         */
+        @Override
+        public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+            final ForkJoinWorkerThread thread = new JobForkWorkerThread(pool);
+            if (thread.isDaemon()) {
+                thread.setDaemon(false);
+            }
+            if (thread.getPriority() != Thread.NORM_PRIORITY) {
+                thread.setPriority(Thread.NORM_PRIORITY);
+            }
+
+            // define UncaughtExceptionHandler :
+            MCSExceptionHandler.installThreadHandler(thread);
+
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("new thread: {}", thread.getName());
+            }
+
+            return thread;
+        }
+    }
+
+    /**
+     * Custom ForkJoinWorkerThread implementation keeping the thread index in the fork/join pool
+     */
+    private static final class JobForkWorkerThread extends ForkJoinWorkerThread {
+
+        /**
+         * Protected constructor
+         * @param pool the pool this thread works in
+         */
+        JobForkWorkerThread(final ForkJoinPool pool) {
+            super(pool);
+            setName("JobForkWorker-" + getPoolIndex());
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            // store the thread index in thread local:
+            _localIndex.set(Integer.valueOf(getPoolIndex()));
+
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("thread[{}] run", getPoolIndex());
+            }
+        }
+
+        @Override
+        protected void onTermination(final Throwable exception) {
+            // always perform cleanup:
+            _localIndex.remove();
+
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("thread[{}] done", getPoolIndex());
+            }
+            super.onTermination(exception);
+        }
+    }
+
     /**
      * Returns the current thread's index modulo number of jobs so returns an int value between [0; nJobs[
      * 
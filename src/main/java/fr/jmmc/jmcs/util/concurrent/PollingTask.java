@@ -0,0 +1,179 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class polls registered items using a single thread (single-thread pool given by its name)
+ * that only runs while items are registered: the task is started when the first item is added
+ * and exits as soon as no item remains.
+ * 
+ * Each round, the polling thread adds new items, calls poll(items) that handles all items
+ * and removes finished ones, then parks for the returned delay (or until wakeUp() is called).
+ * 
+ * If the thread pool is shut down (interrupted) or poll() fails, abandon(items) is called
+ * with remaining items so waiting threads can be released.
+ * 
+ * @param <E> item type
+ * 
+ * @author Laurent BOURGES.
+ */
+public abstract class PollingTask<E> implements Runnable {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(PollingTask.class.getName());
+    // Members
+    /** single-thread pool name */
+    private final String _poolName;
+    /** newly added items */
+    private final Queue<E> _pending = new ConcurrentLinkedQueue<E>();
+    /** running flag: true if the polling task is queued or running */
+    private final AtomicBoolean _running = new AtomicBoolean(false);
+    /** polling thread (to unpark it) */
+    private volatile Thread _pollingThread = null;
+    /** items handled by the polling thread (only used by the polling thread) */
+    private final ArrayList<E> _items = new ArrayList<E>();
+
+    /**
+     * Protected constructor
+     * @param poolName single-thread pool name
+     */
+    protected PollingTask(final String poolName) {
+        _poolName = poolName;
+    }
+
+    /**
+     * Add the given item and start the polling task if needed (or wake it up)
+     * @param item item to poll
+     * @throws IllegalStateException if the thread pool is not available
+     */
+    protected final void add(final E item) throws IllegalStateException {
+        _pending.add(item);
+
+        if (_running.compareAndSet(false, true)) {
+            try {
+                ThreadExecutors.getSingleExecutor(_poolName).execute(this);
+            } catch (IllegalStateException ise) {
+                _running.set(false);
+                _pending.remove(item);
+                throw ise;
+            }
+        } else {
+            wakeUp();
+        }
+    }
+
+    /**
+     * Wake up the polling thread if parked
+     */
+    protected final void wakeUp() {
+        final Thread t = _pollingThread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Polling task: polls all items until none remains
+     */
+    @Override
+    public final void run() {
+        _logger.debug("PollingTask[{}].run : enter", _poolName);
+        _pollingThread = Thread.currentThread();
+
+        final ArrayList<E> items = _items;
+        try {
+            for (;;) {
+                // add new items:
+                for (E item; (item = _pending.poll()) != null;) {
+                    items.add(item);
+                }
+
+                if (items.isEmpty()) {
+                    _running.set(false);
+                    // avoid lost registrations:
+                    if (_pending.isEmpty() || !_running.compareAndSet(false, true)) {
+                        break;
+                    }
+                    continue;
+                }
+
+                final long parkNanos = poll(items);
+
+                if (parkNanos > 0l) {
+                    LockSupport.parkNanos(this, parkNanos);
+                }
+
+                if (Thread.currentThread().isInterrupted()) {
+                    _logger.debug("PollingTask[{}].run : interrupted", _poolName);
+                    break;
+                }
+            }
+        } finally {
+            _pollingThread = null;
+
+            if (!items.isEmpty() || !_pending.isEmpty()) {
+                // interrupted (pool shutdown) or unexpected failure:
+                for (E item; (item = _pending.poll()) != null;) {
+                    items.add(item);
+                }
+                try {
+                    abandon(items);
+                } finally {
+                    items.clear();
+                    _running.set(false);
+                }
+            }
+        }
+        _logger.debug("PollingTask[{}].run : exit", _poolName);
+    }
+
+    /**
+     * Poll all given items once and remove finished items from the given list
+     * @param items items to poll (only used by the polling thread)
+     * @return delay (nanoseconds) to park before the next round or 0 to poll again immediately
+     */
+    protected abstract long poll(final List<E> items);
+
+    /**
+     * Handle remaining items when the polling task stops (pool shutdown or unexpected failure).
+     * This implementation does nothing.
+     * @param items remaining items
+     */
+    protected void abandon(final List<E> items) {
+        // no-op
+    }
+}
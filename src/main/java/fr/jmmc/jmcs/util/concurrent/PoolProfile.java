@@ -0,0 +1,367 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class describes the configuration of a thread pool managed by ThreadExecutors:
+ * core / maximum thread counts, keep alive, queue capacity (handoff, bounded or unbounded),
+ * priority queue, rejection policy (abort, caller runs or block i.e. back-pressure) and virtual threads (JDK 21+).
+ *
+ * Any profile can be overridden at startup by system properties named 'ThreadExecutors.[pool name].[key]'
+ * with the following keys: coreThreads, maxThreads, keepAlive (seconds), queueCapacity (-1 for unbounded,
+ * 0 for direct handoff), priority (true/false), rejectPolicy (ABORT, CALLER_RUNS, BLOCK), blockTimeout (ms)
+ * and virtual (true/false).
+ *
+ * @see ThreadExecutors#setPoolProfile(String, PoolProfile)
+ * @author Laurent BOURGES.
+ */
+public final class PoolProfile implements Cloneable {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(PoolProfile.class.getName());
+    /** system property prefix */
+    public static final String PROPERTY_PREFIX = "ThreadExecutors.";
+    /** unbounded queue capacity */
+    public static final int UNBOUNDED = -1;
+    /** direct handoff (no queue) */
+    public static final int HANDOFF = 0;
+    /** default block timeout = 60s */
+    public static final long DEFAULT_BLOCK_TIMEOUT = 60 * 1000L;
+
+    /** rejection policy used when the queue is full and all threads are busy */
+    public static enum RejectPolicy {
+
+        /** reject the task (IllegalStateException) */
+        ABORT,
+        /** run the task in the calling thread */
+        CALLER_RUNS,
+        /** block the calling thread until the queue accepts the task (back-pressure) or the block timeout expires */
+        BLOCK
+    }
+    // Members
+    /** number of threads to keep in the pool */
+    private int _coreThreads;
+    /** maximum number of threads */
+    private int _maxThreads;
+    /** idle thread keep alive (seconds) */
+    private long _keepAlive;
+    /** queue capacity (UNBOUNDED, HANDOFF or bounded capacity) */
+    private int _queueCapacity;
+    /** true to use a priority queue */
+    private boolean _priorityQueue = false;
+    /** rejection policy */
+    private RejectPolicy _rejectPolicy = RejectPolicy.ABORT;
+    /** block timeout (ms) used by the BLOCK rejection policy */
+    private long _blockTimeout = DEFAULT_BLOCK_TIMEOUT;
+    /** true to use virtual threads if supported by the JVM (platform threads otherwise) */
+    private boolean _virtualThreads = false;
+
+    /**
+     * Return a new profile for a thread pool that creates new threads as needed (direct handoff)
+     *
+     * @param minThreads the number of threads to keep in the pool, even if they are idle.
+     * @param keepAlive idle thread keep alive (seconds)
+     * @return new profile
+     */
+    public static PoolProfile cached(final int minThreads, final long keepAlive) {
+        return new PoolProfile(minThreads, Integer.MAX_VALUE, keepAlive, HANDOFF);
+    }
+
+    /**
+     * Return a new profile for a thread pool that creates one virtual thread per task if the JVM supports
+     * virtual threads or a cached thread pool otherwise (platform threads)
+     *
+     * @param minThreads the number of platform threads to keep in the pool, even if they are idle (fallback).
+     * @param keepAlive idle platform thread keep alive (seconds) (fallback)
+     * @return new profile
+     */
+    public static PoolProfile virtual(final int minThreads, final long keepAlive) {
+        final PoolProfile profile = cached(minThreads, keepAlive);
+        profile.setVirtualThreads(true);
+        return profile;
+    }
+
+    /**
+     * Return a new profile for a thread pool that reuses a fixed set of threads operating off a shared unbounded queue
+     *
+     * @param nThreads the number of threads in the pool
+     * @return new profile
+     */
+    public static PoolProfile fixed(final int nThreads) {
+        return new PoolProfile(nThreads, nThreads, 0L, UNBOUNDED);
+    }
+
+    /**
+     * Return a new profile for a thread pool having a bounded queue and a bounded number of threads
+     *
+     * @param coreThreads the number of threads to keep in the pool
+     * @param maxThreads the maximum number of threads (used when the queue is full)
+     * @param keepAlive idle thread keep alive (seconds)
+     * @param queueCapacity queue capacity
+     * @param rejectPolicy rejection policy used when the queue is full and all threads are busy
+     * @return new profile
+     */
+    public static PoolProfile bounded(final int coreThreads, final int maxThreads, final long keepAlive,
+                                      final int queueCapacity, final RejectPolicy rejectPolicy) {
+        final PoolProfile profile = new PoolProfile(coreThreads, maxThreads, keepAlive, queueCapacity);
+        profile.setRejectPolicy(rejectPolicy);
+        return profile;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param coreThreads the number of threads to keep in the pool
+     * @param maxThreads the maximum number of threads
+     * @param keepAlive idle thread keep alive (seconds)
+     * @param queueCapacity queue capacity (UNBOUNDED, HANDOFF or bounded capacity)
+     */
+    public PoolProfile(final int coreThreads, final int maxThreads, final long keepAlive, final int queueCapacity) {
+        _coreThreads = coreThreads;
+        _maxThreads = maxThreads;
+        _keepAlive = keepAlive;
+        _queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Return a copy of this profile overridden by system properties 'ThreadExecutors.[pool name].[key]' if any
+     *
+     * @param poolName thread pool name
+     * @return new profile
+     */
+    public PoolProfile withSystemProperties(final String poolName) {
+        final PoolProfile profile = copy();
+        final String prefix = PROPERTY_PREFIX + poolName + '.';
+
+        profile.setCoreThreads(Integer.getInteger(prefix + "coreThreads", _coreThreads).intValue());
+        profile.setMaxThreads(Integer.getInteger(prefix + "maxThreads", _maxThreads).intValue());
+        profile.setKeepAlive(Long.getLong(prefix + "keepAlive", _keepAlive).longValue());
+        profile.setQueueCapacity(Integer.getInteger(prefix + "queueCapacity", _queueCapacity).intValue());
+        profile.setBlockTimeout(Long.getLong(prefix + "blockTimeout", _blockTimeout).longValue());
+
+        String value = System.getProperty(prefix + "priority");
+        if (value != null) {
+            profile.setPriorityQueue(Boolean.parseBoolean(value));
+        }
+        value = System.getProperty(prefix + "virtual");
+        if (value != null) {
+            profile.setVirtualThreads(Boolean.parseBoolean(value));
+        }
+        value = System.getProperty(prefix + "rejectPolicy");
+        if (value != null) {
+            try {
+                profile.setRejectPolicy(RejectPolicy.valueOf(value.trim().toUpperCase()));
+            } catch (IllegalArgumentException iae) {
+                _logger.warn("Invalid reject policy for pool {}: {}", poolName, value);
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Return a copy of this profile
+     * @return copy of this profile
+     */
+    public PoolProfile copy() {
+        try {
+            return (PoolProfile) clone();
+        } catch (CloneNotSupportedException cnse) {
+            throw new IllegalStateException(cnse);
+        }
+    }
+
+    /**
+     * Check this profile and fix inconsistent values
+     * @param poolName thread pool name (logs)
+     */
+    void validate(final String poolName) {
+        if (_coreThreads < 0) {
+            _coreThreads = 0;
+        }
+        if (_maxThreads < 1) {
+            _maxThreads = 1;
+        }
+        if (_maxThreads < _coreThreads) {
+            _maxThreads = _coreThreads;
+        }
+        if (_queueCapacity < UNBOUNDED) {
+            _logger.warn("Pool {}: invalid queue capacity {}: using an unbounded queue", poolName, _queueCapacity);
+            _queueCapacity = UNBOUNDED;
+        }
+        if (_queueCapacity == HANDOFF && _priorityQueue) {
+            _logger.warn("Pool {}: priority queue requires a queue: using an unbounded queue", poolName);
+            _queueCapacity = UNBOUNDED;
+        }
+        if (_queueCapacity != HANDOFF && _coreThreads == 0) {
+            // threads are only created when the queue is full:
+            _coreThreads = 1;
+        }
+    }
+
+    /**
+     * Return the number of threads to keep in the pool
+     * @return number of threads to keep in the pool
+     */
+    public int getCoreThreads() {
+        return _coreThreads;
+    }
+
+    /**
+     * Define the number of threads to keep in the pool
+     * @param coreThreads number of threads to keep in the pool
+     */
+    public void setCoreThreads(final int coreThreads) {
+        _coreThreads = coreThreads;
+    }
+
+    /**
+     * Return the maximum number of threads
+     * @return maximum number of threads
+     */
+    public int getMaxThreads() {
+        return _maxThreads;
+    }
+
+    /**
+     * Define the maximum number of threads
+     * @param maxThreads maximum number of threads
+     */
+    public void setMaxThreads(final int maxThreads) {
+        _maxThreads = maxThreads;
+    }
+
+    /**
+     * Return the idle thread keep alive (seconds)
+     * @return idle thread keep alive (seconds)
+     */
+    public long getKeepAlive() {
+        return _keepAlive;
+    }
+
+    /**
+     * Define the idle thread keep alive (seconds)
+     * @param keepAlive idle thread keep alive (seconds)
+     */
+    public void setKeepAlive(final long keepAlive) {
+        _keepAlive = keepAlive;
+    }
+
+    /**
+     * Return the queue capacity (UNBOUNDED, HANDOFF or bounded capacity)
+     * @return queue capacity
+     */
+    public int getQueueCapacity() {
+        return _queueCapacity;
+    }
+
+    /**
+     * Define the queue capacity (UNBOUNDED, HANDOFF or bounded capacity)
+     * @param queueCapacity queue capacity
+     */
+    public void setQueueCapacity(final int queueCapacity) {
+        _queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Return true if the queue is a priority queue (TaskPriority)
+     * @return true if the queue is a priority queue
+     */
+    public boolean isPriorityQueue() {
+        return _priorityQueue;
+    }
+
+    /**
+     * Define the flag to use a priority queue (TaskPriority)
+     * @param priorityQueue true to use a priority queue
+     */
+    public void setPriorityQueue(final boolean priorityQueue) {
+        _priorityQueue = priorityQueue;
+    }
+
+    /**
+     * Return the rejection policy
+     * @return rejection policy
+     */
+    public RejectPolicy getRejectPolicy() {
+        return _rejectPolicy;
+    }
+
+    /**
+     * Define the rejection policy
+     * @param rejectPolicy rejection policy
+     */
+    public void setRejectPolicy(final RejectPolicy rejectPolicy) {
+        _rejectPolicy = (rejectPolicy != null) ? rejectPolicy : RejectPolicy.ABORT;
+    }
+
+    /**
+     * Return the block timeout (ms) used by the BLOCK rejection policy
+     * @return block timeout (ms)
+     */
+    public long getBlockTimeout() {
+        return _blockTimeout;
+    }
+
+    /**
+     * Define the block timeout (ms) used by the BLOCK rejection policy
+     * @param blockTimeout block timeout (ms)
+     */
+    public void setBlockTimeout(final long blockTimeout) {
+        _blockTimeout = blockTimeout;
+    }
+
+    /**
+     * Return true if virtual threads are requested (used only if the JVM supports them)
+     * @return true if virtual threads are requested
+     */
+    public boolean isVirtualThreads() {
+        return _virtualThreads;
+    }
+
+    /**
+     * Define the flag to use virtual threads (used only if the JVM supports them)
+     * @param virtualThreads true to use virtual threads
+     */
+    public void setVirtualThreads(final boolean virtualThreads) {
+        _virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Return a string representation
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        return "PoolProfile[core = " + _coreThreads + ", max = " + _maxThreads + ", keepAlive = " + _keepAlive
+                + "s, queue = " + ((_queueCapacity == UNBOUNDED) ? "unbounded" : ((_queueCapacity == HANDOFF) ? "handoff" : _queueCapacity))
+                + ", priority = " + _priorityQueue + ", reject = " + _rejectPolicy + ", virtual = " + _virtualThreads + "]";
+    }
+}
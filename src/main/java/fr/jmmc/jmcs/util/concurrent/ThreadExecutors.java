@@ -31,10 +31,12 @@ import fr.jmmc.jmcs.util.CollectionUtils;
 import fr.jmmc.jmcs.util.JVMUtils;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
@@ -49,8 +51,14 @@ import org.slf4j.LoggerFactory;
  * <ul>
  * <li>generic thread pool : many small tasks (no queue limit, many threads)</li>
  * <li>process thread pool : long tasks (no queue limit, few threads)</li>
+ * <li>I/O thread pool : blocking I/O tasks like stream redirectors (virtual threads if available, many threads)</li>
  * </ul>
  *
+ * Every pool (generic, process or single-thread pools) is configured by a PoolProfile: the default profiles
+ * keep the legacy behaviour but can be replaced by bounded profiles (queue capacity, thread limits, priority queue,
+ * rejection policy) using setPoolProfile() before the pool creation or system properties (see PoolProfile).
+ *
+ * @see PoolProfile
  * @see ThreadPoolExecutor
  * @author Laurent Bourges (voparis) / Gerard Lemson (mpe)
  */
@@ -64,6 +72,8 @@ public final class ThreadExecutors {
     public static final String GENERIC_THREAD_POOL = "GenericThreadPool";
     /** process thread pool name */
     public static final String PROCESS_THREAD_POOL = "ProcessThreadPool";
+    /** I/O thread pool name */
+    public static final String IO_THREAD_POOL = "IOThreadPool";
     /** Generic thread Pool : idle thread keep alive before kill : 120s */
     public static final long GENERIC_THREAD_KEEP_ALIVE = 120L;
     /** Process thread pool type : true to use fixed thread pool (resource limited) or false to use cached thread pool */
@@ -80,10 +90,14 @@ public final class ThreadExecutors {
     public static final long SHUTDOWN_NOW_DELAY = 1L;
     /** generic thread pool singleton */
     private static volatile ThreadExecutors _genericExecutor;
+    /** I/O thread pool singleton */
+    private static volatile ThreadExecutors _ioExecutor;
     /** processRunner thread pool singleton */
     private static volatile ThreadExecutors _runnerExecutor;
     /** single thread pool singletons : used to shutdown them */
     private static volatile Map<String, ThreadExecutors> _singleExecutors = null;
+    /** custom pool profiles keyed by pool name */
+    private static final Map<String, PoolProfile> _poolProfiles = new ConcurrentHashMap<String, PoolProfile>(8);
     // Members
     /** wrapped Java 5 Thread pool executor */
     private final CustomThreadPoolExecutor _threadExecutor;
@@ -142,10 +156,12 @@ public final class ThreadExecutors {
      *
      * @see #getSingleExecutor(String)
      * @see #getGenericExecutor()
+     * @see #getIOExecutor()
      */
     public static void startExecutors() {
         getRunnerExecutor();
         getGenericExecutor();
+        getIOExecutor();
     }
 
     /**
@@ -182,6 +198,10 @@ public final class ThreadExecutors {
                 _runnerExecutor.stop();
                 _runnerExecutor = null;
             }
+            if (_ioExecutor != null) {
+                _ioExecutor.stop();
+                _ioExecutor = null;
+            }
             if (_genericExecutor != null) {
                 _genericExecutor.stop();
                 _genericExecutor = null;
@@ -219,6 +239,39 @@ public final class ThreadExecutors {
         }
     }
 
+    /**
+     * Define the profile of the thread pool having the given name; it must be called before the pool creation
+     * (system properties still override this profile)
+     *
+     * @param poolName thread pool name (GENERIC_THREAD_POOL, PROCESS_THREAD_POOL or single-thread pool name)
+     * @param profile pool profile or null to use the default profile
+     */
+    public static void setPoolProfile(final String poolName, final PoolProfile profile) {
+        if (profile == null) {
+            _poolProfiles.remove(poolName);
+        } else {
+            _poolProfiles.put(poolName, profile.copy());
+        }
+    }
+
+    /**
+     * Return the effective profile of the thread pool having the given name:
+     * custom profile (or the given default profile) overridden by system properties
+     *
+     * @param poolName thread pool name
+     * @param defaultProfile default profile
+     * @return effective pool profile
+     */
+    public static PoolProfile getPoolProfile(final String poolName, final PoolProfile defaultProfile) {
+        PoolProfile profile = _poolProfiles.get(poolName);
+        if (profile == null) {
+            profile = defaultProfile;
+        }
+        profile = profile.withSystemProperties(poolName);
+        profile.validate(poolName);
+        return profile;
+    }
+
     /**
      * @return the generic thread pool or create it (lazy)
      */
@@ -226,16 +279,43 @@ public final class ThreadExecutors {
         checkRunning();
         if (_genericExecutor == null) {
             _genericExecutor = new ThreadExecutors(
-                    newCachedThreadPool(GENERIC_THREAD_POOL, GENERIC_THREAD_MIN, new CustomThreadFactory(GENERIC_THREAD_POOL)));
+                    newThreadPool(GENERIC_THREAD_POOL, PoolProfile.cached(GENERIC_THREAD_MIN, GENERIC_THREAD_KEEP_ALIVE),
+                            new CustomThreadFactory(GENERIC_THREAD_POOL)));
         }
 
         return _genericExecutor;
     }
 
+    /**
+     * Return the I/O thread pool or create it (lazy): this pool runs blocking I/O tasks (stream redirectors ...)
+     * using one virtual thread per task if the JVM supports virtual threads (JDK 21+) or a cached thread pool otherwise
+     *
+     * @see PoolProfile#virtual(int, long)
+     *
+     * @return I/O thread pool
+     */
+    public static ThreadExecutors getIOExecutor() {
+        checkRunning();
+        ThreadExecutors e = _ioExecutor;
+        if (e == null) {
+            // called concurrently (async http, ranged downloads): create only one pool
+            synchronized (ThreadExecutors.class) {
+                e = _ioExecutor;
+                if (e == null) {
+                    _ioExecutor = e = new ThreadExecutors(
+                            newThreadPool(IO_THREAD_POOL, PoolProfile.virtual(GENERIC_THREAD_MIN, GENERIC_THREAD_KEEP_ALIVE),
+                                    new CustomThreadFactory(IO_THREAD_POOL)));
+                }
+            }
+        }
+
+        return e;
+    }
+
     /**
      * Return the process thread pool or create it (lazy)
      *
-     * @see #newFixedThreadPool(String, int, ThreadFactory)
+     * @see #newThreadPool(String, PoolProfile, ThreadFactory)
      *
      * @return process thread pool
      */
@@ -243,8 +323,9 @@ public final class ThreadExecutors {
         checkRunning();
         if (_runnerExecutor == null) {
             _runnerExecutor = new ThreadExecutors(
-                    PROCESS_THREAD_FIXED ? newFixedThreadPool(PROCESS_THREAD_POOL, PROCESS_THREAD_MAX, new CustomThreadFactory(PROCESS_THREAD_POOL))
-                    : newCachedThreadPool(PROCESS_THREAD_POOL, PROCESS_THREAD_MIN, new CustomThreadFactory(PROCESS_THREAD_POOL)));
+                    newThreadPool(PROCESS_THREAD_POOL,
+                            PROCESS_THREAD_FIXED ? PoolProfile.fixed(PROCESS_THREAD_MAX) : PoolProfile.cached(PROCESS_THREAD_MIN, GENERIC_THREAD_KEEP_ALIVE),
+                            new CustomThreadFactory(PROCESS_THREAD_POOL)));
         }
 
         return _runnerExecutor;
@@ -254,7 +335,7 @@ public final class ThreadExecutors {
      * Return the single-thread pool or create it (lazy) for the given name
      *
      * @param name key or name of the single-thread pool
-     * @see #newFixedThreadPool(String, int, ThreadFactory)
+     * @see #newThreadPool(String, PoolProfile, ThreadFactory)
      * @return process thread pool
      */
     public static ThreadExecutors getSingleExecutor(final String name) {
@@ -265,7 +346,7 @@ public final class ThreadExecutors {
      * Return the single-thread pool or create it (lazy) for the given name
      *
      * @param name key or name of the single-thread pool
-     * @see #newFixedThreadPool(String, int, ThreadFactory)
+     * @see #newThreadPool(String, PoolProfile, ThreadFactory)
      * @param doShutdown true to shutdown this pool during ThreadExecutors.stop()
      * @return process thread pool
      */
@@ -275,7 +356,7 @@ public final class ThreadExecutors {
 
         ThreadExecutors e = m.get(name);
         if (e == null) {
-            e = new ThreadExecutors(newFixedThreadPool(name, 1, new CustomThreadFactory(name)), doShutdown);
+            e = new ThreadExecutors(newThreadPool(name, PoolProfile.fixed(1), new CustomThreadFactory(name)), doShutdown);
 
             final ThreadExecutors old = m.put(name, e);
             if (old != null) {
@@ -287,36 +368,92 @@ public final class ThreadExecutors {
     }
 
     /**
-     * Creates a thread pool that reuses a fixed set of threads operating off a shared unbounded
-     * queue, using the provided ThreadFactory to create new threads when needed.
+     * Creates a thread pool configured by the effective profile of the given pool name
+     * (fixed pool, cached pool or bounded pool), using the provided ThreadFactory to create new threads when needed.
+     * If the profile requests virtual threads and the JVM supports them, a virtual thread factory is used instead
+     * and direct handoff pools create one virtual thread per task (no idle thread).
+     *
+     * @see #getPoolProfile(String, PoolProfile)
      *
      * @param pPoolName thread pool name
-     * @param nThreads the number of threads in the pool
+     * @param defaultProfile default profile
      * @param threadFactory the factory to use when creating new threads
      * @return the newly created thread pool
      */
-    private static CustomThreadPoolExecutor newFixedThreadPool(final String pPoolName, final int nThreads,
-                                                               final ThreadFactory threadFactory) {
-        return new CustomThreadPoolExecutor(pPoolName, nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<Runnable>(), threadFactory);
+    private static CustomThreadPoolExecutor newThreadPool(final String pPoolName, final PoolProfile defaultProfile,
+                                                          final ThreadFactory threadFactory) {
+        final PoolProfile profile = getPoolProfile(pPoolName, defaultProfile);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("ThreadExecutors.newThreadPool : {} = {}", pPoolName, profile);
+        }
+
+        ThreadFactory factory = threadFactory;
+        int coreThreads = profile.getCoreThreads();
+        long keepAlive = profile.getKeepAlive();
+
+        if (profile.isVirtualThreads()) {
+            final VirtualThreadFactory virtualFactory = VirtualThreadFactory.newFactory(pPoolName);
+            if (virtualFactory != null) {
+                logger.debug("ThreadExecutors.newThreadPool : using virtual threads for pool: {}", pPoolName);
+                factory = virtualFactory;
+                if (profile.getQueueCapacity() == PoolProfile.HANDOFF) {
+                    // virtual thread per task:
+                    coreThreads = 0;
+                    keepAlive = 0L;
+                }
+            } else {
+                logger.debug("ThreadExecutors.newThreadPool : virtual threads not available, using platform threads for pool: {}", pPoolName);
+            }
+        }
+
+        final int capacity = profile.getQueueCapacity();
+        final BlockingQueue<Runnable> queue;
+        if (capacity == PoolProfile.HANDOFF) {
+            queue = new SynchronousQueue<Runnable>();
+        } else if (profile.isPriorityQueue()) {
+            queue = (capacity == PoolProfile.UNBOUNDED) ? new PriorityBlockingQueue<Runnable>()
+                    : new BoundedPriorityBlockingQueue<Runnable>(capacity);
+        } else {
+            queue = (capacity == PoolProfile.UNBOUNDED) ? new LinkedBlockingQueue<Runnable>()
+                    : new LinkedBlockingQueue<Runnable>(capacity);
+        }
+
+        final CustomThreadPoolExecutor executor = new CustomThreadPoolExecutor(pPoolName,
+                coreThreads, profile.getMaxThreads(), keepAlive, TimeUnit.SECONDS,
+                queue, factory);
+
+        executor.setRejectPolicy(profile.getRejectPolicy(), profile.getBlockTimeout());
+        return executor;
     }
 
     /**
-     * Creates a thread pool that creates new threads as needed, but will reuse previously constructed
-     * threads when they are available, and uses the provided ThreadFactory to create new threads when
-     * needed.
-     *
-     * @see java.util.concurrent.Executors#newCachedThreadPool()
-     *
-     * @param pPoolName thread pool name
-     * @param minThreads the number of threads to keep in the pool, even if they are idle.
-     * @param threadFactory the factory to use when creating new threads
-     * @return the newly created thread pool
+     * Return the statistics (threads, queue depth, rejected tasks) of all thread pools as a string
+     * @return statistics of all thread pools
      */
-    private static CustomThreadPoolExecutor newCachedThreadPool(final String pPoolName, final int minThreads,
-                                                                final ThreadFactory threadFactory) {
-        return new CustomThreadPoolExecutor(pPoolName, minThreads, Integer.MAX_VALUE, GENERIC_THREAD_KEEP_ALIVE,
-                TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), threadFactory);
+    public static String dumpStats() {
+        final StringBuilder sb = new StringBuilder(512);
+        sb.append("ThreadExecutors statistics:");
+
+        ThreadExecutors e = _genericExecutor;
+        if (e != null) {
+            sb.append('\n').append(e.getExecutor().getStatistics());
+        }
+        e = _ioExecutor;
+        if (e != null) {
+            sb.append('\n').append(e.getExecutor().getStatistics());
+        }
+        e = _runnerExecutor;
+        if (e != null) {
+            sb.append('\n').append(e.getExecutor().getStatistics());
+        }
+        final Map<String, ThreadExecutors> m = getSingleExecutors(false);
+        if (!CollectionUtils.isEmpty(m)) {
+            for (ThreadExecutors se : m.values()) {
+                sb.append('\n').append(se.getExecutor().getStatistics());
+            }
+        }
+        return sb.toString();
     }
 
     /* end of static methods */
@@ -392,6 +529,52 @@ public final class ThreadExecutors {
         }
     }
 
+    /**
+     * Submits a Runnable task with the given priority for execution and returns a Future representing that task.
+     * The priority is only used if this pool has a priority queue.
+     *
+     * @see CustomThreadPoolExecutor#submit(Runnable, TaskPriority)
+     * @param job the task to submit
+     * @param priority task priority
+     * @return a Future representing pending completion of the task, and whose <tt>get()</tt> method
+     *         will return <tt>null</tt> upon completion.
+     * @throws IllegalStateException if task cannot be scheduled for execution
+     */
+    public Future<?> submit(final Runnable job, final TaskPriority priority) {
+        checkRunning();
+        if (logger.isDebugEnabled()) {
+            logger.debug("ThreadExecutors.submit : submit job in pool: {} = {} [{}]", getPoolName(), job, priority);
+        }
+        try {
+            return getExecutor().submit(job, priority);
+        } catch (final RejectedExecutionException ree) {
+            throw new IllegalStateException("unable to queue the job !", ree);
+        }
+    }
+
+    /**
+     * Submits a Callable task with the given priority for execution and returns a Future representing that task.
+     * The priority is only used if this pool has a priority queue.
+     *
+     * @see CustomThreadPoolExecutor#submit(Callable, TaskPriority)
+     * @param <T> result type
+     * @param job the task to submit
+     * @param priority task priority
+     * @return a Future representing pending completion of the task
+     * @throws IllegalStateException if task cannot be scheduled for execution
+     */
+    public <T> Future<T> submit(final Callable<T> job, final TaskPriority priority) {
+        checkRunning();
+        if (logger.isDebugEnabled()) {
+            logger.debug("ThreadExecutors.submit : submit job in pool: {} = {} [{}]", getPoolName(), job, priority);
+        }
+        try {
+            return getExecutor().submit(job, priority);
+        } catch (final RejectedExecutionException ree) {
+            throw new IllegalStateException("unable to queue the job !", ree);
+        }
+    }
+
     /**
      * Shutdown this thread pool now
      *
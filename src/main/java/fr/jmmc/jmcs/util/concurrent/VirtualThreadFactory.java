@@ -0,0 +1,165 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.concurrent;
+
+import fr.jmmc.jmcs.util.MCSExceptionHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread Factory creating virtual threads (JDK 21+) named [thread pool name]-virtual-[number].
+ *
+ * Virtual threads are detected at startup using reflection (Thread.ofVirtual()) so this class
+ * can be loaded by older runtimes: use isAvailable() or newFactory() that returns null if
+ * virtual threads are not supported.
+ *
+ * @see PoolProfile#isVirtualThreads()
+ * @author Laurent BOURGES.
+ */
+public final class VirtualThreadFactory implements ThreadFactory {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(VirtualThreadFactory.class.getName());
+    /** Thread.ofVirtual() method or null if unsupported */
+    private static final Method OF_VIRTUAL;
+    /** Thread.Builder.name(String, long) method */
+    private static final Method BUILDER_NAME;
+    /** Thread.Builder.factory() method */
+    private static final Method BUILDER_FACTORY;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builderName = builderClass.getMethod("name", String.class, long.class);
+            builderFactory = builderClass.getMethod("factory");
+
+            // check that virtual threads are enabled (preview feature in JDK 19/20):
+            ((ThreadFactory) builderFactory.invoke(ofVirtual.invoke(null))).newThread(new Runnable() {
+                @Override
+                public void run() {
+                    // no-op
+                }
+            });
+            _logger.debug("Virtual threads are available.");
+        } catch (NoSuchMethodException nsme) {
+            _logger.debug("Virtual threads are not supported by this JVM.");
+            ofVirtual = null;
+        } catch (ClassNotFoundException cnfe) {
+            _logger.debug("Virtual threads are not supported by this JVM.");
+            ofVirtual = null;
+        } catch (IllegalAccessException iae) {
+            _logger.info("Virtual threads are not accessible: ", iae);
+            ofVirtual = null;
+        } catch (InvocationTargetException ite) {
+            _logger.info("Virtual threads are not enabled: {}", ite.getCause().toString());
+            ofVirtual = null;
+        } catch (RuntimeException re) {
+            _logger.info("Virtual threads are not available: ", re);
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+    }
+    // Members
+    /** thread pool name */
+    private final String _name;
+    /** wrapped virtual thread factory */
+    private final ThreadFactory _factory;
+
+    /**
+     * Return true if virtual threads are supported by this JVM
+     * @return true if virtual threads are supported by this JVM
+     */
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Return a new virtual thread factory for the given thread pool name
+     * @param pPoolName thread pool name
+     * @return new virtual thread factory or null if virtual threads are not supported by this JVM
+     */
+    public static VirtualThreadFactory newFactory(final String pPoolName) {
+        if (!isAvailable()) {
+            return null;
+        }
+        try {
+            final Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), pPoolName + "-virtual-", Long.valueOf(1L));
+            return new VirtualThreadFactory(pPoolName, (ThreadFactory) BUILDER_FACTORY.invoke(builder));
+        } catch (IllegalAccessException iae) {
+            _logger.warn("Unable to create a virtual thread factory: ", iae);
+        } catch (InvocationTargetException ite) {
+            _logger.warn("Unable to create a virtual thread factory: ", ite.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Private constructor
+     * @param pPoolName thread pool name
+     * @param factory wrapped virtual thread factory
+     */
+    private VirtualThreadFactory(final String pPoolName, final ThreadFactory factory) {
+        _name = pPoolName;
+        _factory = factory;
+    }
+
+    /**
+     * Creates a new virtual thread (not started) and defines its UncaughtExceptionHandler
+     * (virtual threads are always daemon threads having the normal priority)
+     *
+     * @param r Runnable task
+     * @return new virtual thread
+     */
+    @Override
+    public Thread newThread(final Runnable r) {
+        final Thread thread = _factory.newThread(r);
+
+        // define UncaughtExceptionHandler :
+        MCSExceptionHandler.installThreadHandler(thread);
+
+        _logger.debug("VirtualThreadFactory.newThread : thread {} for task: {}", thread, r);
+        return thread;
+    }
+
+    /**
+     * Return the thread pool name
+     * @return thread pool name
+     */
+    public String getName() {
+        return _name;
+    }
+}
@@ -0,0 +1,719 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner;
+
+import fr.jmmc.jmcs.util.runner.process.ProcessContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of job submissions and state transitions used by LocalLauncher to recover
+ * its queue after a restart.
+ * 
+ * The journal file is memory-mapped (extended by chunks) and contains a header followed by records:
+ * [int payload length][int payload CRC32][payload] where the payload starts with the record type:
+ * - SUBMIT: root context (id, application, owner, directories, creation date) and its child contexts
+ * (id, name, command, dependencies),
+ * - STATE: context identifier, new state and date.
+ * The payload length is written last so a torn record (crash) ends the journal on recovery.
+ * 
+ * On open, the journal is read sequentially once to rebuild the jobs (last known state); jobs that were
+ * running during the crash are marked interrupted. An invalid record is handled like a torn record (the journal is
+ * truncated there). When the journal file grows past 8M (on open or while appending), it is compacted
+ * (only pending jobs and the most recent terminated jobs are kept) and mapped again.
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class JobJournal {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(JobJournal.class.getName());
+    /** system property: journal file path (LocalLauncher.startUp) */
+    public static final String PROPERTY_FILE = "JobJournal.file";
+    /** system property: true to force (msync) the journal after each record (slower but safe on power loss) */
+    public static final String PROPERTY_SYNC = "JobJournal.sync";
+    /** system property: number of terminated jobs kept in the history */
+    public static final String PROPERTY_HISTORY_SIZE = "JobJournal.historySize";
+    /** default number of terminated jobs kept in the history */
+    public static final int DEFAULT_HISTORY_SIZE = 1000;
+    /** mapped chunk size (1M) */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    /** minimum journal size triggering a compaction (8M) */
+    private static final long COMPACT_SIZE = 8L * CHUNK_SIZE;
+    /** journal magic number ('JMCSJRNL') */
+    private static final long MAGIC = 0x4A4D43534A524E4CL;
+    /** journal format version */
+    private static final int VERSION = 1;
+    /** header size (magic + version) */
+    private static final int HEADER_SIZE = 12;
+    /** record header size (length + CRC) */
+    private static final int RECORD_HEADER_SIZE = 8;
+    /** record type: job submission */
+    private static final byte RECORD_SUBMIT = 1;
+    /** record type: state transition */
+    private static final byte RECORD_STATE = 2;
+    /** UTF-8 charset */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** states */
+    private static final RunState[] STATES = RunState.values();
+    // Members
+    /** journal file */
+    private final File _file;
+    /** sync flag */
+    private final boolean _sync;
+    /** number of terminated jobs kept in the history */
+    private final int _historySize;
+    /** journaled jobs (root contexts) by identifier (submission order) */
+    private final ConcurrentSkipListMap<Long, RootContext> _jobs = new ConcurrentSkipListMap<Long, RootContext>(Collections.<Long>reverseOrder());
+    /** jobs recovered as pending (to be queued again) */
+    private final List<RootContext> _pendingJobs = new ArrayList<RootContext>();
+    /** file channel */
+    private FileChannel _channel = null;
+    /** mapped buffer */
+    private MappedByteBuffer _map = null;
+    /** write position */
+    private int _position = 0;
+    /** journal size triggering the next compaction */
+    private long _compactSize = COMPACT_SIZE;
+    /** record buffer */
+    private final ByteArrayOutputStream _bytes = new ByteArrayOutputStream(256);
+    /** record output */
+    private final DataOutputStream _out = new DataOutputStream(_bytes);
+    /** CRC */
+    private final CRC32 _crc = new CRC32();
+
+    /**
+     * Open (or create) the given journal file: read existing records, compact the journal if needed and map it
+     *
+     * @param file journal file
+     * @return opened journal
+     * @throws IOException if an I/O error occurs
+     */
+    public static JobJournal open(final File file) throws IOException {
+        final JobJournal journal = new JobJournal(file, Boolean.getBoolean(PROPERTY_SYNC),
+                Integer.getInteger(PROPERTY_HISTORY_SIZE, DEFAULT_HISTORY_SIZE).intValue());
+        journal.recover();
+        return journal;
+    }
+
+    /**
+     * Private constructor
+     * @param file journal file
+     * @param sync true to force the journal after each record
+     * @param historySize number of terminated jobs kept in the history
+     */
+    private JobJournal(final File file, final boolean sync, final int historySize) {
+        _file = file;
+        _sync = sync;
+        _historySize = historySize;
+    }
+
+    /**
+     * Return the journal file
+     * @return journal file
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Return the jobs recovered as pending (to be queued again)
+     * @return jobs recovered as pending
+     */
+    public List<RootContext> getPendingJobs() {
+        return Collections.unmodifiableList(_pendingJobs);
+    }
+
+    /**
+     * Return the journaled jobs (submission order): jobs of previous runs (last known state) and jobs submitted since open
+     * @return journaled jobs
+     */
+    public List<RootContext> getHistory() {
+        return new ArrayList<RootContext>(_jobs.values());
+    }
+
+    /**
+     * Return the journaled job having the given identifier
+     * @param id job identifier
+     * @return job or null
+     */
+    public RootContext getJob(final Long id) {
+        return _jobs.get(id);
+    }
+
+    /**
+     * Return the smallest job or task identifier present in the journal (identifiers are decreasing)
+     * @return smallest identifier or 0 if the journal is empty
+     */
+    public long getMinimumId() {
+        long min = 0l;
+        for (RootContext rootCtx : _jobs.values()) {
+            min = Math.min(min, rootCtx.getId().longValue());
+            for (RunContext child : rootCtx.getChildContexts()) {
+                min = Math.min(min, child.getId().longValue());
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Record the submission of the given job (once) then its state transitions
+     * @param rootCtx submitted job
+     */
+    public void submitted(final RootContext rootCtx) {
+        if (rootCtx.getJournal() == this) {
+            // recovered job queued again
+            return;
+        }
+        synchronized (this) {
+            if (_channel == null) {
+                return;
+            }
+            try {
+                writeSubmit(rootCtx);
+                append();
+                rootCtx.setJournal(this);
+                _jobs.put(rootCtx.getId(), rootCtx);
+            } catch (IOException ioe) {
+                _logger.error("JobJournal.submitted: unable to write journal: {}", _file, ioe);
+            }
+        }
+        pruneHistory();
+    }
+
+    /**
+     * Record the state transition of the given context (root or child)
+     * @param runCtx context
+     * @param state new state
+     */
+    void stateChanged(final RunContext runCtx, final RunState state) {
+        synchronized (this) {
+            if (_channel == null) {
+                return;
+            }
+            try {
+                writeState(runCtx.getId().longValue(), state, System.currentTimeMillis());
+                append();
+            } catch (IOException ioe) {
+                _logger.error("JobJournal.stateChanged: unable to write journal: {}", _file, ioe);
+            }
+        }
+    }
+
+    /**
+     * Close the journal (force mapped data)
+     */
+    public void close() {
+        synchronized (this) {
+            if (_channel != null) {
+                try {
+                    _map.force();
+                    _channel.close();
+                } catch (IOException ioe) {
+                    _logger.error("JobJournal.close: unable to close journal: {}", _file, ioe);
+                }
+                _channel = null;
+                _map = null;
+            }
+        }
+        for (RootContext rootCtx : _jobs.values()) {
+            if (rootCtx.getJournal() == this) {
+                rootCtx.setJournal(null);
+            }
+        }
+    }
+
+    /**
+     * Read the journal, compact it if needed and map it for appending
+     * @throws IOException if an I/O error occurs
+     */
+    private void recover() throws IOException {
+        final long start = System.nanoTime();
+        int records = 0;
+        int end = HEADER_SIZE;
+
+        if (_file.exists() && _file.length() >= HEADER_SIZE) {
+            // plain sequential read (no mapping) so the file can be replaced by compaction:
+            final RandomAccessFile raf = new RandomAccessFile(_file, "r");
+            try {
+                final FileChannel channel = raf.getChannel();
+                final long length = channel.size();
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Journal too large: " + _file);
+                }
+                final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // read fully
+                }
+                buffer.flip();
+
+                if (buffer.getLong() != MAGIC || buffer.getInt() != VERSION) {
+                    throw new IOException("Invalid journal file: " + _file);
+                }
+
+                final Map<Long, RunContext> contexts = new HashMap<Long, RunContext>(64);
+
+                while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                    final int pos = buffer.position();
+                    final int len = buffer.getInt();
+                    final int crc = buffer.getInt();
+                    if (len <= 0 || len > buffer.remaining()) {
+                        // journal end or torn record
+                        break;
+                    }
+                    _crc.reset();
+                    _crc.update(buffer.array(), buffer.position(), len);
+                    if ((int) _crc.getValue() != crc) {
+                        _logger.warn("JobJournal.recover: corrupted record at position {}: journal truncated", pos);
+                        break;
+                    }
+                    try {
+                        readRecord(new DataInputStream(new ByteArrayInputStream(buffer.array(), buffer.position(), len)), contexts);
+                    } catch (IOException ioe) {
+                        _logger.warn("JobJournal.recover: invalid record at position {}: journal truncated", pos, ioe);
+                        break;
+                    } catch (RuntimeException re) {
+                        _logger.warn("JobJournal.recover: invalid record at position {}: journal truncated", pos, re);
+                        break;
+                    }
+
+                    buffer.position(buffer.position() + len);
+                    end = buffer.position();
+                    records++;
+                }
+            } finally {
+                raf.close();
+            }
+        }
+
+        // jobs running during the crash were interrupted, pending jobs must be queued again:
+        final List<RootContext> interrupted = new ArrayList<RootContext>();
+        for (RootContext rootCtx : _jobs.values()) {
+            if (rootCtx.isPending()) {
+                _pendingJobs.add(rootCtx);
+            } else if (rootCtx.isRunning()) {
+                interrupted.add(rootCtx);
+            }
+        }
+
+        synchronized (this) {
+            if (end > _compactSize) {
+                compact();
+            } else {
+                map(end);
+            }
+        }
+
+        for (RootContext rootCtx : interrupted) {
+            rootCtx.setJournal(this);
+            for (RunContext child : rootCtx.getChildContexts()) {
+                if (child.isRunning()) {
+                    child.setState(RunState.STATE_INTERRUPTED);
+                } else if (child.isPending()) {
+                    child.setState(RunState.STATE_CANCELED);
+                }
+            }
+            rootCtx.setState(RunState.STATE_INTERRUPTED);
+        }
+        for (RootContext rootCtx : _pendingJobs) {
+            rootCtx.setJournal(this);
+        }
+
+        if (_logger.isInfoEnabled()) {
+            _logger.info("JobJournal: {} records read in {} ms: {} jobs ({} pending, {} interrupted)",
+                    records, 1e-6d * (System.nanoTime() - start), _jobs.size(), _pendingJobs.size(), interrupted.size());
+        }
+    }
+
+    /**
+     * Read one record and update the recovered jobs
+     * @param in record payload
+     * @param contexts recovered contexts by identifier
+     * @throws IOException if the record is invalid
+     */
+    private void readRecord(final DataInputStream in, final Map<Long, RunContext> contexts) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case RECORD_SUBMIT:
+                final RootContext rootCtx = new RootContext(readString(in), Long.valueOf(in.readLong()), readString(in));
+                rootCtx.setOwner(readString(in));
+                rootCtx.setRelativePath(readString(in));
+                final boolean parallel = in.readBoolean();
+                readContext(in, rootCtx);
+
+                final int nChilds = in.readInt();
+                final RunContext[] childs = new RunContext[nChilds];
+                final int[][] dependencies = new int[nChilds][];
+                for (int i = 0; i < nChilds; i++) {
+                    final Long id = Long.valueOf(in.readLong());
+                    final String name = readString(in);
+                    final int nArgs = in.readInt();
+                    final RunContext child;
+                    if (nArgs >= 0) {
+                        final String[] command = new String[nArgs];
+                        for (int j = 0; j < nArgs; j++) {
+                            command[j] = readString(in);
+                        }
+                        child = new ProcessContext(rootCtx, name, id, command);
+                    } else {
+                        child = new RunContext(rootCtx, name, id);
+                    }
+                    readContext(in, child);
+
+                    final int nDeps = in.readInt();
+                    final int[] deps = new int[nDeps];
+                    for (int j = 0; j < nDeps; j++) {
+                        deps[j] = in.readInt();
+                    }
+                    dependencies[i] = deps;
+                    childs[i] = child;
+                }
+                // resolve dependencies once all childs are known (dependencies on later childs are allowed):
+                for (int i = 0; i < nChilds; i++) {
+                    for (int dep : dependencies[i]) {
+                        if (dep < 0 || dep >= nChilds || dep == i) {
+                            throw new IOException("Invalid dependency index: " + dep + " for task: " + childs[i].getId());
+                        }
+                        childs[i].addDependency(childs[dep]);
+                    }
+                }
+                rootCtx.setParallel(parallel);
+
+                for (RunContext child : childs) {
+                    contexts.put(child.getId(), child);
+                }
+                contexts.put(rootCtx.getId(), rootCtx);
+                _jobs.put(rootCtx.getId(), rootCtx);
+                break;
+
+            case RECORD_STATE:
+                final RunContext runCtx = contexts.get(Long.valueOf(in.readLong()));
+                final RunState state = STATES[in.readByte()];
+                final long time = in.readLong();
+                if (runCtx != null) {
+                    runCtx.restoreState(state, new Date(time));
+                }
+                break;
+
+            default:
+                throw new IOException("Invalid record type: " + type);
+        }
+    }
+
+    /**
+     * Write the state and dates of the given context
+     * @param runCtx context to write
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeContext(final RunContext runCtx) throws IOException {
+        _out.writeByte(runCtx.getState().ordinal());
+        _out.writeLong(toTime(runCtx.getCreationDate()));
+        _out.writeLong(toTime(runCtx.getQueueDate()));
+        _out.writeLong(toTime(runCtx.getRunDate()));
+        _out.writeLong(toTime(runCtx.getEndDate()));
+        _out.writeLong(runCtx.getDuration());
+    }
+
+    /**
+     * Read the state and dates of the given context
+     * @param in record payload
+     * @param runCtx context to restore
+     * @throws IOException if an I/O error occurs
+     */
+    private static void readContext(final DataInputStream in, final RunContext runCtx) throws IOException {
+        final RunState state = STATES[in.readByte()];
+        runCtx.restoreCreationDate(toDate(in.readLong()));
+        final Date queueDate = toDate(in.readLong());
+        final Date runDate = toDate(in.readLong());
+        final Date endDate = toDate(in.readLong());
+        runCtx.setDuration(in.readLong());
+
+        if (queueDate != null) {
+            runCtx.restoreState(RunState.STATE_PENDING, queueDate);
+        }
+        if (runDate != null) {
+            runCtx.restoreState(RunState.STATE_RUNNING, runDate);
+        }
+        runCtx.restoreState(state, (state == RunState.STATE_PENDING) ? queueDate
+                : ((state == RunState.STATE_RUNNING) ? runDate : endDate));
+    }
+
+    /**
+     * Prepare the submission record of the given job
+     * @param rootCtx job to write
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeSubmit(final RootContext rootCtx) throws IOException {
+        _bytes.reset();
+        _out.writeByte(RECORD_SUBMIT);
+        writeString(rootCtx.getName());
+        _out.writeLong(rootCtx.getId().longValue());
+        writeString(rootCtx.getWorkingDir());
+        writeString(rootCtx.getOwner());
+        writeString(rootCtx.getRelativePath());
+        _out.writeBoolean(rootCtx.isParallel());
+        writeContext(rootCtx);
+
+        final List<RunContext> childs = rootCtx.getChildContexts();
+        _out.writeInt(childs.size());
+        for (RunContext child : childs) {
+            _out.writeLong(child.getId().longValue());
+            writeString(child.getName());
+            if (child instanceof ProcessContext) {
+                final String[] command = ((ProcessContext) child).getCommandArray();
+                _out.writeInt(command.length);
+                for (String arg : command) {
+                    writeString(arg);
+                }
+            } else {
+                _out.writeInt(-1);
+            }
+            writeContext(child);
+
+            final List<RunContext> deps = child.getDependencies();
+            _out.writeInt(deps.size());
+            for (RunContext dep : deps) {
+                _out.writeInt(childs.indexOf(dep));
+            }
+        }
+    }
+
+    /**
+     * Prepare the state record
+     * @param id context identifier
+     * @param state new state
+     * @param time transition time
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeState(final long id, final RunState state, final long time) throws IOException {
+        _bytes.reset();
+        _out.writeByte(RECORD_STATE);
+        _out.writeLong(id);
+        _out.writeByte(state.ordinal());
+        _out.writeLong(time);
+    }
+
+    /**
+     * Return the prepared record [length][CRC][payload]
+     * @return record bytes
+     */
+    private byte[] record() {
+        final int len = _bytes.size();
+        final byte[] record = new byte[RECORD_HEADER_SIZE + len];
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        _crc.reset();
+        _crc.update(_bytes.toByteArray(), 0, len);
+        buffer.putInt(len);
+        buffer.putInt((int) _crc.getValue());
+        buffer.put(_bytes.toByteArray());
+        return record;
+    }
+
+    /**
+     * Append the prepared record to the mapped journal: the record length is written last (commit)
+     * @throws IOException if an I/O error occurs
+     */
+    private void append() throws IOException {
+        final byte[] record = record();
+        // keep room for the end marker:
+        final long required = (long) _position + record.length + RECORD_HEADER_SIZE;
+        if (required > _map.capacity()) {
+            if (required > Integer.MAX_VALUE) {
+                throw new IOException("Journal too large: " + _file);
+            }
+            final long size = ((required / CHUNK_SIZE) + 1L) * CHUNK_SIZE;
+            _map.force();
+            _map = _channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(size, Integer.MAX_VALUE));
+        }
+        _map.position(_position + 4);
+        _map.put(record, 4, record.length - 4);
+        _map.putInt(_position + record.length, 0);
+        _map.putInt(_position, record.length - RECORD_HEADER_SIZE);
+        _position += record.length;
+
+        if (_sync) {
+            _map.force();
+        }
+        if (_position > _compactSize) {
+            try {
+                compact();
+            } catch (IOException ioe) {
+                // the record is written but the journal is closed:
+                _logger.error("JobJournal.append: compaction failed (journal disabled): {}", _file, ioe);
+            }
+        }
+    }
+
+    /**
+     * Map the journal file for appending at the given position (creates the header if needed)
+     * @param position write position
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings("resource")
+    private void map(final int position) throws IOException {
+        final File dir = _file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory: " + dir);
+        }
+        _channel = new RandomAccessFile(_file, "rw").getChannel();
+        _map = _channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(_channel.size(), CHUNK_SIZE));
+        _position = position;
+
+        if (position == HEADER_SIZE) {
+            _map.putLong(0, MAGIC);
+            _map.putInt(8, VERSION);
+        }
+        // overwrite any torn record to mark the journal end:
+        _map.putInt(_position, 0);
+    }
+
+    /**
+     * Rewrite the journal with pending jobs and the most recent terminated jobs only then map it
+     * @throws IOException if an I/O error occurs
+     */
+    private void compact() throws IOException {
+        if (_channel != null) {
+            // release the current mapping (compaction while appending):
+            _map.force();
+            _channel.close();
+            _channel = null;
+            _map = null;
+        }
+        pruneHistory();
+
+        final File tmp = new File(_file.getPath() + ".tmp");
+        final RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(0l);
+            raf.writeLong(MAGIC);
+            raf.writeInt(VERSION);
+
+            for (RootContext rootCtx : _jobs.values()) {
+                // submission records contain the current state and dates:
+                writeSubmit(rootCtx);
+                raf.write(record());
+            }
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+        if (!tmp.renameTo(_file)) {
+            // windows: delete then rename
+            if (!_file.delete() || !tmp.renameTo(_file)) {
+                throw new IOException("Unable to replace journal: " + _file);
+            }
+        }
+        _logger.info("JobJournal: journal compacted: {} jobs", _jobs.size());
+
+        final long length = _file.length();
+        // avoid compacting again soon if most jobs are kept:
+        _compactSize = Math.max(COMPACT_SIZE, 2L * length);
+
+        map((int) length);
+    }
+
+    /**
+     * Remove the oldest terminated jobs beyond the history size
+     */
+    private void pruneHistory() {
+        int terminated = 0;
+        for (RootContext rootCtx : _jobs.descendingMap().values()) {
+            if (!rootCtx.isPending() && !rootCtx.isRunning() && (++terminated > _historySize)) {
+                _jobs.remove(rootCtx.getId());
+            }
+        }
+    }
+
+    /**
+     * Write the given string (null supported)
+     * @param value string to write
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeString(final String value) throws IOException {
+        if (value == null) {
+            _out.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(UTF_8);
+            _out.writeInt(bytes.length);
+            _out.write(bytes);
+        }
+    }
+
+    /**
+     * Read a string (null supported)
+     * @param in record payload
+     * @return string or null
+     * @throws IOException if an I/O error occurs
+     */
+    private static String readString(final DataInputStream in) throws IOException {
+        final int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Return the time of the given date
+     * @param date date or null
+     * @return time in milliseconds or 0 if null
+     */
+    private static long toTime(final Date date) {
+        return (date != null) ? date.getTime() : 0l;
+    }
+
+    /**
+     * Return the date of the given time
+     * @param time time in milliseconds or 0
+     * @return date or null if 0
+     */
+    private static Date toDate(final long time) {
+        return (time != 0l) ? new Date(time) : null;
+    }
+}
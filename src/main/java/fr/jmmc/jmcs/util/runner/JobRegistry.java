@@ -0,0 +1,329 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Concurrent job index used by LocalLauncher: jobs (root contexts) by identifier with secondary indexes
+ * by owner and by state and counters maintained on state transitions.
+ * 
+ * Read methods (get, counters, queries) are lock-free. Registration, removal and state transitions
+ * of one job are serialized on the job context itself so that indexes and counters stay consistent.
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class JobRegistry {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(JobRegistry.class.getName());
+    /** number of states */
+    private static final int STATE_COUNT = RunState.values().length;
+    // Members
+    /** jobs by identifier (job identifiers are decreasing so reverse order keeps the submission order) */
+    private final ConcurrentSkipListMap<Long, RootContext> _jobs = new ConcurrentSkipListMap<Long, RootContext>(Collections.<Long>reverseOrder());
+    /** jobs by owner */
+    private final ConcurrentMap<String, Set<RootContext>> _jobsByOwner = new ConcurrentHashMap<String, Set<RootContext>>();
+    /** active (pending or running) job count by owner */
+    private final ConcurrentMap<String, AtomicInteger> _activeByOwner = new ConcurrentHashMap<String, AtomicInteger>();
+    /** jobs by state (indexed by RunState ordinal) */
+    private final List<Set<RootContext>> _jobsByState;
+    /** job count by state (indexed by RunState ordinal) */
+    private final AtomicIntegerArray _stateCounts = new AtomicIntegerArray(STATE_COUNT);
+
+    /**
+     * Public constructor
+     */
+    public JobRegistry() {
+        final List<Set<RootContext>> jobsByState = new ArrayList<Set<RootContext>>(STATE_COUNT);
+        for (int i = 0; i < STATE_COUNT; i++) {
+            jobsByState.add(newSet());
+        }
+        _jobsByState = jobsByState;
+    }
+
+    /**
+     * Return a new concurrent set
+     * @return new concurrent set
+     */
+    private static Set<RootContext> newSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<RootContext, Boolean>());
+    }
+
+    /**
+     * Return true if the given state is active (pending or running)
+     * @param state job state
+     * @return true if the given state is active
+     */
+    private static boolean isActive(final RunState state) {
+        return (state == RunState.STATE_PENDING) || (state == RunState.STATE_RUNNING);
+    }
+
+    /**
+     * Register the given job: its state transitions are then tracked until it is removed
+     * @param rootCtx job to register
+     */
+    public void add(final RootContext rootCtx) {
+        synchronized (rootCtx) {
+            final RootContext old = _jobs.put(rootCtx.getId(), rootCtx);
+            if (old == rootCtx) {
+                return;
+            }
+            if (old != null) {
+                _logger.warn("JobRegistry.add: job replaced: {}", old.shortString());
+                remove(old);
+            }
+            rootCtx.setRegistry(this);
+            index(rootCtx, rootCtx.getOwner(), rootCtx.getState());
+        }
+    }
+
+    /**
+     * Remove the job having the given identifier
+     * @param id job identifier
+     * @return removed job or null if not found
+     */
+    public RootContext remove(final Long id) {
+        final RootContext rootCtx = _jobs.get(id);
+        if (rootCtx != null) {
+            synchronized (rootCtx) {
+                if (_jobs.remove(id, rootCtx)) {
+                    remove(rootCtx);
+                    return rootCtx;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove the given job from indexes (caller must hold the job lock)
+     * @param rootCtx job to remove
+     */
+    private void remove(final RootContext rootCtx) {
+        unindex(rootCtx, rootCtx.getOwner(), rootCtx.getState());
+        rootCtx.setRegistry(null);
+    }
+
+    /**
+     * Return the job having the given identifier
+     * @param id job identifier
+     * @return job or null if not found
+     */
+    public RootContext get(final Long id) {
+        return _jobs.get(id);
+    }
+
+    /**
+     * Return the number of registered jobs
+     * @return number of registered jobs
+     */
+    public int size() {
+        return _jobs.size();
+    }
+
+    /**
+     * Return a copy of registered jobs (submission order)
+     * @return list of registered jobs
+     */
+    public List<RootContext> getJobs() {
+        return new ArrayList<RootContext>(_jobs.values());
+    }
+
+    /**
+     * Return a copy of registered jobs having the given state
+     * @param state job state
+     * @return list of registered jobs having the given state
+     */
+    public List<RootContext> getJobs(final RunState state) {
+        return new ArrayList<RootContext>(_jobsByState.get(state.ordinal()));
+    }
+
+    /**
+     * Return a copy of registered jobs owned by the given user
+     * @param owner user name
+     * @return list of registered jobs owned by the given user
+     */
+    public List<RootContext> getJobs(final String owner) {
+        if (owner != null) {
+            final Set<RootContext> jobs = _jobsByOwner.get(owner);
+            if (jobs != null) {
+                return new ArrayList<RootContext>(jobs);
+            }
+        }
+        return new ArrayList<RootContext>(0);
+    }
+
+    /**
+     * Return the number of registered jobs having the given state
+     * @param state job state
+     * @return number of registered jobs having the given state
+     */
+    public int getCount(final RunState state) {
+        return _stateCounts.get(state.ordinal());
+    }
+
+    /**
+     * Return the number of active (pending or running) jobs
+     * @return number of active jobs
+     */
+    public int getActiveCount() {
+        return getCount(RunState.STATE_PENDING) + getCount(RunState.STATE_RUNNING);
+    }
+
+    /**
+     * Return the number of active (pending or running) jobs owned by the given user
+     * @param owner user name
+     * @return number of active jobs owned by the given user
+     */
+    public int getActiveCount(final String owner) {
+        if (owner != null) {
+            final AtomicInteger count = _activeByOwner.get(owner);
+            if (count != null) {
+                return count.get();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Update indexes on a state transition (called by RunContext.setState() holding the job lock)
+     * @param rootCtx registered job
+     * @param oldState previous state
+     * @param newState new state
+     */
+    void stateChanged(final RootContext rootCtx, final RunState oldState, final RunState newState) {
+        if (oldState != newState) {
+            final String owner = rootCtx.getOwner();
+            unindex(rootCtx, owner, oldState);
+            index(rootCtx, owner, newState);
+        }
+    }
+
+    /**
+     * Update indexes on an owner change (called by RootContext.setOwner() holding the job lock)
+     * @param rootCtx registered job
+     * @param oldOwner previous owner
+     * @param newOwner new owner
+     */
+    void ownerChanged(final RootContext rootCtx, final String oldOwner, final String newOwner) {
+        final RunState state = rootCtx.getState();
+        unindex(rootCtx, oldOwner, state);
+        index(rootCtx, newOwner, state);
+    }
+
+    /**
+     * Add the given job in indexes and increment counters
+     * @param rootCtx job
+     * @param owner job owner
+     * @param state job state
+     */
+    private void index(final RootContext rootCtx, final String owner, final RunState state) {
+        if (state != null) {
+            _jobsByState.get(state.ordinal()).add(rootCtx);
+            _stateCounts.incrementAndGet(state.ordinal());
+        }
+        if (owner != null) {
+            Set<RootContext> jobs = _jobsByOwner.get(owner);
+            if (jobs == null) {
+                final Set<RootContext> newJobs = newSet();
+                jobs = _jobsByOwner.putIfAbsent(owner, newJobs);
+                if (jobs == null) {
+                    jobs = newJobs;
+                }
+            }
+            jobs.add(rootCtx);
+
+            if (isActive(state)) {
+                AtomicInteger count = _activeByOwner.get(owner);
+                if (count == null) {
+                    final AtomicInteger newCount = new AtomicInteger();
+                    count = _activeByOwner.putIfAbsent(owner, newCount);
+                    if (count == null) {
+                        count = newCount;
+                    }
+                }
+                count.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Remove the given job from indexes and decrement counters
+     * @param rootCtx job
+     * @param owner job owner
+     * @param state job state
+     */
+    private void unindex(final RootContext rootCtx, final String owner, final RunState state) {
+        if (state != null) {
+            if (_jobsByState.get(state.ordinal()).remove(rootCtx)) {
+                _stateCounts.decrementAndGet(state.ordinal());
+            }
+        }
+        if (owner != null) {
+            final Set<RootContext> jobs = _jobsByOwner.get(owner);
+            if (jobs != null) {
+                jobs.remove(rootCtx);
+                // note: empty owner sets and counters are kept (few distinct owners)
+            }
+            if (isActive(state)) {
+                final AtomicInteger count = _activeByOwner.get(owner);
+                if (count != null) {
+                    count.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Return a string representation "JobRegistry[jobs: n states: {state=count ...}]"
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(128);
+        sb.append("JobRegistry[jobs: ").append(size()).append(" states: {");
+        for (RunState state : RunState.values()) {
+            final int count = getCount(state);
+            if (count != 0) {
+                sb.append(state).append('=').append(count).append(' ');
+            }
+        }
+        return sb.append("}]").toString();
+    }
+}
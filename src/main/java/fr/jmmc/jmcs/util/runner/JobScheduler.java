@@ -0,0 +1,678 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner;
+
+import fr.jmmc.jmcs.util.concurrent.ThreadExecutors;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.FutureTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Job scheduler used by LocalLauncher between the job queue and the runner thread pool:
+ * - global limit of running jobs (slots),
+ * - per-owner and per-application limits of running jobs,
+ * - every additional task of a parallel job (dependency graph) running concurrently in the runner thread pool
+ * also uses a slot of the job owner and application (see acquireTaskSlot), so a wide graph can not exceed the limits,
+ * - weighted fair queuing across owners: each owner has its own FIFO queue and a virtual time
+ * increased by 1 / weight for every started job; the eligible owner having the smallest virtual time runs next
+ * (start-time fair queuing), so a user submitting many jobs can not starve other users.
+ * 
+ * Limits are unbounded by default (legacy behaviour) and can be defined using system properties
+ * (JobScheduler.maxSlots, JobScheduler.maxPerOwner, JobScheduler.maxPerApplication) or setters.
+ * Job listeners implementing JobQueueListener are notified of their queue position.
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class JobScheduler {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(JobScheduler.class.getName());
+    /** unlimited value */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+    /** system property: global limit of running jobs */
+    public static final String PROPERTY_MAX_SLOTS = "JobScheduler.maxSlots";
+    /** system property: limit of running jobs per owner */
+    public static final String PROPERTY_MAX_PER_OWNER = "JobScheduler.maxPerOwner";
+    /** system property: default limit of running jobs per application */
+    public static final String PROPERTY_MAX_PER_APPLICATION = "JobScheduler.maxPerApplication";
+    /** owner key used for jobs without owner */
+    private static final String NO_OWNER = "";
+    // Members
+    /** global limit of running jobs */
+    private int _maxSlots;
+    /** limit of running jobs per owner */
+    private int _maxPerOwner;
+    /** default limit of running jobs per application */
+    private int _maxPerApplication;
+    /** limit of running jobs per application */
+    private final Map<String, Integer> _maxByApplication = new HashMap<String, Integer>(4);
+    /** owner weights */
+    private final Map<String, Double> _weights = new HashMap<String, Double>(4);
+    /** owner queues */
+    private final Map<String, OwnerQueue> _owners = new HashMap<String, OwnerQueue>(16);
+    /** running job count per application */
+    private final Map<String, Integer> _runningByApplication = new HashMap<String, Integer>(4);
+    /** scheduled jobs (queued or running) by root context */
+    private final Map<RootContext, Entry> _entries = new IdentityHashMap<RootContext, Entry>(16);
+    /** global virtual time (start tag of the last started job) */
+    private double _virtualTime = 0d;
+    /** number of running jobs */
+    private int _running = 0;
+    /** number of queued jobs */
+    private int _queued = 0;
+    /** owner sequence (tie breaker) */
+    private long _ownerSequence = 0l;
+
+    /**
+     * Public constructor using limits defined by system properties (unlimited by default)
+     */
+    public JobScheduler() {
+        _maxSlots = getLimit(PROPERTY_MAX_SLOTS);
+        _maxPerOwner = getLimit(PROPERTY_MAX_PER_OWNER);
+        _maxPerApplication = getLimit(PROPERTY_MAX_PER_APPLICATION);
+    }
+
+    /**
+     * Return the limit defined by the given system property
+     * @param key system property
+     * @return limit or UNLIMITED if undefined or invalid
+     */
+    private static int getLimit(final String key) {
+        final Integer value = Integer.getInteger(key);
+        if (value == null) {
+            return UNLIMITED;
+        }
+        if (value.intValue() <= 0) {
+            _logger.warn("JobScheduler: invalid limit {} = {} (ignored)", key, value);
+            return UNLIMITED;
+        }
+        return value.intValue();
+    }
+
+    /**
+     * Check the given limit
+     * @param max limit
+     * @return limit
+     * @throws IllegalArgumentException if the given limit is not positive
+     */
+    private static int checkLimit(final int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Invalid limit: " + max);
+        }
+        return max;
+    }
+
+    /**
+     * Define the global limit of running jobs
+     * @param max global limit of running jobs (UNLIMITED for no limit)
+     */
+    public void setMaxSlots(final int max) {
+        synchronized (this) {
+            _maxSlots = checkLimit(max);
+        }
+        dispatch();
+    }
+
+    /**
+     * Define the limit of running jobs per owner
+     * @param max limit of running jobs per owner (UNLIMITED for no limit)
+     */
+    public void setMaxPerOwner(final int max) {
+        synchronized (this) {
+            _maxPerOwner = checkLimit(max);
+        }
+        dispatch();
+    }
+
+    /**
+     * Define the default limit of running jobs per application
+     * @param max default limit of running jobs per application (UNLIMITED for no limit)
+     */
+    public void setMaxPerApplication(final int max) {
+        synchronized (this) {
+            _maxPerApplication = checkLimit(max);
+        }
+        dispatch();
+    }
+
+    /**
+     * Define the limit of running jobs for the given application
+     * @param applicationName application name
+     * @param max limit of running jobs for the given application (UNLIMITED for no limit)
+     */
+    public void setMaxPerApplication(final String applicationName, final int max) {
+        synchronized (this) {
+            _maxByApplication.put(applicationName, Integer.valueOf(checkLimit(max)));
+        }
+        dispatch();
+    }
+
+    /**
+     * Define the weight of the given owner (1 by default): an owner having a weight 2 starts
+     * twice more jobs than an owner having a weight 1 when both have pending jobs
+     * @param owner user name
+     * @param weight positive weight
+     */
+    public void setOwnerWeight(final String owner, final double weight) {
+        if (!(weight > 0d)) {
+            throw new IllegalArgumentException("Invalid weight: " + weight);
+        }
+        synchronized (this) {
+            final String key = getOwnerKey(owner);
+            _weights.put(key, Double.valueOf(weight));
+            final OwnerQueue queue = _owners.get(key);
+            if (queue != null) {
+                queue._weight = weight;
+            }
+        }
+    }
+
+    /**
+     * Return the number of running jobs
+     * @return number of running jobs
+     */
+    public synchronized int getRunningCount() {
+        return _running;
+    }
+
+    /**
+     * Return the number of running jobs of the given owner
+     * @param owner user name
+     * @return number of running jobs of the given owner
+     */
+    public synchronized int getRunningCount(final String owner) {
+        final OwnerQueue queue = _owners.get(getOwnerKey(owner));
+        return (queue != null) ? queue._running : 0;
+    }
+
+    /**
+     * Return the number of queued (not started) jobs
+     * @return number of queued jobs
+     */
+    public synchronized int getQueuedCount() {
+        return _queued;
+    }
+
+    /**
+     * Return the number of queued (not started) jobs of the given owner
+     * @param owner user name
+     * @return number of queued jobs of the given owner
+     */
+    public synchronized int getQueuedCount(final String owner) {
+        final OwnerQueue queue = _owners.get(getOwnerKey(owner));
+        return (queue != null) ? queue._jobs.size() : 0;
+    }
+
+    /**
+     * Return the position of the given job in its owner queue
+     * @param rootCtx job
+     * @return position (1 = next job of its owner to run) or 0 if not queued
+     */
+    public synchronized int getQueuePosition(final RootContext rootCtx) {
+        final Entry entry = _entries.get(rootCtx);
+        if (entry != null && entry._future == null) {
+            final OwnerQueue queue = _owners.get(entry._owner);
+            int position = 1;
+            for (Entry e : queue._jobs) {
+                if (e == entry) {
+                    return position;
+                }
+                position++;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Add the given job in the queue of its owner; it will be submitted to the runner thread pool
+     * as soon as limits allow it
+     * @param rootCtx job
+     * @param listener job listener
+     * @param runner job runner
+     * @throws IllegalStateException if the runner thread pool is not available
+     */
+    public void submit(final RootContext rootCtx, final JobListener listener, final Runnable runner) {
+        // fail fast if the runner thread pool is down:
+        ThreadExecutors.getRunnerExecutor();
+
+        final Entry entry = new Entry(rootCtx, listener, runner);
+        synchronized (this) {
+            final OwnerQueue queue = getOwnerQueue(entry._owner);
+            if (queue._jobs.isEmpty() && queue._running == 0) {
+                // owner becomes active: do not let it use its idle time as credit
+                queue._virtualTime = Math.max(queue._virtualTime, _virtualTime);
+            }
+            queue._jobs.add(entry);
+            _entries.put(rootCtx, entry);
+            _queued++;
+        }
+        dispatch();
+
+        // notify the queue position if still queued:
+        final int position = getQueuePosition(rootCtx);
+        if (position != 0) {
+            fireQueueEvent(entry, position, getQueuedCount());
+        }
+    }
+
+    /**
+     * Remove the given job from its owner queue if not started
+     * @param rootCtx job
+     * @return true if the job was removed; false if it is not queued (already started or unknown)
+     */
+    public boolean cancel(final RootContext rootCtx) {
+        final OwnerQueue queue;
+        synchronized (this) {
+            final Entry entry = _entries.get(rootCtx);
+            if (entry == null || entry._future != null) {
+                return false;
+            }
+            _entries.remove(rootCtx);
+            queue = _owners.get(entry._owner);
+            queue._jobs.remove(entry);
+            _queued--;
+            removeIfIdle(queue);
+        }
+        firePositions(queue);
+        return true;
+    }
+
+    /**
+     * Release the slot of the given finished (or canceled) job and start queued jobs
+     * @param entry finished job
+     */
+    void finished(final Entry entry) {
+        synchronized (this) {
+            if (_entries.remove(entry._rootCtx) == null) {
+                return;
+            }
+            release(entry);
+            // task slots not yet released (job canceled while its tasks are running):
+            for (; entry._tasks > 0; entry._tasks--) {
+                release(entry);
+            }
+            removeIfIdle(_owners.get(entry._owner));
+        }
+        dispatch();
+    }
+
+    /**
+     * Acquire a slot to run one additional task of the given running job concurrently (parallel job);
+     * the job itself holds one slot used by the job thread to run its tasks
+     * @param rootCtx running job
+     * @return true if the task can run concurrently (slot acquired); false if limits are reached
+     */
+    boolean acquireTaskSlot(final RootContext rootCtx) {
+        synchronized (this) {
+            final Entry entry = _entries.get(rootCtx);
+            if (entry == null || entry._future == null) {
+                return false;
+            }
+            final OwnerQueue queue = _owners.get(entry._owner);
+            if (_running >= _maxSlots || queue._running >= _maxPerOwner) {
+                return false;
+            }
+            final String app = rootCtx.getName();
+            final Integer max = _maxByApplication.get(app);
+            final int limit = (max != null) ? max.intValue() : _maxPerApplication;
+            final Integer count = _runningByApplication.get(app);
+            final int running = (count != null) ? count.intValue() : 0;
+            if (limit != UNLIMITED && running >= limit) {
+                return false;
+            }
+            _running++;
+            queue._running++;
+            _runningByApplication.put(app, Integer.valueOf(running + 1));
+            entry._tasks++;
+        }
+        return true;
+    }
+
+    /**
+     * Release a task slot acquired by acquireTaskSlot() and start queued jobs
+     * @param rootCtx running job
+     */
+    void releaseTaskSlot(final RootContext rootCtx) {
+        synchronized (this) {
+            final Entry entry = _entries.get(rootCtx);
+            if (entry == null || entry._tasks == 0) {
+                return;
+            }
+            entry._tasks--;
+            release(entry);
+        }
+        dispatch();
+    }
+
+    /**
+     * Release one slot of the given job (guarded by the scheduler lock)
+     * @param entry job
+     */
+    private void release(final Entry entry) {
+        _running--;
+        final OwnerQueue queue = _owners.get(entry._owner);
+        queue._running--;
+        final String app = entry._rootCtx.getName();
+        final Integer count = _runningByApplication.get(app);
+        if (count != null) {
+            if (count.intValue() <= 1) {
+                _runningByApplication.remove(app);
+            } else {
+                _runningByApplication.put(app, Integer.valueOf(count.intValue() - 1));
+            }
+        }
+    }
+
+    /**
+     * Start queued jobs while limits allow it (weighted fair queuing)
+     */
+    private void dispatch() {
+        List<Entry> started = null;
+        List<OwnerQueue> moved = null;
+
+        synchronized (this) {
+            while (_running < _maxSlots && _queued != 0) {
+                // select the eligible owner having the smallest virtual time:
+                OwnerQueue selected = null;
+                Entry selectedEntry = null;
+
+                for (OwnerQueue queue : _owners.values()) {
+                    if (queue._jobs.isEmpty() || queue._running >= _maxPerOwner) {
+                        continue;
+                    }
+                    if (selected != null && (queue._virtualTime > selected._virtualTime
+                            || (queue._virtualTime == selected._virtualTime && queue._sequence > selected._sequence))) {
+                        continue;
+                    }
+                    // first job (FIFO) of this owner whose application limit is not reached:
+                    final Entry entry = getEligibleJob(queue);
+                    if (entry != null) {
+                        selected = queue;
+                        selectedEntry = entry;
+                    }
+                }
+                if (selected == null) {
+                    break;
+                }
+                selected._jobs.remove(selectedEntry);
+                _queued--;
+
+                // start time fair queuing:
+                _virtualTime = selected._virtualTime;
+                selected._virtualTime += 1d / selected._weight;
+
+                selected._running++;
+                _running++;
+                final String app = selectedEntry._rootCtx.getName();
+                final Integer count = _runningByApplication.get(app);
+                _runningByApplication.put(app, Integer.valueOf((count != null) ? count.intValue() + 1 : 1));
+
+                selectedEntry._future = new JobFuture(selectedEntry);
+
+                if (started == null) {
+                    started = new ArrayList<Entry>(4);
+                    moved = new ArrayList<OwnerQueue>(4);
+                }
+                started.add(selectedEntry);
+                if (!moved.contains(selected)) {
+                    moved.add(selected);
+                }
+            }
+        }
+
+        if (started != null) {
+            for (Entry entry : started) {
+                execute(entry);
+            }
+            for (OwnerQueue queue : moved) {
+                firePositions(queue);
+            }
+        }
+    }
+
+    /**
+     * Return the first job (FIFO) of the given owner queue whose application limit is not reached
+     * @param queue owner queue
+     * @return job or null
+     */
+    private Entry getEligibleJob(final OwnerQueue queue) {
+        for (Entry entry : queue._jobs) {
+            final String app = entry._rootCtx.getName();
+            final Integer max = _maxByApplication.get(app);
+            final int limit = (max != null) ? max.intValue() : _maxPerApplication;
+            if (limit == UNLIMITED) {
+                return entry;
+            }
+            final Integer count = _runningByApplication.get(app);
+            if (count == null || count.intValue() < limit) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Submit the given started job to the runner thread pool
+     * @param entry started job
+     */
+    private void execute(final Entry entry) {
+        final RootContext rootCtx = entry._rootCtx;
+        // define the future associated to the root context :
+        rootCtx.setFuture(entry._future);
+        try {
+            ThreadExecutors.getRunnerExecutor().execute(entry._future);
+        } catch (IllegalStateException ise) {
+            _logger.error("JobScheduler.execute: unable to start job: {}", rootCtx.shortString(), ise);
+            // release its slot:
+            entry._future.cancel(false);
+            rootCtx.setState(RunState.STATE_INTERRUPTED);
+            if (entry._listener != null) {
+                entry._listener.performJobEvent(rootCtx);
+            }
+        }
+    }
+
+    /**
+     * Notify queued jobs of the given owner queue of their new position
+     * @param queue owner queue
+     */
+    private void firePositions(final OwnerQueue queue) {
+        final List<Entry> entries;
+        final int queued;
+        synchronized (this) {
+            if (queue._jobs.isEmpty()) {
+                return;
+            }
+            entries = new ArrayList<Entry>(queue._jobs);
+            queued = _queued;
+        }
+        int position = 1;
+        for (Entry entry : entries) {
+            fireQueueEvent(entry, position++, queued);
+        }
+    }
+
+    /**
+     * Notify the listener of the given job of its queue position
+     * @param entry queued job
+     * @param position position in its owner queue
+     * @param queued total number of queued jobs
+     */
+    private static void fireQueueEvent(final Entry entry, final int position, final int queued) {
+        if (entry._listener instanceof JobQueueListener) {
+            try {
+                ((JobQueueListener) entry._listener).performQueueEvent(entry._rootCtx, position, queued);
+            } catch (RuntimeException re) {
+                _logger.error("JobScheduler: listener failure: ", re);
+            }
+        }
+    }
+
+    /**
+     * Return the owner key (no null value)
+     * @param owner user name
+     * @return owner key
+     */
+    private static String getOwnerKey(final String owner) {
+        return (owner != null) ? owner : NO_OWNER;
+    }
+
+    /**
+     * Return the owner queue or create it
+     * @param owner owner key
+     * @return owner queue
+     */
+    private OwnerQueue getOwnerQueue(final String owner) {
+        OwnerQueue queue = _owners.get(owner);
+        if (queue == null) {
+            final Double weight = _weights.get(owner);
+            queue = new OwnerQueue(owner, (weight != null) ? weight.doubleValue() : 1d, _ownerSequence++);
+            queue._virtualTime = _virtualTime;
+            _owners.put(owner, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Remove the given owner queue if it has no queued or running job
+     * @param queue owner queue
+     */
+    private void removeIfIdle(final OwnerQueue queue) {
+        if (queue._jobs.isEmpty() && queue._running == 0) {
+            _owners.remove(queue._owner);
+        }
+    }
+
+    /**
+     * Return a string representation "JobScheduler[running: n / max queued: n owners: n]"
+     * @return string representation
+     */
+    @Override
+    public synchronized String toString() {
+        return "JobScheduler[running: " + _running + " / " + ((_maxSlots == UNLIMITED) ? "unlimited" : String.valueOf(_maxSlots))
+                + " queued: " + _queued + " owners: " + _owners.size() + "]";
+    }
+
+    /**
+     * Owner queue (guarded by the scheduler lock)
+     */
+    private static final class OwnerQueue {
+
+        // Members
+        /** owner key */
+        final String _owner;
+        /** owner weight */
+        double _weight;
+        /** owner sequence (tie breaker) */
+        final long _sequence;
+        /** owner virtual time */
+        double _virtualTime = 0d;
+        /** number of running jobs */
+        int _running = 0;
+        /** queued jobs (FIFO) */
+        final ArrayDeque<Entry> _jobs = new ArrayDeque<Entry>(4);
+
+        /**
+         * Constructor
+         * @param owner owner key
+         * @param weight owner weight
+         * @param sequence owner sequence
+         */
+        OwnerQueue(final String owner, final double weight, final long sequence) {
+            _owner = owner;
+            _weight = weight;
+            _sequence = sequence;
+        }
+    }
+
+    /**
+     * Scheduled job
+     */
+    static final class Entry {
+
+        // Members
+        /** job */
+        final RootContext _rootCtx;
+        /** owner key */
+        final String _owner;
+        /** job listener */
+        final JobListener _listener;
+        /** job runner */
+        final Runnable _runner;
+        /** future once started (guarded by the scheduler lock) */
+        JobFuture _future = null;
+        /** number of task slots used by this job in addition to its own slot (guarded by the scheduler lock) */
+        int _tasks = 0;
+
+        /**
+         * Constructor
+         * @param rootCtx job
+         * @param listener job listener
+         * @param runner job runner
+         */
+        Entry(final RootContext rootCtx, final JobListener listener, final Runnable runner) {
+            _rootCtx = rootCtx;
+            _owner = getOwnerKey(rootCtx.getOwner());
+            _listener = listener;
+            _runner = runner;
+        }
+    }
+
+    /**
+     * Future running the job and releasing its slot when done (finished or canceled)
+     */
+    private final class JobFuture extends FutureTask<Object> {
+
+        // Members
+        /** scheduled job */
+        private final Entry _entry;
+
+        /**
+         * Constructor
+         * @param entry scheduled job
+         */
+        JobFuture(final Entry entry) {
+            super(entry._runner, null);
+            _entry = entry;
+        }
+
+        /**
+         * Release the job slot
+         */
+        @Override
+        protected void done() {
+            finished(_entry);
+        }
+    }
+}
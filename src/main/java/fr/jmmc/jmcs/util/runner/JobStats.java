@@ -0,0 +1,228 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner;
+
+import java.util.List;
+
+/**
+ * Resource accounting of the jobs of one application (tasks wall time, CPU time, peak memory,
+ * output bytes and queue latency) used for capacity planning:
+ * the CPU ratio (CPU time / wall time) tells if tools are CPU bound or wait on I/O.
+ * 
+ * Instances returned by LocalLauncher.getJobStats() are snapshots.
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class JobStats {
+
+    // Members
+    /** application name */
+    private final String _applicationName;
+    /** number of terminated jobs */
+    private int _jobs = 0;
+    /** number of jobs not finished OK */
+    private int _failedJobs = 0;
+    /** number of executed tasks */
+    private int _tasks = 0;
+    /** total task duration in ms */
+    private long _duration = 0L;
+    /** total task CPU time in ms */
+    private long _cpuTime = 0L;
+    /** maximum task peak resident memory in bytes */
+    private long _peakMemory = 0L;
+    /** total output bytes */
+    private long _outputBytes = 0L;
+    /** total job queue latency in ms */
+    private long _queueLatency = 0L;
+    /** maximum job queue latency in ms */
+    private long _maxQueueLatency = 0L;
+
+    /**
+     * Constructor
+     * @param applicationName application name
+     */
+    JobStats(final String applicationName) {
+        _applicationName = applicationName;
+    }
+
+    /**
+     * Add the resources of the given terminated job and define the job totals (CPU time, peak memory, output bytes)
+     * @param rootCtx terminated job
+     */
+    synchronized void add(final RootContext rootCtx) {
+        long cpuTime = 0L;
+        long peakMemory = 0L;
+        long outputBytes = 0L;
+
+        final List<RunContext> childs = rootCtx.getChildContexts();
+        for (int i = 0, len = childs.size(); i < len; i++) {
+            final RunContext child = childs.get(i);
+            if (child.getRunDate() != null) {
+                _tasks++;
+                _duration += child.getDuration();
+                cpuTime += child.getCpuTime();
+                peakMemory = Math.max(peakMemory, child.getPeakMemory());
+                outputBytes += child.getOutputBytes();
+            }
+        }
+        rootCtx.setCpuTime(cpuTime);
+        rootCtx.setPeakMemory(peakMemory);
+        rootCtx.setOutputBytes(outputBytes);
+
+        _jobs++;
+        if (rootCtx.getState() != RunState.STATE_FINISHED_OK) {
+            _failedJobs++;
+        }
+        _cpuTime += cpuTime;
+        _peakMemory = Math.max(_peakMemory, peakMemory);
+        _outputBytes += outputBytes;
+
+        final long latency = rootCtx.getQueueLatency();
+        _queueLatency += latency;
+        _maxQueueLatency = Math.max(_maxQueueLatency, latency);
+    }
+
+    /**
+     * Return a snapshot of these statistics
+     * @return snapshot
+     */
+    synchronized JobStats snapshot() {
+        final JobStats copy = new JobStats(_applicationName);
+        copy._jobs = _jobs;
+        copy._failedJobs = _failedJobs;
+        copy._tasks = _tasks;
+        copy._duration = _duration;
+        copy._cpuTime = _cpuTime;
+        copy._peakMemory = _peakMemory;
+        copy._outputBytes = _outputBytes;
+        copy._queueLatency = _queueLatency;
+        copy._maxQueueLatency = _maxQueueLatency;
+        return copy;
+    }
+
+    /**
+     * Return the application name
+     * @return application name
+     */
+    public String getApplicationName() {
+        return _applicationName;
+    }
+
+    /**
+     * Return the number of terminated jobs
+     * @return number of terminated jobs
+     */
+    public synchronized int getJobCount() {
+        return _jobs;
+    }
+
+    /**
+     * Return the number of jobs not finished OK (error, canceled, killed, interrupted)
+     * @return number of failed jobs
+     */
+    public synchronized int getFailedJobCount() {
+        return _failedJobs;
+    }
+
+    /**
+     * Return the number of executed tasks
+     * @return number of executed tasks
+     */
+    public synchronized int getTaskCount() {
+        return _tasks;
+    }
+
+    /**
+     * Return the total task duration (wall time) in ms
+     * @return total task duration
+     */
+    public synchronized long getDuration() {
+        return _duration;
+    }
+
+    /**
+     * Return the total task CPU time in ms
+     * @return total task CPU time
+     */
+    public synchronized long getCpuTime() {
+        return _cpuTime;
+    }
+
+    /**
+     * Return the CPU ratio (CPU time / wall time): close to 1 (or more if multi-threaded) for CPU bound tools,
+     * close to 0 for tools waiting on I/O
+     * @return CPU ratio or 0 if undefined
+     */
+    public synchronized double getCpuRatio() {
+        return (_duration != 0L) ? ((double) _cpuTime) / _duration : 0d;
+    }
+
+    /**
+     * Return the maximum task peak resident memory in bytes
+     * @return maximum peak resident memory
+     */
+    public synchronized long getPeakMemory() {
+        return _peakMemory;
+    }
+
+    /**
+     * Return the total output bytes
+     * @return total output bytes
+     */
+    public synchronized long getOutputBytes() {
+        return _outputBytes;
+    }
+
+    /**
+     * Return the mean job queue latency in ms
+     * @return mean job queue latency
+     */
+    public synchronized long getMeanQueueLatency() {
+        return (_jobs != 0) ? _queueLatency / _jobs : 0L;
+    }
+
+    /**
+     * Return the maximum job queue latency in ms
+     * @return maximum job queue latency
+     */
+    public synchronized long getMaxQueueLatency() {
+        return _maxQueueLatency;
+    }
+
+    /**
+     * Return a string representation
+     * @return "application: jobs ... "
+     */
+    @Override
+    public synchronized String toString() {
+        return _applicationName + ": jobs: " + _jobs + " (failed: " + _failedJobs + ") tasks: " + _tasks
+                + " duration: " + _duration + " ms cpu: " + _cpuTime + " ms (ratio: " + String.format("%.2f", getCpuRatio())
+                + ") peak memory: " + (_peakMemory / 1024L) + " K output: " + _outputBytes
+                + " bytes queue latency: " + getMeanQueueLatency() + " ms (max: " + _maxQueueLatency + " ms)";
+    }
+}
@@ -29,17 +29,24 @@ package fr.jmmc.jmcs.util.runner;
 
 import fr.jmmc.jmcs.util.CollectionUtils;
 import fr.jmmc.jmcs.util.concurrent.CustomThreadPoolExecutor;
-import fr.jmmc.jmcs.util.concurrent.FastSemaphore;
 import fr.jmmc.jmcs.util.concurrent.ThreadExecutors;
 import fr.jmmc.jmcs.util.runner.process.ProcessContext;
 import fr.jmmc.jmcs.util.runner.process.ProcessRunner;
+import fr.jmmc.jmcs.util.runner.process.ProcessWorkerPool;
 import fr.jmmc.jmcs.util.runner.process.RingBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Future;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,8 +60,6 @@ public final class LocalLauncher {
 
     /** Logger */
     private static final Logger _logger = LoggerFactory.getLogger(LocalLauncher.class.getName());
-    /** initial capacity for queue */
-    public static final int INITIAL_QUEUE_CAPACITY = 10;
     /** job ID generator (counter) */
     private static AtomicInteger JOBS_ID = new AtomicInteger(0);
     /** live job count */
@@ -65,12 +70,16 @@ public final class LocalLauncher {
     private static AtomicInteger JOBS_TOTAL = new AtomicInteger(0);
     /** remove policy for queue : default automatic remove after job finished */
     private static boolean QUEUE_MANUAL_REMOVE_JOBS = false;
-    /** queue semaphore */
-    private static FastSemaphore QUEUE_SEM = new FastSemaphore(1);
-    /** QUEUE for job management */
-    private static Map<Long, RootContext> JOB_QUEUE = new LinkedHashMap<Long, RootContext>(INITIAL_QUEUE_CAPACITY);
+    /** QUEUE for job management (concurrent index by id, owner and state) */
+    private static final JobRegistry JOB_QUEUE = new JobRegistry();
+    /** Job scheduler (fair share and limits) */
+    private static final JobScheduler JOB_SCHEDULER = new JobScheduler();
+    /** Job journal (null if disabled) */
+    private static volatile JobJournal JOB_JOURNAL = null;
+    /** Job statistics per application name */
+    private static final ConcurrentHashMap<String, JobStats> JOB_STATS = new ConcurrentHashMap<String, JobStats>(4);
     /** Job Listeners */
-    private static Map<String, JobListener> JOB_LISTENER = new HashMap<String, JobListener>(4);
+    private static final Map<String, JobListener> JOB_LISTENER = new ConcurrentHashMap<String, JobListener>(4);
     /** Invalid executor type */
     public static final int ILLEGAL_STATE_ERROR_CODE = -1000;
     /** limit of lines in ring buffer */
@@ -95,6 +104,15 @@ public final class LocalLauncher {
 
         ThreadExecutors.startExecutors();
 
+        final String journalFile = System.getProperty(JobJournal.PROPERTY_FILE);
+        if (journalFile != null && journalFile.length() != 0) {
+            try {
+                openJournal(new File(journalFile));
+            } catch (IOException ioe) {
+                _logger.error("LocalLauncher.startUp: unable to open the job journal: {}", journalFile, ioe);
+            }
+        }
+
         _logger.debug("LocalLauncher.startUp: exit");
     }
 
@@ -108,11 +126,70 @@ public final class LocalLauncher {
 
         _logger.debug("LocalLauncher.shutdown: enter");
 
+        // stop persistent worker processes :
+        ProcessWorkerPool.getInstance().shutdown();
+
         ThreadExecutors.stopExecutors();
 
+        final JobJournal journal = JOB_JOURNAL;
+        if (journal != null) {
+            JOB_JOURNAL = null;
+            journal.close();
+        }
+
         _logger.debug("LocalLauncher.shutdown: exit");
     }
 
+    /**
+     * Open the given job journal (persistent job submissions and states) and recover jobs of the previous run:
+     * jobs running during the crash are marked interrupted and pending jobs are queued again using registered job listeners.
+     * Job listeners must be registered before calling this method.
+     *
+     * @param file journal file
+     * @throws IOException if the journal can not be read or written
+     */
+    public static void openJournal(final File file) throws IOException {
+        if (JOB_JOURNAL != null) {
+            throw new IllegalStateException("Job journal already opened: " + JOB_JOURNAL.getFile());
+        }
+        final JobJournal journal = JobJournal.open(file);
+
+        // avoid identifier collisions with recovered jobs :
+        final long minId = journal.getMinimumId();
+        for (;;) {
+            final int id = JOBS_ID.get();
+            if (id <= minId || JOBS_ID.compareAndSet(id, (int) minId)) {
+                break;
+            }
+        }
+
+        JOB_JOURNAL = journal;
+
+        for (RootContext rootCtx : journal.getPendingJobs()) {
+            final RingBuffer ring = new RingBuffer(MAX_LINES, (String) null);
+            rootCtx.setRing(ring);
+            for (RunContext child : rootCtx.getChildContexts()) {
+                child.setRing(ring);
+            }
+            _logger.info("LocalLauncher.openJournal: job recovered: {}", rootCtx.shortString());
+
+            startJob(rootCtx);
+        }
+    }
+
+    /**
+     * Return the jobs recorded in the job journal (previous runs included) in submission order
+     *
+     * @return journaled jobs or empty list if the job journal is disabled
+     */
+    public static List<RootContext> getJobHistory() {
+        final JobJournal journal = JOB_JOURNAL;
+        if (journal == null) {
+            return Collections.emptyList();
+        }
+        return journal.getHistory();
+    }
+
     /**
      * Register an application plugin / listener (interface) at runtime
      * @param applicationName name of the managed application
@@ -131,31 +208,36 @@ public final class LocalLauncher {
     public static void purgeTerminated(final long delay) {
         _logger.debug("LocalLauncher.purgeTerminated: enter");
 
-        int n = 0;
-        final List<RootContext> list = getQueue();
-
-        if (list != null) {
-            if (_logger.isDebugEnabled()) {
-                _logger.debug("LocalLauncher.purgeTerminated: queue size: {}", list.size());
-            }
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("LocalLauncher.purgeTerminated: queue size: {}", JOB_QUEUE.size());
+        }
 
-            final long now = System.currentTimeMillis();
+        final long now = System.currentTimeMillis();
 
-            long duration;
+        // only visit finished jobs (state index) :
+        final int n = purgeTerminated(JOB_QUEUE.getJobs(RunState.STATE_FINISHED_ERROR), now, delay)
+                + purgeTerminated(JOB_QUEUE.getJobs(RunState.STATE_FINISHED_OK), now, delay);
 
-            for (final RunContext job : list) {
-                if ((job.getState() == RunState.STATE_FINISHED_ERROR) || (job.getState() == RunState.STATE_FINISHED_OK)) {
-                    duration = (now - job.getEndDate().getTime());
+        _logger.debug("LocalLauncher.purgeTerminated: removed items: {}", n);
+    }
 
-                    if (duration > delay) {
-                        removeFromQueue(job.getId());
-                        n++;
-                    }
-                }
+    /**
+     * Remove from the memory queue the given finished jobs ended before the given delay
+     *
+     * @param jobs finished jobs
+     * @param now current time in milliseconds
+     * @param delay time in milliseconds to wait after the job has finished before removing it from the queue
+     * @return number of removed jobs
+     */
+    private static int purgeTerminated(final List<RootContext> jobs, final long now, final long delay) {
+        int n = 0;
+        for (final RunContext job : jobs) {
+            if ((now - job.getEndDate().getTime()) > delay) {
+                removeFromQueue(job.getId());
+                n++;
             }
         }
-
-        _logger.debug("LocalLauncher.purgeTerminated: removed items: {}", n);
+        return n;
     }
 
     /**
@@ -205,8 +287,43 @@ public final class LocalLauncher {
 
             if (_logger.isInfoEnabled()) {
                 _logger.info("LocalLauncher: Live Jobs: {} / Total Jobs: {}", live, total);
+
+                for (JobStats stats : getJobStats().values()) {
+                    _logger.info("LocalLauncher: {}", stats);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return a snapshot of the job statistics (resource accounting) per application name
+     *
+     * @return job statistics keyed by application name (sorted)
+     */
+    public static Map<String, JobStats> getJobStats() {
+        final Map<String, JobStats> snapshot = new TreeMap<String, JobStats>();
+        for (JobStats stats : JOB_STATS.values()) {
+            snapshot.put(stats.getApplicationName(), stats.snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Account the resources of the given terminated job
+     *
+     * @param rootCtx terminated job
+     */
+    private static void accountJob(final RootContext rootCtx) {
+        final String appName = String.valueOf(rootCtx.getName());
+        JobStats stats = JOB_STATS.get(appName);
+        if (stats == null) {
+            final JobStats newStats = new JobStats(appName);
+            stats = JOB_STATS.putIfAbsent(appName, newStats);
+            if (stats == null) {
+                stats = newStats;
             }
         }
+        stats.add(rootCtx);
     }
 
     /**
@@ -243,6 +360,24 @@ public final class LocalLauncher {
      * @return created job context
      */
     public static RunContext prepareChildJob(final RootContext parent, final String name, final String[] command) {
+        return prepareChildJob(parent, name, command, (RunContext[]) null);
+    }
+
+    /**
+     * Create a ProcessContext with the given command and arguments that will run once the given tasks are finished (OK).
+     * Tasks having no dependency between them run concurrently.
+     *
+     * @see RunContext#addDependency(RunContext)
+     *
+     * @param parent root context of the given run context
+     * @param name name of the operation
+     * @param command unix command with arguments as an array
+     * @param dependencies tasks (same root context) to wait for
+     *
+     * @return created job context
+     */
+    public static RunContext prepareChildJob(final RootContext parent, final String name, final String[] command,
+                                             final RunContext... dependencies) {
         if (CollectionUtils.isEmpty(command)) {
             throw new IllegalArgumentException("Invalid command parameter !");
         }
@@ -258,6 +393,12 @@ public final class LocalLauncher {
 
         runCtx.setRing(parent.getRing());
 
+        if (dependencies != null) {
+            for (RunContext dependency : dependencies) {
+                runCtx.addDependency(dependency);
+            }
+        }
+
         _logger.debug("LocalLauncher.prepareJob: exit: {}", runCtx);
 
         return runCtx;
@@ -321,18 +462,14 @@ public final class LocalLauncher {
         }
 
         // uses the runner thread pool to run the job :
-        // throws IllegalStateException if the job is not queued or the thread pool is down :
+        // throws IllegalStateException if the thread pool is down :
         final ThreadExecutors e = ThreadExecutors.getRunnerExecutor();
 
-        // The executor is ready to accept new tasks :
-        final Future<?> future = e.submit(new JobRunner(e.getExecutor(), rootCtx, listener));
-
-        // increment total counter :
-        JOBS_TOTAL.incrementAndGet();
-
-        // Here : job has been accepted and queued in ThreadExecutor (maybe already running) :
-        // define the future associated to the root context :
-        rootCtx.setFuture(future);
+        // record the submission before any state transition :
+        final JobJournal journal = JOB_JOURNAL;
+        if (journal != null) {
+            journal.submitted(rootCtx);
+        }
 
         // add in queue for monitoring :
         addInQueue(rootCtx);
@@ -341,6 +478,18 @@ public final class LocalLauncher {
         if (listener != null) {
             listener.performJobEvent(rootCtx);
         }
+
+        // The scheduler submits the job to the runner thread pool as soon as limits allow it
+        // and defines the future associated to the root context :
+        try {
+            JOB_SCHEDULER.submit(rootCtx, listener, new JobRunner(e.getExecutor(), rootCtx, listener));
+        } catch (IllegalStateException ise) {
+            removeFromQueue(rootCtx.getId());
+            throw ise;
+        }
+
+        // increment total counter :
+        JOBS_TOTAL.incrementAndGet();
     }
 
     /**
@@ -357,17 +506,14 @@ public final class LocalLauncher {
                     final RootContext ctx = ((RootContext) runCtx);
                     if (ctx.getState() == RunState.STATE_PENDING) {
                         ctx.setState(RunState.STATE_CANCELED);
+                        // remove from the scheduler queue if not started:
+                        JOB_SCHEDULER.cancel(ctx);
                         if (ctx.getFuture() != null) {
                             // cancel a pending task :
                             ctx.getFuture().cancel(true);
                         }
                     } else if (ctx.getState() == RunState.STATE_RUNNING) {
-                        final RunContext child = ctx.getCurrentChildContext();
-
-                        if (child != null) {
-                            ctx.setState(RunState.STATE_KILLED);
-                            child.kill();
-                        }
+                        killChildren(ctx);
                     }
                 }
             } finally {
@@ -390,12 +536,7 @@ public final class LocalLauncher {
                     // kill the root context :
                     final RootContext ctx = ((RootContext) runCtx);
                     if (ctx.getState() == RunState.STATE_RUNNING) {
-                        final RunContext child = ctx.getCurrentChildContext();
-
-                        if (child != null) {
-                            ctx.setState(RunState.STATE_KILLED);
-                            child.kill();
-                        }
+                        killChildren(ctx);
                     }
                 }
             } finally {
@@ -405,6 +546,30 @@ public final class LocalLauncher {
         }
     }
 
+    /**
+     * Kill the running child contexts (several in parallel mode) of the given running job
+     * @param ctx running job
+     */
+    private static void killChildren(final RootContext ctx) {
+        final List<RunContext> children = (ctx.isParallel()) ? ctx.getRunningChildContexts() : null;
+
+        if (children == null) {
+            final RunContext child = ctx.getCurrentChildContext();
+
+            if (child != null) {
+                ctx.setState(RunState.STATE_KILLED);
+                child.kill();
+            }
+        } else {
+            // stop launching new tasks:
+            ctx.setState(RunState.STATE_KILLED);
+
+            for (RunContext child : children) {
+                child.kill();
+            }
+        }
+    }
+
     /**
      * Cancel the job given its identifier if pending
      * @param id job id
@@ -418,6 +583,8 @@ public final class LocalLauncher {
                     final RootContext ctx = ((RootContext) runCtx);
                     if (ctx.getState() == RunState.STATE_PENDING) {
                         ctx.setState(RunState.STATE_CANCELED);
+                        // remove from the scheduler queue if not started:
+                        JOB_SCHEDULER.cancel(ctx);
                         if (ctx.getFuture() != null) {
                             // cancel a pending task :
                             ctx.getFuture().cancel(true);
@@ -442,17 +609,7 @@ public final class LocalLauncher {
             _logger.debug("LocalLauncher.addInQueue: job queued: ", rootCtx.shortString());
         }
 
-        try {
-            // semaphore is acquired to protect queue :
-            QUEUE_SEM.acquire();
-
-            JOB_QUEUE.put(rootCtx.getId(), rootCtx);
-        } catch (final InterruptedException ie) {
-            _logger.error("LocalLauncher.addInQueue: interrupted: ", ie);
-        } finally {
-            // semaphore is released :
-            QUEUE_SEM.release();
-        }
+        JOB_QUEUE.add(rootCtx);
 
         // increment queue counter :
         JOBS_QUEUED.incrementAndGet();
@@ -466,22 +623,12 @@ public final class LocalLauncher {
     public static void removeFromQueue(final Long id) {
         _logger.debug("LocalLauncher.removeFromQueue: job to remove: {}", id);
 
-        try {
-            // semaphore is acquired to protect queue :
-            QUEUE_SEM.acquire();
-
-            final RunContext runCtx = JOB_QUEUE.remove(id);
+        final RunContext runCtx = JOB_QUEUE.remove(id);
 
-            if (runCtx == null) {
-                _logger.warn("LocalLauncher.removeFromQueue: job not found in queue: {}", id);
-            } else if (_logger.isDebugEnabled()) {
-                _logger.debug("LocalLauncher.removeFromQueue: job removed from queue: ", runCtx.shortString());
-            }
-        } catch (final InterruptedException ie) {
-            _logger.error("LocalLauncher.removeFromQueue: interrupted: ", ie);
-        } finally {
-            // semaphore is released :
-            QUEUE_SEM.release();
+        if (runCtx == null) {
+            _logger.warn("LocalLauncher.removeFromQueue: job not found in queue: {}", id);
+        } else if (_logger.isDebugEnabled()) {
+            _logger.debug("LocalLauncher.removeFromQueue: job removed from queue: ", runCtx.shortString());
         }
     }
 
@@ -491,77 +638,47 @@ public final class LocalLauncher {
      * @return List of job present in the queue when this method is called
      */
     public static List<RootContext> getQueue() {
-        try {
-            // semaphore is acquired to protect queue :
-            QUEUE_SEM.acquire();
+        return JOB_QUEUE.getJobs();
+    }
 
-            return new ArrayList<RootContext>(JOB_QUEUE.values());
-        } catch (final InterruptedException ie) {
-            _logger.error("LocalLauncher.getQueue: interrupted: ", ie);
-        } finally {
-            // semaphore is released :
-            QUEUE_SEM.release();
-        }
+    /**
+     * Return the job registry (concurrent queue index) to perform queries by owner or state
+     *
+     * @return job registry
+     */
+    public static JobRegistry getJobRegistry() {
+        return JOB_QUEUE;
+    }
 
-        return null;
+    /**
+     * Return the job scheduler to define limits (slots, per owner, per application) and owner weights
+     *
+     * @return job scheduler
+     */
+    public static JobScheduler getJobScheduler() {
+        return JOB_SCHEDULER;
     }
 
     /**
-     * Return a copy of the current queue (used to display its state)
+     * Return the number of active (pending or running) jobs present in the queue (O(1))
      *
-     * @return List of job present in the queue when this method is called
+     * @return number of active jobs
      */
     public static int queryActiveQueuedJobs() {
-        int count = 0;
-        try {
-            // semaphore is acquired to protect queue :
-            QUEUE_SEM.acquire();
-
-            for (RootContext c : JOB_QUEUE.values()) {
-                if ((c.getState() == RunState.STATE_PENDING || c.getState() == RunState.STATE_RUNNING)) {
-                    count++;
-                }
-            }
-        } catch (final InterruptedException ie) {
-            _logger.error("LocalLauncher.queryActiveQueuedJobs: interrupted : ", ie);
-        } finally {
-            // semaphore is released :
-            QUEUE_SEM.release();
-        }
-
-        return count;
+        return JOB_QUEUE.getActiveCount();
     }
 
     /**
-     * Return a copy of the current queue (used to display its state)
+     * Return the number of active (pending or running) jobs owned by the given user present in the queue (O(1))
      *
      * @param user user id
-     * @return List of job present in the queue when this method is called
+     * @return number of active jobs owned by the given user
      */
     public static int queryActiveQueuedJobs(final String user) {
         if (user == null) {
             return 0;
         }
-        final String owner = user.trim();
-        int count = 0;
-        try {
-            // semaphore is acquired to protect queue :
-            QUEUE_SEM.acquire();
-
-            for (RootContext c : JOB_QUEUE.values()) {
-                if (owner.equals(c.getOwner())
-                        && ((c.getState() == RunState.STATE_PENDING) || (c.getState() == RunState.STATE_RUNNING))) {
-                    count++;
-                }
-            }
-        } catch (final InterruptedException ie) {
-            _logger.error("LocalLauncher.queryActiveQueuedJobs: interrupted : ", ie);
-        } finally {
-            // semaphore is released :
-            QUEUE_SEM.release();
-        }
-
-        return count;
+        return JOB_QUEUE.getActiveCount(user.trim());
     }
 
     /**
@@ -572,19 +689,7 @@ public final class LocalLauncher {
      * @return job context or null if not present
      */
     public static RunContext getJob(final Long id) {
-        try {
-            // semaphore is acquired to protect queue :
-            QUEUE_SEM.acquire();
-
-            return JOB_QUEUE.get(id);
-        } catch (final InterruptedException ie) {
-            _logger.error("LocalLauncher.getJob: interrupted: ", ie);
-        } finally {
-            // semaphore is released :
-            QUEUE_SEM.release();
-        }
-
-        return null;
+        return JOB_QUEUE.get(id);
     }
 
     /**
@@ -592,8 +697,6 @@ public final class LocalLauncher {
      */
     private static final class JobRunner implements Runnable {
 
-        /** max number of executed child task (avoid indefinite loop) */
-        public final static int MAX_TASKS = 10;
         //~ Members --------------------------------------------------------------------------------------------------------
         /** thread pool running this job used to get its status (running, shutdown, terminated) */
         private final CustomThreadPoolExecutor _executor;
@@ -637,31 +740,37 @@ public final class LocalLauncher {
                     }
 
                     // Execute the tasks here :
-                    int n = 0;
-                    RunContext child = null;
+                    if (_rootCtx.isParallel()) {
+                        final TaskGraph graph = new TaskGraph();
 
-                    while (ok && _rootCtx.hasNext() && n < MAX_TASKS) {
-                        child = _rootCtx.next();
+                        ok = graph.execute();
 
-                        ok = false;
+                        lastState = graph.getLastState();
+                    } else {
+                        RunContext child = null;
 
-                        executeTask(child);
+                        while (ok && _rootCtx.hasNext()) {
+                            child = _rootCtx.next();
 
-                        lastState = child.getState();
+                            ok = false;
 
-                        // call listener :
-                        ok = true;
-                        if (_listener != null) {
-                            ok = _listener.performTaskDone(_rootCtx, child);
-                        }
+                            executeTask(child);
 
-                        if (!ok) {
-                            break;
-                        }
+                            lastState = child.getState();
+
+                            // call listener :
+                            ok = true;
+                            if (_listener != null) {
+                                ok = _listener.performTaskDone(_rootCtx, child);
+                            }
+
+                            if (!ok) {
+                                break;
+                            }
 
-                        // go forward in child contexts :
-                        _rootCtx.goNext();
-                        n++;
+                            // go forward in child contexts :
+                            _rootCtx.goNext();
+                        }
                     }
 
                 } catch (RuntimeException re) {
@@ -679,6 +788,9 @@ public final class LocalLauncher {
                         _rootCtx.setState(ok ? RunState.STATE_FINISHED_OK : RunState.STATE_FINISHED_ERROR);
                     }
 
+                    // resource accounting (job totals) :
+                    accountJob(_rootCtx);
+
                     // call listener :
                     if (_listener != null) {
                         _listener.performJobEvent(_rootCtx);
@@ -714,9 +826,7 @@ public final class LocalLauncher {
                 runCtx.setState(RunState.STATE_RUNNING);
 
                 // call listener :
-                if (_listener != null) {
-                    _listener.performTaskEvent(runCtx.getParent(), runCtx);
-                }
+                fireTaskEvent(runCtx);
 
                 // starts program & waits for its end (and std threads) :
                 // uses a ring buffer for stdout/stderr :
@@ -759,14 +869,409 @@ public final class LocalLauncher {
                 }
 
                 // call listener :
-                if (_listener != null) {
-                    _listener.performTaskEvent(runCtx.getParent(), runCtx);
-                }
+                fireTaskEvent(runCtx);
             }
 
             if (_logger.isDebugEnabled()) {
                 _logger.debug("JobRunner.executeTask: exit: {}", runCtx.getId());
             }
         }
+
+        /**
+         * Call the listener for the given task event (serialized as tasks may run concurrently)
+         * @param runCtx task context
+         */
+        private void fireTaskEvent(final RunContext runCtx) {
+            if (_listener != null) {
+                synchronized (this) {
+                    _listener.performTaskEvent(runCtx.getParent(), runCtx);
+                }
+            }
+        }
+
+        /**
+         * Call the listener for the given finished task (serialized as tasks may run concurrently)
+         * @param runCtx task context
+         * @return boolean: true if the processing should continue, false if the job should be terminated
+         */
+        private boolean fireTaskDone(final RunContext runCtx) {
+            if (_listener != null) {
+                synchronized (this) {
+                    return _listener.performTaskDone(_rootCtx, runCtx);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * This class runs the child contexts of the root context as a dependency graph (DAG):
+         * ready tasks (dependencies finished OK) are submitted to the runner thread pool when the job scheduler
+         * grants them a slot (global, owner and application limits) and the job thread runs remaining tasks
+         * itself while waiting (no dead lock with a bounded pool).
+         * Every task writes into its own ring buffer forwarding lines to the job ring buffer.
+         * A task that is not finished OK cancels its dependent tasks; if the listener stops the job
+         * (or the job is killed), running tasks are killed and remaining tasks are canceled.
+         */
+        private final class TaskGraph {
+
+            //~ Members ----------------------------------------------------------------------------------------------------
+            /** number of unfinished dependencies per task */
+            private final Map<RunContext, Integer> _pendingDependencies = new IdentityHashMap<RunContext, Integer>();
+            /** dependent tasks per task */
+            private final Map<RunContext, List<RunContext>> _dependents = new IdentityHashMap<RunContext, List<RunContext>>();
+            /** ready tasks */
+            private final ArrayDeque<RunContext> _ready = new ArrayDeque<RunContext>();
+            /** started tasks (queued in the thread pool, deferred or running) */
+            private final List<TaskRunner> _started = new ArrayList<TaskRunner>();
+            /** started tasks waiting for a slot to be submitted to the thread pool (unless claimed by the job thread) */
+            private final ArrayDeque<TaskRunner> _deferred = new ArrayDeque<TaskRunner>();
+            /** finished tasks */
+            private final BlockingQueue<TaskRunner> _finished = new LinkedBlockingQueue<TaskRunner>();
+            /** stop flag: no more task to start */
+            private volatile boolean _stopped = false;
+            /** state of the last finished task */
+            private RunState _lastState = null;
+
+            /**
+             * Return the state of the last finished task
+             * @return state of the last finished task
+             */
+            RunState getLastState() {
+                return _lastState;
+            }
+
+            /**
+             * Build the dependency graph
+             * @return true if the graph is valid (acyclic); false otherwise
+             */
+            private boolean prepare() {
+                final List<RunContext> tasks = _rootCtx.getChildContexts();
+
+                for (RunContext task : tasks) {
+                    final List<RunContext> dependencies = task.getDependencies();
+                    _pendingDependencies.put(task, Integer.valueOf(dependencies.size()));
+
+                    for (RunContext dependency : dependencies) {
+                        List<RunContext> dependents = _dependents.get(dependency);
+                        if (dependents == null) {
+                            dependents = new ArrayList<RunContext>(2);
+                            _dependents.put(dependency, dependents);
+                        }
+                        dependents.add(task);
+                    }
+                    if (dependencies.isEmpty()) {
+                        _ready.add(task);
+                    }
+                }
+
+                // check cycles (topological sort):
+                final Map<RunContext, Integer> pending = new IdentityHashMap<RunContext, Integer>(_pendingDependencies);
+                final ArrayDeque<RunContext> queue = new ArrayDeque<RunContext>(_ready);
+                int sorted = 0;
+                for (RunContext task; (task = queue.poll()) != null;) {
+                    sorted++;
+                    final List<RunContext> dependents = _dependents.get(task);
+                    if (dependents != null) {
+                        for (RunContext dependent : dependents) {
+                            final int n = pending.get(dependent).intValue() - 1;
+                            pending.put(dependent, Integer.valueOf(n));
+                            if (n == 0) {
+                                queue.add(dependent);
+                            }
+                        }
+                    }
+                }
+                if (sorted != tasks.size()) {
+                    _logger.error("JobRunner.prepare: cyclic task dependencies in job: {}", _rootCtx.shortString());
+                    return false;
+                }
+                return true;
+            }
+
+            /**
+             * Execute the tasks and wait for them to finish
+             * @return true if the processing succeeded, false if the job was terminated
+             */
+            boolean execute() {
+                final boolean valid = prepare();
+                boolean ok = valid;
+
+                if (valid) {
+                    final RingBuffer ring = _rootCtx.getRing();
+                    ring.prepare();
+
+                    int active = 0;
+                    boolean interrupted = false;
+
+                    while (active != 0 || (!_stopped && !_ready.isEmpty())) {
+                        // start ready tasks:
+                        while (!_stopped && !_ready.isEmpty()) {
+                            final RunContext task = _ready.poll();
+                            final TaskRunner runner = new TaskRunner(task, ring);
+                            _started.add(runner);
+                            active++;
+
+                            if (active != 1 || !_ready.isEmpty()) {
+                                _deferred.add(runner);
+                            }
+                        }
+                        // submit deferred tasks while the job scheduler grants slots:
+                        submitTasks();
+
+                        if (active == 0) {
+                            break;
+                        }
+
+                        // wait for one finished task, running unstarted tasks meanwhile:
+                        TaskRunner finished = _finished.poll();
+
+                        if (finished == null) {
+                            final TaskRunner runner = claimTask();
+                            if (runner != null) {
+                                runner.execute();
+                                continue;
+                            }
+                            try {
+                                finished = _finished.take();
+                            } catch (InterruptedException ie) {
+                                // occurs when the threadpool shutdowns or interrupts the job (future.cancel) :
+                                _logger.debug("JobRunner.execute: interrupted: ", ie);
+                                interrupted = true;
+                                ok = false;
+                                stop();
+                                continue;
+                            }
+                        }
+                        active--;
+
+                        if (!onFinished(finished)) {
+                            ok = false;
+                        }
+                    }
+
+                    if (interrupted) {
+                        _lastState = RunState.STATE_INTERRUPTED;
+                        // restore interrupted status:
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                // cancel tasks not started:
+                for (RunContext task : _rootCtx.getChildContexts()) {
+                    if (task.isPending()) {
+                        task.setState(RunState.STATE_CANCELED);
+                    }
+                }
+                return ok && !isKilled();
+            }
+
+            /**
+             * Submit deferred tasks to the runner thread pool while the job scheduler grants slots
+             */
+            private void submitTasks() {
+                for (TaskRunner runner; !_stopped && (runner = _deferred.peek()) != null;) {
+                    if (runner.isClaimed()) {
+                        // run by the job thread:
+                        _deferred.poll();
+                        continue;
+                    }
+                    if (!JOB_SCHEDULER.acquireTaskSlot(_rootCtx)) {
+                        break;
+                    }
+                    _deferred.poll();
+                    runner._slot = true;
+                    try {
+                        ThreadExecutors.getRunnerExecutor().execute(runner);
+                    } catch (IllegalStateException ise) {
+                        // thread pool is down: run it here
+                        _logger.debug("JobRunner.execute: unable to submit task: {}", runner._task.shortString(), ise);
+                        runner.releaseSlot();
+                    }
+                }
+            }
+
+            /**
+             * Return true if the job was killed or canceled
+             * @return true if the job was killed or canceled
+             */
+            private boolean isKilled() {
+                final RunState state = _rootCtx.getState();
+                return (state == RunState.STATE_KILLED) || (state == RunState.STATE_CANCELED);
+            }
+
+            /**
+             * Handle the given finished task: call the listener then start or cancel its dependent tasks
+             * @param runner finished task
+             * @return false if the job must be terminated
+             */
+            private boolean onFinished(final TaskRunner runner) {
+                final RunContext task = runner._task;
+
+                // close the task ring buffer (output subscriptions):
+                task.close();
+
+                if (!runner._executed) {
+                    // canceled before start:
+                    return true;
+                }
+                _lastState = task.getState();
+
+                // call listener :
+                final boolean ok = fireTaskDone(task);
+
+                if (!ok || isKilled()) {
+                    stop();
+                    return ok;
+                }
+
+                final List<RunContext> dependents = _dependents.get(task);
+                if (dependents != null) {
+                    final boolean success = (task.getState() == RunState.STATE_FINISHED_OK);
+
+                    for (RunContext dependent : dependents) {
+                        if (success) {
+                            final int n = _pendingDependencies.get(dependent).intValue() - 1;
+                            _pendingDependencies.put(dependent, Integer.valueOf(n));
+                            if (n == 0 && dependent.isPending()) {
+                                _ready.add(dependent);
+                            }
+                        } else {
+                            cancel(dependent);
+                        }
+                    }
+                }
+                return true;
+            }
+
+            /**
+             * Cancel the given pending task and its dependent tasks
+             * @param task task to cancel
+             */
+            private void cancel(final RunContext task) {
+                if (task.isPending()) {
+                    task.setState(RunState.STATE_CANCELED);
+
+                    final List<RunContext> dependents = _dependents.get(task);
+                    if (dependents != null) {
+                        for (RunContext dependent : dependents) {
+                            cancel(dependent);
+                        }
+                    }
+                }
+            }
+
+            /**
+             * Stop starting tasks and kill running tasks
+             */
+            private void stop() {
+                _stopped = true;
+                _ready.clear();
+                for (TaskRunner runner : _started) {
+                    if (runner._task.isRunning()) {
+                        runner._task.kill();
+                    }
+                }
+            }
+
+            /**
+             * Claim a started task not yet executed by the thread pool
+             * @return task runner or null
+             */
+            private TaskRunner claimTask() {
+                for (TaskRunner runner : _started) {
+                    if (runner.claim()) {
+                        // queued in the thread pool: its slot is useless
+                        runner.releaseSlot();
+                        return runner;
+                    }
+                }
+                return null;
+            }
+
+            /**
+             * This class runs one task either in the runner thread pool or in the job thread (first claim wins)
+             */
+            private final class TaskRunner implements Runnable {
+
+                //~ Members ------------------------------------------------------------------------------------------------
+                /** task context */
+                final RunContext _task;
+                /** claimed flag */
+                private final AtomicBoolean _claimed = new AtomicBoolean(false);
+                /** true if the task was executed (not canceled) */
+                volatile boolean _executed = false;
+                /** true if this task holds a job scheduler slot (submitted to the thread pool) */
+                volatile boolean _slot = false;
+
+                /**
+                 * Constructor for the given task
+                 * @param task task context
+                 * @param ring job ring buffer
+                 */
+                TaskRunner(final RunContext task, final RingBuffer ring) {
+                    _task = task;
+                    if (task.getRing() == null || task.getRing() == ring) {
+                        // per-task ring buffer forwarding lines to the job ring buffer:
+                        task.setRing(new RingBuffer(MAX_LINES, ring));
+                    }
+                }
+
+                /**
+                 * Claim this task
+                 * @return true if the caller must execute this task
+                 */
+                boolean claim() {
+                    return _claimed.compareAndSet(false, true);
+                }
+
+                /**
+                 * Return true if this task was claimed
+                 * @return true if this task was claimed
+                 */
+                boolean isClaimed() {
+                    return _claimed.get();
+                }
+
+                /**
+                 * Release the job scheduler slot of this task (if any)
+                 */
+                void releaseSlot() {
+                    if (_slot) {
+                        _slot = false;
+                        JOB_SCHEDULER.releaseTaskSlot(_rootCtx);
+                    }
+                }
+
+                /**
+                 * Execute this task if not already claimed (thread pool)
+                 */
+                @Override
+                public void run() {
+                    if (claim()) {
+                        execute();
+                    }
+                }
+
+                /**
+                 * Execute this task (claimed) unless the graph is stopped then signal its end
+                 */
+                void execute() {
+                    try {
+                        if (!_stopped) {
+                            _executed = true;
+                            executeTask(_task);
+                        } else if (_task.isPending()) {
+                            _task.setState(RunState.STATE_CANCELED);
+                        }
+                    } catch (RuntimeException re) {
+                        _logger.error("JobRunner.execute : runtime exception : ", re);
+                    } finally {
+                        // release the slot before the job thread may start other tasks:
+                        releaseSlot();
+                        _finished.add(this);
+                    }
+                }
+            }
+        }
     }
 }
@@ -57,6 +57,12 @@ public final class RootContext extends RunContext implements Iterator<RunContext
     private final List<RunContext> _childContexts = new ArrayList<RunContext>(2);
     /** Current executed task position in the Child contexts */
     private int _currentTask = 0;
+    /** true to run child contexts concurrently according to their dependencies; false to run them sequentially */
+    private boolean _parallel = false;
+    /** job registry tracking this job (null if not registered) */
+    private transient volatile JobRegistry _registry = null;
+    /** job journal recording this job (null if not journaled) */
+    private transient volatile JobJournal _journal = null;
 
     /**
      * Creates a new RunContext object for JPA
@@ -118,7 +124,70 @@ public final class RootContext extends RunContext implements Iterator<RunContext
     }
 
     public void setOwner(final String owner) {
-        _owner = owner;
+        // serialize with state transitions (registry indexes) :
+        synchronized (this) {
+            final String oldOwner = _owner;
+            _owner = owner;
+            final JobRegistry registry = _registry;
+            if (registry != null) {
+                registry.ownerChanged(this, oldOwner, owner);
+            }
+        }
+    }
+
+    /**
+     * Define the job registry tracking this job
+     * @param registry job registry or null
+     */
+    void setRegistry(final JobRegistry registry) {
+        _registry = registry;
+    }
+
+    /**
+     * Update the job registry indexes on every state transition
+     *
+     * @param oldState previous state
+     * @param newState new state
+     */
+    @Override
+    void stateChanged(final RunState oldState, final RunState newState) {
+        final JobRegistry registry = _registry;
+        if (registry != null) {
+            registry.stateChanged(this, oldState, newState);
+        }
+        final JobJournal journal = _journal;
+        if (journal != null) {
+            journal.stateChanged(this, newState);
+        }
+    }
+
+    /**
+     * Record the state transition of the given child context in the job journal
+     *
+     * @param child child context
+     * @param newState new state
+     */
+    void childStateChanged(final RunContext child, final RunState newState) {
+        final JobJournal journal = _journal;
+        if (journal != null) {
+            journal.stateChanged(child, newState);
+        }
+    }
+
+    /**
+     * Return the job journal recording this job
+     * @return job journal or null
+     */
+    JobJournal getJournal() {
+        return _journal;
+    }
+
+    /**
+     * Define the job journal recording this job
+     * @param journal job journal or null
+     */
+    void setJournal(final JobJournal journal) {
+        _journal = journal;
     }
 
     /**
@@ -143,6 +212,40 @@ public final class RootContext extends RunContext implements Iterator<RunContext
         return _childContexts;
     }
 
+    /**
+     * Return the running child contexts (several in parallel mode)
+     * @return running child contexts
+     */
+    public List<RunContext> getRunningChildContexts() {
+        final List<RunContext> running = new ArrayList<RunContext>(2);
+        for (RunContext child : _childContexts) {
+            if (child.isRunning()) {
+                running.add(child);
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Return true if child contexts run concurrently according to their dependencies
+     * @return true if child contexts run concurrently; false if they run sequentially
+     */
+    public boolean isParallel() {
+        return _parallel;
+    }
+
+    /**
+     * Define the execution mode of child contexts: concurrently according to their dependencies
+     * (tasks without dependencies are independent) or sequentially (default)
+     *
+     * @see RunContext#addDependency(RunContext)
+     *
+     * @param parallel true to run child contexts concurrently; false to run them sequentially
+     */
+    public void setParallel(final boolean parallel) {
+        _parallel = parallel;
+    }
+
     public RunContext getCurrentChildContext() {
         if (_currentTask < _childContexts.size()) {
             return _childContexts.get(_currentTask);
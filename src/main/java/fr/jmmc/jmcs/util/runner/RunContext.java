@@ -29,7 +29,12 @@ package fr.jmmc.jmcs.util.runner;
 
 import java.io.Serializable;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import fr.jmmc.jmcs.util.runner.process.OutputListener;
+import fr.jmmc.jmcs.util.runner.process.OutputSubscription;
 import fr.jmmc.jmcs.util.runner.process.RingBuffer;
 
 /**
@@ -59,10 +64,18 @@ public class RunContext implements Serializable, Cloneable {
     private Date _endDate = null;
     /** Job duration */
     private long _duration = 0L;
+    /** CPU time in ms (0 if unknown) */
+    private long _cpuTime = 0L;
+    /** peak resident memory in bytes (0 if unknown) */
+    private long _peakMemory = 0L;
+    /** number of output bytes (STD OUT / ERR) */
+    private long _outputBytes = 0L;
     /** Job state */
-    private RunState _state;
+    private volatile RunState _state;
     /** Ring Buffer for logs */
     private transient RingBuffer _ring = null;
+    /** Tasks (same root context) that must be finished before running this task */
+    private transient List<RunContext> _dependencies = null;
 
     /**
      * Creates a new RunContext object for JPA
@@ -204,7 +217,12 @@ public class RunContext implements Serializable, Cloneable {
      * @param state to set
      */
     protected final void setState(final RunState state) {
-        _state = state;
+        // serialize transitions (registry indexes) :
+        synchronized (this) {
+            final RunState oldState = _state;
+            _state = state;
+            stateChanged(oldState, state);
+        }
         switch (state) {
             case STATE_PENDING:
                 setQueueDate(new Date());
@@ -229,6 +247,57 @@ public class RunContext implements Serializable, Cloneable {
         }
     }
 
+    /**
+     * Hook called on every state transition while holding this context lock:
+     * notifies the root context (job journal)
+     *
+     * @param oldState previous state
+     * @param newState new state
+     */
+    void stateChanged(final RunState oldState, final RunState newState) {
+        final RootContext parent = getParent();
+        if (parent != null) {
+            parent.childStateChanged(this, newState);
+        }
+    }
+
+    /**
+     * Restore the given state and its date (job journal recovery) without any notification
+     *
+     * @param state state to restore
+     * @param date date of the state transition
+     */
+    final void restoreState(final RunState state, final Date date) {
+        synchronized (this) {
+            _state = state;
+        }
+        switch (state) {
+            case STATE_PENDING:
+                setQueueDate(date);
+                break;
+            case STATE_RUNNING:
+                setRunDate(date);
+                break;
+            case STATE_CANCELED:
+            case STATE_INTERRUPTED:
+            case STATE_KILLED:
+            case STATE_FINISHED_ERROR:
+            case STATE_FINISHED_OK:
+                setEndDate(date);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Restore the creation date (job journal recovery)
+     *
+     * @param date creation date
+     */
+    final void restoreCreationDate(final Date date) {
+        _creationDate = date;
+    }
+
     /**
      * Return the job creation date
      * @return job creation date
@@ -309,6 +378,74 @@ public class RunContext implements Serializable, Cloneable {
         _duration = duration;
     }
 
+    /**
+     * Returns the queue latency in ms i.e. the delay between the queue date and the run date
+     *
+     * @return queue latency or 0 if not started
+     */
+    public final long getQueueLatency() {
+        final Date queueDate = getQueueDate();
+        final Date runDate = getRunDate();
+        if (queueDate == null || runDate == null) {
+            return 0L;
+        }
+        return Math.max(0L, runDate.getTime() - queueDate.getTime());
+    }
+
+    /**
+     * Returns the CPU time in ms (user + system)
+     *
+     * @return CPU time or 0 if unknown
+     */
+    public final long getCpuTime() {
+        return _cpuTime;
+    }
+
+    /**
+     * Defines the CPU time in ms (user + system)
+     *
+     * @param cpuTime to set
+     */
+    public final void setCpuTime(final long cpuTime) {
+        _cpuTime = cpuTime;
+    }
+
+    /**
+     * Returns the peak resident memory in bytes
+     *
+     * @return peak resident memory or 0 if unknown
+     */
+    public final long getPeakMemory() {
+        return _peakMemory;
+    }
+
+    /**
+     * Defines the peak resident memory in bytes
+     *
+     * @param peakMemory to set
+     */
+    public final void setPeakMemory(final long peakMemory) {
+        _peakMemory = peakMemory;
+    }
+
+    /**
+     * Returns the number of output bytes (STD OUT / ERR)
+     *
+     * @return number of output bytes
+     */
+    public final long getOutputBytes() {
+        return _outputBytes;
+    }
+
+    /**
+     * Defines the number of output bytes (STD OUT / ERR)
+     *
+     * @param outputBytes to set
+     */
+    public final void setOutputBytes(final long outputBytes) {
+        _outputBytes = outputBytes;
+    }
+
     /**
      * Returns the ring buffer
      *
@@ -327,6 +464,58 @@ public class RunContext implements Serializable, Cloneable {
         _ring = ring;
     }
 
+    /**
+     * Subscribe the given listener to receive output lines of this context incrementally
+     * (lines already present in the ring buffer are delivered first)
+     *
+     * @see RingBuffer#subscribe(OutputListener, boolean)
+     *
+     * @param listener output listener
+     * @return new subscription (use OutputSubscription.cancel() to unsubscribe)
+     * @throws IllegalStateException if the ring buffer is undefined
+     */
+    public final OutputSubscription subscribeOutput(final OutputListener listener) {
+        final RingBuffer ring = getRing();
+        if (ring == null) {
+            throw new IllegalStateException("Undefined ring buffer for context: " + shortString());
+        }
+        return ring.subscribe(listener, true);
+    }
+
+    /**
+     * Declare that this task depends on the given task: it will only run once the given task is finished (OK).
+     * Declaring dependencies enables the parallel execution of the root context tasks.
+     *
+     * @see RootContext#setParallel(boolean)
+     *
+     * @param task task (same root context) to wait for
+     * @throws IllegalArgumentException if the given task is this task or does not belong to the same root context
+     */
+    public final void addDependency(final RunContext task) {
+        if (task == null || task == this || getParent() == null || task.getParent() != getParent()) {
+            throw new IllegalArgumentException("Invalid dependency: " + task + " for task: " + shortString());
+        }
+        if (_dependencies == null) {
+            _dependencies = new ArrayList<RunContext>(2);
+        }
+        if (!_dependencies.contains(task)) {
+            _dependencies.add(task);
+        }
+        getParent().setParallel(true);
+    }
+
+    /**
+     * Return the tasks that must be finished before running this task
+     *
+     * @return tasks that must be finished before running this task (read only)
+     */
+    public final List<RunContext> getDependencies() {
+        if (_dependencies == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(_dependencies);
+    }
+
     /**
      * Return the name of this context
      * @return name of this context
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner.process;
+
+/**
+ * This interface receives process output lines pushed incrementally by a ring buffer subscription.
+ * Callbacks of one subscription are serialized (never called concurrently) and run in the subscription executor.
+ * 
+ * @see RingBuffer#subscribe(OutputListener, boolean)
+ * @see OutputSubscription
+ * 
+ * @author Laurent BOURGES.
+ */
+public interface OutputListener {
+
+    /**
+     * Handle a new output line
+     * @param seq line sequence number (increasing, starting at 0 for the first line added in the ring buffer)
+     * @param prefix optional line prefix (ERROR ...) or null
+     * @param line line content
+     */
+    public void onOutput(final long seq, final String prefix, final String line);
+
+    /**
+     * Handle lines dropped because this listener was too slow (drop oldest policy)
+     * @param count number of lines dropped since the previous notification
+     */
+    public void onDropped(final long count);
+
+    /**
+     * Handle the end of output: the ring buffer was closed and all remaining lines were delivered
+     */
+    public void onClosed();
+}
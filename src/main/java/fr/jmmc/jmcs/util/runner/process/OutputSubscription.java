@@ -0,0 +1,275 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner.process;
+
+import fr.jmmc.jmcs.util.concurrent.ThreadExecutors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class delivers lines added in a ring buffer to an output listener (push mode).
+ * 
+ * It keeps a cursor (next sequence number to deliver) on the ring buffer so each delivery only
+ * processes new lines. Writers only signal the subscription (one compare and set) and a single
+ * delivery task runs at a time in the given executor.
+ * 
+ * The backlog is bounded by the subscription capacity (at most the ring buffer size): 
+ * when the listener is too slow, the oldest lines are dropped and reported by OutputListener.onDropped().
+ *
+ * @see RingBuffer#subscribe(OutputListener, boolean, int, ThreadExecutors)
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class OutputSubscription implements Runnable {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(OutputSubscription.class.getName());
+    // Members
+    /** ring buffer */
+    private final RingBuffer _ring;
+    /** output listener */
+    private final OutputListener _listener;
+    /** maximum number of pending lines */
+    private final int _capacity;
+    /** executor running delivery tasks */
+    private final ThreadExecutors _executor;
+    /** scheduled flag: true if a delivery task is queued or running */
+    private final AtomicBoolean _scheduled = new AtomicBoolean(false);
+    /** cancelled flag */
+    private volatile boolean _cancelled = false;
+    /** closed flag: true once onClosed() was called */
+    private volatile boolean _closed = false;
+    /** next sequence number to deliver (only modified by the delivery task) */
+    private volatile long _cursor;
+    /** number of delivered lines */
+    private volatile long _delivered = 0l;
+    /** number of dropped lines */
+    private volatile long _dropped = 0l;
+    /** line holder [prefix, line] (only used by the delivery task) */
+    private final String[] _holder = new String[2];
+
+    /**
+     * Protected constructor used by RingBuffer.subscribe()
+     * @param ring ring buffer
+     * @param listener output listener
+     * @param capacity maximum number of pending lines
+     * @param executor executor running delivery tasks
+     * @param cursor first sequence number to deliver
+     */
+    OutputSubscription(final RingBuffer ring, final OutputListener listener, final int capacity,
+                       final ThreadExecutors executor, final long cursor) {
+        _ring = ring;
+        _listener = listener;
+        _capacity = capacity;
+        _executor = executor;
+        _cursor = cursor;
+    }
+
+    /**
+     * Cancel this subscription: no more lines will be delivered (onClosed() is not called)
+     */
+    public void cancel() {
+        _cancelled = true;
+        _ring.unsubscribe(this);
+    }
+
+    /**
+     * Return true if this subscription is cancelled or closed
+     * @return true if this subscription is cancelled or closed
+     */
+    public boolean isDone() {
+        return _cancelled || _closed;
+    }
+
+    /**
+     * Return the output listener
+     * @return output listener
+     */
+    public OutputListener getListener() {
+        return _listener;
+    }
+
+    /**
+     * Return the maximum number of pending lines
+     * @return maximum number of pending lines
+     */
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * Return the next sequence number to deliver
+     * @return next sequence number to deliver
+     */
+    public long getNextSequence() {
+        return _cursor;
+    }
+
+    /**
+     * Return the number of delivered lines
+     * @return number of delivered lines
+     */
+    public long getDeliveredCount() {
+        return _delivered;
+    }
+
+    /**
+     * Return the number of dropped lines
+     * @return number of dropped lines
+     */
+    public long getDroppedCount() {
+        return _dropped;
+    }
+
+    /**
+     * Schedule a delivery task unless one is already pending (called by writers: cheap and non blocking)
+     */
+    void signal() {
+        if (!_scheduled.get() && !isDone() && _scheduled.compareAndSet(false, true)) {
+            try {
+                _executor.execute(this);
+            } catch (IllegalStateException ise) {
+                _logger.warn("OutputSubscription: unable to deliver output for listener {}", _listener, ise);
+                _scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Delivery task: delivers all pending lines then checks whether new lines arrived meanwhile
+     */
+    @Override
+    public void run() {
+        do {
+            try {
+                deliver();
+            } catch (RuntimeException re) {
+                _logger.error("OutputSubscription: listener failure (subscription cancelled): {}", _listener, re);
+                cancel();
+            } finally {
+                _scheduled.set(false);
+            }
+            // avoid lost signals: lines added after deliver() but before the scheduled flag was reset:
+        } while (hasPending() && _scheduled.compareAndSet(false, true));
+    }
+
+    /**
+     * Return true if committed lines (or the close event) are pending.
+     * A line still being written is not pending: its writer signals again once committed.
+     * @return true if committed lines (or the close event) are pending
+     */
+    private boolean hasPending() {
+        if (isDone()) {
+            return false;
+        }
+        if (_cursor < _ring.getTotalCount()) {
+            return !_ring.isPending(_cursor);
+        }
+        return _ring.isClosed();
+    }
+
+    /**
+     * Deliver pending lines to the listener
+     */
+    private void deliver() {
+        if (isDone()) {
+            return;
+        }
+        final RingBuffer ring = _ring;
+        final OutputListener listener = _listener;
+        final String[] holder = _holder;
+
+        // get closed flag before the head to deliver all lines before onClosed():
+        final boolean closed = ring.isClosed();
+        final long head = ring.getTotalCount();
+
+        long seq = _cursor;
+        long dropped = 0l;
+
+        // drop oldest lines exceeding capacity:
+        final long oldest = head - _capacity;
+        if (seq < oldest) {
+            dropped = oldest - seq;
+            seq = oldest;
+        }
+
+        for (; seq < head && !_cancelled; seq++) {
+            final int status = ring.readLine(seq, holder);
+
+            if (status == RingBuffer.LINE_PENDING) {
+                // still being written: its writer will signal again
+                break;
+            }
+            if (status == RingBuffer.LINE_LOST) {
+                // overwritten meanwhile:
+                dropped++;
+            } else {
+                if (dropped != 0l) {
+                    notifyDropped(dropped);
+                    dropped = 0l;
+                }
+                listener.onOutput(seq, holder[0], holder[1]);
+                _delivered++;
+            }
+            _cursor = seq + 1l;
+        }
+        holder[0] = null;
+        holder[1] = null;
+
+        if (dropped != 0l) {
+            _cursor = seq;
+            notifyDropped(dropped);
+        }
+
+        if (closed && _cursor >= head && !_cancelled) {
+            _closed = true;
+            _ring.unsubscribe(this);
+            listener.onClosed();
+        }
+    }
+
+    /**
+     * Notify the listener that lines were dropped
+     * @param dropped number of dropped lines
+     */
+    private void notifyDropped(final long dropped) {
+        _dropped += dropped;
+        _listener.onDropped(dropped);
+    }
+
+    /**
+     * Return a string representation "OutputSubscription[listener][next: cursor delivered: n dropped: n]"
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        return "OutputSubscription[" + _listener + "][next: " + _cursor + " delivered: " + _delivered
+                + " dropped: " + _dropped + (isDone() ? " done" : "") + "]";
+    }
+}
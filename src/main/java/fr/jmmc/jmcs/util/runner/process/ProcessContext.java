@@ -47,8 +47,14 @@ public final class ProcessContext extends RunContext {
     private String _command;
     /** Process status */
     private int _exitCode = -1;
+    /** process timeout in milliseconds (0 means no timeout) */
+    private long _timeout = ProcessWatchdog.DEFAULT_TIMEOUT;
+    /** idle timeout in milliseconds i.e. no CPU and no output (0 means disabled) */
+    private long _idleTimeout = ProcessWatchdog.DEFAULT_IDLE_TIMEOUT;
     /** child UNIX process */
     private transient Process _process = null;
+    /** process watch (watchdog) */
+    private transient ProcessWatchdog.Watch _watch = null;
 
     /**
      * Creates a new ProcessContext object for JPA
@@ -126,6 +132,61 @@ public final class ProcessContext extends RunContext {
         _exitCode = code;
     }
 
+    /**
+     * Returns the process timeout in milliseconds
+     *
+     * @return process timeout (0 means no timeout)
+     */
+    public long getTimeout() {
+        return _timeout;
+    }
+
+    /**
+     * Defines the process timeout in milliseconds: the process tree is terminated by the watchdog once elapsed
+     *
+     * @param timeout process timeout (0 means no timeout)
+     */
+    public void setTimeout(final long timeout) {
+        _timeout = timeout;
+    }
+
+    /**
+     * Returns the idle timeout in milliseconds
+     *
+     * @return idle timeout (0 means disabled)
+     */
+    public long getIdleTimeout() {
+        return _idleTimeout;
+    }
+
+    /**
+     * Defines the idle timeout in milliseconds: the process tree is terminated by the watchdog
+     * when it neither uses CPU nor produces output during this delay (linux only)
+     *
+     * @param idleTimeout idle timeout (0 means disabled)
+     */
+    public void setIdleTimeout(final long idleTimeout) {
+        _idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns the process watch
+     *
+     * @return process watch or null
+     */
+    ProcessWatchdog.Watch getWatch() {
+        return _watch;
+    }
+
+    /**
+     * Defines the process watch
+     *
+     * @param watch process watch or null
+     */
+    void setWatch(final ProcessWatchdog.Watch watch) {
+        _watch = watch;
+    }
+
     /**
      * Returns the UNIX Process
      *
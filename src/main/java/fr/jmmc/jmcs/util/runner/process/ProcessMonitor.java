@@ -0,0 +1,305 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner.process;
+
+import fr.jmmc.jmcs.util.concurrent.PollingTask;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process resource monitor (Linux only): a single thread samples /proc/[pid]/stat and /proc/[pid]/status
+ * of every registered process to measure its CPU time (user + system, including waited-for children)
+ * and its peak resident memory (VmHWM).
+ * 
+ * Values are sampled (see SAMPLE_INTERVAL) so the CPU time of the last interval before the process exit is not measured.
+ * The monitor thread only runs while processes are registered.
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class ProcessMonitor extends PollingTask<ProcessMonitor.Sample> {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(ProcessMonitor.class.getName());
+    /** monitor thread pool name */
+    public static final String MONITOR_THREAD_POOL = "ProcessMonitor";
+    /** sampling interval (50 ms) */
+    public static final long SAMPLE_INTERVAL = 50l;
+    /** sampling interval in nanoseconds */
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL);
+    /** clock ticks per second used by /proc (USER_HZ) */
+    private static final long CLOCK_TICKS = 100l;
+    /** /proc directory */
+    private static final File PROC_DIR = new File("/proc");
+    /** flag indicating if /proc is available */
+    private static final boolean SUPPORTED = new File(PROC_DIR, "self/stat").canRead();
+    /** file encoding */
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    /** Process.pid() method (java 9+) */
+    private static final Method PID_METHOD;
+    /** singleton */
+    private static final ProcessMonitor INSTANCE = new ProcessMonitor();
+    // Members
+    /** read buffer (only used by the monitor thread) */
+    private final byte[] _buffer = new byte[4096];
+
+    static {
+        Method m = null;
+        try {
+            m = Process.class.getMethod("pid");
+        } catch (NoSuchMethodException nsme) {
+            // java 7 / 8: use the UNIXProcess.pid field
+        }
+        PID_METHOD = m;
+    }
+
+    /**
+     * Return the process monitor singleton
+     * @return process monitor singleton
+     */
+    public static ProcessMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Return true if process resources can be measured (/proc available)
+     * @return true if process resources can be measured
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Return the native process identifier of the given process
+     * @param process process
+     * @return process identifier or -1 if unknown
+     */
+    public static long getPid(final Process process) {
+        try {
+            if (PID_METHOD != null) {
+                return ((Number) PID_METHOD.invoke(process)).longValue();
+            }
+            final Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (Exception e) {
+            // NoSuchFieldException, IllegalAccessException, InvocationTargetException, SecurityException, UnsupportedOperationException:
+            _logger.debug("ProcessMonitor.getPid : unable to get the process identifier : ", e);
+        }
+        return -1l;
+    }
+
+    /**
+     * Forbidden constructor
+     */
+    private ProcessMonitor() {
+        super(MONITOR_THREAD_POOL);
+    }
+
+    /**
+     * Register the given process to be sampled until Sample.stop() is called or the process ends
+     * @param process process to monitor
+     * @return registered sample or null if not supported
+     */
+    public Sample register(final Process process) {
+        if (!SUPPORTED) {
+            return null;
+        }
+        final long pid = getPid(process);
+        if (pid <= 0l) {
+            return null;
+        }
+        final Sample sample = new Sample(pid);
+        // first sample (short processes):
+        sample.update(_buffer.clone());
+
+        try {
+            add(sample);
+        } catch (IllegalStateException ise) {
+            _logger.debug("ProcessMonitor.register : monitor unavailable : ", ise);
+        }
+        return sample;
+    }
+
+    /**
+     * Sample all registered processes once
+     * @param samples registered samples
+     * @return sampling interval
+     */
+    @Override
+    protected long poll(final List<Sample> samples) {
+        for (int i = samples.size() - 1; i >= 0; i--) {
+            final Sample sample = samples.get(i);
+
+            if (sample._stopped || !sample.update(_buffer)) {
+                samples.remove(i);
+            }
+        }
+        return SAMPLE_INTERVAL_NANOS;
+    }
+
+    /**
+     * Read the given /proc file
+     * @param file file to read
+     * @param buffer read buffer
+     * @return file content or null if the process ended
+     */
+    private static String readProcFile(final File file, final byte[] buffer) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int len = 0;
+            for (int n; len < buffer.length && (n = in.read(buffer, len, buffer.length - len)) > 0;) {
+                len += n;
+            }
+            return new String(buffer, 0, len, US_ASCII);
+        } catch (IOException ioe) {
+            // process ended
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ioe) {
+                    _logger.debug("ProcessMonitor.readProcFile : close failure : ", ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resource usage of one process (updated by the monitor thread)
+     */
+    public static final class Sample {
+
+        // Members
+        /** process identifier */
+        private final long _pid;
+        /** /proc/[pid]/stat */
+        private final File _statFile;
+        /** /proc/[pid]/status */
+        private final File _statusFile;
+        /** CPU time in milliseconds */
+        private volatile long _cpuTime = 0l;
+        /** peak resident memory in bytes */
+        private volatile long _peakMemory = 0l;
+        /** stopped flag */
+        volatile boolean _stopped = false;
+
+        /**
+         * Protected constructor
+         * @param pid process identifier
+         */
+        Sample(final long pid) {
+            _pid = pid;
+            final File dir = new File(PROC_DIR, String.valueOf(pid));
+            _statFile = new File(dir, "stat");
+            _statusFile = new File(dir, "status");
+        }
+
+        /**
+         * Return the process identifier
+         * @return process identifier
+         */
+        public long getPid() {
+            return _pid;
+        }
+
+        /**
+         * Return the CPU time (user + system including waited-for children) in milliseconds
+         * @return CPU time in milliseconds
+         */
+        public long getCpuTime() {
+            return _cpuTime;
+        }
+
+        /**
+         * Return the peak resident memory (VmHWM) in bytes
+         * @return peak resident memory in bytes
+         */
+        public long getPeakMemory() {
+            return _peakMemory;
+        }
+
+        /**
+         * Stop sampling (keep the last values)
+         */
+        public void stop() {
+            _stopped = true;
+        }
+
+        /**
+         * Sample the process resources
+         * @param buffer read buffer
+         * @return true if the process is still alive
+         */
+        boolean update(final byte[] buffer) {
+            final String stat = readProcFile(_statFile, buffer);
+            if (stat == null) {
+                return false;
+            }
+            // fields after the command name (may contain spaces): state (3) ... utime (14) stime (15) cutime (16) cstime (17)
+            final int pos = stat.lastIndexOf(')');
+            if (pos != -1) {
+                final String[] fields = stat.substring(pos + 2).split(" ");
+                if (fields.length > 14) {
+                    try {
+                        final long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12])
+                                + Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+                        _cpuTime = Math.max(_cpuTime, ticks * 1000l / CLOCK_TICKS);
+                    } catch (NumberFormatException nfe) {
+                        _logger.debug("ProcessMonitor.update : invalid stat : {}", stat);
+                    }
+                }
+            }
+            final String status = readProcFile(_statusFile, buffer);
+            if (status != null) {
+                final int start = status.indexOf("VmHWM:");
+                if (start != -1) {
+                    final int end = status.indexOf("kB", start);
+                    if (end != -1) {
+                        try {
+                            final long peak = 1024l * Long.parseLong(status.substring(start + 6, end).trim());
+                            _peakMemory = Math.max(_peakMemory, peak);
+                        } catch (NumberFormatException nfe) {
+                            _logger.debug("ProcessMonitor.update : invalid status : {}", status);
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
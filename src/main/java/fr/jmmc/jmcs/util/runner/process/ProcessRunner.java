@@ -57,10 +57,20 @@ public final class ProcessRunner {
     public final static int STATUS_NORMAL = 0;
     /** interrupted process status */
     public final static int STATUS_INTERRUPTED = -100;
+    /** timeout process status (killed) */
+    public final static int STATUS_TIMEOUT = -101;
     /** flag to use timeout when waiting on process stream close */
     public final static boolean USE_TIMEOUT = true;
-    /** wait timeout on standard streams (5 seconds)  */
+    /** wait timeout on standard streams without any output progress (5 seconds)  */
     public final static long STREAM_TIMEOUT = 5l;
+    /** maximum wait timeout on standard streams while output progresses (60 seconds)  */
+    public final static long STREAM_MAX_TIMEOUT = 60l;
+    /** wait slice on standard streams to check output progress (100 ms)  */
+    private final static long STREAM_WAIT_SLICE = 100l;
+    /** system property to use the stream pump (single thread for all process streams) or stream redirectors (one thread per stream) */
+    public final static String PROPERTY_STREAM_PUMP = "ProcessRunner.streamPump";
+    /** flag to use the stream pump (true by default) */
+    private final static boolean USE_STREAM_PUMP = Boolean.parseBoolean(System.getProperty(PROPERTY_STREAM_PUMP, "true"));
 
     /**
      * Forbidden constructor
@@ -69,7 +79,10 @@ public final class ProcessRunner {
     }
 
     /**
-     * Runs a job context (UNIX command) and redirects the STD OUT / ERR to the ring buffer associated to the given job context
+     * Runs a job context (UNIX command) and redirects the STD OUT / ERR to the ring buffer associated to the given job context.
+     * Commands registered in the worker pool are executed by a persistent worker process instead.
+     * @see ProcessWorkerPool
+     * @see StreamPump
      * @see StreamRedirector
      * @see RingBuffer
      * @param runCtx job context
@@ -93,55 +106,45 @@ public final class ProcessRunner {
             // initialization :
             ring.prepare();
 
-            final StreamRedirector outputRedirect = new StreamRedirector(ring);
-            final StreamRedirector errorRedirect = new StreamRedirector(ring, ERR_PREFIX);
-
             final long start = System.nanoTime();
             try {
-                final Process process = exec(workingDir, args);
-                // keep reference to allow killing process :
-                runCtx.setProcess(process);
-
-                // capture stdout :
-                outputRedirect.setInputStream(process.getInputStream());
-                // capture stderr :
-                errorRedirect.setInputStream(process.getErrorStream());
-
-                Future<?> outputFuture = null;
-                Future<?> errorFuture = null;
-
-                // start StreamRedirectors and place in runnable state :
-                _logger.debug("ProcessRunner.execute : starting outputRedirect task ...");
-
-                outputFuture = ThreadExecutors.getGenericExecutor().submit(outputRedirect);
-
-                _logger.debug("ProcessRunner.execute : starting errorRedirect task ...");
-
-                errorFuture = ThreadExecutors.getGenericExecutor().submit(errorRedirect);
-
-                _logger.debug("ProcessRunner.execute : waitFor process to end ...");
-
-                // todo use timeout to stop waiting (workaround: use cancel(true) to interrupt current thread)...
-                status = process.waitFor();
-
-                // calls thread.join to be sure that other threads finish before leaving from here :
-                // note: this thread is waiting FOR EVER until stdout/stderr streams are closed 
-                // by the child process itself
-
-                _logger.debug("ProcessRunner.execute : join output Redirect ...");
+                final ProcessWorkerPool workerPool = ProcessWorkerPool.getInstance();
 
-                if (USE_TIMEOUT) {
-                    outputFuture.get(STREAM_TIMEOUT, TimeUnit.SECONDS);
+                if (workerPool.isRegistered(args[0])) {
+                    // persistent worker (no fork / exec) :
+                    status = workerPool.execute(runCtx, workingDir, args);
                 } else {
-                    outputFuture.get();
-                }
-
-                _logger.debug("ProcessRunner.execute : join error Redirect ...");
-
-                if (USE_TIMEOUT) {
-                    errorFuture.get(STREAM_TIMEOUT, TimeUnit.SECONDS);
-                } else {
-                    errorFuture.get();
+                    final Process process = exec(workingDir, args);
+                    // keep reference to allow killing process :
+                    runCtx.setProcess(process);
+
+                    // sample CPU time and memory (linux) :
+                    final ProcessMonitor.Sample sample = ProcessMonitor.getInstance().register(process);
+                    // deadline and idle detection :
+                    final ProcessWatchdog.Watch watch = ProcessWatchdog.getInstance().watch(runCtx, process);
+                    runCtx.setWatch(watch);
+                    try {
+                        if (USE_STREAM_PUMP) {
+                            status = pumpStreams(runCtx, process, ring);
+                        } else {
+                            status = redirectStreams(runCtx, process, ring);
+                        }
+                    } finally {
+                        if (sample != null) {
+                            sample.stop();
+                            runCtx.setCpuTime(sample.getCpuTime());
+                            runCtx.setPeakMemory(sample.getPeakMemory());
+                        }
+                        if (watch != null) {
+                            watch.stop();
+                            runCtx.setWatch(null);
+
+                            if (watch.isTerminated() && !ProcessWatchdog.REASON_KILLED.equals(watch.getReason())) {
+                                ring.add(ERR_PREFIX, "Process terminated by the watchdog: " + watch.getReason());
+                                status = STATUS_TIMEOUT;
+                            }
+                        }
+                    }
                 }
 
             } catch (CancellationException ce) {
@@ -150,8 +153,6 @@ public final class ProcessRunner {
                 _logger.error("ProcessRunner.run : execution failure :", ee);
             } catch (IllegalStateException ise) {
                 _logger.error("ProcessRunner.execute : illegal state failure :", ise);
-            } catch (TimeoutException te) {
-                _logger.debug("ProcessRunner.execute : stream timeout failure :", te);
             } catch (InterruptedException ie) {
                 // occurs when the threadpool shutdowns or interrupts the task (future.cancel) :
                 _logger.debug("ProcessRunner.execute : interrupted failure :", ie);
@@ -177,6 +178,162 @@ public final class ProcessRunner {
         return status;
     }
 
+    /**
+     * Drains the process STD OUT / ERR using the stream pump (single thread for all processes) and waits for the process to end
+     * @see StreamPump
+     * @param runCtx job context (output bytes)
+     * @param process running process
+     * @param ring ring buffer
+     * @return process status
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static int pumpStreams(final ProcessContext runCtx, final Process process, final RingBuffer ring) throws InterruptedException {
+        final StreamPump pump = StreamPump.getInstance();
+
+        _logger.debug("ProcessRunner.execute : registering process streams ...");
+
+        final StreamPump.Source output = pump.register(process.getInputStream(), ring, null);
+        final StreamPump.Source error = pump.register(process.getErrorStream(), ring, ERR_PREFIX);
+        try {
+            _logger.debug("ProcessRunner.execute : waitFor process to end ...");
+
+            final int status = process.waitFor();
+
+            _logger.debug("ProcessRunner.execute : wait for streams to be drained ...");
+
+            // process ended: drain remaining data
+            output.finish();
+            error.finish();
+
+            if (USE_TIMEOUT) {
+                // wait as long as output progresses :
+                final long start = System.nanoTime();
+                long lastBytes = -1l;
+                long lastProgress = start;
+
+                while (!output.await(STREAM_WAIT_SLICE, TimeUnit.MILLISECONDS) || !error.await(STREAM_WAIT_SLICE, TimeUnit.MILLISECONDS)) {
+                    final long now = System.nanoTime();
+                    final long bytes = output.getByteCount() + error.getByteCount();
+                    if (bytes != lastBytes) {
+                        lastBytes = bytes;
+                        lastProgress = now;
+                    }
+                    if (isStreamTimeout(start, lastProgress, now)) {
+                        break;
+                    }
+                }
+            } else {
+                output.await();
+                error.await();
+            }
+            return status;
+        } finally {
+            // in all cases (interrupted) : stop pumping once the process streams are closed
+            output.finish();
+            error.finish();
+
+            runCtx.setOutputBytes(output.getByteCount() + error.getByteCount());
+        }
+    }
+
+    /**
+     * Redirects the process STD OUT / ERR using one StreamRedirector task per stream and waits for the process to end
+     * @see StreamRedirector
+     * @param runCtx job context (output bytes)
+     * @param process running process
+     * @param ring ring buffer
+     * @return process status
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException if a redirector failed
+     */
+    private static int redirectStreams(final ProcessContext runCtx, final Process process, final RingBuffer ring) throws InterruptedException, ExecutionException {
+        final StreamRedirector outputRedirect = new StreamRedirector(ring);
+        final StreamRedirector errorRedirect = new StreamRedirector(ring, ERR_PREFIX);
+        final int status;
+
+        // capture stdout :
+        outputRedirect.setInputStream(process.getInputStream());
+        // capture stderr :
+        errorRedirect.setInputStream(process.getErrorStream());
+
+        Future<?> outputFuture = null;
+        Future<?> errorFuture = null;
+
+        // start StreamRedirectors and place in runnable state :
+        _logger.debug("ProcessRunner.execute : starting outputRedirect task ...");
+
+        outputFuture = ThreadExecutors.getIOExecutor().submit(outputRedirect);
+
+        _logger.debug("ProcessRunner.execute : starting errorRedirect task ...");
+
+        errorFuture = ThreadExecutors.getIOExecutor().submit(errorRedirect);
+
+        _logger.debug("ProcessRunner.execute : waitFor process to end ...");
+
+        // note: the watchdog terminates the process once its timeout elapsed (see ProcessContext.setTimeout)
+        status = process.waitFor();
+
+        // calls thread.join to be sure that other threads finish before leaving from here :
+        // note: this thread is waiting FOR EVER until stdout/stderr streams are closed 
+        // by the child process itself
+
+        try {
+            _logger.debug("ProcessRunner.execute : join output and error Redirects ...");
+
+            if (USE_TIMEOUT) {
+                // wait as long as output progresses :
+                final long start = System.nanoTime();
+                long lastBytes = -1l;
+                long lastProgress = start;
+
+                for (;;) {
+                    try {
+                        outputFuture.get(STREAM_WAIT_SLICE, TimeUnit.MILLISECONDS);
+                        errorFuture.get(STREAM_WAIT_SLICE, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException te) {
+                        final long now = System.nanoTime();
+                        final long bytes = outputRedirect.getByteCount() + errorRedirect.getByteCount();
+                        if (bytes != lastBytes) {
+                            lastBytes = bytes;
+                            lastProgress = now;
+                        }
+                        if (isStreamTimeout(start, lastProgress, now)) {
+                            break;
+                        }
+                    }
+                }
+            } else {
+                outputFuture.get();
+                errorFuture.get();
+            }
+        } finally {
+            runCtx.setOutputBytes(outputRedirect.getByteCount() + errorRedirect.getByteCount());
+        }
+
+        return status;
+    }
+
+    /**
+     * Return true if waiting on standard streams must stop: no output progress during STREAM_TIMEOUT
+     * or STREAM_MAX_TIMEOUT elapsed
+     * @param start wait start time (System.nanoTime)
+     * @param lastProgress last output progress time (System.nanoTime)
+     * @param now current time (System.nanoTime)
+     * @return true if waiting must stop
+     */
+    private static boolean isStreamTimeout(final long start, final long lastProgress, final long now) {
+        if (now - lastProgress >= TimeUnit.SECONDS.toNanos(STREAM_TIMEOUT)) {
+            _logger.debug("ProcessRunner.execute : stream timeout failure (no output during {} s)", STREAM_TIMEOUT);
+            return true;
+        }
+        if (now - start >= TimeUnit.SECONDS.toNanos(STREAM_MAX_TIMEOUT)) {
+            _logger.debug("ProcessRunner.execute : stream timeout failure ({} s)", STREAM_MAX_TIMEOUT);
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Kill a running UNIX Process from the given job context
      * @param runCtx job context
@@ -195,6 +352,12 @@ public final class ProcessRunner {
         if (process != null) {
             if (kill) {
                 _logger.info("ProcessRunner.stop : killing process: {}", process);
+
+                // terminate the process tree (SIGTERM then SIGKILL after the grace period) :
+                final ProcessWatchdog.Watch watch = runCtx.getWatch();
+                if (watch != null) {
+                    watch.terminate(ProcessWatchdog.REASON_KILLED);
+                }
             } else {
                 _logger.debug("ProcessRunner.stop : stopping process: {}", process);
             }
@@ -0,0 +1,544 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner.process;
+
+import fr.jmmc.jmcs.util.concurrent.PollingTask;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process watchdog: a single thread checks every watched process against its deadline (timeout)
+ * and its activity (CPU time of the whole process tree and output lines) to detect stuck tools.
+ * Such processes are terminated gracefully (SIGTERM sent to the process tree) then forcibly
+ * (SIGKILL) once the grace period elapsed so that runner threads are freed automatically.
+ * 
+ * The process tree and CPU times are read from /proc (Linux): on other platforms, only deadlines are
+ * supported and Process.destroy() is used.
+ * Every process is watched (even without timeout) so that killed jobs always terminate their whole process tree.
+ * Each signaled process is identified by its pid and its start time (/proc/[pid]/stat) so that a pid reused
+ * after the process ended is never signaled.
+ * The watchdog thread only runs while processes are watched.
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class ProcessWatchdog extends PollingTask<ProcessWatchdog.Watch> {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(ProcessWatchdog.class.getName());
+    /** watchdog thread pool name */
+    public static final String WATCHDOG_THREAD_POOL = "ProcessWatchdog";
+    /** system property: default process timeout in milliseconds (0 means no timeout) */
+    public static final String PROPERTY_TIMEOUT = "ProcessWatchdog.timeout";
+    /** system property: default idle timeout in milliseconds (no CPU and no output; 0 means disabled) */
+    public static final String PROPERTY_IDLE_TIMEOUT = "ProcessWatchdog.idleTimeout";
+    /** system property: grace period in milliseconds between SIGTERM and SIGKILL */
+    public static final String PROPERTY_GRACE_PERIOD = "ProcessWatchdog.gracePeriod";
+    /** default process timeout in milliseconds */
+    public static final long DEFAULT_TIMEOUT = Long.getLong(PROPERTY_TIMEOUT, 0l).longValue();
+    /** default idle timeout in milliseconds */
+    public static final long DEFAULT_IDLE_TIMEOUT = Long.getLong(PROPERTY_IDLE_TIMEOUT, 0l).longValue();
+    /** grace period in milliseconds */
+    public static final long GRACE_PERIOD = Long.getLong(PROPERTY_GRACE_PERIOD, 5000l).longValue();
+    /** termination reason when the job is killed */
+    public static final String REASON_KILLED = "killed";
+    /** check interval (250 ms) */
+    public static final long CHECK_INTERVAL = 250l;
+    /** check interval in nanoseconds */
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(CHECK_INTERVAL);
+    /** /proc directory */
+    private static final File PROC_DIR = new File("/proc");
+    /** flag indicating if /proc is available */
+    private static final boolean SUPPORTED = new File(PROC_DIR, "self/stat").canRead();
+    /** file encoding */
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    /** singleton */
+    private static final ProcessWatchdog INSTANCE = new ProcessWatchdog();
+
+    /**
+     * Return the process watchdog singleton
+     * @return process watchdog singleton
+     */
+    public static ProcessWatchdog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Forbidden constructor
+     */
+    private ProcessWatchdog() {
+        super(WATCHDOG_THREAD_POOL);
+    }
+
+    /**
+     * Watch the given process until Watch.stop() is called.
+     * The process is watched even if no timeout is defined so that Watch.terminate() kills its whole process tree.
+     * @param runCtx job context (timeout and idle timeout)
+     * @param process process to watch
+     * @return registered watch or null if the watchdog is not available
+     */
+    public Watch watch(final ProcessContext runCtx, final Process process) {
+        final long timeout = runCtx.getTimeout();
+        final long idleTimeout = (SUPPORTED) ? runCtx.getIdleTimeout() : 0l;
+        final Watch watch = new Watch(runCtx, process, timeout, idleTimeout);
+        try {
+            add(watch);
+        } catch (IllegalStateException ise) {
+            _logger.warn("ProcessWatchdog.watch : watchdog unavailable : ", ise);
+            return null;
+        }
+        return watch;
+    }
+
+    /**
+     * Check all watched processes once
+     * @param watches watched processes
+     * @return check interval
+     */
+    @Override
+    protected long poll(final List<Watch> watches) {
+        final long now = System.nanoTime();
+        ProcessTable table = null;
+
+        for (int i = watches.size() - 1; i >= 0; i--) {
+            final Watch watch = watches.get(i);
+
+            if (watch.isDone()) {
+                watches.remove(i);
+                continue;
+            }
+            if (SUPPORTED && table == null && watch.needsProcessTable()) {
+                // one /proc scan per round:
+                table = ProcessTable.read();
+            }
+            watch.check(now, table);
+        }
+        return CHECK_INTERVAL_NANOS;
+    }
+
+    /**
+     * Send the given signal to the given processes using the kill command
+     * @param signal signal name (TERM, KILL)
+     * @param pids process identifiers
+     */
+    static void signal(final String signal, final Set<Long> pids) {
+        if (pids.isEmpty()) {
+            return;
+        }
+        final List<String> args = new ArrayList<String>(pids.size() + 2);
+        args.add("kill");
+        args.add("-" + signal);
+        for (Long pid : pids) {
+            args.add(pid.toString());
+        }
+        try {
+            final Process kill = new ProcessBuilder(args).redirectErrorStream(true).start();
+            // processes already ended are reported as errors (ignored):
+            kill.getOutputStream().close();
+            kill.getInputStream().close();
+            kill.waitFor();
+        } catch (IOException ioe) {
+            _logger.warn("ProcessWatchdog.signal : unable to send signal {} to {}", signal, pids, ioe);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Watched process: deadline, activity and termination state
+     */
+    public static final class Watch {
+
+        /** state: watching */
+        private static final int STATE_WATCHING = 0;
+        /** state: SIGTERM sent */
+        private static final int STATE_TERMINATING = 1;
+        /** state: SIGKILL sent */
+        private static final int STATE_KILLED = 2;
+        // Members
+        /** job context */
+        private final ProcessContext _runCtx;
+        /** process */
+        private final Process _process;
+        /** process identifier (-1 if unknown) */
+        private final long _pid;
+        /** process start time (clock ticks since boot) or -1 if unknown */
+        private final long _startTime;
+        /** deadline (System.nanoTime) or 0 if no timeout */
+        private final long _deadline;
+        /** idle timeout in nanoseconds or 0 if disabled */
+        private final long _idleNanos;
+        /** state */
+        private int _state = STATE_WATCHING;
+        /** termination reason */
+        private String _reason = null;
+        /** SIGTERM time (System.nanoTime) */
+        private long _termTime = 0l;
+        /** process tree signaled: start time per process identifier */
+        private final Map<Long, Long> _tree = new LinkedHashMap<Long, Long>();
+        /** exited flag: the process ended (its pid may be reused) */
+        private boolean _exited = false;
+        /** last observed CPU ticks of the process tree */
+        private long _lastTicks = -1l;
+        /** last observed output line count */
+        private long _lastLines = -1l;
+        /** last activity time (System.nanoTime) */
+        private long _lastActivity = System.nanoTime();
+        /** done flag (unregistered) */
+        private volatile boolean _done = false;
+
+        /**
+         * Protected constructor
+         * @param runCtx job context
+         * @param process process
+         * @param timeout timeout in milliseconds (0 means no timeout)
+         * @param idleTimeout idle timeout in milliseconds (0 means disabled)
+         */
+        Watch(final ProcessContext runCtx, final Process process, final long timeout, final long idleTimeout) {
+            _runCtx = runCtx;
+            _process = process;
+            _pid = ProcessMonitor.getPid(process);
+            _startTime = (SUPPORTED && _pid > 0l) ? ProcessTable.readStartTime(_pid) : -1l;
+            _deadline = (timeout > 0l) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0l;
+            _idleNanos = (idleTimeout > 0l) ? TimeUnit.MILLISECONDS.toNanos(idleTimeout) : 0l;
+        }
+
+        /**
+         * Return true if the process was terminated by the watchdog or by terminate()
+         * @return true if the process was terminated
+         */
+        public synchronized boolean isTerminated() {
+            return _state != STATE_WATCHING;
+        }
+
+        /**
+         * Return the termination reason
+         * @return termination reason or null if not terminated
+         */
+        public synchronized String getReason() {
+            return _reason;
+        }
+
+        /**
+         * Stop watching the process (process ended). If the process tree is being terminated,
+         * remaining descendants are still killed once the grace period elapsed.
+         */
+        public synchronized void stop() {
+            _exited = true;
+            // the process pid may be reused:
+            _tree.remove(Long.valueOf(_pid));
+
+            if (_state != STATE_TERMINATING || _tree.isEmpty()) {
+                _done = true;
+            }
+        }
+
+        /**
+         * Return true if this watch was stopped
+         * @return true if this watch was stopped
+         */
+        boolean isDone() {
+            return _done;
+        }
+
+        /**
+         * Terminate the process tree gracefully (SIGTERM) then forcibly (SIGKILL) after the grace period
+         * @param reason termination reason
+         */
+        public synchronized void terminate(final String reason) {
+            if (_state != STATE_WATCHING) {
+                return;
+            }
+            _logger.info("ProcessWatchdog : terminating process {} of job {}: {}", _pid, _runCtx.getId(), reason);
+
+            _reason = reason;
+            _state = STATE_TERMINATING;
+            _termTime = System.nanoTime();
+
+            if (SUPPORTED && _startTime > 0l) {
+                collectTree(ProcessTable.read());
+                signal("TERM", _tree.keySet());
+            } else {
+                _process.destroy();
+            }
+        }
+
+        /**
+         * Return true if the process table is needed by the next check
+         * @return true if the process table is needed
+         */
+        synchronized boolean needsProcessTable() {
+            return _pid > 0l && (_state == STATE_TERMINATING || (_state == STATE_WATCHING && _idleNanos != 0l));
+        }
+
+        /**
+         * Check deadline, activity and grace period
+         * @param now current time (System.nanoTime)
+         * @param table process table (/proc) or null if not available
+         */
+        void check(final long now, final ProcessTable table) {
+            String reason = null;
+            synchronized (this) {
+                if (_state == STATE_TERMINATING) {
+                    if (now - _termTime >= TimeUnit.MILLISECONDS.toNanos(GRACE_PERIOD)) {
+                        if (table != null) {
+                            collectTree(table);
+                        }
+                        forceKill(table);
+                        _done = true;
+                    }
+                    return;
+                }
+                if (_state != STATE_WATCHING) {
+                    return;
+                }
+                if (_deadline != 0l && now - _deadline >= 0l) {
+                    reason = "timeout";
+                } else if (_idleNanos != 0l && table != null) {
+                    final long ticks = table.getTreeTicks(_pid);
+                    final RingBuffer ring = _runCtx.getRing();
+                    final long lines = (ring != null) ? ring.getTotalCount() : 0l;
+
+                    if (ticks != _lastTicks || lines != _lastLines) {
+                        _lastTicks = ticks;
+                        _lastLines = lines;
+                        _lastActivity = now;
+                    } else if (now - _lastActivity >= _idleNanos) {
+                        reason = "idle (no CPU and no output)";
+                    }
+                }
+            }
+            if (reason != null) {
+                terminate(reason);
+            }
+        }
+
+        /**
+         * Add the current descendants of the process to the signaled tree
+         * if the process is still running (same pid and start time)
+         * @param table process table
+         */
+        private void collectTree(final ProcessTable table) {
+            if (_exited || table.getStartTime(_pid) != _startTime) {
+                // process ended: its pid may be reused:
+                return;
+            }
+            final Set<Long> pids = new LinkedHashSet<Long>();
+            pids.add(Long.valueOf(_pid));
+            table.collectDescendants(_pid, pids);
+
+            for (Long pid : pids) {
+                if (!_tree.containsKey(pid)) {
+                    _tree.put(pid, Long.valueOf(table.getStartTime(pid.longValue())));
+                }
+            }
+        }
+
+        /**
+         * Send SIGKILL to the processes of the tree still running (same pid and start time)
+         * @param table process table or null if not available
+         */
+        private void forceKill(final ProcessTable table) {
+            _state = STATE_KILLED;
+            if (table != null) {
+                for (Iterator<Map.Entry<Long, Long>> it = _tree.entrySet().iterator(); it.hasNext();) {
+                    final Map.Entry<Long, Long> e = it.next();
+                    if (table.getStartTime(e.getKey().longValue()) != e.getValue().longValue()) {
+                        // ended (pid may be reused):
+                        it.remove();
+                    }
+                }
+                if (!_tree.isEmpty()) {
+                    _logger.info("ProcessWatchdog : killing process tree {} of job {}", _tree.keySet(), _runCtx.getId());
+                    signal("KILL", _tree.keySet());
+                }
+            }
+            if (!_exited) {
+                _process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Snapshot of /proc: parent process and CPU ticks per process
+     */
+    static final class ProcessTable {
+
+        // Members
+        /** child process identifiers per parent */
+        private final Map<Long, List<Long>> _children = new HashMap<Long, List<Long>>(256);
+        /** CPU ticks (utime + stime) per process */
+        private final Map<Long, Long> _ticks = new HashMap<Long, Long>(256);
+        /** start time (clock ticks since boot) per process */
+        private final Map<Long, Long> _startTimes = new HashMap<Long, Long>(256);
+
+        /**
+         * Read /proc/[pid]/stat of all processes
+         * @return process table
+         */
+        static ProcessTable read() {
+            final ProcessTable table = new ProcessTable();
+            final String[] names = PROC_DIR.list();
+            if (names != null) {
+                final byte[] buffer = new byte[1024];
+                for (String name : names) {
+                    if (name.isEmpty() || !Character.isDigit(name.charAt(0))) {
+                        continue;
+                    }
+                    final String stat = readStat(new File(PROC_DIR, name + "/stat"), buffer);
+                    final int pos = (stat != null) ? stat.lastIndexOf(')') : -1;
+                    if (pos == -1) {
+                        continue;
+                    }
+                    // fields after the command name: state (3) ppid (4) ... utime (14) stime (15) ... starttime (22)
+                    final String[] fields = stat.substring(pos + 2).split(" ");
+                    if (fields.length > 19) {
+                        try {
+                            final Long pid = Long.valueOf(name);
+                            final Long ppid = Long.valueOf(fields[1]);
+                            List<Long> children = table._children.get(ppid);
+                            if (children == null) {
+                                children = new ArrayList<Long>(2);
+                                table._children.put(ppid, children);
+                            }
+                            children.add(pid);
+                            table._ticks.put(pid, Long.valueOf(Long.parseLong(fields[11]) + Long.parseLong(fields[12])));
+                            table._startTimes.put(pid, Long.valueOf(fields[19]));
+                        } catch (NumberFormatException nfe) {
+                            _logger.debug("ProcessTable.read : invalid stat : {}", stat);
+                        }
+                    }
+                }
+            }
+            return table;
+        }
+
+        /**
+         * Read the start time of the given process
+         * @param pid process identifier
+         * @return start time (clock ticks since boot) or -1 if the process ended
+         */
+        static long readStartTime(final long pid) {
+            final String stat = readStat(new File(PROC_DIR, pid + "/stat"), new byte[1024]);
+            final int pos = (stat != null) ? stat.lastIndexOf(')') : -1;
+            if (pos != -1) {
+                final String[] fields = stat.substring(pos + 2).split(" ");
+                if (fields.length > 19) {
+                    try {
+                        return Long.parseLong(fields[19]);
+                    } catch (NumberFormatException nfe) {
+                        _logger.debug("ProcessTable.readStartTime : invalid stat : {}", stat);
+                    }
+                }
+            }
+            return -1l;
+        }
+
+        /**
+         * Return the start time of the given process
+         * @param pid process identifier
+         * @return start time (clock ticks since boot) or -1 if the process is not running
+         */
+        long getStartTime(final long pid) {
+            final Long t = _startTimes.get(Long.valueOf(pid));
+            return (t != null) ? t.longValue() : -1l;
+        }
+
+        /**
+         * Add descendants of the given process
+         * @param pid process identifier
+         * @param tree set to fill
+         */
+        void collectDescendants(final long pid, final Set<Long> tree) {
+            final List<Long> children = _children.get(Long.valueOf(pid));
+            if (children != null) {
+                for (Long child : children) {
+                    if (tree.add(child)) {
+                        collectDescendants(child.longValue(), tree);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Return the CPU ticks of the given process and its descendants
+         * @param pid process identifier
+         * @return CPU ticks
+         */
+        long getTreeTicks(final long pid) {
+            final Set<Long> tree = new LinkedHashSet<Long>();
+            tree.add(Long.valueOf(pid));
+            collectDescendants(pid, tree);
+            long ticks = 0l;
+            for (Long p : tree) {
+                final Long t = _ticks.get(p);
+                if (t != null) {
+                    ticks += t.longValue();
+                }
+            }
+            return ticks;
+        }
+
+        /**
+         * Read the given stat file
+         * @param file file to read
+         * @param buffer read buffer
+         * @return file content or null if the process ended
+         */
+        private static String readStat(final File file, final byte[] buffer) {
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                final int len = in.read(buffer);
+                return (len > 0) ? new String(buffer, 0, len, US_ASCII) : null;
+            } catch (IOException ioe) {
+                return null;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ioe) {
+                        _logger.debug("ProcessTable.readStat : close failure : ", ioe);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,665 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner.process;
+
+import fr.jmmc.jmcs.util.FileUtils;
+import fr.jmmc.jmcs.util.JVMUtils;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent worker pool: long-lived child processes are kept per registered tool and
+ * jobs are fed to them over stdin / stdout to amortize fork / exec and tool startup costs
+ * for high frequency small jobs.
+ * 
+ * A ProcessContext whose command name (first argument) is registered is executed by a worker
+ * (see ProcessRunner.execute) using the following line-based framing protocol (UTF-8):
+ * - job request (stdin): "#JOB &lt;job id&gt; &lt;argument count&gt;" followed by the working directory
+ * and one line per argument (backslash and new line characters escaped as \\ and \n),
+ * - job output (stdout / stderr): any line until the end marker "#END &lt;job id&gt; &lt;status&gt;" (stdout),
+ * - health check: "#PING &lt;n&gt;" (stdin) answered by "#PONG &lt;n&gt;" (stdout).
+ * Standard error lines are attributed to the current job in arrival order so tools must write
+ * them before the end marker. Closing stdin asks the worker to exit.
+ * 
+ * Workers are health checked when reused after being idle, recycled after a number of jobs
+ * and killed when a job exceeds its timeout or when the job is killed.
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class ProcessWorkerPool {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(ProcessWorkerPool.class.getName());
+    /** default maximum number of workers per tool */
+    public static final int DEFAULT_MAX_WORKERS = JVMUtils.availableProcessors();
+    /** default number of jobs before recycling a worker */
+    public static final int DEFAULT_MAX_JOBS = 100;
+    /** default job timeout (none) */
+    public static final long DEFAULT_JOB_TIMEOUT = 0l;
+    /** idle delay (30 seconds) before health checking a worker */
+    public static final long HEALTH_CHECK_INTERVAL = 30l * 1000l;
+    /** health check timeout (5 seconds) */
+    public static final long HEALTH_CHECK_TIMEOUT = 5l * 1000l;
+    /** job request header */
+    public static final String JOB_HEADER = "#JOB ";
+    /** job end marker */
+    public static final String END_MARKER = "#END ";
+    /** health check request */
+    public static final String PING = "#PING ";
+    /** health check answer */
+    public static final String PONG = "#PONG ";
+    /** worker output ring size (lines) */
+    private static final int WORKER_RING_SIZE = 1024;
+    /** minimum park delay when waiting for output (50 us) */
+    private static final long MIN_WAIT_NANOS = 50L * 1000L;
+    /** maximum park delay when waiting for output (5 ms) */
+    private static final long MAX_WAIT_NANOS = 5L * 1000L * 1000L;
+    /** wait status: line read */
+    private static final int WAIT_OK = 0;
+    /** wait status: timeout */
+    private static final int WAIT_TIMEOUT = 1;
+    /** wait status: worker died */
+    private static final int WAIT_CLOSED = 2;
+    /** stream encoding */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** singleton */
+    private static final ProcessWorkerPool INSTANCE = new ProcessWorkerPool();
+    // Members
+    /** registered tools keyed by command name */
+    private final Map<String, Tool> _tools = new ConcurrentHashMap<String, Tool>(4);
+
+    /**
+     * Return the worker pool singleton
+     * @return worker pool singleton
+     */
+    public static ProcessWorkerPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Forbidden constructor
+     */
+    private ProcessWorkerPool() {
+    }
+
+    /**
+     * Register a tool with default settings
+     * @param name command name (first argument of ProcessContext commands) to execute with workers
+     * @param workerCommand command array starting a worker (protocol mode)
+     */
+    public void register(final String name, final String[] workerCommand) {
+        register(name, workerCommand, DEFAULT_MAX_WORKERS, DEFAULT_MAX_JOBS, DEFAULT_JOB_TIMEOUT);
+    }
+
+    /**
+     * Register a tool: ProcessContext commands starting with the given name will be executed by workers
+     * @param name command name (first argument of ProcessContext commands) to execute with workers
+     * @param workerCommand command array starting a worker (protocol mode)
+     * @param maxWorkers maximum number of concurrent workers
+     * @param maxJobs number of jobs before recycling a worker
+     * @param jobTimeout job timeout in milliseconds (0 means no timeout)
+     */
+    public void register(final String name, final String[] workerCommand, final int maxWorkers, final int maxJobs,
+                         final long jobTimeout) {
+        if (name == null || workerCommand == null || workerCommand.length == 0) {
+            throw new IllegalArgumentException("Invalid tool name or worker command !");
+        }
+        if (maxWorkers <= 0 || maxJobs <= 0 || jobTimeout < 0l) {
+            throw new IllegalArgumentException("Invalid worker limits !");
+        }
+        _logger.info("ProcessWorkerPool.register: tool '{}': {}", name, Arrays.toString(workerCommand));
+
+        final Tool old = _tools.put(name, new Tool(name, workerCommand.clone(), maxWorkers, maxJobs, jobTimeout));
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * Unregister the given tool and stop its idle workers (busy workers are stopped once released)
+     * @param name command name
+     */
+    public void unregister(final String name) {
+        final Tool tool = _tools.remove(name);
+        if (tool != null) {
+            tool.shutdown();
+        }
+    }
+
+    /**
+     * Return true if the given command name is executed by workers
+     * @param name command name
+     * @return true if the given command name is registered
+     */
+    public boolean isRegistered(final String name) {
+        return name != null && _tools.containsKey(name);
+    }
+
+    /**
+     * Return the number of started workers (idle or busy) for the given tool
+     * @param name command name
+     * @return number of workers
+     */
+    public int getWorkerCount(final String name) {
+        final Tool tool = _tools.get(name);
+        return (tool != null) ? tool.getWorkerCount() : 0;
+    }
+
+    /**
+     * Stop all workers and unregister all tools
+     */
+    public void shutdown() {
+        for (String name : new ArrayList<String>(_tools.keySet())) {
+            unregister(name);
+        }
+    }
+
+    /**
+     * Execute the given job context with a worker of its registered tool:
+     * output lines are added to the job ring buffer
+     * @param runCtx job context
+     * @param workingDir job working directory
+     * @param args command array (registered command name + arguments)
+     * @return job status or ProcessRunner.STATUS_TIMEOUT / STATUS_UNDEFINED if the worker was killed or died
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException if the worker can not be started or written
+     * @throws IllegalStateException if the tool is not registered
+     */
+    int execute(final ProcessContext runCtx, final File workingDir, final String[] args) throws InterruptedException, IOException {
+        final Tool tool = _tools.get(args[0]);
+        if (tool == null) {
+            throw new IllegalStateException("No worker registered for command: " + args[0]);
+        }
+        final RingBuffer ring = runCtx.getRing();
+        final Worker worker = tool.acquire(workingDir);
+
+        boolean reusable = false;
+        int status = ProcessRunner.STATUS_UNDEFINED;
+        long outputBytes = 0l;
+        // keep reference to allow killing the worker :
+        runCtx.setProcess(worker._process);
+        try {
+            final String id = String.valueOf(runCtx.getId());
+            worker.sendJob(id, workingDir, args);
+
+            final long deadline = (tool._jobTimeout != 0l) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(tool._jobTimeout) : 0l;
+            final String[] holder = new String[2];
+
+            for (;;) {
+                final int result = worker.nextLine(holder, deadline);
+
+                if (result == WAIT_OK) {
+                    final String line = holder[1];
+                    if (holder[0] == null && line.startsWith(END_MARKER)) {
+                        final String[] values = line.substring(END_MARKER.length()).trim().split(" ");
+                        if (values.length == 2 && id.equals(values[0])) {
+                            status = parseStatus(values[1]);
+                            reusable = true;
+                            break;
+                        }
+                        // stale marker (previous job killed) :
+                        continue;
+                    }
+                    ring.add(holder[0], line);
+                    // UTF-8 encoded bytes (+ line separator) like StreamPump byte counts:
+                    outputBytes += utf8Length(line) + 1;
+                } else if (result == WAIT_TIMEOUT) {
+                    _logger.info("ProcessWorkerPool.execute : job {} timeout ({} ms): killing worker {}", id, tool._jobTimeout, worker);
+                    ring.add(ProcessRunner.ERR_PREFIX, "Timeout (" + tool._jobTimeout + " ms): process killed");
+                    status = ProcessRunner.STATUS_TIMEOUT;
+                    break;
+                } else {
+                    _logger.info("ProcessWorkerPool.execute : worker {} died during job {}", worker, id);
+                    ring.add(ProcessRunner.ERR_PREFIX, "Worker process died");
+                    break;
+                }
+            }
+            if (worker._lostLines != 0l) {
+                ring.add(ProcessRunner.ERR_PREFIX, worker._lostLines + " lines lost");
+                worker._lostLines = 0l;
+            }
+        } finally {
+            // detach the worker before ProcessRunner.stop() :
+            runCtx.setProcess(null);
+            // output bytes (CPU time and memory are shared by all jobs of the worker) :
+            runCtx.setOutputBytes(outputBytes);
+            tool.release(worker, reusable && !Thread.currentThread().isInterrupted());
+        }
+        return status;
+    }
+
+    /**
+     * Return the number of bytes of the given string encoded in UTF-8 (without encoding it)
+     * @param value string
+     * @return number of UTF-8 bytes
+     */
+    static int utf8Length(final String value) {
+        int count = 0;
+        for (int i = 0, len = value.length(); i < len; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                count++;
+            } else if (c < 0x800) {
+                count += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // supplementary character (surrogate pair):
+                count += 4;
+                i++;
+            } else {
+                count += 3;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Parse the worker status
+     * @param value status value
+     * @return status or ProcessRunner.STATUS_UNDEFINED if invalid
+     */
+    private static int parseStatus(final String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            return ProcessRunner.STATUS_UNDEFINED;
+        }
+    }
+
+    /**
+     * Escape backslash and new line characters
+     * @param value value to escape
+     * @return escaped value
+     */
+    static String escape(final String value) {
+        if (value.indexOf('\\') == -1 && value.indexOf('\n') == -1 && value.indexOf('\r') == -1) {
+            return value;
+        }
+        final StringBuilder sb = new StringBuilder(value.length() + 8);
+        for (int i = 0, len = value.length(); i < len; i++) {
+            final char ch = value.charAt(i);
+            switch (ch) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Registered tool: worker command, limits and workers
+     */
+    private static final class Tool {
+
+        // Members
+        /** command name */
+        final String _name;
+        /** worker command */
+        final String[] _command;
+        /** maximum number of workers */
+        final int _maxWorkers;
+        /** number of jobs before recycling a worker */
+        final int _maxJobs;
+        /** job timeout in milliseconds (0 means no timeout) */
+        final long _jobTimeout;
+        /** idle workers (most recently used first) */
+        private final ArrayDeque<Worker> _idle = new ArrayDeque<Worker>();
+        /** number of started workers (idle or busy) */
+        private int _count = 0;
+        /** worker counter (names) */
+        private int _counter = 0;
+        /** true once unregistered */
+        private boolean _shutdown = false;
+
+        /**
+         * Constructor
+         * @param name command name
+         * @param command worker command
+         * @param maxWorkers maximum number of workers
+         * @param maxJobs number of jobs before recycling a worker
+         * @param jobTimeout job timeout in milliseconds
+         */
+        Tool(final String name, final String[] command, final int maxWorkers, final int maxJobs, final long jobTimeout) {
+            _name = name;
+            _command = command;
+            _maxWorkers = maxWorkers;
+            _maxJobs = maxJobs;
+            _jobTimeout = jobTimeout;
+        }
+
+        /**
+         * Return the number of started workers
+         * @return number of started workers
+         */
+        synchronized int getWorkerCount() {
+            return _count;
+        }
+
+        /**
+         * Return an idle (healthy) worker or start a new one (waits if the maximum number of workers is reached)
+         * @param workingDir working directory of a new worker
+         * @return worker
+         * @throws InterruptedException if interrupted while waiting
+         * @throws IOException if the worker can not be started
+         */
+        Worker acquire(final File workingDir) throws InterruptedException, IOException {
+            for (;;) {
+                Worker worker = null;
+                int index = 0;
+                synchronized (this) {
+                    while (_idle.isEmpty() && _count >= _maxWorkers && !_shutdown) {
+                        wait();
+                    }
+                    if (_shutdown) {
+                        throw new IllegalStateException("Tool unregistered: " + _name);
+                    }
+                    worker = _idle.pollFirst();
+                    if (worker == null) {
+                        _count++;
+                        index = ++_counter;
+                    }
+                }
+                if (worker == null) {
+                    try {
+                        return new Worker(this, index, workingDir);
+                    } catch (IOException ioe) {
+                        discarded();
+                        throw ioe;
+                    } catch (RuntimeException re) {
+                        discarded();
+                        throw re;
+                    }
+                }
+                if (worker.isHealthy()) {
+                    return worker;
+                }
+                _logger.info("ProcessWorkerPool : worker {} failed health check", worker);
+                worker.stop();
+                discarded();
+            }
+        }
+
+        /**
+         * Return the given worker to the pool or stop it (recycling, failure, shutdown)
+         * @param worker worker to release
+         * @param reusable true if the worker completed its job
+         */
+        void release(final Worker worker, final boolean reusable) {
+            worker._lastUsed = System.nanoTime();
+            if (reusable && ++worker._jobs < _maxJobs) {
+                synchronized (this) {
+                    if (!_shutdown) {
+                        _idle.addFirst(worker);
+                        notify();
+                        return;
+                    }
+                }
+            }
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("ProcessWorkerPool : stopping worker {} after {} jobs", worker, worker._jobs);
+            }
+            worker.stop();
+            discarded();
+        }
+
+        /**
+         * Decrement the worker count and wake up one waiting thread
+         */
+        private synchronized void discarded() {
+            _count--;
+            notify();
+        }
+
+        /**
+         * Stop idle workers and reject new jobs
+         */
+        void shutdown() {
+            final List<Worker> idle;
+            synchronized (this) {
+                _shutdown = true;
+                idle = new ArrayList<Worker>(_idle);
+                _idle.clear();
+                _count -= idle.size();
+                notifyAll();
+            }
+            for (Worker worker : idle) {
+                worker.stop();
+            }
+        }
+    }
+
+    /**
+     * Worker process: its standard streams are drained by the stream pump into a private ring buffer
+     */
+    private static final class Worker {
+
+        // Members
+        /** worker name */
+        private final String _name;
+        /** worker process */
+        final Process _process;
+        /** request writer (stdin) */
+        private final Writer _stdin;
+        /** output ring buffer (stdout and stderr) */
+        private final RingBuffer _output;
+        /** stdout source */
+        private final StreamPump.Source _outSource;
+        /** stderr source */
+        private final StreamPump.Source _errSource;
+        /** next line to read in the output ring buffer */
+        private long _cursor = 0l;
+        /** lines lost (ring buffer overwritten) */
+        long _lostLines = 0l;
+        /** number of jobs done */
+        int _jobs = 0;
+        /** last release time (nanoseconds) */
+        long _lastUsed = System.nanoTime();
+        /** health check counter */
+        private int _pings = 0;
+
+        /**
+         * Start a new worker
+         * @param tool tool
+         * @param index worker index
+         * @param workingDir worker working directory
+         * @throws IOException if the process can not be started
+         */
+        Worker(final Tool tool, final int index, final File workingDir) throws IOException {
+            _name = tool._name + '#' + index;
+            _logger.info("ProcessWorkerPool : starting worker {}: {}", _name, Arrays.toString(tool._command));
+
+            _process = new ProcessBuilder(tool._command).directory(workingDir).start();
+            _stdin = new BufferedWriter(new OutputStreamWriter(_process.getOutputStream(), UTF_8));
+            _output = new RingBuffer(WORKER_RING_SIZE, (String) null);
+            _output.prepare();
+
+            final StreamPump pump = StreamPump.getInstance();
+            _outSource = pump.register(_process.getInputStream(), _output, null);
+            _errSource = pump.register(_process.getErrorStream(), _output, ProcessRunner.ERR_PREFIX);
+        }
+
+        /**
+         * Send a job request
+         * @param id job identifier
+         * @param workingDir job working directory
+         * @param args command array (command name + arguments)
+         * @throws IOException if the request can not be written
+         */
+        void sendJob(final String id, final File workingDir, final String[] args) throws IOException {
+            final Writer w = _stdin;
+            w.write(JOB_HEADER);
+            w.write(id);
+            w.write(' ');
+            w.write(String.valueOf(args.length - 1));
+            w.write('\n');
+            w.write(escape(workingDir.getAbsolutePath()));
+            w.write('\n');
+            for (int i = 1; i < args.length; i++) {
+                w.write(escape(args[i]));
+                w.write('\n');
+            }
+            w.flush();
+        }
+
+        /**
+         * Check the worker is alive and answers a health check if it was idle for a long time
+         * @return true if the worker is healthy
+         */
+        boolean isHealthy() {
+            if (!isAlive()) {
+                return false;
+            }
+            if (System.nanoTime() - _lastUsed < TimeUnit.MILLISECONDS.toNanos(HEALTH_CHECK_INTERVAL)) {
+                return true;
+            }
+            final String expected = PONG + (++_pings);
+            try {
+                _stdin.write(PING + _pings + '\n');
+                _stdin.flush();
+
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HEALTH_CHECK_TIMEOUT);
+                final String[] holder = new String[2];
+                while (nextLine(holder, deadline) == WAIT_OK) {
+                    if (holder[0] == null && expected.equals(holder[1])) {
+                        return true;
+                    }
+                }
+            } catch (IOException ioe) {
+                _logger.debug("ProcessWorkerPool : health check failure : ", ioe);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        /**
+         * Return true if the worker process is running
+         * @return true if the worker process is running
+         */
+        private boolean isAlive() {
+            if (_outSource.isDone()) {
+                return false;
+            }
+            try {
+                _process.exitValue();
+                return false;
+            } catch (IllegalThreadStateException itse) {
+                return true;
+            }
+        }
+
+        /**
+         * Wait for the next output line
+         * @param holder line holder [prefix, line]
+         * @param deadline deadline (System.nanoTime) or 0 for no timeout
+         * @return WAIT_OK, WAIT_TIMEOUT or WAIT_CLOSED
+         * @throws InterruptedException if interrupted while waiting
+         */
+        int nextLine(final String[] holder, final long deadline) throws InterruptedException {
+            long waitNanos = MIN_WAIT_NANOS;
+            for (;;) {
+                final int status = _output.readLine(_cursor, holder);
+
+                if (status == RingBuffer.LINE_OK) {
+                    _cursor++;
+                    return WAIT_OK;
+                }
+                if (status == RingBuffer.LINE_LOST) {
+                    // slow reader: skip overwritten lines
+                    final long next = Math.max(_cursor + 1l, _output.getTotalCount() - _output.getMaxCount());
+                    _lostLines += next - _cursor;
+                    _cursor = next;
+                    continue;
+                }
+                // pending line:
+                if (_outSource.isDone() && _errSource.isDone()) {
+                    if (_cursor >= _output.getTotalCount()) {
+                        return WAIT_CLOSED;
+                    }
+                } else if (!isAlive()) {
+                    // process exited: drain remaining output
+                    _outSource.finish();
+                    _errSource.finish();
+                }
+                if (deadline != 0l && System.nanoTime() - deadline >= 0l) {
+                    return WAIT_TIMEOUT;
+                }
+                LockSupport.parkNanos(this, waitNanos);
+                waitNanos = Math.min(waitNanos << 1, MAX_WAIT_NANOS);
+
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        /**
+         * Stop the worker: close stdin (exit request) then destroy the process
+         */
+        void stop() {
+            FileUtils.closeFile(_stdin);
+            _process.destroy();
+            _outSource.finish();
+            _errSource.finish();
+            FileUtils.closeStream(_process.getInputStream());
+            FileUtils.closeStream(_process.getErrorStream());
+            _output.close();
+        }
+
+        /**
+         * Return the worker name
+         * @return worker name
+         */
+        @Override
+        public String toString() {
+            return _name;
+        }
+    }
+}
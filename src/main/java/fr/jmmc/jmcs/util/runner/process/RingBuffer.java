@@ -29,18 +29,32 @@ package fr.jmmc.jmcs.util.runner.process;
 
 import fr.jmmc.jmcs.util.FileUtils;
 import fr.jmmc.jmcs.util.StringUtils;
+import fr.jmmc.jmcs.util.concurrent.ThreadExecutors;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Iterator;
-import fr.jmmc.jmcs.util.concurrent.FastSemaphore;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Ring buffer : maintain a limited list of string. 
- * Thread safe on add / getContent methods.
+ * Ring buffer : maintain a limited list of string.
+ * 
+ * Lock-free implementation : every appended line gets a sequence number (single atomic increment)
+ * and is stored in a preallocated slot array (sequence modulo capacity) with its prefix kept
+ * apart (no string concatenation).
+ * Each slot carries a stamp (odd while being written, even once committed) so that readers
+ * take snapshots without blocking writers : slots overwritten or still in progress are skipped.
+ * 
+ * In spill mode, the complete output is also written into a segmented log file (large buffers, FileChannel)
+ * instead of the buffered writer and can be paged by byte ranges (memory-mapped segments) with
+ * getContent(from, to) while only the most recent lines stay in memory.
+ * 
+ * Listeners can also subscribe to receive new lines incrementally (push mode) instead of
+ * polling getContent() which copies the complete buffer.
+ * 
+ * Thread safe on add / getContent / subscribe methods.
  *
  * @author Laurent BOURGES (voparis)?
  */
@@ -52,27 +66,51 @@ public final class RingBuffer {
     public static final int DEFAULT_LINE_SIZE = 100;
     /** default file buffer size */
     public static final int DEFAULT_FILE_BUFFER_SIZE = 512;
+    /** system property: true to spill the complete output into segmented log files */
+    public static final String PROPERTY_SPILL = "RingBuffer.spill";
+    /** system property: spill segment size in bytes */
+    public static final String PROPERTY_SPILL_SEGMENT_SIZE = "RingBuffer.spillSegmentSize";
+    /** default spill mode */
+    private static final boolean DEFAULT_SPILL = Boolean.getBoolean(PROPERTY_SPILL);
+    /** spill segment size */
+    private static final long SPILL_SEGMENT_SIZE = Long.getLong(PROPERTY_SPILL_SEGMENT_SIZE, SegmentedLog.DEFAULT_SEGMENT_SIZE).longValue();
+    /** prefix separator */
+    private static final String PREFIX_SEPARATOR = " : ";
+    /** readLine status: line read */
+    static final int LINE_OK = 0;
+    /** readLine status: line not yet committed */
+    static final int LINE_PENDING = 1;
+    /** readLine status: line overwritten */
+    static final int LINE_LOST = 2;
+    /** empty subscription array */
+    private static final OutputSubscription[] NO_SUBSCRIPTION = new OutputSubscription[0];
     // Members
     /** maximum of lines */
     private final int _maxCount;
     /** write logs file name */
     private final String _writeLogFile;
-    /** line counter */
-    private int _count;
+    /** true to spill the complete output into segmented log files (writeLogFile.0, writeLogFile.1 ...) */
+    private final boolean _spill;
+    /** optional parent ring buffer receiving also every line (per-task ring inside a job ring) */
+    private final RingBuffer _parent;
+    /** next sequence number i.e. total number of lines added */
+    private final AtomicLong _head = new AtomicLong(0l);
+    /** slot stamps : 2 * seq + 1 while writing, 2 * seq + 2 when committed (0 = empty) */
+    private final AtomicLongArray _stamps;
+    /** slot lines */
+    private final AtomicReferenceArray<String> _lines;
+    /** slot prefixes (null means no prefix) */
+    private final AtomicReferenceArray<String> _prefixes;
+    /** prepared flag i.e. content available */
+    private volatile boolean _prepared = false;
+    /** closed flag i.e. no more output expected */
+    private volatile boolean _closed = false;
+    /** active subscriptions (copy on write) */
+    private volatile OutputSubscription[] _subscriptions = NO_SUBSCRIPTION;
     /** file writer */
     private Writer _fw = null;
-    /** list of lines */
-    private final Deque<String> _anchor;
-    /** anchor semaphore */
-    private final FastSemaphore _semAnchor = new FastSemaphore(1, true); // LBO : test fairness
-    /** buffer semaphore */
-    private final FastSemaphore _semBuffer = new FastSemaphore(1);
-    /** line semaphore */
-    private final FastSemaphore _semLine = new FastSemaphore(1);
-    /** internal buffer to get content */
-    private StringBuilder _buffer = null;
-    /** internal buffer to concat prefix & line */
-    private StringBuilder _lineBuffer = null;
+    /** segmented log (spill mode) */
+    private volatile SegmentedLog _spillLog = null;
 
     /**
      * Constructor
@@ -81,68 +119,155 @@ public final class RingBuffer {
      * @param writeLogFile file name for standard out / err traces (null implies no file written)
      */
     public RingBuffer(final int max, final String writeLogFile) {
+        this(max, writeLogFile, DEFAULT_SPILL, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param max number of lines
+     * @param writeLogFile file name for standard out / err traces (null implies no file written)
+     * @param spill true to write the complete output into segmented log files (writeLogFile.0, writeLogFile.1 ...)
+     * readable by byte ranges
+     */
+    public RingBuffer(final int max, final String writeLogFile, final boolean spill) {
+        this(max, writeLogFile, spill, null);
+    }
+
+    /**
+     * Constructor for a ring buffer forwarding every line to the given parent ring buffer
+     * (no log file: the parent ring buffer writes its log file)
+     *
+     * @param max number of lines
+     * @param parent parent ring buffer
+     */
+    public RingBuffer(final int max, final RingBuffer parent) {
+        this(max, null, false, parent);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param max number of lines
+     * @param writeLogFile file name for standard out / err traces (null implies no file written)
+     * @param spill true to write the complete output into segmented log files
+     * @param parent optional parent ring buffer receiving also every line
+     */
+    private RingBuffer(final int max, final String writeLogFile, final boolean spill, final RingBuffer parent) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Invalid ring buffer size: " + max);
+        }
         _maxCount = max;
-        _count = 0;
-        _anchor = new ArrayDeque<String>(_maxCount);
+        _stamps = new AtomicLongArray(_maxCount);
+        _lines = new AtomicReferenceArray<String>(_maxCount);
+        _prefixes = new AtomicReferenceArray<String>(_maxCount);
         _writeLogFile = writeLogFile;
+        _spill = spill;
+        _parent = parent;
     }
 
     /**
-     * Allocates temporary line &amp; output buffers &amp; file writer
+     * Allocates the file writer or the segmented log (once) and makes the content available
      */
     public void prepare() {
-        _buffer = new StringBuilder(_maxCount * DEFAULT_LINE_SIZE / 2);
-        _lineBuffer = new StringBuilder(DEFAULT_LINE_SIZE);
-
         if (!StringUtils.isEmpty(_writeLogFile)) {
-            _fw = FileUtils.openFile(_writeLogFile, DEFAULT_FILE_BUFFER_SIZE);
+            synchronized (this) {
+                if (_spill) {
+                    if (_spillLog == null || _spillLog.isClosed()) {
+                        try {
+                            _spillLog = new SegmentedLog(_writeLogFile, SPILL_SEGMENT_SIZE);
+                        } catch (IOException ioe) {
+                            _logger.error("RingBuffer : unable to create segmented log : {}", _writeLogFile, ioe);
+                        }
+                    }
+                } else if (_fw == null) {
+                    _fw = FileUtils.openFile(_writeLogFile, DEFAULT_FILE_BUFFER_SIZE);
+                }
+            }
         }
+        _closed = false;
+        _prepared = true;
     }
 
     /**
-     * Clear temporary line &amp; output buffers &amp; file writer
+     * Releases the file writer and makes the content unavailable
      */
     public void close() {
-        _buffer = null;
-        _lineBuffer = null;
-        _fw = FileUtils.closeFile(_fw);
+        _prepared = false;
+        _closed = true;
+        if (_fw != null) {
+            synchronized (this) {
+                _fw = FileUtils.closeFile(_fw);
+            }
+        }
+        final SegmentedLog spillLog = _spillLog;
+        if (spillLog != null) {
+            // content remains readable by getContent(from, to):
+            spillLog.close();
+        }
+        // deliver remaining lines and the close event:
+        signalSubscriptions();
+    }
+
+    /**
+     * Return true if this ring buffer was closed (no more output expected)
+     * @return true if this ring buffer was closed
+     */
+    public boolean isClosed() {
+        return _closed;
+    }
+
+    /**
+     * Returns the parent ring buffer
+     * @return parent ring buffer or null
+     */
+    public RingBuffer getParent() {
+        return _parent;
     }
 
     /**
-     * add a line in the buffer like tail. Concatenates prefix and line before adding the new line
+     * Returns the segmented log (spill mode)
+     * @return segmented log or null if not in spill mode or not prepared
+     */
+    public SegmentedLog getSpillLog() {
+        return _spillLog;
+    }
+
+    /**
+     * Returns the number of bytes written in the segmented log (spill mode)
+     * @return number of bytes or 0 if not in spill mode
+     */
+    public long getSpillSize() {
+        final SegmentedLog spillLog = _spillLog;
+        return (spillLog != null) ? spillLog.getSize() : 0l;
+    }
+
+    /**
+     * Returns the maximum number of lines
+     * @return maximum number of lines
+     */
+    public int getMaxCount() {
+        return _maxCount;
+    }
+
+    /**
+     * Returns the total number of lines added since creation
+     * (including lines already evicted)
+     * @return total number of lines added
+     */
+    public long getTotalCount() {
+        return _head.get();
+    }
+
+    /**
+     * add a line in the buffer like tail. The prefix is stored along the line
+     * and only concatenated (prefix : line) when the content is formatted
      *
      * @param prefix starting line prefix
      * @param line content to add in buffer
      */
     public final void add(final String prefix, final String line) {
-        String res = null;
-
-        final StringBuilder sb = _lineBuffer;
-
-        if (sb != null) {
-            // thread safe protection for line buffer :
-            // maybe multiple calls to this method :
-            try {
-                _semLine.acquire();
-                // work on lineBuffer :
-                sb.append(prefix).append(" : ").append(line);
-
-                res = sb.toString();
-                sb.setLength(0);
-
-                // finished with lineBuffer
-            } catch (final InterruptedException ie) {
-                _logger.error("RingBuffer : line semaphore interrupted : ", ie);
-                res = line;
-            } finally {
-                _semLine.release();
-            }
-        } else {
-            // uses a new buffer :
-            res = prefix + " : " + line;
-        }
-
-        add(res);
+        append(prefix, line);
     }
 
     /**
@@ -153,30 +278,194 @@ public final class RingBuffer {
      * @return this ring buffer
      */
     public final RingBuffer add(final String line) {
-        // thread safe protection for list & count :
-        // maybe multiple calls to this method :
-        try {
-            _semAnchor.acquire();
-
-            // first, write the line into file writer :
-            writeLine(line);
-
-            // work on anchor & count :
-            while (_count >= _maxCount) {
-                _anchor.pollFirst();
-                _count--;
+        append(null, line);
+        return this;
+    }
+
+    /**
+     * Appends the given line in O(1) : claims the next sequence number then fills its slot.
+     *
+     * @param prefix optional line prefix
+     * @param line content to add in buffer
+     */
+    private void append(final String prefix, final String line) {
+        // first, write the line into file writer or segmented log :
+        if (_fw != null) {
+            writeLine(prefix, line);
+        } else {
+            final SegmentedLog spillLog = _spillLog;
+            if (spillLog != null) {
+                spillLog.write(prefix, line);
             }
+        }
+
+        final long seq = _head.getAndIncrement();
+        final int idx = (int) (seq % _maxCount);
+
+        // previous occupant of this slot (one lap behind) must be committed before overwriting it:
+        // it only waits if one writer is a complete lap behind (tiny ring or stalled writer)
+        final long expected = (seq < _maxCount) ? 0l : 2l * (seq - _maxCount) + 2l;
+        final long writing = 2l * seq + 1l;
 
-            _anchor.offerLast(line);
-            _count++;
-            // finished with anchor & count
-        } catch (final InterruptedException ie) {
-            _logger.error("RingBuffer : anchor semaphore interrupted : ", ie);
-        } finally {
-            _semAnchor.release();
+        while (!_stamps.compareAndSet(idx, expected, writing)) {
+            Thread.yield();
         }
 
-        return this;
+        _prefixes.set(idx, prefix);
+        _lines.set(idx, line);
+
+        // commit:
+        _stamps.set(idx, writing + 1l);
+
+        signalSubscriptions();
+
+        if (_parent != null) {
+            _parent.append(prefix, line);
+        }
+    }
+
+    /**
+     * Subscribe the given listener to receive lines added in this ring buffer.
+     * Lines are delivered by the generic thread pool and the backlog is bounded by the ring buffer size.
+     *
+     * @param listener output listener
+     * @param replay true to first deliver lines already present in this ring buffer; false to only deliver new lines
+     * @return new subscription
+     * @throws IllegalStateException if the generic thread pool is not available
+     */
+    public OutputSubscription subscribe(final OutputListener listener, final boolean replay) {
+        return subscribe(listener, replay, _maxCount, ThreadExecutors.getGenericExecutor());
+    }
+
+    /**
+     * Subscribe the given listener to receive lines added in this ring buffer.
+     * If the listener is too slow (more than capacity pending lines), oldest lines are dropped
+     * and reported by OutputListener.onDropped().
+     *
+     * @param listener output listener
+     * @param replay true to first deliver lines already present in this ring buffer; false to only deliver new lines
+     * @param capacity maximum number of pending lines (limited to the ring buffer size)
+     * @param executor executor running delivery tasks
+     * @return new subscription
+     */
+    public OutputSubscription subscribe(final OutputListener listener, final boolean replay,
+                                        final int capacity, final ThreadExecutors executor) {
+        if (listener == null || executor == null) {
+            throw new IllegalArgumentException("undefined listener or executor !");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid subscription capacity: " + capacity);
+        }
+        final long head = _head.get();
+        final OutputSubscription subscription = new OutputSubscription(this, listener, Math.min(capacity, _maxCount), executor,
+                (replay) ? Math.max(0l, head - _maxCount) : head);
+
+        synchronized (this) {
+            final OutputSubscription[] subscriptions = _subscriptions;
+            final OutputSubscription[] copy = new OutputSubscription[subscriptions.length + 1];
+            System.arraycopy(subscriptions, 0, copy, 0, subscriptions.length);
+            copy[subscriptions.length] = subscription;
+            _subscriptions = copy;
+        }
+        if (replay || _closed) {
+            subscription.signal();
+        }
+        return subscription;
+    }
+
+    /**
+     * Remove the given subscription
+     * @param subscription subscription to remove
+     */
+    void unsubscribe(final OutputSubscription subscription) {
+        synchronized (this) {
+            final OutputSubscription[] subscriptions = _subscriptions;
+            for (int i = 0, len = subscriptions.length; i < len; i++) {
+                if (subscriptions[i] == subscription) {
+                    final OutputSubscription[] copy = new OutputSubscription[len - 1];
+                    System.arraycopy(subscriptions, 0, copy, 0, i);
+                    System.arraycopy(subscriptions, i + 1, copy, i, len - i - 1);
+                    _subscriptions = copy;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Signal all subscriptions that new lines (or the close event) are available
+     */
+    private void signalSubscriptions() {
+        final OutputSubscription[] subscriptions = _subscriptions;
+        for (int i = 0, len = subscriptions.length; i < len; i++) {
+            subscriptions[i].signal();
+        }
+    }
+
+    /**
+     * Return true if the line having the given sequence number is still being written
+     *
+     * @param seq sequence number
+     * @return true if the line is still being written
+     */
+    boolean isPending(final long seq) {
+        return _stamps.get((int) (seq % _maxCount)) < 2l * seq + 2l;
+    }
+
+    /**
+     * Read the line having the given sequence number into the given holder [prefix, line]
+     *
+     * @param seq sequence number
+     * @param holder line holder [prefix, line]
+     * @return LINE_OK if the line was read, LINE_PENDING if it is being written or LINE_LOST if it was overwritten
+     */
+    int readLine(final long seq, final String[] holder) {
+        final int idx = (int) (seq % _maxCount);
+        final long committed = 2l * seq + 2l;
+
+        long stamp = _stamps.get(idx);
+        if (stamp != committed) {
+            return (stamp < committed) ? LINE_PENDING : LINE_LOST;
+        }
+        holder[0] = _prefixes.get(idx);
+        holder[1] = _lines.get(idx);
+
+        // check the slot was not overwritten meanwhile:
+        stamp = _stamps.get(idx);
+        if (stamp != committed) {
+            return LINE_LOST;
+        }
+        return LINE_OK;
+    }
+
+    /**
+     * Appends the line having the given sequence number into the given buffer
+     * if it is still available (neither overwritten nor being written)
+     *
+     * @param seq sequence number
+     * @param lineSep line separator
+     * @param sb buffer to append into
+     * @return true if the line was appended; false otherwise
+     */
+    private boolean appendLine(final long seq, final String lineSep, final StringBuilder sb) {
+        final int idx = (int) (seq % _maxCount);
+        final long committed = 2l * seq + 2l;
+
+        if (_stamps.get(idx) != committed) {
+            return false;
+        }
+        final String prefix = _prefixes.get(idx);
+        final String line = _lines.get(idx);
+
+        // check the slot was not overwritten meanwhile:
+        if (_stamps.get(idx) != committed) {
+            return false;
+        }
+        if (prefix != null) {
+            sb.append(prefix).append(PREFIX_SEPARATOR);
+        }
+        sb.append(line).append(lineSep);
+        return true;
     }
 
     /**
@@ -200,7 +489,8 @@ public final class RingBuffer {
     }
 
     /**
-     * Returns buffer content like tail
+     * Returns buffer content like tail. This snapshot never blocks writers:
+     * lines overwritten or still being written during the copy are skipped.
      *
      * @param startLine optional begin of content string
      * @param lineSep line separator
@@ -208,65 +498,64 @@ public final class RingBuffer {
      * @return buffer content
      */
     public final String getContent(final String startLine, final String lineSep) {
-        String res = null;
-
-        final StringBuilder sb = _buffer;
-
-        if (sb != null) {
-            // thread safe protection for buffer :
-            // maybe multiple calls to this method :
-            try {
-                _semBuffer.acquire();
-
-                // work on buffer :
-                if (startLine != null) {
-                    sb.append(startLine).append(lineSep);
-                }
-
-                // thread safe protection for list :
-                try {
-                    _semAnchor.acquire();
+        if (!_prepared) {
+            // Job was not started so Ring Buffer is undefined ...
+            return "";
+        }
+        final long head = _head.get();
+        final long from = Math.max(0l, head - _maxCount);
 
-                    // work on anchor :
-                    for (final Iterator<String> it = _anchor.iterator(); it.hasNext();) {
-                        sb.append(it.next()).append(lineSep);
-                    }
+        final StringBuilder sb = new StringBuilder((int) (head - from) * DEFAULT_LINE_SIZE + DEFAULT_LINE_SIZE);
 
-                    // finished with anchor
-                } catch (final InterruptedException ie) {
-                    _logger.error("RingBuffer : anchor semaphore interrupted : ", ie);
-                } finally {
-                    _semAnchor.release();
-                }
+        if (startLine != null) {
+            sb.append(startLine).append(lineSep);
+        }
 
-                res = sb.toString();
-            } catch (final InterruptedException ie) {
-                _logger.error("RingBuffer : buffer semaphore interrupted : ", ie);
-            } finally {
-                _buffer.setLength(0);
-                // finished with buffer
-                _semBuffer.release();
-            }
-        } else {
-            // Job was not started so Ring Buffer is undefined ...
-            res = "";
+        for (long seq = from; seq < head; seq++) {
+            appendLine(seq, lineSep, sb);
         }
+        return sb.toString();
+    }
 
-        return res;
+    /**
+     * Returns the complete output between the given byte offsets (spill mode) read from memory-mapped segments,
+     * even once this ring buffer is closed. Use getSpillSize() to know the available range.
+     *
+     * @see SegmentedLog#getContent(long, long)
+     *
+     * @param from start offset (inclusive)
+     * @param to end offset (exclusive)
+     *
+     * @return output content or "" if not in spill mode
+     */
+    public final String getContent(final long from, final long to) {
+        final SegmentedLog spillLog = _spillLog;
+        if (spillLog == null) {
+            return "";
+        }
+        return spillLog.getContent(from, to);
     }
 
     /**
      * Adds line into logger file
      *
+     * @param prefix optional line prefix
      * @param line content to add
      */
-    private void writeLine(final String line) {
-        if (_fw != null) {
-            try {
-                _fw.write(line);
-                _fw.write("\n");
-            } catch (final IOException ioe) {
-                _logger.error("RingBuffer : write line failure : ", ioe);
+    private void writeLine(final String prefix, final String line) {
+        // file writer is not thread safe (only used if a log file is defined):
+        synchronized (this) {
+            if (_fw != null) {
+                try {
+                    if (prefix != null) {
+                        _fw.write(prefix);
+                        _fw.write(PREFIX_SEPARATOR);
+                    }
+                    _fw.write(line);
+                    _fw.write("\n");
+                } catch (final IOException ioe) {
+                    _logger.error("RingBuffer : write line failure : ", ioe);
+                }
             }
         }
     }
@@ -0,0 +1,354 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Segmented log file capturing the complete process output (UTF-8 lines):
+ * lines are encoded into a large direct buffer written through a FileChannel and
+ * segment files (path.0, path.1 ...) are rolled once the segment size is reached (at line boundaries).
+ * 
+ * Byte ranges are read back from read-only memory-mapped segments so paging through
+ * very large logs does not grow the heap (only the returned page is copied).
+ * 
+ * Thread safe: writes and reads are serialized on this instance.
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class SegmentedLog {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(SegmentedLog.class.getName());
+    /** default segment size (64M) */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024L * 1024L;
+    /** write buffer size (256K) */
+    public static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    /** UTF-8 charset */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** prefix separator */
+    private static final String PREFIX_SEPARATOR = " : ";
+    /** line separator */
+    private static final char LINE_SEPARATOR = '\n';
+    // Members
+    /** base file path */
+    private final String _path;
+    /** segment size */
+    private final long _segmentSize;
+    /** segment start offsets */
+    private final List<Long> _starts = new ArrayList<Long>();
+    /** mapped segments (null until read) */
+    private final List<MappedByteBuffer> _maps = new ArrayList<MappedByteBuffer>();
+    /** write buffer */
+    private final ByteBuffer _buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    /** UTF-8 encoder */
+    private final CharsetEncoder _encoder = UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    /** current segment channel (null once closed) */
+    private FileChannel _channel = null;
+    /** bytes written in the current segment channel */
+    private long _written = 0l;
+    /** closed flag */
+    private boolean _closed = false;
+
+    /**
+     * Create a new segmented log (existing segments are overwritten)
+     *
+     * @param path base file path (segment files are named path.0, path.1 ...)
+     * @param segmentSize segment size in bytes
+     * @throws IOException if the first segment can not be created
+     */
+    public SegmentedLog(final String path, final long segmentSize) throws IOException {
+        if (segmentSize <= 0l || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        _path = path;
+        _segmentSize = segmentSize;
+        openSegment(0l);
+    }
+
+    /**
+     * Return the segment file
+     * @param index segment index
+     * @return segment file
+     */
+    public File getSegmentFile(final int index) {
+        return new File(_path + '.' + index);
+    }
+
+    /**
+     * Return the number of segments
+     * @return number of segments
+     */
+    public synchronized int getSegmentCount() {
+        return _starts.size();
+    }
+
+    /**
+     * Return the total number of bytes written (buffered bytes included)
+     * @return total number of bytes
+     */
+    public synchronized long getSize() {
+        return currentStart() + _written + _buffer.position();
+    }
+
+    /**
+     * Return true if this log was closed (no more writes)
+     * @return true if this log was closed
+     */
+    public synchronized boolean isClosed() {
+        return _closed;
+    }
+
+    /**
+     * Append the given line (prefix : line)
+     * @param prefix optional line prefix
+     * @param line line content
+     */
+    public synchronized void write(final String prefix, final String line) {
+        if (_closed) {
+            return;
+        }
+        try {
+            if (prefix != null) {
+                encode(prefix);
+                encode(PREFIX_SEPARATOR);
+            }
+            encode(line);
+            if (!_buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            _buffer.put((byte) LINE_SEPARATOR);
+
+            if (_written + _buffer.position() >= _segmentSize) {
+                rollSegment();
+            }
+        } catch (IOException ioe) {
+            _logger.error("SegmentedLog : write line failure : ", ioe);
+        }
+    }
+
+    /**
+     * Write buffered bytes to the current segment
+     */
+    public synchronized void flush() {
+        if (_closed) {
+            return;
+        }
+        try {
+            flushBuffer();
+        } catch (IOException ioe) {
+            _logger.error("SegmentedLog : flush failure : ", ioe);
+        }
+    }
+
+    /**
+     * Flush then close the current segment: content remains readable
+     */
+    public synchronized void close() {
+        if (_closed) {
+            return;
+        }
+        try {
+            flushBuffer();
+            _channel.close();
+        } catch (IOException ioe) {
+            _logger.error("SegmentedLog : close failure : ", ioe);
+        }
+        _channel = null;
+        _closed = true;
+    }
+
+    /**
+     * Return the log content (UTF-8) between the given byte offsets read from memory-mapped segments.
+     * Offsets are clamped to [0, size]; a range not starting or ending at a line boundary may cut
+     * a multi-byte character (replaced).
+     *
+     * @param from start offset (inclusive)
+     * @param to end offset (exclusive)
+     * @return log content
+     * @throws IllegalArgumentException if the range is larger than 2G
+     */
+    public synchronized String getContent(final long from, final long to) {
+        final long start = Math.max(0l, from);
+        final long end = Math.min(to, getSize());
+        if (start >= end) {
+            return "";
+        }
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range too large: [" + from + " - " + to + "]");
+        }
+        final byte[] bytes = new byte[(int) (end - start)];
+        try {
+            if (end > currentStart() + _written) {
+                // requested bytes still buffered:
+                flushBuffer();
+            }
+            int pos = 0;
+            for (int i = findSegment(start), len = _starts.size(); i < len && pos < bytes.length; i++) {
+                final long segStart = _starts.get(i).longValue();
+                final MappedByteBuffer map = getMap(i);
+                final ByteBuffer src = map.duplicate();
+                final int offset = (int) Math.max(0l, start - segStart);
+                final int count = Math.min(src.limit() - offset, bytes.length - pos);
+                src.position(offset);
+                src.get(bytes, pos, count);
+                pos += count;
+            }
+        } catch (IOException ioe) {
+            _logger.error("SegmentedLog : read failure : ", ioe);
+            return "";
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Encode the given string into the write buffer (flushed when full)
+     * @param value string to encode
+     * @throws IOException if an I/O error occurs
+     */
+    private void encode(final String value) throws IOException {
+        final CharBuffer chars = CharBuffer.wrap(value);
+        _encoder.reset();
+        for (;;) {
+            final CoderResult result = _encoder.encode(chars, _buffer, true);
+            if (result.isOverflow()) {
+                flushBuffer();
+            } else {
+                break;
+            }
+        }
+        while (_encoder.flush(_buffer).isOverflow()) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Write the buffer content into the current segment
+     * @throws IOException if an I/O error occurs
+     */
+    private void flushBuffer() throws IOException {
+        if (_buffer.position() != 0) {
+            _buffer.flip();
+            while (_buffer.hasRemaining()) {
+                _written += _channel.write(_buffer);
+            }
+            _buffer.clear();
+        }
+    }
+
+    /**
+     * Close the current segment and open the next one
+     * @throws IOException if an I/O error occurs
+     */
+    private void rollSegment() throws IOException {
+        flushBuffer();
+        _channel.close();
+        openSegment(currentStart() + _written);
+    }
+
+    /**
+     * Open a new segment (truncated)
+     * @param start start offset of the segment
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings("resource")
+    private void openSegment(final long start) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(getSegmentFile(_starts.size()), "rw");
+        raf.setLength(0l);
+        _channel = raf.getChannel();
+        _written = 0l;
+        _starts.add(Long.valueOf(start));
+        _maps.add(null);
+    }
+
+    /**
+     * Return the start offset of the current (last) segment
+     * @return start offset
+     */
+    private long currentStart() {
+        return _starts.get(_starts.size() - 1).longValue();
+    }
+
+    /**
+     * Return the index of the segment containing the given offset (binary search)
+     * @param offset byte offset
+     * @return segment index
+     */
+    private int findSegment(final long offset) {
+        int low = 0;
+        int high = _starts.size() - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (_starts.get(mid).longValue() <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the read-only mapping of the given segment: sealed segments are mapped once,
+     * the last segment is mapped again when it has grown
+     * @param index segment index
+     * @return mapped segment
+     * @throws IOException if an I/O error occurs
+     */
+    private MappedByteBuffer getMap(final int index) throws IOException {
+        final long size = (index == _starts.size() - 1) ? _written
+                : _starts.get(index + 1).longValue() - _starts.get(index).longValue();
+
+        MappedByteBuffer map = _maps.get(index);
+        if (map == null || map.capacity() < size) {
+            final RandomAccessFile raf = new RandomAccessFile(getSegmentFile(index), "r");
+            try {
+                // mapping remains valid once the channel is closed:
+                map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0l, size);
+            } finally {
+                raf.close();
+            }
+            _maps.set(index, map);
+        }
+        return map;
+    }
+}
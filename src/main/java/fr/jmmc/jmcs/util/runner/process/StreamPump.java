@@ -0,0 +1,399 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner.process;
+
+import fr.jmmc.jmcs.util.concurrent.PollingTask;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class drains the standard output / error streams of all running processes using a single pump thread
+ * instead of one blocked thread per stream (see StreamRedirector).
+ * 
+ * Process streams are not selectable channels, so the pump polls InputStream.available() on every stream,
+ * reads available bytes in a large buffer, decodes them (UTF-8) and splits lines in batch before adding them
+ * to the ring buffer. When no data is available, the pump thread parks with an increasing delay (up to 20 ms).
+ * The pump task only runs while streams are registered.
+ * 
+ * As the pump never blocks in read(), it can not detect the end of a stream by itself (available() also returns 0
+ * at the end of stream): a source completes when Source.finish() was called (the process ended) and no more data
+ * is available, or when an I/O failure occurs (stream closed). A stream closed by the process before it exits
+ * remains registered (cheap polling) until the process ends.
+ * 
+ * @see ProcessRunner
+ * @see RingBuffer
+ * 
+ * @author Laurent BOURGES.
+ */
+public final class StreamPump extends PollingTask<StreamPump.Source> {
+
+    /** Logger */
+    private static final Logger _logger = LoggerFactory.getLogger(StreamPump.class.getName());
+    /** pump thread pool name */
+    public static final String PUMP_THREAD_POOL = "StreamPump";
+    /** read buffer size (64K) */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /** minimum park delay when idle (1 ms) */
+    private static final long MIN_IDLE_NANOS = 1000L * 1000L;
+    /** maximum park delay when idle (20 ms) */
+    private static final long MAX_IDLE_NANOS = 20L * 1000L * 1000L;
+    /** stream encoding */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** singleton */
+    private static final StreamPump INSTANCE = new StreamPump();
+    // Members
+    /** current park delay when idle (only used by the pump thread) */
+    private long _idleNanos = MIN_IDLE_NANOS;
+    /** read buffer (only used by the pump thread) */
+    private final ByteBuffer _byteBuffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+    /** decoded buffer (only used by the pump thread) */
+    private final CharBuffer _charBuffer = CharBuffer.allocate(DEFAULT_BUFFER_SIZE);
+
+    /**
+     * Return the stream pump singleton
+     * @return stream pump singleton
+     */
+    public static StreamPump getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Forbidden constructor
+     */
+    private StreamPump() {
+        super(PUMP_THREAD_POOL);
+    }
+
+    /**
+     * Register the given input stream: its lines will be added to the given ring buffer
+     * until Source.finish() is called and no more data is available (or an I/O failure occurs).
+     * 
+     * @param is input stream to drain
+     * @param ring ring buffer
+     * @param prefix optional line prefix (ERROR ...) or null
+     * @return registered source
+     * @throws IllegalStateException if the pump thread pool is not available
+     */
+    public Source register(final InputStream is, final RingBuffer ring, final String prefix) {
+        final Source source = new Source(is, ring, prefix);
+        add(source);
+        return source;
+    }
+
+    /**
+     * Pump all registered sources once
+     * @param sources registered sources
+     * @return 0 if data was read or the (increasing) park delay when idle
+     */
+    @Override
+    protected long poll(final List<Source> sources) {
+        boolean active = false;
+
+        for (int i = sources.size() - 1; i >= 0; i--) {
+            final Source source = sources.get(i);
+
+            if (pump(source)) {
+                active = true;
+            }
+            if (source.isDone()) {
+                sources.remove(i);
+            }
+        }
+
+        if (active) {
+            _idleNanos = MIN_IDLE_NANOS;
+            return 0l;
+        }
+        final long idleNanos = _idleNanos;
+        _idleNanos = Math.min(idleNanos << 1, MAX_IDLE_NANOS);
+        return idleNanos;
+    }
+
+    /**
+     * Complete remaining sources to release all waiting threads (pool shutdown or unexpected failure)
+     * @param sources remaining sources
+     */
+    @Override
+    protected void abandon(final List<Source> sources) {
+        for (Source source : sources) {
+            source.complete(_charBuffer);
+        }
+    }
+
+    /**
+     * Read available bytes of the given source and add complete lines to its ring buffer
+     * @param source source to read
+     * @return true if data was read
+     */
+    private boolean pump(final Source source) {
+        final ByteBuffer bb = _byteBuffer;
+        final CharBuffer cb = _charBuffer;
+
+        boolean eof = false;
+        int read = 0;
+        try {
+            final int available = source._is.available();
+
+            if (available > 0) {
+                bb.clear();
+                source.restoreRemaining(bb);
+
+                final int pos = bb.position();
+                read = source._is.read(bb.array(), pos, Math.min(available, bb.remaining()));
+
+                if (read < 0) {
+                    // unexpected (available() > 0) but handled:
+                    eof = true;
+                    read = 0;
+                } else {
+                    bb.position(pos + read);
+                    source._bytes += read;
+                }
+                bb.flip();
+
+                cb.clear();
+                source._decoder.decode(bb, cb, eof);
+                cb.flip();
+                source.splitLines(cb);
+                source.saveRemaining(bb);
+
+            } else if (source._finishing) {
+                // process ended and no more data available:
+                eof = true;
+            }
+        } catch (IOException ioe) {
+            // occurs when the stream is closed (process killed) :
+            _logger.debug("StreamPump.pump : io failure : ", ioe);
+            eof = true;
+        }
+
+        if (eof) {
+            source.complete(cb);
+        }
+        return read > 0;
+    }
+
+    /**
+     * Registered input stream and its line splitting state
+     */
+    public static final class Source {
+
+        // Members
+        /** input stream */
+        final InputStream _is;
+        /** ring buffer */
+        private final RingBuffer _ring;
+        /** optional line prefix */
+        private final String _prefix;
+        /** UTF-8 decoder */
+        final CharsetDecoder _decoder;
+        /** partial line (not terminated yet) */
+        private final StringBuilder _partial = new StringBuilder(RingBuffer.DEFAULT_LINE_SIZE);
+        /** undecoded bytes (incomplete UTF-8 sequence) */
+        private final byte[] _remaining = new byte[16];
+        /** number of undecoded bytes */
+        private int _remainingLength = 0;
+        /** true if the previous character was a carriage return */
+        private boolean _skipLF = false;
+        /** number of bytes read (only written by the pump thread) */
+        volatile long _bytes = 0l;
+        /** finishing flag: the process ended so the source completes once no more data is available */
+        volatile boolean _finishing = false;
+        /** done signal */
+        private final CountDownLatch _done = new CountDownLatch(1);
+
+        /**
+         * Protected constructor
+         * @param is input stream
+         * @param ring ring buffer
+         * @param prefix optional line prefix
+         */
+        Source(final InputStream is, final RingBuffer ring, final String prefix) {
+            _is = is;
+            _ring = ring;
+            _prefix = prefix;
+            _decoder = UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        /**
+         * Indicate that the process ended: this source completes as soon as no more data is available
+         */
+        public void finish() {
+            _finishing = true;
+            INSTANCE.wakeUp();
+        }
+
+        /**
+         * Return the number of bytes read from the input stream
+         * @return number of bytes read
+         */
+        public long getByteCount() {
+            return _bytes;
+        }
+
+        /**
+         * Return true if this source is completed
+         * @return true if this source is completed
+         */
+        public boolean isDone() {
+            return _done.getCount() == 0L;
+        }
+
+        /**
+         * Wait for this source to complete
+         * @param timeout the maximum time to wait
+         * @param unit the time unit of the timeout argument
+         * @return true if this source completed; false if the waiting time elapsed
+         * @throws InterruptedException if the current thread is interrupted while waiting
+         */
+        public boolean await(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return _done.await(timeout, unit);
+        }
+
+        /**
+         * Wait for this source to complete
+         * @throws InterruptedException if the current thread is interrupted while waiting
+         */
+        public void await() throws InterruptedException {
+            _done.await();
+        }
+
+        /**
+         * Split decoded characters into lines (terminated by LF, CR or CR+LF like BufferedReader.readLine)
+         * @param cb decoded characters
+         */
+        void splitLines(final CharBuffer cb) {
+            final char[] chars = cb.array();
+            final int end = cb.limit();
+            int start = cb.position();
+
+            for (int i = start; i < end; i++) {
+                final char c = chars[i];
+                if (c == '\n' || c == '\r') {
+                    if (c == '\n' && _skipLF && i == start) {
+                        // second char of CR+LF:
+                        _skipLF = false;
+                        start = i + 1;
+                        continue;
+                    }
+                    addLine(chars, start, i);
+                    _skipLF = (c == '\r');
+                    start = i + 1;
+                } else {
+                    _skipLF = false;
+                }
+            }
+            if (start < end) {
+                _partial.append(chars, start, end - start);
+            }
+        }
+
+        /**
+         * Add the line made of the partial line and the given characters in the ring buffer
+         * @param chars character array
+         * @param start first character index
+         * @param end last character index (exclusive)
+         */
+        private void addLine(final char[] chars, final int start, final int end) {
+            final String line;
+            if (_partial.length() == 0) {
+                line = new String(chars, start, end - start);
+            } else {
+                line = _partial.append(chars, start, end - start).toString();
+                _partial.setLength(0);
+            }
+            if (_prefix != null) {
+                _ring.add(_prefix, line);
+            } else {
+                _ring.add(line);
+            }
+        }
+
+        /**
+         * Copy undecoded bytes at the beginning of the given buffer
+         * @param bb byte buffer
+         */
+        void restoreRemaining(final ByteBuffer bb) {
+            if (_remainingLength != 0) {
+                bb.put(_remaining, 0, _remainingLength);
+                _remainingLength = 0;
+            }
+        }
+
+        /**
+         * Save undecoded bytes (incomplete UTF-8 sequence) for the next read
+         * @param bb byte buffer
+         */
+        void saveRemaining(final ByteBuffer bb) {
+            final int len = Math.min(bb.remaining(), _remaining.length);
+            bb.get(_remaining, 0, len);
+            _remainingLength = len;
+        }
+
+        /**
+         * Flush the partial line and signal completion (called once by the pump thread)
+         * @param cb decode buffer
+         */
+        void complete(final CharBuffer cb) {
+            if (isDone()) {
+                return;
+            }
+            try {
+                if (_remainingLength != 0) {
+                    // decode an incomplete sequence (replacement character):
+                    cb.clear();
+                    _decoder.decode(ByteBuffer.wrap(_remaining, 0, _remainingLength), cb, true);
+                    cb.flip();
+                    _remainingLength = 0;
+                    splitLines(cb);
+                }
+                if (_partial.length() != 0) {
+                    final String line = _partial.toString();
+                    _partial.setLength(0);
+                    if (_prefix != null) {
+                        _ring.add(_prefix, line);
+                    } else {
+                        _ring.add(line);
+                    }
+                }
+            } finally {
+                _done.countDown();
+            }
+        }
+    }
+}
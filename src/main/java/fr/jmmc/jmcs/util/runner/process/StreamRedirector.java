@@ -28,6 +28,7 @@
 package fr.jmmc.jmcs.util.runner.process;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -60,6 +61,8 @@ public final class StreamRedirector implements Runnable {
     private InputStream _is;
     /** ring buffer */
     private final RingBuffer _ring;
+    /** number of bytes read */
+    private volatile long _bytes = 0l;
 
     /**
      * Constructor with the given ring buffer
@@ -87,6 +90,14 @@ public final class StreamRedirector implements Runnable {
         _is = in;
     }
 
+    /**
+     * Return the number of bytes read from the input stream
+     * @return number of bytes read
+     */
+    public long getByteCount() {
+        return _bytes;
+    }
+
     /**
      * The method reads lines from a buffered reader for the inputStream and adds them to the ring buffer as long as the inputStream is ready.
      * The input stream is not closed by this method. 
@@ -100,7 +111,26 @@ public final class StreamRedirector implements Runnable {
         } else {
             try {
                 // 8K buffer :
-                final BufferedReader br = new BufferedReader(new InputStreamReader(_is, "UTF-8"), DEFAULT_BUFFER_SIZE);
+                final InputStream counter = new FilterInputStream(_is) {
+                    @Override
+                    public int read() throws IOException {
+                        final int b = super.read();
+                        if (b != -1) {
+                            _bytes++;
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(final byte[] b, final int off, final int len) throws IOException {
+                        final int n = super.read(b, off, len);
+                        if (n > 0) {
+                            _bytes += n;
+                        }
+                        return n;
+                    }
+                };
+                final BufferedReader br = new BufferedReader(new InputStreamReader(counter, "UTF-8"), DEFAULT_BUFFER_SIZE);
 
                 for (String line = null; (line = br.readLine()) != null;) {
 
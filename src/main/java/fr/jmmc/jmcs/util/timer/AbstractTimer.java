@@ -28,7 +28,9 @@
 package fr.jmmc.jmcs.util.timer;
 
 /**
- * This class defines an Abstract Timer Object to have statistics on time metrics
+ * This class defines an Abstract Timer Object to have statistics on time metrics.
+ *
+ * Implementations must be thread-safe: any thread can add time measures.
  *
  * @author Laurent BOURGES (voparis).
  */
@@ -39,8 +41,6 @@ public abstract class AbstractTimer {
     private final String _category;
     /** unit */
     private final TimerFactory.UNIT _unit;
-    /** usage counter */
-    protected int _usage = 0;
 
     /**
      * Protected Constructor for AbstractTimer objects : use the factory pattern
@@ -107,14 +107,16 @@ public abstract class AbstractTimer {
     /**
      * Return the usage counter
      *
+     * Note: to override in child classes to avoid computing the time statistics
+     *
      * @return usage counter
      */
-    public final int getUsage() {
-        return _usage;
+    public int getUsage() {
+        return getTimeStatistics().getCounter();
     }
 
     /**
-     * Return the time statistics
+     * Return the time statistics (snapshot)
      *
      * @return time statistics
      */
@@ -141,6 +143,6 @@ public abstract class AbstractTimer {
      * @param full true to get complete information; false to get main information (shorter)
      */
     public void toString(final StringBuilder sb, final boolean full) {
-        sb.append("Timer [").append(_category).append(" - ").append(_unit).append("] [").append(_usage).append("]\t");
+        sb.append("Timer [").append(_category).append(" - ").append(_unit).append("] [").append(getUsage()).append("]\t");
     }
 }
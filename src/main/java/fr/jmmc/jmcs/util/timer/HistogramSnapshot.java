@@ -0,0 +1,293 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.timer;
+
+import fr.jmmc.jmcs.util.NumberUtils;
+import fr.jmmc.jmcs.util.ToStringable;
+
+/**
+ * Fixed-size latency histogram (values in nanoseconds) using log-linear buckets:
+ * values lower than 32 have their own bucket, then each power of 2 is split into 16 linear buckets
+ * (relative error lower than 1 / 16 = 6.25%).
+ *
+ * Snapshots are returned by HistogramTimer and can be merged (add).
+ * WARNING : Synchronization for coherence must be done OUTSIDE in the calling class !
+ *
+ * @see HistogramTimer
+ * @author Laurent BOURGES.
+ */
+public final class HistogramSnapshot implements ToStringable {
+
+    /** number of bits for linear sub-buckets */
+    private final static int SUB_BITS = 5;
+    /** number of values having their own bucket = 32 */
+    private final static int SUB_COUNT = 1 << SUB_BITS;
+    /** number of linear sub-buckets per power of 2 = 16 */
+    private final static int HALF_COUNT = SUB_COUNT >> 1;
+    /** number of buckets to cover all positive long values */
+    final static int BUCKET_COUNT = (Long.SIZE - SUB_BITS + 1) * HALF_COUNT;
+    /** default percentiles */
+    private final static double[] PERCENTILES = new double[]{50d, 90d, 99d, 99.9d};
+    // Members
+    /** unit used by toString() */
+    private final TimerFactory.UNIT _unit;
+    /** bucket counts */
+    private final long[] _counts;
+    /** total count */
+    private long _count;
+    /** sum of values (ns) */
+    private long _sum;
+    /** minimum value (ns) */
+    private long _min;
+    /** maximum value (ns) */
+    private long _max;
+
+    /**
+     * Return the bucket index of the given value
+     * @param value positive value (ns)
+     * @return bucket index
+     */
+    static int getBucketIndex(final long value) {
+        if (value < SUB_COUNT) {
+            return (value < 0L) ? 0 : (int) value;
+        }
+        // shift = floor(log2(value)) - (SUB_BITS - 1):
+        final int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (SUB_BITS - 1);
+        return shift * HALF_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * Return the lowest value of the given bucket
+     * @param index bucket index
+     * @return lowest value (ns)
+     */
+    static long getBucketLowerBound(final int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        final int shift = index / HALF_COUNT - 1;
+        return ((long) (index - shift * HALF_COUNT)) << shift;
+    }
+
+    /**
+     * Return the highest value of the given bucket
+     * @param index bucket index
+     * @return highest value (ns)
+     */
+    static long getBucketUpperBound(final int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        final int shift = index / HALF_COUNT - 1;
+        return getBucketLowerBound(index) + (1L << shift) - 1L;
+    }
+
+    /**
+     * Create a new empty snapshot
+     * @param unit unit used by toString()
+     */
+    public HistogramSnapshot(final TimerFactory.UNIT unit) {
+        this(unit, new long[BUCKET_COUNT], 0L, 0L, Long.MAX_VALUE, 0L);
+    }
+
+    /**
+     * Package-private constructor used by HistogramTimer
+     * @param unit unit used by toString()
+     * @param counts bucket counts (not copied)
+     * @param count total count
+     * @param sum sum of values (ns)
+     * @param min minimum value (ns)
+     * @param max maximum value (ns)
+     */
+    HistogramSnapshot(final TimerFactory.UNIT unit, final long[] counts, final long count, final long sum, final long min, final long max) {
+        _unit = unit;
+        _counts = counts;
+        _count = count;
+        _sum = sum;
+        _min = min;
+        _max = max;
+    }
+
+    /**
+     * Merge the given snapshot in this instance
+     * @param other snapshot to add in this instance
+     */
+    public void add(final HistogramSnapshot other) {
+        final long[] counts = _counts;
+        final long[] otherCounts = other._counts;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += otherCounts[i];
+        }
+        _count += other._count;
+        _sum += other._sum;
+        if (other._min < _min) {
+            _min = other._min;
+        }
+        if (other._max > _max) {
+            _max = other._max;
+        }
+    }
+
+    /**
+     * Return the unit used by toString()
+     * @return unit
+     */
+    public TimerFactory.UNIT getUnit() {
+        return _unit;
+    }
+
+    /**
+     * Return the total count
+     * @return total count
+     */
+    public long getCount() {
+        return _count;
+    }
+
+    /**
+     * Return the minimum value (ns) or 0 if empty
+     * @return minimum value (ns)
+     */
+    public long getMin() {
+        return (_count == 0L) ? 0L : _min;
+    }
+
+    /**
+     * Return the maximum value (ns)
+     * @return maximum value (ns)
+     */
+    public long getMax() {
+        return _max;
+    }
+
+    /**
+     * Return the sum of values (ns)
+     * @return sum of values (ns)
+     */
+    public long getSum() {
+        return _sum;
+    }
+
+    /**
+     * Return the mean value (ns) or 0 if empty
+     * @return mean value (ns)
+     */
+    public double getMean() {
+        return (_count == 0L) ? 0d : ((double) _sum) / _count;
+    }
+
+    /**
+     * Return the value (ns) at the given percentile i.e. the value such that the given percentage of
+     * recorded values are lower or equal (bucket precision, clipped to [min, max])
+     * @param percentile percentile in [0; 100]
+     * @return value at the given percentile (ns) or 0 if empty
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (_count == 0L) {
+            return 0L;
+        }
+        final double p = Math.min(Math.max(percentile, 0d), 100d);
+        final long rank = Math.max(1L, (long) Math.ceil(p / 100d * _count));
+
+        final long[] counts = _counts;
+        long acc = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            acc += counts[i];
+            if (acc >= rank) {
+                final long value = getBucketUpperBound(i);
+                return Math.max(_min, Math.min(_max, value));
+            }
+        }
+        return _max;
+    }
+
+    /**
+     * Return the value at the given percentile converted in the snapshot unit
+     * @param percentile percentile in [0; 100]
+     * @return value at the given percentile in the snapshot unit
+     */
+    public double getPercentile(final double percentile) {
+        return convert(getValueAtPercentile(percentile));
+    }
+
+    /**
+     * Convert the given value (ns) in the snapshot unit
+     * @param nanos value (ns)
+     * @return value in the snapshot unit
+     */
+    private double convert(final double nanos) {
+        return (_unit == TimerFactory.UNIT.ms) ? 1e-6d * nanos : nanos;
+    }
+
+    /**
+     * Return the statistics (count, accumulator, average, min, max) in the snapshot unit
+     * @return statistics
+     */
+    public StatLong toStatLong() {
+        if (_count == 0L) {
+            return new StatLong();
+        }
+        return StatLong.create((int) Math.min(_count, Integer.MAX_VALUE), convert(_sum), convert(getMin()), convert(_max));
+    }
+
+    /**
+     * Return a string representation
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(128);
+        toString(sb, true);
+        return sb.toString();
+    }
+
+    /**
+     * toString() implementation using string builder
+     *
+     * @param sb string builder to append to
+     * @param full true to get complete information; false to get main information (shorter)
+     */
+    @Override
+    public void toString(final StringBuilder sb, final boolean full) {
+        sb.append("{num = ").append(_count);
+        if (_count != 0L) {
+            sb.append(" :\tmin = ").append(NumberUtils.trimTo5Digits(convert(getMin())));
+            sb.append(",\tavg = ").append(NumberUtils.trimTo5Digits(convert(getMean())));
+            sb.append(",\tmax = ").append(NumberUtils.trimTo5Digits(convert(_max)));
+
+            for (double p : PERCENTILES) {
+                sb.append(",\tp").append((p == Math.rint(p)) ? Integer.toString((int) p) : Double.toString(p));
+                sb.append(" = ").append(NumberUtils.trimTo5Digits(getPercentile(p)));
+            }
+            if (full) {
+                sb.append(",\tacc = ").append(NumberUtils.trimTo5Digits(convert(_sum)));
+            }
+        }
+        sb.append('}');
+    }
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.timer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timer backed by a latency histogram (fixed memory, log-linear buckets) to get percentiles
+ * (tail latencies) instead of only average and standard deviation.
+ *
+ * This class is thread-safe and record(long) is lock-free and allocation-free.
+ *
+ * @see HistogramSnapshot
+ * @see TimerFactory#getHistogramTimer(String, TimerFactory.UNIT)
+ * @author Laurent BOURGES.
+ */
+public final class HistogramTimer extends AbstractTimer {
+
+    /** conversion ratio between milliseconds and nanoseconds */
+    private final static double CONVERT_MS_INTO_NS = 1e6d;
+    // Members
+    /** bucket counts */
+    private final AtomicLongArray _counts = new AtomicLongArray(HistogramSnapshot.BUCKET_COUNT);
+    /** total count */
+    private final AtomicLong _count = new AtomicLong();
+    /** sum of values (ns) */
+    private final AtomicLong _sum = new AtomicLong();
+    /** minimum value (ns) */
+    private final AtomicLong _min = new AtomicLong(Long.MAX_VALUE);
+    /** maximum value (ns) */
+    private final AtomicLong _max = new AtomicLong();
+
+    /**
+     * Protected Constructor for HistogramTimer objects : use the factory pattern
+     *
+     * @see TimerFactory.UNIT
+     * @see TimerFactory#getHistogramTimer(String, TimerFactory.UNIT)
+     * @param pCategory a string representing the kind of operation
+     * @param pUnit MILLI_SECONDS or NANO_SECONDS (used to display values)
+     */
+    protected HistogramTimer(final String pCategory, final TimerFactory.UNIT pUnit) {
+        super(pCategory, pUnit);
+    }
+
+    /**
+     * Add a time value given in double precision (timer unit)
+     *
+     * @param time value to add in statistics
+     */
+    @Override
+    public void add(final double time) {
+        if (time > 0d) {
+            record((getUnit() == TimerFactory.UNIT.ms) ? Math.round(time * CONVERT_MS_INTO_NS) : Math.round(time));
+        }
+    }
+
+    /**
+     * Record the elapsed time between 2 time values get from System.nanoTime()
+     *
+     * @param start t0
+     * @param now t1
+     */
+    public void recordNanoSeconds(final long start, final long now) {
+        record(now - start);
+    }
+
+    /**
+     * Record the given value in nanoseconds (lock-free, allocation-free)
+     *
+     * @param nanos value in nanoseconds (negative values are ignored)
+     */
+    public void record(final long nanos) {
+        if (nanos < 0L) {
+            return;
+        }
+        _counts.incrementAndGet(HistogramSnapshot.getBucketIndex(nanos));
+        _count.incrementAndGet();
+        _sum.addAndGet(nanos);
+
+        long v;
+        while (nanos < (v = _min.get())) {
+            if (_min.compareAndSet(v, nanos)) {
+                break;
+            }
+        }
+        while (nanos > (v = _max.get())) {
+            if (_max.compareAndSet(v, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Return the usage counter
+     *
+     * @return usage counter
+     */
+    @Override
+    public int getUsage() {
+        return (int) Math.min(_count.get(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return a snapshot of the histogram since its creation or its last reset
+     *
+     * @return histogram snapshot
+     */
+    public HistogramSnapshot getSnapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Return a snapshot of the histogram since its creation or its last reset and reset it
+     * (interval histogram): every recorded value belongs to exactly one interval
+     *
+     * @return histogram snapshot
+     */
+    public HistogramSnapshot getIntervalSnapshot() {
+        return snapshot(true);
+    }
+
+    /**
+     * Reset the histogram
+     */
+    public void reset() {
+        snapshot(true);
+    }
+
+    /**
+     * Return a snapshot of the histogram
+     *
+     * @param reset true to reset the histogram
+     * @return histogram snapshot
+     */
+    private HistogramSnapshot snapshot(final boolean reset) {
+        final int len = HistogramSnapshot.BUCKET_COUNT;
+        final long[] counts = new long[len];
+        long count = 0L;
+
+        for (int i = 0; i < len; i++) {
+            count += counts[i] = (reset) ? _counts.getAndSet(i, 0L) : _counts.get(i);
+        }
+        // sum, min and max may be slightly inconsistent with bucket counts during concurrent updates:
+        final long sum = (reset) ? _sum.getAndSet(0L) : _sum.get();
+        final long min = (reset) ? _min.getAndSet(Long.MAX_VALUE) : _min.get();
+        final long max = (reset) ? _max.getAndSet(0L) : _max.get();
+        if (reset) {
+            _count.addAndGet(-count);
+        }
+        return new HistogramSnapshot(getUnit(), counts, count, sum, min, max);
+    }
+
+    /**
+     * Return the time statistics (count, accumulator, average, min, max) in the timer unit
+     *
+     * @return time statistics
+     */
+    @Override
+    public StatLong getTimeStatistics() {
+        return getSnapshot().toStatLong();
+    }
+
+    /**
+     * toString() implementation using string builder
+     *
+     * @param sb string builder to append to
+     * @param full true to get complete information; false to get main information (shorter)
+     */
+    @Override
+    public void toString(final StringBuilder sb, final boolean full) {
+        final HistogramSnapshot snapshot = getSnapshot();
+
+        sb.append("Histogram [").append(getCategory()).append(" - ").append(getUnit()).append("] [").append(snapshot.getCount()).append("]\t");
+        snapshot.toString(sb, full);
+    }
+}
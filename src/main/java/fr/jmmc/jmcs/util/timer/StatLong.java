@@ -93,6 +93,61 @@ public final class StatLong implements ToStringable {
         reset();
     }
 
+    /**
+     * Create a new StatLong object given its main values (no standard deviation)
+     *
+     * @param counter occurrence counter
+     * @param acc accumulator
+     * @param min minimum value
+     * @param max maximum value
+     * @return new StatLong object
+     */
+    static StatLong create(final int counter, final double acc, final double min, final double max) {
+        final StatLong stat = new StatLong();
+        if (counter != 0) {
+            stat._counter = counter;
+            stat._acc = acc;
+            stat._average = acc / counter;
+            stat._min = min;
+            stat._max = max;
+        }
+        return stat;
+    }
+
+    /**
+     * Create a new StatLong object given its main values and its low / high delta accumulators
+     *
+     * @param counter occurrence counter
+     * @param acc accumulator
+     * @param min minimum value
+     * @param max maximum value
+     * @param counterLow low occurrence counter
+     * @param accDeltaLow delta accumulator (lower values in compare to the average value)
+     * @param counterHigh high occurrence counter
+     * @param accDeltaHigh delta accumulator (higher values in compare to the average value)
+     * @return new StatLong object
+     */
+    static StatLong create(final int counter, final double acc, final double min, final double max,
+                           final int counterLow, final double accDeltaLow,
+                           final int counterHigh, final double accDeltaHigh) {
+        final StatLong stat = create(counter, acc, min, max);
+        if (counter != 0) {
+            stat._counterLow = counterLow;
+            stat._accDeltaLow = accDeltaLow;
+            stat._counterHigh = counterHigh;
+            stat._accDeltaHigh = accDeltaHigh;
+        }
+        return stat;
+    }
+
+    /**
+     * Return the average threshold used to start considering that the average value is correct
+     * @return average threshold
+     */
+    static int getThresholdAverage() {
+        return THRESHOLD_AVG;
+    }
+
     /**
      * reset values
      */
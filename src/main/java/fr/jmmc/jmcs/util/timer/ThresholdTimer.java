@@ -67,7 +67,6 @@ public final class ThresholdTimer extends AbstractTimer {
     @Override
     public void add(final double time) {
         if (time > 0d) {
-            _usage++;
             if (time > _threshold) {
                 _high.add(time);
             } else {
@@ -76,6 +75,16 @@ public final class ThresholdTimer extends AbstractTimer {
         }
     }
 
+    /**
+     * Return the usage counter
+     *
+     * @return usage counter
+     */
+    @Override
+    public int getUsage() {
+        return _low.getUsage() + _high.getUsage();
+    }
+
     /**
      * Return the Timer instance for the high values
      *
@@ -28,16 +28,57 @@
 package fr.jmmc.jmcs.util.timer;
 
 import fr.jmmc.jmcs.util.ToStringable;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * This class contains statistics for time metrics.
  *
+ * This class is thread-safe and lock-free: time measures are recorded into a fixed number of
+ * striped cells (selected by thread id) updated with CAS operations and merged on read.
+ * Each cell accumulates the count, sum, min and max values (exact once recording threads are idle)
+ * and the low / high squared deltas to the running average of the cell (clipping algorithm like StatLong)
+ * so the merged statistics give the estimated standard deviation and its low / high parts.
+ *
  * @author Laurent BOURGES (voparis).
  */
 public final class Timer extends AbstractTimer implements ToStringable {
 
-    /** statistics for elapsed time */
-    private final StatLong _monitorTime = new StatLong();
+    /** number of striped cells (power of 2) */
+    private final static int STRIPES;
+    /** mask to select a cell */
+    private final static int STRIPE_MASK;
+    /** cell field: counter */
+    private final static int COUNT = 0;
+    /** cell field: accumulator (double bits) */
+    private final static int SUM = 1;
+    /** cell field: minimum value (double bits) */
+    private final static int MIN = 2;
+    /** cell field: maximum value (double bits) */
+    private final static int MAX = 3;
+    /** cell field: low occurrence counter */
+    private final static int COUNT_LOW = 4;
+    /** cell field: delta accumulator of lower values (double bits) */
+    private final static int DELTA_LOW = 5;
+    /** cell field: high occurrence counter */
+    private final static int COUNT_HIGH = 6;
+    /** cell field: delta accumulator of higher values (double bits) */
+    private final static int DELTA_HIGH = 7;
+    /** cell size in longs (64 bytes to avoid false sharing) */
+    private final static int CELL_SIZE = 8;
+
+    static {
+        // at least 2 cells per processor, at most 64:
+        final int n = Math.min(64, 2 * Runtime.getRuntime().availableProcessors());
+        int stripes = 1;
+        while (stripes < n) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+        STRIPE_MASK = stripes - 1;
+    }
+    // Members
+    /** striped cells (CELL_SIZE longs per cell) */
+    private final AtomicLongArray _cells = new AtomicLongArray(STRIPES * CELL_SIZE);
 
     /**
      * Protected Constructor for Timer objects : use the factory pattern
@@ -49,6 +90,10 @@ public final class Timer extends AbstractTimer implements ToStringable {
      */
     protected Timer(final String pCategory, final TimerFactory.UNIT pUnit) {
         super(pCategory, pUnit);
+        final long minBits = Double.doubleToRawLongBits(Double.MAX_VALUE);
+        for (int i = 0; i < STRIPES; i++) {
+            _cells.set(i * CELL_SIZE + MIN, minBits);
+        }
     }
 
     /**
@@ -59,19 +104,105 @@ public final class Timer extends AbstractTimer implements ToStringable {
     @Override
     public void add(final double time) {
         if (time > 0d) {
-            _usage++;
-            _monitorTime.add(time);
+            final AtomicLongArray cells = _cells;
+            final int cell = (((int) Thread.currentThread().getId()) & STRIPE_MASK) * CELL_SIZE;
+
+            final double sum = addDouble(cells, cell + SUM, time);
+            final long count = cells.get(cell + COUNT) + 1L;
+
+            if (count >= StatLong.getThresholdAverage()) {
+                // the standard deviation is estimated with a clipping algorithm (see StatLong):
+                final double delta = sum / count - time;
+                if (delta > 0d) {
+                    cells.incrementAndGet(cell + COUNT_LOW);
+                    addDouble(cells, cell + DELTA_LOW, delta * delta);
+                } else {
+                    cells.incrementAndGet(cell + COUNT_HIGH);
+                    addDouble(cells, cell + DELTA_HIGH, delta * delta);
+                }
+            }
+
+            long bits;
+            while (time < Double.longBitsToDouble(bits = cells.get(cell + MIN))
+                    && !cells.compareAndSet(cell + MIN, bits, Double.doubleToRawLongBits(time))) {
+                // retry
+            }
+            while (time > Double.longBitsToDouble(bits = cells.get(cell + MAX))
+                    && !cells.compareAndSet(cell + MAX, bits, Double.doubleToRawLongBits(time))) {
+                // retry
+            }
+            // counter last to publish the other fields:
+            cells.incrementAndGet(cell + COUNT);
+        }
+    }
+
+    /**
+     * Add the given value to the double stored at the given index (CAS loop)
+     * @param cells striped cells
+     * @param index index of the double value
+     * @param value value to add
+     * @return updated value
+     */
+    private static double addDouble(final AtomicLongArray cells, final int index, final double value) {
+        long bits;
+        double updated;
+        do {
+            bits = cells.get(index);
+            updated = Double.longBitsToDouble(bits) + value;
+        } while (!cells.compareAndSet(index, bits, Double.doubleToRawLongBits(updated)));
+        return updated;
+    }
+
+    /**
+     * Return the usage counter
+     *
+     * @return usage counter
+     */
+    @Override
+    public int getUsage() {
+        long usage = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            usage += _cells.get(i * CELL_SIZE + COUNT);
         }
+        return (int) Math.min(usage, Integer.MAX_VALUE);
     }
 
     /**
-     * Return the time statistics
+     * Return the time statistics (snapshot) merging all striped cells
      *
      * @return time statistics
      */
     @Override
     public StatLong getTimeStatistics() {
-        return _monitorTime;
+        final AtomicLongArray cells = _cells;
+        long counter = 0L, counterLow = 0L, counterHigh = 0L;
+        double acc = 0d, accDeltaLow = 0d, accDeltaHigh = 0d;
+        double min = Double.MAX_VALUE, max = 0d;
+
+        for (int i = 0; i < STRIPES; i++) {
+            final int cell = i * CELL_SIZE;
+            final long count = cells.get(cell + COUNT);
+            if (count != 0L) {
+                counter += count;
+                acc += Double.longBitsToDouble(cells.get(cell + SUM));
+                min = Math.min(min, Double.longBitsToDouble(cells.get(cell + MIN)));
+                max = Math.max(max, Double.longBitsToDouble(cells.get(cell + MAX)));
+                counterLow += cells.get(cell + COUNT_LOW);
+                accDeltaLow += Double.longBitsToDouble(cells.get(cell + DELTA_LOW));
+                counterHigh += cells.get(cell + COUNT_HIGH);
+                accDeltaHigh += Double.longBitsToDouble(cells.get(cell + DELTA_HIGH));
+            }
+        }
+        return StatLong.create(toInt(counter), acc, min, max, toInt(counterLow), accDeltaLow, toInt(counterHigh), accDeltaHigh);
+    }
+
+    /**
+     * Return the given counter as an integer (saturated)
+     * @param counter counter
+     * @return integer counter
+     */
+    private static int toInt(final long counter) {
+        return (int) Math.min(counter, Integer.MAX_VALUE);
     }
 
     /**
@@ -86,8 +217,10 @@ public final class Timer extends AbstractTimer implements ToStringable {
     public void toString(final StringBuilder sb, final boolean full) {
         super.toString(sb, full);
 
-        if (_monitorTime.getCounter() != 0) {
-            _monitorTime.toString(sb, full);
+        final StatLong stat = getTimeStatistics();
+
+        if (stat.getCounter() != 0) {
+            stat.toString(sb, full);
         }
     }
 }
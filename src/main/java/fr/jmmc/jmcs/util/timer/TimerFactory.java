@@ -27,17 +27,33 @@
  ******************************************************************************/
 package fr.jmmc.jmcs.util.timer;
 
+import fr.jmmc.jmcs.util.FileUtils;
 import fr.jmmc.jmcs.util.NumberUtils;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
-import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * The Timer factory contains a map[key - Timer] to associate time metrics statistics to several
- * categories of operations
+ * categories of operations.
+ *
+ * This class is thread-safe: timer lookups are lock-free (concurrent map) and timers
+ * can be used by any number of threads.
+ *
+ * The timer latency calibration is lazy (see PROPERTY_CALIBRATION): by default it is done by a background
+ * thread and cached on disk (keyed by JVM and CPU); meanwhile timers work with zero correction.
  *
  * @author Laurent BOURGES (voparis).
  */
@@ -64,17 +80,29 @@ public final class TimerFactory {
     private final static double THRESHOLD = 1 * 1000d;
     /** conversion ratio between nanoseconds and milliseconds */
     private final static double CONVERT_NS_INTO_MS = 1e-6d;
-    /** calibration value for milliseconds unit */
-    private static double CALIBRATION_MILLI_SECONDS = 0d;
-    /** calibration value for nanoseconds unit */
-    private static double CALIBRATION_NANO_SECONDS = 0d;
+    /** calibration mode property: none, background (default) or sync */
+    public final static String PROPERTY_CALIBRATION = "TimerFactory.calibration";
+    /** calibration mode: no calibration (zero correction) */
+    public final static String CALIBRATION_NONE = "none";
+    /** calibration mode: calibration done by a background thread (zero correction meanwhile) */
+    public final static String CALIBRATION_BACKGROUND = "background";
+    /** calibration mode: calibration done by the first thread using timers */
+    public final static String CALIBRATION_SYNC = "sync";
+    /** calibration cache file name (in the platform cache folder) */
+    private final static String CALIBRATION_CACHE_FILE = "jmcs-timer-calibration.properties";
+    /** calibration value for milliseconds unit (zero until calibrated) */
+    private static volatile double CALIBRATION_MILLI_SECONDS = 0d;
+    /** calibration value for nanoseconds unit (zero until calibrated) */
+    private static volatile double CALIBRATION_NANO_SECONDS = 0d;
+    /** calibration flag */
+    private static volatile boolean CALIBRATED = false;
     /* shared state */
-    /** guard lock for timer list and map to ensure thread integrity */
+    /** guard lock for timer registration and reset to keep the timer list and map consistent */
     private final static Object _lock = new Object();
-    /** List[timer] */
-    private static List<AbstractTimer> _timerList = new ArrayList<AbstractTimer>(CAPACITY);
-    /** fast Map[key - timer] */
-    private static Map<String, AbstractTimer> _timerMap = new HashMap<String, AbstractTimer>(CAPACITY);
+    /** List[timer] in registration order (copy on write) */
+    private final static List<AbstractTimer> _timerList = new CopyOnWriteArrayList<AbstractTimer>();
+    /** fast concurrent Map[key - timer] */
+    private final static ConcurrentMap<String, AbstractTimer> _timerMap = new ConcurrentHashMap<String, AbstractTimer>(CAPACITY);
 
     /** timer unit constants */
     public static enum UNIT {
@@ -86,12 +114,55 @@ public final class TimerFactory {
     }
 
     static {
+        final String mode = System.getProperty(PROPERTY_CALIBRATION, CALIBRATION_BACKGROUND);
+
+        if (CALIBRATION_NONE.equalsIgnoreCase(mode)) {
+            _logger.debug("TimerFactory : calibration disabled.");
+        } else if (CALIBRATION_SYNC.equalsIgnoreCase(mode)) {
+            calibrate();
+        } else {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    calibrate();
+                }
+            }, "TimerFactory-calibration");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+
+    /**
+     * Load calibration values from the cache file or warm-up and calibrate timer code (HotSpot),
+     * then define calibration values and save them in the cache file.
+     * This method does not use any shared timer nor change StatLong thresholds (thread-safe).
+     */
+    private static void calibrate() {
         final long start = System.nanoTime();
 
-        StatLong stat;
+        final String key = getCalibrationKey();
+        final File cacheFile = getCalibrationCacheFile();
+
+        final Properties cache = loadCalibrationCache(cacheFile);
+        final String cachedNs = cache.getProperty(key + ".ns");
+        final String cachedMs = cache.getProperty(key + ".ms");
 
-        // Adjust threshold to high values :
-        StatLong.defineThreshold(100);
+        if (cachedNs != null && cachedMs != null) {
+            try {
+                defineCalibration(Double.parseDouble(cachedNs), Double.parseDouble(cachedMs));
+
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("TimerFactory : calibration loaded from cache [{}] in {} ms",
+                            key, elapsedMilliSeconds(start, System.nanoTime(), 0d));
+                }
+                return;
+            } catch (NumberFormatException nfe) {
+                _logger.debug("TimerFactory : invalid calibration cache: ", nfe);
+            }
+        }
+
+        StatLong stat;
 
         // warm up loop :
         final StatLong globalStatNs = new StatLong();
@@ -99,111 +170,238 @@ public final class TimerFactory {
 
         for (int i = 0; i < WARMUP_STEPS; i++) {
             // warm up to optimize code (hot spot) :
-            stat = calibrateNanoSeconds(WARMUP_STEP_CYCLES);
+            stat = calibrateNanoSeconds(WARMUP_STEP_CYCLES, 0d);
             globalStatNs.add(stat);
 
-            stat = calibrateMilliSeconds(WARMUP_STEP_CYCLES);
+            stat = calibrateMilliSeconds(WARMUP_STEP_CYCLES, 0d);
             globalStatMs.add(stat);
 
             if (WARMUP_DIAGNOSTICS && _logger.isWarnEnabled()) {
-                _logger.warn("TimerFactory : warmup [{}] : {}", i, dumpTimers());
+                _logger.warn("TimerFactory : warmup [{}] : ns {} - ms {}", i, globalStatNs, globalStatMs);
             }
-            resetTimers();
-        }
-
-        if (WARMUP_DIAGNOSTICS && _logger.isWarnEnabled()) {
-            _logger.warn("TimerFactory : global nanoseconds  statistics : {}", globalStatNs.toString());
-            _logger.warn("TimerFactory : global milliseconds statistics : {}", globalStatMs.toString());
         }
 
         double delta;
+        double calibrationNs = 0d;
+        double calibrationMs = 0d;
+
         // calibration loop to get latency :
         for (int i = 0; i < CALIBRATION_STEPS; i++) {
             // nano :
-            stat = calibrateNanoSeconds(CALIBRATION_STEP_CYCLES);
+            stat = calibrateNanoSeconds(CALIBRATION_STEP_CYCLES, calibrationNs);
             delta = Math.min(stat.getMin(), stat.getAverage() - stat.getStdDevLow());
 
-            CALIBRATION_NANO_SECONDS += delta;
+            calibrationNs += delta;
 
             if (WARMUP_DIAGNOSTICS && _logger.isWarnEnabled()) {
                 _logger.warn("TimerFactory : Nanoseconds   : ");
-                _logger.warn("TimerFactory : calibration [{}] : {}", i, dumpTimers());
-                _logger.warn("TimerFactory : min           : {}", stat.getMin());
-                _logger.warn("TimerFactory : avg - stddev  : {}", (stat.getAverage() - stat.getStdDevLow()));
+                _logger.warn("TimerFactory : calibration [{}] : {}", i, stat);
                 _logger.warn("TimerFactory : delta         : {}", delta);
-                _logger.warn("TimerFactory : nanoseconds  calibration correction : {}", CALIBRATION_NANO_SECONDS);
+                _logger.warn("TimerFactory : nanoseconds  calibration correction : {}", calibrationNs);
             }
 
-            resetTimers();
-
             // milli :
-            stat = calibrateMilliSeconds(CALIBRATION_STEP_CYCLES);
+            stat = calibrateMilliSeconds(CALIBRATION_STEP_CYCLES, calibrationMs);
             delta = Math.min(stat.getMin(), stat.getAverage() - stat.getStdDevLow());
 
-            CALIBRATION_MILLI_SECONDS += delta;
+            calibrationMs += delta;
 
             if (WARMUP_DIAGNOSTICS && _logger.isWarnEnabled()) {
                 _logger.warn("TimerFactory : Milliseconds   : ");
-                _logger.warn("TimerFactory : calibration [{}] : {}", i, dumpTimers());
-                _logger.warn("TimerFactory : min           : {}", stat.getMin());
-                _logger.warn("TimerFactory : avg - stddev  : {}", (stat.getAverage() - stat.getStdDevLow()));
+                _logger.warn("TimerFactory : calibration [{}] : {}", i, stat);
                 _logger.warn("TimerFactory : delta         : {}", delta);
-                _logger.warn("TimerFactory : milliseconds calibration correction : {}", CALIBRATION_MILLI_SECONDS);
+                _logger.warn("TimerFactory : milliseconds calibration correction : {}", calibrationMs);
             }
-
-            resetTimers();
         }
 
+        defineCalibration(calibrationNs, calibrationMs);
+
         final long stop = System.nanoTime();
 
-        if (_logger.isWarnEnabled()) {
-            _logger.warn("TimerFactory : nanoseconds  calibration correction : {}", NumberUtils.trimTo5Digits(CALIBRATION_NANO_SECONDS));
-            _logger.warn("TimerFactory : milliseconds calibration correction : {}", NumberUtils.trimTo5Digits(CALIBRATION_MILLI_SECONDS));
-            _logger.warn("TimerFactory : calibration time (ms) : {}", TimerFactory.elapsedMilliSeconds(start, stop));
+        if (_logger.isInfoEnabled()) {
+            _logger.info("TimerFactory : calibration corrections: {} ns, {} ms (done in {} ms)",
+                    NumberUtils.trimTo5Digits(calibrationNs), NumberUtils.trimTo5Digits(calibrationMs),
+                    elapsedMilliSeconds(start, stop, 0d));
+        }
+
+        cache.setProperty(key + ".ns", Double.toString(NumberUtils.trimTo5Digits(calibrationNs)));
+        cache.setProperty(key + ".ms", Double.toString(NumberUtils.trimTo5Digits(calibrationMs)));
+        saveCalibrationCache(cacheFile, cache);
+    }
+
+    /**
+     * Define the calibration values (volatile)
+     *
+     * @param calibrationNs nanoseconds correction
+     * @param calibrationMs milliseconds correction
+     */
+    private static void defineCalibration(final double calibrationNs, final double calibrationMs) {
+        CALIBRATION_NANO_SECONDS = calibrationNs;
+        CALIBRATION_MILLI_SECONDS = calibrationMs;
+        CALIBRATED = true;
+    }
+
+    /**
+     * Return true if the calibration is done (false if disabled or still running)
+     *
+     * @return true if the calibration is done
+     */
+    public static boolean isCalibrated() {
+        return CALIBRATED;
+    }
+
+    /**
+     * Return the calibration cache key (JVM and CPU)
+     *
+     * @return calibration cache key
+     */
+    private static String getCalibrationKey() {
+        final String key = System.getProperty("java.vm.vendor") + '_' + System.getProperty("java.vm.name")
+                + '_' + System.getProperty("java.vm.version") + '_' + System.getProperty("os.name")
+                + '_' + System.getProperty("os.arch") + '_' + Runtime.getRuntime().availableProcessors()
+                + '_' + getCpuModel();
+        return key.replaceAll("[^A-Za-z0-9._-]", "");
+    }
+
+    /**
+     * Return the CPU model (linux only) or "" if unknown
+     *
+     * @return CPU model
+     */
+    private static String getCpuModel() {
+        final File cpuInfo = new File("/proc/cpuinfo");
+        if (cpuInfo.canRead()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(cpuInfo));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("model name")) {
+                        final int pos = line.indexOf(':');
+                        return (pos != -1) ? line.substring(pos + 1).trim() : "";
+                    }
+                }
+            } catch (IOException ioe) {
+                _logger.debug("TimerFactory : unable to read {}: ", cpuInfo, ioe);
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException ioe) {
+                        _logger.debug("TimerFactory : unable to close {}: ", cpuInfo, ioe);
+                    }
+                }
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Return the calibration cache file
+     *
+     * @return calibration cache file
+     */
+    private static File getCalibrationCacheFile() {
+        return new File(FileUtils.getPlatformCachesPath(), CALIBRATION_CACHE_FILE);
+    }
+
+    /**
+     * Load the calibration cache
+     *
+     * @param cacheFile calibration cache file
+     * @return calibration values (empty if the cache file does not exist)
+     */
+    private static Properties loadCalibrationCache(final File cacheFile) {
+        final Properties cache = new Properties();
+        if (cacheFile.canRead()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(cacheFile);
+                cache.load(in);
+            } catch (IOException ioe) {
+                _logger.debug("TimerFactory : unable to load calibration cache {}: ", cacheFile, ioe);
+            } finally {
+                FileUtils.closeStream(in);
+            }
         }
+        return cache;
+    }
 
-        // Adjust threshold to low values :
-        StatLong.defineThreshold(StatLong.DEFAULT_THRESHOLD_AVG);
+    /**
+     * Save the calibration cache
+     *
+     * @param cacheFile calibration cache file
+     * @param cache calibration values
+     */
+    private static void saveCalibrationCache(final File cacheFile, final Properties cache) {
+        final File parent = cacheFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            _logger.debug("TimerFactory : unable to create folder {}", parent);
+            return;
+        }
+        // write a temporary file then rename it to never leave a partial cache file:
+        final File tmpFile = new File(cacheFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            cache.store(out, "TimerFactory calibration values (ns, ms) keyed by JVM and CPU");
+            out.close();
+            out = null;
+
+            if (!tmpFile.renameTo(cacheFile)) {
+                // windows: rename fails if the target exists
+                if (!cacheFile.delete() || !tmpFile.renameTo(cacheFile)) {
+                    _logger.debug("TimerFactory : unable to rename {} to {}", tmpFile, cacheFile);
+                    tmpFile.delete();
+                }
+            }
+        } catch (IOException ioe) {
+            _logger.debug("TimerFactory : unable to save calibration cache {}: ", cacheFile, ioe);
+        } finally {
+            FileUtils.closeStream(out);
+        }
     }
 
     /**
-     * Warm-up and calibrate timer code (HotSpot)
+     * Warm-up and calibrate timer code (HotSpot) using a private timer
      *
      * @param cycles empty cycles to operate
+     * @param correction current correction in nanoseconds
      * @return calibration value in double precision
      */
-    private static StatLong calibrateNanoSeconds(final int cycles) {
-        final String catCalibrate = CATEGORY_CALIBRATE + "-" + UNIT.ns;
+    private static StatLong calibrateNanoSeconds(final int cycles, final double correction) {
+        final Timer timer = new Timer(CATEGORY_CALIBRATE + "-" + UNIT.ns, UNIT.ns);
 
         long start;
         // EMPTY LOOP to force HotSpot compiler to optimize the code for Timer.* classes  :
         for (int i = 0, size = cycles; i < size; i++) {
             start = System.nanoTime();
             // ...
-            TimerFactory.getSimpleTimer(catCalibrate, UNIT.ns).addNanoSeconds(start, System.nanoTime());
+            timer.add(elapsedNanoSeconds(start, System.nanoTime(), correction));
         }
 
-        return TimerFactory.getTimer(catCalibrate).getTimeStatistics();
+        return timer.getTimeStatistics();
     }
 
     /**
-     * Warm-up and calibrate timer code (HotSpot)
+     * Warm-up and calibrate timer code (HotSpot) using a private timer
      *
      * @param cycles empty cycles to operate
+     * @param correction current correction in milliseconds
      * @return calibration value in double precision
      */
-    private static StatLong calibrateMilliSeconds(final int cycles) {
-        final String catCalibrate = CATEGORY_CALIBRATE + "-" + UNIT.ms;
+    private static StatLong calibrateMilliSeconds(final int cycles, final double correction) {
+        final Timer timer = new Timer(CATEGORY_CALIBRATE + "-" + UNIT.ms, UNIT.ms);
 
         long start;
         // EMPTY LOOP to force HotSpot compiler to optimize the code for Timer.* classes  :
         for (int i = 0, size = cycles; i < size; i++) {
             start = System.nanoTime();
             // ...
-            TimerFactory.getSimpleTimer(catCalibrate, UNIT.ms).addMilliSeconds(start, System.nanoTime());
+            timer.add(elapsedMilliSeconds(start, System.nanoTime(), correction));
         }
 
-        return TimerFactory.getTimer(catCalibrate).getTimeStatistics();
+        return timer.getTimeStatistics();
     }
 
     /**
@@ -219,8 +417,6 @@ public final class TimerFactory {
     public static void onExit() {
         // force GC :
         resetTimers();
-        _timerList = null;
-        _timerMap = null;
     }
 
     /**
@@ -232,7 +428,19 @@ public final class TimerFactory {
      * @return (t1 - t0) in milliseconds
      */
     public static double elapsedMilliSeconds(final long start, final long now) {
-        return NumberUtils.trimTo5Digits(CONVERT_NS_INTO_MS * (now - start) - CALIBRATION_MILLI_SECONDS);
+        return elapsedMilliSeconds(start, now, CALIBRATION_MILLI_SECONDS);
+    }
+
+    /**
+     * Returns elapsed time between 2 time values get from System.nanoTime() in milliseconds
+     *
+     * @param start t0
+     * @param now t1
+     * @param correction correction in milliseconds
+     * @return (t1 - t0) in milliseconds
+     */
+    private static double elapsedMilliSeconds(final long start, final long now, final double correction) {
+        return NumberUtils.trimTo5Digits(CONVERT_NS_INTO_MS * (now - start) - correction);
     }
 
     /**
@@ -244,7 +452,19 @@ public final class TimerFactory {
      * @return (t1 - t0) in nanoseconds
      */
     public static double elapsedNanoSeconds(final long start, final long now) {
-        return NumberUtils.trimTo5Digits((now - start) - CALIBRATION_NANO_SECONDS);
+        return elapsedNanoSeconds(start, now, CALIBRATION_NANO_SECONDS);
+    }
+
+    /**
+     * Returns elapsed time between 2 time values get from System.nanoTime() in nanoseconds
+     *
+     * @param start t0
+     * @param now t1
+     * @param correction correction in nanoseconds
+     * @return (t1 - t0) in nanoseconds
+     */
+    private static double elapsedNanoSeconds(final long start, final long now, final double correction) {
+        return NumberUtils.trimTo5Digits((now - start) - correction);
     }
 
     /**
@@ -298,48 +518,67 @@ public final class TimerFactory {
         AbstractTimer timer = _timerMap.get(category);
 
         if (timer == null) {
-            if (th > 0d) {
-                timer = new ThresholdTimer(category, unit, th);
-            } else {
-                timer = new Timer(category, unit);
-            }
+            timer = register((th > 0d) ? new ThresholdTimer(category, unit, th) : new Timer(category, unit));
+        }
 
-            synchronized (_lock) {
-                final AbstractTimer old = _timerMap.get(category);
-                // memory thread visibility issue :
-                if (old == null) {
-                    _timerMap.put(category, timer);
-                    _timerList.add(timer);
-                } else {
-                    timer = old;
-                }
+        return timer;
+    }
+
+    /**
+     * Register the given timer unless another timer was already registered for the same category
+     *
+     * @param timer new timer instance
+     * @return registered timer instance
+     */
+    private static AbstractTimer register(final AbstractTimer timer) {
+        synchronized (_lock) {
+            final AbstractTimer old = _timerMap.putIfAbsent(timer.getCategory(), timer);
+            if (old != null) {
+                return old;
             }
+            _timerList.add(timer);
         }
-
         return timer;
     }
 
+    /**
+     * Return an existing or a new HistogramTimer for that category (lazy) with the given unit
+     * (used to display values)
+     *
+     * @see UNIT
+     * @param category a string representing the kind of operation
+     * @param unit MILLI_SECONDS or NANO_SECONDS
+     * @return histogram timer instance
+     * @throws IllegalStateException if the category is already used by another kind of timer
+     */
+    public static HistogramTimer getHistogramTimer(final String category, final UNIT unit) {
+        AbstractTimer timer = _timerMap.get(category);
+
+        if (timer == null) {
+            timer = register(new HistogramTimer(category, unit));
+        }
+        if (!(timer instanceof HistogramTimer)) {
+            throw new IllegalStateException("Timer category [" + category + "] is not an histogram timer: " + timer.getClass().getSimpleName());
+        }
+        return (HistogramTimer) timer;
+    }
+
     /**
      * Return a string representation for all timer instances present in the timerMap map
      *
      * @return string representation for all timer instances
      */
     public static String dumpTimers() {
-        String res;
-
-        synchronized (_lock) {
-            if (_timerList.isEmpty()) {
-                res = "";
-            } else {
-                final StringBuilder sb = new StringBuilder(1024);
-                for (final AbstractTimer timer : _timerList) {
-                    sb.append('\n');
-                    timer.toString(sb, true);
-                }
-                res = sb.toString();
-            }
+        if (_timerList.isEmpty()) {
+            return "";
+        }
+        final StringBuilder sb = new StringBuilder(1024);
+        // copy on write list: iterate on a snapshot
+        for (final AbstractTimer timer : _timerList) {
+            sb.append('\n');
+            timer.toString(sb, true);
         }
-        return res;
+        return sb.toString();
     }
 
     /**
@@ -353,8 +592,7 @@ public final class TimerFactory {
     }
 
     /**
-     * Return true if there is no existing timer.<br>
-     * This method is not thread safe but only useful before dumpTimers()
+     * Return true if there is no existing timer.
      *
      * @return true if there is no existing timer
      */
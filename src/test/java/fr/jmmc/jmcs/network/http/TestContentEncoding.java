@@ -0,0 +1,296 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.network.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the ContentEncoding support: gzip / deflate (zlib or raw) response decoding, gzip files kept compressed
+ * and gzip compressed form bodies against a local HTTP server
+ * @author Laurent BOURGES.
+ */
+public class TestContentEncoding {
+
+    /** served text */
+    private static final String TEXT = "jMCS content encoding test: déjà vu\n";
+    /** local HTTP server */
+    private static HttpServer server = null;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/gzip", new EncodedHandler("gzip", "text/plain; charset=UTF-8", gzip(TEXT.getBytes("UTF-8"))));
+        server.createContext("/zlib", new EncodedHandler("deflate", "text/plain; charset=UTF-8", deflate(TEXT.getBytes("UTF-8"), false)));
+        server.createContext("/raw", new EncodedHandler("deflate", "text/plain; charset=UTF-8", deflate(TEXT.getBytes("UTF-8"), true)));
+        server.createContext("/file.gz", new EncodedHandler("gzip", "application/x-gzip", gzip(TEXT.getBytes("UTF-8"))));
+        server.createContext("/echo", new EchoHandler());
+        server.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        server.stop(0);
+    }
+
+    /**
+     * Test that a gzip encoded response is decoded when the request advertised encodings
+     * @throws IOException if any I/O failure
+     */
+    @Test
+    public void testGzip() throws IOException {
+        Assert.assertEquals(TEXT, Http.download(getURI("/gzip"), false));
+    }
+
+    /**
+     * Test that deflate encoded responses are decoded whether zlib wrapped (RFC 1950) or raw (RFC 1951)
+     * @throws IOException if any I/O failure
+     */
+    @Test
+    public void testDeflate() throws IOException {
+        Assert.assertEquals(TEXT, Http.download(getURI("/zlib"), false));
+        Assert.assertEquals(TEXT, Http.download(getURI("/raw"), false));
+    }
+
+    /**
+     * Test that gzip files (gzip content type) are kept compressed and that file downloads
+     * (no Accept-Encoding) are saved as sent by the server
+     * @throws IOException if any I/O failure
+     */
+    @Test
+    public void testGzipFileKeptCompressed() throws IOException {
+        final byte[] expected = gzip(TEXT.getBytes("UTF-8"));
+
+        final File file = File.createTempFile("TestContentEncoding", ".gz");
+        try {
+            Assert.assertTrue(Http.download(getURI("/file.gz"), file, false));
+            Assert.assertEquals(Arrays.toString(expected), Arrays.toString(readFile(file)));
+
+            // encoded text saved as sent:
+            Assert.assertTrue(Http.download(getURI("/gzip"), file, false));
+            Assert.assertEquals(Arrays.toString(expected), Arrays.toString(readFile(file)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test that a large form body is re-encoded (UTF-8) and gzip compressed
+     * @throws IOException if any I/O failure
+     */
+    @Test
+    public void testFormCompression() throws IOException {
+        final StringBuilder sb = new StringBuilder(1024);
+        for (int i = 0; i < 100; i++) {
+            sb.append("été & co = ").append(i).append(' ');
+        }
+        final String value = sb.toString();
+
+        final PostMethod method = new PostMethod(getURI("/echo").toString());
+        method.addParameter("name", "a b");
+        method.addParameter("value", value);
+
+        ContentEncoding.compressRequest(method, 256);
+
+        Assert.assertEquals("gzip", method.getRequestHeader("Content-Encoding").getValue());
+        Assert.assertEquals(0, method.getParameters().length);
+        Assert.assertTrue(method.getRequestEntity() instanceof ByteArrayRequestEntity);
+        Assert.assertTrue(method.getRequestEntity().getContentType().startsWith("application/x-www-form-urlencoded"));
+
+        final String expected = "name=a+b&value=" + URLEncoder.encode(value, "UTF-8");
+        Assert.assertEquals("gzip:" + expected, Http.execute(Http.getHttpClient(), method));
+    }
+
+    /**
+     * Test that a small form body is not compressed
+     * @throws IOException if any I/O failure
+     */
+    @Test
+    public void testSmallFormNotCompressed() throws IOException {
+        final PostMethod method = new PostMethod(getURI("/echo").toString());
+        method.addParameter("name", "value");
+
+        ContentEncoding.compressRequest(method, 256);
+
+        Assert.assertNull(method.getRequestHeader("Content-Encoding"));
+        Assert.assertEquals(1, method.getParameters().length);
+
+        // repeatable entity below the threshold:
+        final PostMethod entityMethod = new PostMethod(getURI("/echo").toString());
+        entityMethod.setRequestEntity(new ByteArrayRequestEntity("small".getBytes("UTF-8"), "text/plain"));
+
+        ContentEncoding.compressRequest(entityMethod, 256);
+
+        Assert.assertNull(entityMethod.getRequestHeader("Content-Encoding"));
+    }
+
+    /**
+     * Return the URI of the given path on the local server
+     * @param path path
+     * @return URI
+     */
+    private static URI getURI(final String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    /**
+     * Compress the given bytes (gzip)
+     * @param data bytes to compress
+     * @return compressed bytes
+     * @throws IOException if any I/O failure
+     */
+    private static byte[] gzip(final byte[] data) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final GZIPOutputStream out = new GZIPOutputStream(buffer);
+        out.write(data);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Compress the given bytes (deflate)
+     * @param data bytes to compress
+     * @param raw true to produce raw deflate data; false to produce zlib wrapped data
+     * @return compressed bytes
+     * @throws IOException if any I/O failure
+     */
+    private static byte[] deflate(final byte[] data, final boolean raw) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DeflaterOutputStream out = new DeflaterOutputStream(buffer, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+        out.write(data);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Read the given stream
+     * @param in input stream
+     * @return bytes
+     * @throws IOException if any I/O failure
+     */
+    private static byte[] read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final byte[] chunk = new byte[1024];
+        for (int n; (n = in.read(chunk)) != -1;) {
+            buffer.write(chunk, 0, n);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Read the given file
+     * @param file file to read
+     * @return bytes
+     * @throws IOException if any I/O failure
+     */
+    private static byte[] readFile(final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Send the given response
+     * @param exchange HTTP exchange
+     * @param body response body
+     * @throws IOException if any I/O failure
+     */
+    private static void send(final HttpExchange exchange, final byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * Handler serving an encoded body whatever the request Accept-Encoding header
+     */
+    private static final class EncodedHandler implements HttpHandler {
+
+        /** content encoding */
+        private final String _encoding;
+        /** content type */
+        private final String _contentType;
+        /** encoded body */
+        private final byte[] _body;
+
+        EncodedHandler(final String encoding, final String contentType, final byte[] body) {
+            _encoding = encoding;
+            _contentType = contentType;
+            _body = body;
+        }
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            read(exchange.getRequestBody());
+            exchange.getResponseHeaders().set("Content-Encoding", _encoding);
+            exchange.getResponseHeaders().set("Content-Type", _contentType);
+            send(exchange, _body);
+        }
+    }
+
+    /**
+     * Handler echoing the request body (decompressed if gzip encoded) prefixed by its content encoding
+     */
+    private static final class EchoHandler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            final InputStream in = ("gzip".equals(encoding)) ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+            final String body = new String(read(in), "UTF-8");
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            send(exchange, (((encoding != null) ? encoding : "identity") + ':' + body).getBytes("UTF-8"));
+        }
+    }
+}
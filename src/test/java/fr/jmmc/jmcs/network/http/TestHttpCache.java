@@ -0,0 +1,301 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.network.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the HttpCache revalidation (ETag / Last-Modified, 304 Not Modified) and Http.revalidate()
+ * against a local HTTP server
+ * @author Laurent BOURGES.
+ */
+public class TestHttpCache {
+
+    /** local HTTP server */
+    private static HttpServer server = null;
+    /** temporary cache directory */
+    private static File cacheDir = null;
+    /** HTTP cache singleton to restore */
+    private static HttpCache previousCache = null;
+    /** served document */
+    private static final Document document = new Document();
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        // use a temporary cache directory (not the user cache):
+        cacheDir = File.createTempFile("TestHttpCache", ".cache");
+        cacheDir.delete();
+        previousCache = HttpCache.setInstance(cacheDir, HttpCache.DEFAULT_MAX_SIZE);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", document);
+        server.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        server.stop(0);
+        HttpCache.setInstance(previousCache);
+
+        final File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    /**
+     * Test that a cached document is revalidated (If-None-Match) and served from the cache on 304
+     * @throws IOException if any I/O failure
+     */
+    @Test
+    public void testRevalidation() throws IOException {
+        final URI uri = getURI("/etag");
+        final HttpCache cache = HttpCache.getInstance();
+        document.set("version 1", "\"v1\"", 0L);
+
+        final long hits = cache.getHitCount();
+        final long misses = cache.getMissCount();
+
+        Assert.assertEquals("version 1", Http.download(uri, false));
+        Assert.assertEquals(misses + 1, cache.getMissCount());
+        Assert.assertEquals(1, document.getOkCount());
+
+        // not modified: served from the cache:
+        Assert.assertEquals("version 1", Http.download(uri, false));
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+        Assert.assertEquals(1, document.getNotModifiedCount());
+        Assert.assertEquals("\"v1\"", document.getLastIfNoneMatch());
+
+        // modified: transferred again:
+        document.set("version 2", "\"v2\"", 0L);
+        Assert.assertEquals("version 2", Http.download(uri, false));
+        Assert.assertEquals(misses + 2, cache.getMissCount());
+        Assert.assertEquals(1, document.getOkCount());
+        Assert.assertEquals("\"v1\"", document.getLastIfNoneMatch());
+    }
+
+    /**
+     * Test that a document without validator is not cached but streamed directly
+     * @throws IOException if any I/O failure
+     */
+    @Test
+    public void testNoValidator() throws IOException {
+        final URI uri = getURI("/novalidator");
+        final HttpCache cache = HttpCache.getInstance();
+        document.set("no validator", null, 0L);
+
+        final int entries = cache.getEntryCount();
+
+        Assert.assertEquals("no validator", Http.download(uri, false));
+        Assert.assertEquals("no validator", Http.download(uri, false));
+        Assert.assertEquals(entries, cache.getEntryCount());
+        Assert.assertEquals(2, document.getOkCount());
+        Assert.assertEquals(0, document.getNotModifiedCount());
+        Assert.assertNull(document.getLastIfNoneMatch());
+    }
+
+    /**
+     * Test the revalidation of a local copy (If-Modified-Since the local file date)
+     * @throws IOException if any I/O failure
+     */
+    @Test
+    public void testRevalidateLocalFile() throws IOException {
+        final File dir = createTempDir();
+        try {
+            final File localFile = new File(dir, "data.txt");
+            write(localFile, "old");
+            final long now = (System.currentTimeMillis() / 1000L) * 1000L;
+            localFile.setLastModified(now);
+
+            // remote document older than the local copy: not modified:
+            document.set("old remote", null, now - 3600L * 1000L);
+            Assert.assertTrue(Http.revalidate(getURI("/lastmodified"), localFile, false));
+            Assert.assertEquals(1, document.getNotModifiedCount());
+            Assert.assertEquals(0, document.getOkCount());
+            Assert.assertEquals("old", read(localFile));
+            Assert.assertEquals(now, localFile.lastModified());
+
+            // remote document modified: local copy replaced and dated like the remote document:
+            document.set("new remote", null, now + 3600L * 1000L);
+            Assert.assertTrue(Http.revalidate(getURI("/lastmodified"), localFile, false));
+            Assert.assertEquals(1, document.getOkCount());
+            Assert.assertEquals("new remote", read(localFile));
+            Assert.assertEquals(now + 3600L * 1000L, localFile.lastModified());
+
+            // missing document: local copy kept:
+            Assert.assertFalse(Http.revalidate(getURI("/missing"), localFile, false));
+            Assert.assertEquals("new remote", read(localFile));
+
+            // no temporary file left:
+            Assert.assertEquals("[data.txt]", Arrays.toString(dir.list()));
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static URI getURI(final String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static File createTempDir() throws IOException {
+        final File dir = File.createTempFile("TestHttpCache", "");
+        dir.delete();
+        Assert.assertTrue(dir.mkdir());
+        return dir;
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String read(final File file) throws IOException {
+        final byte[] bytes = new byte[(int) file.length()];
+        final InputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            for (int r; n < bytes.length && (r = in.read(bytes, n, bytes.length - n)) > 0;) {
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    private static SimpleDateFormat getDateFormat() {
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    /**
+     * Document served with optional validators (ETag, Last-Modified) answering 304 to matching conditional requests
+     */
+    private static final class Document implements HttpHandler {
+
+        private String body;
+        private String etag;
+        private long lastModified;
+        private int okCount;
+        private int notModifiedCount;
+        private String lastIfNoneMatch;
+
+        synchronized void set(final String body, final String etag, final long lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.okCount = 0;
+            this.notModifiedCount = 0;
+            this.lastIfNoneMatch = null;
+        }
+
+        synchronized int getOkCount() {
+            return okCount;
+        }
+
+        synchronized int getNotModifiedCount() {
+            return notModifiedCount;
+        }
+
+        synchronized String getLastIfNoneMatch() {
+            return lastIfNoneMatch;
+        }
+
+        @Override
+        public synchronized void handle(final HttpExchange exchange) throws IOException {
+            try {
+                if (exchange.getRequestURI().getPath().equals("/missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                final String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+                lastIfNoneMatch = ifNoneMatch;
+
+                boolean notModified = false;
+                if (etag != null && ifNoneMatch != null) {
+                    notModified = etag.equals(ifNoneMatch);
+                } else if (lastModified != 0L && ifModifiedSince != null) {
+                    try {
+                        notModified = lastModified <= getDateFormat().parse(ifModifiedSince).getTime();
+                    } catch (ParseException pe) {
+                        notModified = false;
+                    }
+                }
+                if (etag != null) {
+                    exchange.getResponseHeaders().set("ETag", etag);
+                }
+                if (lastModified != 0L) {
+                    exchange.getResponseHeaders().set("Last-Modified", getDateFormat().format(new Date(lastModified)));
+                }
+                if (notModified) {
+                    notModifiedCount++;
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                okCount++;
+                final byte[] bytes = body.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
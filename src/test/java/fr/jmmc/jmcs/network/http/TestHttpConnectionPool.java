@@ -0,0 +1,103 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.network.http;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.protocol.DefaultProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the HttpConnectionPool lease / release accounting per host and its socket factory wrappers
+ * @author Laurent BOURGES.
+ */
+public class TestHttpConnectionPool {
+
+    /** tested connection pool */
+    private HttpConnectionPool pool = null;
+
+    @Before
+    public void setUp() {
+        pool = new HttpConnectionPool();
+    }
+
+    @After
+    public void tearDown() {
+        // stop the idle connection evictor of this pool:
+        pool.shutdown();
+    }
+
+    @Test
+    public void testLeaseRelease() throws Exception {
+        final HostConfiguration hostConfiguration = new HostConfiguration();
+        hostConfiguration.setHost("localhost", 8080);
+
+        final HttpConnection first = pool.getConnectionWithTimeout(hostConfiguration, 1000L);
+        final HttpConnection second = pool.getConnectionWithTimeout(hostConfiguration, 1000L);
+
+        HttpConnectionPool.HostStatsSnapshot stats = pool.getStats().get("localhost");
+        Assert.assertNotNull(stats);
+        Assert.assertEquals(2, stats.getLeased());
+        Assert.assertEquals(0, stats.getPending());
+
+        pool.releaseConnection(first);
+        Assert.assertEquals(1, pool.getStats().get("localhost").getLeased());
+
+        pool.releaseConnection(second);
+        stats = pool.getStats().get("localhost");
+        Assert.assertEquals(0, stats.getLeased());
+        Assert.assertEquals(0, stats.getPending());
+    }
+
+    @Test
+    public void testNullHost() throws Exception {
+        // no host defined (null):
+        final HostConfiguration hostConfiguration = new HostConfiguration();
+
+        final HttpConnection connection = pool.getConnectionWithTimeout(hostConfiguration, 1000L);
+        Assert.assertEquals(1, pool.getStats().get("").getLeased());
+
+        pool.releaseConnection(connection);
+        Assert.assertEquals(0, pool.getStats().get("").getLeased());
+    }
+
+    @Test
+    public void testSocketFactoryEquality() {
+        final ProtocolSocketFactory factory = new DefaultProtocolSocketFactory();
+        final ProtocolSocketFactory timedFactory = new HttpConnectionPool.TimedSocketFactory(factory);
+
+        Assert.assertEquals(timedFactory, new HttpConnectionPool.TimedSocketFactory(factory));
+        Assert.assertEquals(factory.hashCode(), timedFactory.hashCode());
+        Assert.assertFalse(timedFactory.equals(new HttpConnectionPool.TimedSocketFactory(timedFactory)));
+        Assert.assertFalse(timedFactory.equals(factory));
+    }
+}
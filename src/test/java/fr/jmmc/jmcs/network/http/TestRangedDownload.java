@@ -0,0 +1,282 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.network.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the RangedDownload resume (missing blocks only) and its If-Range fallback (remote file changed)
+ * against a local HTTP server
+ * @author Laurent BOURGES.
+ */
+public class TestRangedDownload {
+
+    /** local HTTP server */
+    private static HttpServer server = null;
+    /** server threads (parallel range requests) */
+    private static ExecutorService executor = null;
+    /** served file: large enough to use 2 blocks at least */
+    private static final byte[] content = new byte[(int) Math.max(RangedDownload.MIN_SIZE, RangedDownload.BLOCK_SIZE) + (int) (RangedDownload.BLOCK_SIZE / 2L)];
+    /** served file */
+    private static final RangedFile file = new RangedFile();
+    /** output directory */
+    private File dir = null;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31 + (i >> 11));
+        }
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", file);
+        server.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("TestRangedDownload", "");
+        dir.delete();
+        Assert.assertTrue(dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Test that an interrupted download resumes with the missing blocks only
+     * @throws IOException if any I/O failure
+     */
+    @Test
+    public void testResume() throws IOException {
+        final URI uri = getURI("/resume");
+        file.set("\"v1\"", "\"v1\"");
+
+        final File outputFile = new File(dir, "data.bin");
+        final int blocks = (int) ((content.length + RangedDownload.BLOCK_SIZE - 1L) / RangedDownload.BLOCK_SIZE);
+
+        // previous download interrupted once the first block was written:
+        final RandomAccessFile raf = new RandomAccessFile(outputFile.getPath() + ".part", "rw");
+        try {
+            raf.setLength(content.length);
+            raf.write(content, 0, (int) RangedDownload.BLOCK_SIZE);
+        } finally {
+            raf.close();
+        }
+        final char[] done = new char[blocks];
+        Arrays.fill(done, '0');
+        done[0] = '1';
+
+        final Properties state = new Properties();
+        state.setProperty("uri", uri.toString());
+        state.setProperty("length", Integer.toString(content.length));
+        state.setProperty("blockSize", Long.toString(RangedDownload.BLOCK_SIZE));
+        state.setProperty("validator", "\"v1\"");
+        state.setProperty("blocks", new String(done));
+        final OutputStream out = new FileOutputStream(outputFile.getPath() + ".part.state");
+        try {
+            state.store(out, null);
+        } finally {
+            out.close();
+        }
+
+        Assert.assertTrue(RangedDownload.download(uri, outputFile, false));
+        Assert.assertArrayEquals(content, read(outputFile));
+
+        // missing blocks only:
+        final List<String> ranges = file.getRanges();
+        Assert.assertEquals(ranges.toString(), blocks - 1, ranges.size());
+        Assert.assertFalse(ranges.toString(), ranges.contains("bytes=0-" + (RangedDownload.BLOCK_SIZE - 1L)));
+        Assert.assertEquals(0, file.getFullCount());
+
+        // part and state files removed:
+        Assert.assertEquals("[data.bin]", Arrays.toString(dir.list()));
+    }
+
+    /**
+     * Test that a remote file changed since the HEAD request (If-Range mismatch: 200 instead of 206)
+     * is downloaded again using a single stream
+     * @throws IOException if any I/O failure
+     */
+    @Test
+    public void testIfRangeFallback() throws IOException {
+        final URI uri = getURI("/changed");
+        // HEAD gives the old validator but the remote file changed:
+        file.set("\"v1\"", "\"v2\"");
+
+        final File outputFile = new File(dir, "data.bin");
+
+        Assert.assertTrue(RangedDownload.download(uri, outputFile, false));
+        Assert.assertArrayEquals(content, read(outputFile));
+
+        // ranged requests answered by the whole file, then one single stream download:
+        Assert.assertTrue(file.getFullCount() >= 2);
+        Assert.assertEquals("\"v1\"", file.getLastIfRange());
+
+        // part and state files removed:
+        Assert.assertEquals("[data.bin]", Arrays.toString(dir.list()));
+    }
+
+    private static URI getURI(final String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static byte[] read(final File f) throws IOException {
+        final byte[] bytes = new byte[(int) f.length()];
+        final InputStream in = new FileInputStream(f);
+        try {
+            int n = 0;
+            for (int r; n < bytes.length && (r = in.read(bytes, n, bytes.length - n)) > 0;) {
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * File served with byte ranges honoring If-Range
+     */
+    private static final class RangedFile implements HttpHandler {
+
+        /** ETag returned by HEAD requests */
+        private String headETag;
+        /** current ETag (If-Range) */
+        private String etag;
+        /** requested ranges (206) */
+        private final List<String> ranges = new ArrayList<String>();
+        /** number of full responses (200) */
+        private int fullCount;
+        /** last If-Range header */
+        private String lastIfRange;
+
+        synchronized void set(final String headETag, final String etag) {
+            this.headETag = headETag;
+            this.etag = etag;
+            this.ranges.clear();
+            this.fullCount = 0;
+            this.lastIfRange = null;
+        }
+
+        synchronized List<String> getRanges() {
+            return new ArrayList<String>(ranges);
+        }
+
+        synchronized int getFullCount() {
+            return fullCount;
+        }
+
+        synchronized String getLastIfRange() {
+            return lastIfRange;
+        }
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            try {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    synchronized (this) {
+                        exchange.getResponseHeaders().set("ETag", headETag);
+                    }
+                    exchange.getResponseHeaders().set("Content-Length", Integer.toString(content.length));
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                final String range = exchange.getRequestHeaders().getFirst("Range");
+                final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+
+                boolean partial = false;
+                int start = 0;
+                int end = content.length;
+                synchronized (this) {
+                    exchange.getResponseHeaders().set("ETag", etag);
+                    if (ifRange != null) {
+                        lastIfRange = ifRange;
+                    }
+                    if (range != null && (ifRange == null || ifRange.equals(etag))) {
+                        partial = true;
+                        ranges.add(range);
+                        final String[] bounds = range.substring("bytes=".length()).split("-");
+                        start = Integer.parseInt(bounds[0]);
+                        end = Integer.parseInt(bounds[1]) + 1;
+                    } else {
+                        fullCount++;
+                    }
+                }
+                if (partial) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes " + start + '-' + (end - 1) + '/' + content.length);
+                    exchange.sendResponseHeaders(206, end - start);
+                } else {
+                    exchange.sendResponseHeaders(200, content.length);
+                }
+                exchange.getResponseBody().write(content, start, end - start);
+            } catch (IOException ioe) {
+                // client aborted the request (remote file changed)
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util;
+
+import fr.jmmc.jmcs.util.concurrent.IntRangeBody;
+import fr.jmmc.jmcs.util.concurrent.IntRangeReducer;
+import fr.jmmc.jmcs.util.concurrent.ParallelJobExecutor;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test range jobs (parallelFor / parallelReduce) of the ParallelJobExecutor
+ * @author Laurent BOURGES.
+ */
+public class TestParallelRange {
+
+    /** number of indexes */
+    private final static int N = 1000 * 1000;
+
+    @AfterClass
+    public static void tearDownClass() {
+        ParallelJobExecutor.shutdown();
+    }
+
+    /**
+     * Test parallelFor: every index must be processed once
+     */
+    @Test
+    public void testParallelFor() {
+        final int[] values = new int[N];
+
+        ParallelJobExecutor.getInstance().parallelFor("TestParallelRange.testParallelFor", 0, N, 1000, new IntRangeBody() {
+            @Override
+            public void run(final int from, final int to) {
+                for (int i = from; i < to; i++) {
+                    values[i]++;
+                }
+            }
+        });
+
+        for (int i = 0; i < N; i++) {
+            Assert.assertEquals("values[" + i + "]", 1, values[i]);
+        }
+    }
+
+    /**
+     * Test parallelReduce: partial results must be combined in the range order
+     */
+    @Test
+    public void testParallelReduce() {
+        final String result = ParallelJobExecutor.getInstance().parallelReduce("TestParallelRange.testParallelReduce", 0, N, 1000,
+                new IntRangeReducer<String>() {
+                    @Override
+                    public String reduce(final int from, final int to) {
+                        return from + ":" + to + ";";
+                    }
+
+                    @Override
+                    public String combine(final String left, final String right) {
+                        return left + right;
+                    }
+                });
+
+        int last = 0;
+        for (String range : result.split(";")) {
+            final String[] bounds = range.split(":");
+            Assert.assertEquals("range start", last, Integer.parseInt(bounds[0]));
+            last = Integer.parseInt(bounds[1]);
+        }
+        Assert.assertEquals("range end", N, last);
+    }
+
+    /**
+     * Test failure propagation
+     */
+    @Test(expected = RuntimeException.class)
+    public void testParallelForFailure() {
+        ParallelJobExecutor.getInstance().parallelFor("TestParallelRange.testParallelForFailure", 0, N, 1000, new IntRangeBody() {
+            @Override
+            public void run(final int from, final int to) {
+                if (to == N) {
+                    throw new IllegalStateException("failure");
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner;
+
+import fr.jmmc.jmcs.util.runner.process.ProcessContext;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the job journal: replay (forward dependencies, states), torn / invalid records and compaction
+ * @author Laurent BOURGES.
+ */
+public class TestJobJournal {
+
+    /** journal header size (magic + version) */
+    private final static int HEADER_SIZE = 12;
+    /** command */
+    private final static String[] COMMAND = new String[]{"echo", "test"};
+    /** job identifier sequence */
+    private static long ID = -1000l;
+    /** journal file */
+    private File _file = null;
+
+    @Before
+    public void setUp() throws IOException {
+        _file = File.createTempFile("TestJobJournal", ".journal");
+        Assert.assertTrue(_file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        _file.delete();
+        new File(_file.getPath() + ".tmp").delete();
+    }
+
+    /**
+     * Test the replay of a pending job having a dependency on a later task
+     * @throws IOException if an I/O error occurs
+     */
+    @Test
+    public void testReplayForwardDependency() throws IOException {
+        JobJournal journal = JobJournal.open(_file);
+        final RootContext rootCtx = createJob();
+        final RunContext a = rootCtx.getChildContexts().get(0);
+        final RunContext b = rootCtx.getChildContexts().get(1);
+        // forward dependency (a depends on the later task b):
+        a.addDependency(b);
+        submit(journal, rootCtx);
+        journal.close();
+
+        journal = JobJournal.open(_file);
+        try {
+            final List<RootContext> pending = journal.getPendingJobs();
+            Assert.assertEquals(1, pending.size());
+
+            final RootContext recovered = pending.get(0);
+            Assert.assertEquals(rootCtx.getId(), recovered.getId());
+            Assert.assertTrue("parallel", recovered.isParallel());
+            Assert.assertEquals(2, recovered.getChildContexts().size());
+
+            final RunContext ra = recovered.getChildContexts().get(0);
+            final RunContext rb = recovered.getChildContexts().get(1);
+            Assert.assertEquals(1, ra.getDependencies().size());
+            Assert.assertSame(rb, ra.getDependencies().get(0));
+            Assert.assertTrue("command", Arrays.equals(COMMAND, ((ProcessContext) rb).getCommandArray()));
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test that a job running during the crash is recovered as interrupted (last known states replayed)
+     * @throws IOException if an I/O error occurs
+     */
+    @Test
+    public void testReplayStates() throws IOException {
+        JobJournal journal = JobJournal.open(_file);
+        final RootContext rootCtx = createJob();
+        submit(journal, rootCtx);
+        final RunContext a = rootCtx.getChildContexts().get(0);
+        rootCtx.setState(RunState.STATE_RUNNING);
+        a.setState(RunState.STATE_RUNNING);
+        a.setState(RunState.STATE_FINISHED_OK);
+        rootCtx.getChildContexts().get(1).setState(RunState.STATE_RUNNING);
+        // crash: no close
+        journal = JobJournal.open(_file);
+        try {
+            Assert.assertTrue(journal.getPendingJobs().isEmpty());
+            final RootContext recovered = journal.getJob(rootCtx.getId());
+            Assert.assertNotNull(recovered);
+            Assert.assertEquals(RunState.STATE_INTERRUPTED, recovered.getState());
+            Assert.assertEquals(RunState.STATE_FINISHED_OK, recovered.getChildContexts().get(0).getState());
+            Assert.assertEquals(RunState.STATE_INTERRUPTED, recovered.getChildContexts().get(1).getState());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test that a torn record (bad CRC) truncates the journal and new records are appended after the last valid one
+     * @throws IOException if an I/O error occurs
+     */
+    @Test
+    public void testTornRecord() throws IOException {
+        JobJournal journal = JobJournal.open(_file);
+        final RootContext job1 = createJob();
+        submit(journal, job1);
+        final int end1 = getEndPosition();
+        final RootContext job2 = createJob();
+        submit(journal, job2);
+        journal.close();
+
+        // corrupt the payload of the second record:
+        final RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+        try {
+            raf.seek(end1 + 12);
+            final int b = raf.read();
+            raf.seek(end1 + 12);
+            raf.write(b ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        journal = JobJournal.open(_file);
+        try {
+            Assert.assertNotNull(journal.getJob(job1.getId()));
+            Assert.assertNull(journal.getJob(job2.getId()));
+            Assert.assertEquals(end1, getEndPosition());
+
+            final RootContext job3 = createJob();
+            submit(journal, job3);
+        } finally {
+            journal.close();
+        }
+
+        journal = JobJournal.open(_file);
+        try {
+            Assert.assertEquals(2, journal.getHistory().size());
+            Assert.assertEquals(2, journal.getPendingJobs().size());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test that a record having a valid CRC but an invalid content (bad dependency index) is handled as a torn record
+     * @throws IOException if an I/O error occurs
+     */
+    @Test
+    public void testInvalidRecord() throws IOException {
+        JobJournal journal = JobJournal.open(_file);
+        final RootContext job1 = createJob();
+        submit(journal, job1);
+        journal.close();
+
+        final int end = getEndPosition();
+        // SUBMIT record: truncated payload (valid CRC):
+        final byte[] payload = new byte[]{1, 0, 0, 0, 3, 'a', 'p', 'p'};
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+        try {
+            raf.seek(end);
+            raf.writeInt(payload.length);
+            raf.writeInt((int) crc.getValue());
+            raf.write(payload);
+        } finally {
+            raf.close();
+        }
+
+        journal = JobJournal.open(_file);
+        try {
+            Assert.assertEquals(1, journal.getHistory().size());
+            Assert.assertEquals(end, getEndPosition());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test that the journal is compacted while appending once it grows past its compaction size
+     * @throws IOException if an I/O error occurs
+     */
+    @Test
+    public void testRuntimeCompaction() throws IOException {
+        JobJournal journal = JobJournal.open(_file);
+        final RootContext rootCtx = createJob();
+        submit(journal, rootCtx);
+        final RunContext a = rootCtx.getChildContexts().get(0);
+
+        // state records (26 bytes each) up to more than 8M:
+        for (int i = 0; i < 400000; i++) {
+            journal.stateChanged(a, ((i & 1) == 0) ? RunState.STATE_RUNNING : RunState.STATE_PENDING);
+        }
+        Assert.assertTrue("compacted: " + getEndPosition(), getEndPosition() < 8 * 1024 * 1024);
+        journal.close();
+
+        journal = JobJournal.open(_file);
+        try {
+            Assert.assertEquals(1, journal.getPendingJobs().size());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Create a pending job having 2 tasks
+     * @return job
+     */
+    private static RootContext createJob() {
+        final RootContext rootCtx = new RootContext("TestJobJournal", Long.valueOf(ID--), "/tmp");
+        rootCtx.setOwner("test");
+        new ProcessContext(rootCtx, "a", Long.valueOf(ID--), COMMAND);
+        new ProcessContext(rootCtx, "b", Long.valueOf(ID--), COMMAND);
+        return rootCtx;
+    }
+
+    /**
+     * Submit the given job and set its pending state
+     * @param journal job journal
+     * @param rootCtx job
+     */
+    private static void submit(final JobJournal journal, final RootContext rootCtx) {
+        journal.submitted(rootCtx);
+        rootCtx.setState(RunState.STATE_PENDING);
+        for (RunContext child : rootCtx.getChildContexts()) {
+            child.setState(RunState.STATE_PENDING);
+        }
+    }
+
+    /**
+     * Return the journal end position (first record having a zero length)
+     * @return journal end position
+     * @throws IOException if an I/O error occurs
+     */
+    private int getEndPosition() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(_file, "r");
+        try {
+            int pos = HEADER_SIZE;
+            for (;;) {
+                raf.seek(pos);
+                final int len = raf.readInt();
+                if (len <= 0) {
+                    return pos;
+                }
+                pos += 8 + len;
+            }
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner;
+
+import fr.jmmc.jmcs.util.concurrent.ThreadExecutors;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the fair-share JobScheduler (ordering across owners and concurrency limits)
+ * @author Laurent BOURGES.
+ */
+public class TestJobScheduler {
+
+    @BeforeClass
+    public static void setUpClass() {
+        // thread executors are shared by all test classes (same JVM) so they are never stopped:
+        ThreadExecutors.startExecutors();
+    }
+
+    /**
+     * Test that queued jobs of several owners are interleaved (fair queuing) instead of FIFO
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testFairOrdering() throws InterruptedException {
+        final JobScheduler scheduler = new JobScheduler();
+        scheduler.setMaxSlots(1);
+
+        final List<String> started = new ArrayList<String>();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // blocker holds the only slot while other jobs are queued:
+        final TestJob blocker = submit(scheduler, "blocker", "X", started, release);
+        Assert.assertTrue("blocker started", blocker.awaitStarted());
+
+        final TestJob a1 = submit(scheduler, "A1", "A", started, null);
+        final TestJob a2 = submit(scheduler, "A2", "A", started, null);
+        final TestJob a3 = submit(scheduler, "A3", "A", started, null);
+        final TestJob b1 = submit(scheduler, "B1", "B", started, null);
+
+        Assert.assertEquals(4, scheduler.getQueuedCount());
+        Assert.assertEquals(3, scheduler.getQueuedCount("A"));
+        Assert.assertEquals(1, scheduler.getQueuePosition(a1.getContext()));
+        Assert.assertEquals(3, scheduler.getQueuePosition(a3.getContext()));
+        Assert.assertEquals(1, scheduler.getQueuePosition(b1.getContext()));
+
+        release.countDown();
+        Assert.assertTrue("last job done", a3.awaitDone() && a2.awaitDone() && b1.awaitDone());
+
+        // B is not starved by the jobs of A submitted before:
+        Assert.assertEquals(Arrays.asList("blocker", "A1", "B1", "A2", "A3"), snapshot(started));
+        Assert.assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    /**
+     * Test owner weights: an owner having twice the weight starts twice as many jobs
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testWeights() throws InterruptedException {
+        final JobScheduler scheduler = new JobScheduler();
+        scheduler.setMaxSlots(1);
+        scheduler.setOwnerWeight("A", 2d);
+
+        final List<String> started = new ArrayList<String>();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final TestJob blocker = submit(scheduler, "blocker", "X", started, release);
+        Assert.assertTrue("blocker started", blocker.awaitStarted());
+
+        final List<TestJob> jobs = new ArrayList<TestJob>();
+        for (int i = 1; i <= 4; i++) {
+            jobs.add(submit(scheduler, "A" + i, "A", started, null));
+        }
+        for (int i = 1; i <= 2; i++) {
+            jobs.add(submit(scheduler, "B" + i, "B", started, null));
+        }
+        release.countDown();
+        for (TestJob job : jobs) {
+            Assert.assertTrue("job done", job.awaitDone());
+        }
+        Assert.assertEquals(Arrays.asList("blocker", "A1", "B1", "A2", "A3", "B2", "A4"), snapshot(started));
+    }
+
+    /**
+     * Test the per-owner limit and the cancellation of a queued job
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testOwnerLimitAndCancel() throws InterruptedException {
+        final JobScheduler scheduler = new JobScheduler();
+        scheduler.setMaxSlots(2);
+        scheduler.setMaxPerOwner(1);
+
+        final List<String> started = new ArrayList<String>();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final TestJob a1 = submit(scheduler, "A1", "A", started, release);
+        final TestJob a2 = submit(scheduler, "A2", "A", started, null);
+        final TestJob a3 = submit(scheduler, "A3", "A", started, null);
+        final TestJob b1 = submit(scheduler, "B1", "B", started, null);
+
+        Assert.assertTrue("a1 started", a1.awaitStarted());
+        Assert.assertTrue("b1 done", b1.awaitDone());
+        // A2 waits for A1 (owner limit) although one slot is free:
+        Assert.assertEquals(1, scheduler.getRunningCount("A"));
+        Assert.assertEquals(1, scheduler.getQueuePosition(a2.getContext()));
+
+        Assert.assertTrue("a3 canceled", scheduler.cancel(a3.getContext()));
+        Assert.assertFalse("a1 running", scheduler.cancel(a1.getContext()));
+
+        release.countDown();
+        Assert.assertTrue("a2 done", a2.awaitDone());
+        // A1 and B1 run concurrently, A2 starts last:
+        final List<String> order = snapshot(started);
+        Assert.assertEquals(3, order.size());
+        Assert.assertTrue("A1 and B1 first", order.subList(0, 2).containsAll(Arrays.asList("A1", "B1")));
+        Assert.assertEquals("A2", order.get(2));
+        Assert.assertFalse("a3 never started", a3.awaitStarted(100L));
+    }
+
+    /**
+     * Submit a job recording its start
+     * @param scheduler scheduler to use
+     * @param name job name
+     * @param owner job owner
+     * @param started list of started job names
+     * @param release optional latch to wait for before finishing
+     * @return test job
+     */
+    private static TestJob submit(final JobScheduler scheduler, final String name, final String owner,
+                                  final List<String> started, final CountDownLatch release) {
+        final TestJob job = new TestJob(name, owner, started, release);
+        scheduler.submit(job.getContext(), null, job);
+        return job;
+    }
+
+    /**
+     * Return a copy of the given list
+     * @param started list of started job names
+     * @return copy
+     */
+    private static List<String> snapshot(final List<String> started) {
+        synchronized (started) {
+            return new ArrayList<String>(started);
+        }
+    }
+
+    /**
+     * Job runner recording its start
+     */
+    private static final class TestJob implements Runnable {
+
+        /** job context */
+        private final RootContext _rootCtx;
+        /** list of started job names */
+        private final List<String> _started;
+        /** optional latch to wait for before finishing */
+        private final CountDownLatch _release;
+        /** started signal */
+        private final CountDownLatch _startedSignal = new CountDownLatch(1);
+        /** done signal */
+        private final CountDownLatch _doneSignal = new CountDownLatch(1);
+
+        TestJob(final String name, final String owner, final List<String> started, final CountDownLatch release) {
+            _rootCtx = new RootContext(name, Long.valueOf(name.hashCode()), null);
+            _rootCtx.setOwner(owner);
+            _started = started;
+            _release = release;
+        }
+
+        RootContext getContext() {
+            return _rootCtx;
+        }
+
+        @Override
+        public void run() {
+            synchronized (_started) {
+                _started.add(_rootCtx.getName());
+            }
+            _startedSignal.countDown();
+            try {
+                if (_release != null) {
+                    _release.await(30L, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                _doneSignal.countDown();
+            }
+        }
+
+        boolean awaitStarted() throws InterruptedException {
+            return awaitStarted(30000L);
+        }
+
+        boolean awaitStarted(final long millis) throws InterruptedException {
+            return _startedSignal.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        boolean awaitDone() throws InterruptedException {
+            return _doneSignal.await(30L, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the execution of RootContext child tasks as a dependency graph (LocalLauncher)
+ * @author Laurent BOURGES.
+ */
+public class TestTaskGraph {
+
+    /** working directory */
+    private final static String WORKING_DIR = System.getProperty("java.io.tmpdir");
+    /** command sleeping a short time (tasks overlap if run concurrently) */
+    private final static String[] SLEEP = new String[]{"sh", "-c", "sleep 0.2"};
+
+    @BeforeClass
+    public static void setUpClass() {
+        // thread executors are shared by all test classes (same JVM) so they are never stopped:
+        LocalLauncher.startUp();
+    }
+
+    /**
+     * Test a diamond graph: a -> (b, c) -> d
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testDiamondOrdering() throws InterruptedException {
+        final RootContext rootCtx = LocalLauncher.prepareMainJob("TestTaskGraph", "test", WORKING_DIR, null);
+        final RunContext a = LocalLauncher.prepareChildJob(rootCtx, "a", SLEEP);
+        final RunContext b = LocalLauncher.prepareChildJob(rootCtx, "b", SLEEP, a);
+        final RunContext c = LocalLauncher.prepareChildJob(rootCtx, "c", SLEEP, a);
+        final RunContext d = LocalLauncher.prepareChildJob(rootCtx, "d", SLEEP, b, c);
+
+        Assert.assertTrue("parallel mode", rootCtx.isParallel());
+
+        final RecordingListener listener = new RecordingListener();
+        LocalLauncher.startJob(rootCtx, listener);
+
+        Assert.assertTrue("job finished", listener.await());
+        Assert.assertEquals(RunState.STATE_FINISHED_OK, rootCtx.getState());
+
+        for (RunContext task : new RunContext[]{a, b, c, d}) {
+            Assert.assertEquals(task.getName(), RunState.STATE_FINISHED_OK, task.getState());
+        }
+        // dependencies are finished before dependent tasks start:
+        Assert.assertTrue("a before b", listener.indexOf("a", RunState.STATE_FINISHED_OK) < listener.indexOf("b", RunState.STATE_RUNNING));
+        Assert.assertTrue("a before c", listener.indexOf("a", RunState.STATE_FINISHED_OK) < listener.indexOf("c", RunState.STATE_RUNNING));
+        Assert.assertTrue("b before d", listener.indexOf("b", RunState.STATE_FINISHED_OK) < listener.indexOf("d", RunState.STATE_RUNNING));
+        Assert.assertTrue("c before d", listener.indexOf("c", RunState.STATE_FINISHED_OK) < listener.indexOf("d", RunState.STATE_RUNNING));
+
+        // independent tasks run concurrently:
+        final int endB = listener.indexOf("b", RunState.STATE_FINISHED_OK);
+        final int endC = listener.indexOf("c", RunState.STATE_FINISHED_OK);
+        Assert.assertTrue("b and c overlap", listener.indexOf("b", RunState.STATE_RUNNING) < endC
+                && listener.indexOf("c", RunState.STATE_RUNNING) < endB);
+    }
+
+    /**
+     * Test that the tasks of a wide graph use job scheduler slots: with a single slot, tasks never overlap
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testSlotLimit() throws InterruptedException {
+        final JobScheduler scheduler = LocalLauncher.getJobScheduler();
+        scheduler.setMaxSlots(1);
+        try {
+            final RootContext rootCtx = LocalLauncher.prepareMainJob("TestTaskGraph", "test", WORKING_DIR, null);
+            final RunContext a = LocalLauncher.prepareChildJob(rootCtx, "a", SLEEP);
+            LocalLauncher.prepareChildJob(rootCtx, "b", SLEEP);
+            LocalLauncher.prepareChildJob(rootCtx, "c", SLEEP);
+            LocalLauncher.prepareChildJob(rootCtx, "d", SLEEP, a);
+
+            final RecordingListener listener = new RecordingListener();
+            LocalLauncher.startJob(rootCtx, listener);
+
+            Assert.assertTrue("job finished", listener.await());
+            Assert.assertEquals(RunState.STATE_FINISHED_OK, rootCtx.getState());
+
+            // at most one running task at any time:
+            int running = 0;
+            for (String event : listener.getEvents()) {
+                if (event.endsWith(":" + RunState.STATE_RUNNING)) {
+                    running++;
+                    Assert.assertTrue("overlapping tasks: " + listener.getEvents(), running <= 1);
+                } else {
+                    running--;
+                }
+            }
+            Assert.assertEquals(8, listener.getEvents().size());
+        } finally {
+            scheduler.setMaxSlots(JobScheduler.UNLIMITED);
+        }
+        // the job slot is released once the job runner returns (after the job listener):
+        for (int i = 0; i < 500 && scheduler.getRunningCount() != 0; i++) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(0, scheduler.getRunningCount());
+    }
+
+    /**
+     * Test that a failed task cancels its dependent tasks
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testFailureCancelsDependents() throws InterruptedException {
+        final RootContext rootCtx = LocalLauncher.prepareMainJob("TestTaskGraph", "test", WORKING_DIR, null);
+        final RunContext a = LocalLauncher.prepareChildJob(rootCtx, "a", new String[]{"sh", "-c", "exit 1"});
+        final RunContext b = LocalLauncher.prepareChildJob(rootCtx, "b", SLEEP, a);
+
+        final RecordingListener listener = new RecordingListener();
+        LocalLauncher.startJob(rootCtx, listener);
+
+        Assert.assertTrue("job finished", listener.await());
+        Assert.assertEquals(RunState.STATE_FINISHED_ERROR, rootCtx.getState());
+        Assert.assertEquals(RunState.STATE_FINISHED_ERROR, a.getState());
+        Assert.assertEquals("b never started", -1, listener.indexOf("b", RunState.STATE_RUNNING));
+    }
+
+    /**
+     * Test that a cyclic graph is rejected without running any task
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testCycleRejected() throws InterruptedException {
+        final RootContext rootCtx = LocalLauncher.prepareMainJob("TestTaskGraph", "test", WORKING_DIR, null);
+        final RunContext a = LocalLauncher.prepareChildJob(rootCtx, "a", SLEEP);
+        final RunContext b = LocalLauncher.prepareChildJob(rootCtx, "b", SLEEP, a);
+        final RunContext c = LocalLauncher.prepareChildJob(rootCtx, "c", SLEEP, b);
+        a.addDependency(c);
+
+        final RecordingListener listener = new RecordingListener();
+        LocalLauncher.startJob(rootCtx, listener);
+
+        Assert.assertTrue("job finished", listener.await());
+        Assert.assertEquals(RunState.STATE_FINISHED_ERROR, rootCtx.getState());
+        Assert.assertTrue("no task started", listener.getEvents().isEmpty());
+    }
+
+    /**
+     * Test that a dependency on another job is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testForeignDependency() {
+        final RootContext rootCtx = LocalLauncher.prepareMainJob("TestTaskGraph", "test", WORKING_DIR, null);
+        final RootContext otherCtx = LocalLauncher.prepareMainJob("TestTaskGraph", "test", WORKING_DIR, null);
+        final RunContext a = LocalLauncher.prepareChildJob(otherCtx, "a", SLEEP);
+        LocalLauncher.prepareChildJob(rootCtx, "b", SLEEP, a);
+    }
+
+    /**
+     * Job listener recording task events
+     */
+    private static final class RecordingListener implements JobListener {
+
+        /** task events 'name:state' */
+        private final List<String> _events = new ArrayList<String>();
+        /** job done signal */
+        private final CountDownLatch _done = new CountDownLatch(1);
+
+        @Override
+        public void performJobEvent(final RootContext rootCtx) {
+            switch (rootCtx.getState()) {
+                case STATE_FINISHED_OK:
+                case STATE_FINISHED_ERROR:
+                case STATE_CANCELED:
+                case STATE_KILLED:
+                case STATE_INTERRUPTED:
+                    _done.countDown();
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void performTaskEvent(final RootContext rootCtx, final RunContext runCtx) {
+            synchronized (_events) {
+                _events.add(runCtx.getName() + ':' + runCtx.getState());
+            }
+        }
+
+        @Override
+        public boolean performTaskDone(final RootContext rootCtx, final RunContext runCtx) {
+            return runCtx.getState() == RunState.STATE_FINISHED_OK;
+        }
+
+        boolean await() throws InterruptedException {
+            return _done.await(30L, TimeUnit.SECONDS);
+        }
+
+        List<String> getEvents() {
+            synchronized (_events) {
+                return new ArrayList<String>(_events);
+            }
+        }
+
+        int indexOf(final String name, final RunState state) {
+            return getEvents().indexOf(name + ':' + state);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner.process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the lock-free ring buffer: content ordering, overwritten lines and
+ * concurrent producers (stdout / stderr) with a reader taking snapshots
+ * @author Laurent BOURGES.
+ */
+public class TestRingBuffer {
+
+    /** number of lines written by each producer */
+    private final static int LINES = 20000;
+
+    /**
+     * Test the content ordering: only the most recent lines are returned, oldest first
+     */
+    @Test
+    public void testContentOrdering() {
+        final RingBuffer ring = new RingBuffer(5, (String) null);
+        Assert.assertEquals("", ring.getContent());
+
+        ring.prepare();
+        for (int i = 0; i < 8; i++) {
+            if (i % 2 == 0) {
+                ring.add("line " + i);
+            } else {
+                ring.add("ERR", "line " + i);
+            }
+        }
+        Assert.assertEquals(8L, ring.getTotalCount());
+        Assert.assertEquals("ERR : line 3\nline 4\nERR : line 5\nline 6\nERR : line 7\n", ring.getContent());
+        Assert.assertEquals("start|ERR : line 3|line 4|ERR : line 5|line 6|ERR : line 7|", ring.getContent("start", "|"));
+    }
+
+    /**
+     * Test readLine() status: lines overwritten on wrap-around are lost, next lines are pending
+     */
+    @Test
+    public void testLineLost() {
+        final RingBuffer ring = new RingBuffer(4, (String) null);
+        ring.prepare();
+        for (int i = 0; i < 6; i++) {
+            ring.add("OUT", "line " + i);
+        }
+        final String[] holder = new String[2];
+
+        // slots 0 and 1 were reused by lines 4 and 5:
+        Assert.assertEquals(RingBuffer.LINE_LOST, ring.readLine(0L, holder));
+        Assert.assertEquals(RingBuffer.LINE_LOST, ring.readLine(1L, holder));
+
+        Assert.assertEquals(RingBuffer.LINE_OK, ring.readLine(2L, holder));
+        Assert.assertEquals("OUT", holder[0]);
+        Assert.assertEquals("line 2", holder[1]);
+
+        Assert.assertEquals(RingBuffer.LINE_OK, ring.readLine(5L, holder));
+        Assert.assertEquals("line 5", holder[1]);
+
+        // not yet written:
+        Assert.assertEquals(RingBuffer.LINE_PENDING, ring.readLine(6L, holder));
+        Assert.assertTrue(ring.isPending(6L));
+        Assert.assertFalse(ring.isPending(5L));
+    }
+
+    /**
+     * Test concurrent producers (stdout / stderr) with a reader taking snapshots:
+     * every snapshot only contains complete lines (matching prefix) in producer order
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final int max = 64;
+        final RingBuffer ring = new RingBuffer(max, (String) null);
+        ring.prepare();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+
+        final List<Thread> threads = new ArrayList<Thread>(3);
+        for (final String prefix : new String[]{"OUT", "ERR"}) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < LINES; i++) {
+                            ring.add(prefix, prefix + '-' + i);
+                        }
+                    } catch (InterruptedException ie) {
+                        failure.compareAndSet(null, ie.toString());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "TestRingBuffer-" + prefix));
+        }
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    int snapshots = 0;
+                    while (done.getCount() != 0L || snapshots == 0) {
+                        final String error = checkSnapshot(ring.getContent(), max);
+                        if (error != null) {
+                            failure.compareAndSet(null, error);
+                            return;
+                        }
+                        snapshots++;
+                    }
+                } catch (InterruptedException ie) {
+                    failure.compareAndSet(null, ie.toString());
+                }
+            }
+        }, "TestRingBuffer-reader"));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(60000L);
+        }
+        Assert.assertNull(failure.get(), failure.get());
+
+        Assert.assertEquals(2L * LINES, ring.getTotalCount());
+
+        // writers are idle: the snapshot is complete
+        final String content = ring.getContent();
+        Assert.assertNull(checkSnapshot(content, max));
+        final String[] lines = content.split("\n");
+        Assert.assertEquals(max, lines.length);
+        // the last line is the last line of one producer (the other one may have finished earlier):
+        Assert.assertTrue(lines[max - 1], lines[max - 1].endsWith("-" + (LINES - 1)));
+    }
+
+    /**
+     * Check the given snapshot: at most max lines, complete lines and increasing line numbers per producer
+     * @param content ring buffer content
+     * @param max ring buffer size
+     * @return error message or null if valid
+     */
+    private static String checkSnapshot(final String content, final int max) {
+        if (content.isEmpty()) {
+            return null;
+        }
+        final String[] lines = content.split("\n");
+        if (lines.length > max) {
+            return "too many lines: " + lines.length;
+        }
+        int lastOut = -1, lastErr = -1;
+        for (String line : lines) {
+            final int pos = line.indexOf(" : ");
+            if (pos == -1) {
+                return "missing prefix: " + line;
+            }
+            final String prefix = line.substring(0, pos);
+            final String value = line.substring(pos + 3);
+            if (!value.startsWith(prefix + '-')) {
+                return "torn line: " + line;
+            }
+            final int n = Integer.parseInt(value.substring(prefix.length() + 1));
+            if ("OUT".equals(prefix)) {
+                if (n <= lastOut) {
+                    return "out of order: " + line + " after OUT-" + lastOut;
+                }
+                lastOut = n;
+            } else {
+                if (n <= lastErr) {
+                    return "out of order: " + line + " after ERR-" + lastErr;
+                }
+                lastErr = n;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.runner.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the segmented log: segment rollover at line boundaries and range reads across segments
+ * @author Laurent BOURGES.
+ */
+public class TestSegmentedLog {
+
+    /** segment size */
+    private final static int SEGMENT_SIZE = 100;
+    /** base file path */
+    private String _path = null;
+    /** segmented log */
+    private SegmentedLog _log = null;
+
+    @Before
+    public void setUp() throws IOException {
+        final File file = File.createTempFile("TestSegmentedLog", ".log");
+        file.delete();
+        _path = file.getPath();
+        _log = new SegmentedLog(_path, SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        _log.close();
+        for (int i = 0, len = _log.getSegmentCount(); i < len; i++) {
+            _log.getSegmentFile(i).delete();
+        }
+    }
+
+    /**
+     * Test the segment rollover: segments are rolled at line boundaries once the segment size is reached
+     * @throws IOException if an I/O error occurs
+     */
+    @Test
+    public void testRollover() throws IOException {
+        final String expected = writeLines(50);
+
+        Assert.assertEquals(expected.getBytes("UTF-8").length, _log.getSize());
+        _log.close();
+
+        final int segments = _log.getSegmentCount();
+        Assert.assertTrue("segments: " + segments, segments > 1);
+
+        long total = 0l;
+        for (int i = 0; i < segments; i++) {
+            final File file = _log.getSegmentFile(i);
+            final long length = file.length();
+            total += length;
+
+            if (i < segments - 1) {
+                // sealed segments reach the segment size and end at a line boundary:
+                Assert.assertTrue("segment " + i + " size: " + length, length >= SEGMENT_SIZE);
+                Assert.assertEquals('\n', lastByte(file));
+            }
+        }
+        Assert.assertEquals(_log.getSize(), total);
+    }
+
+    /**
+     * Test range reads across segments, including buffered (not flushed) lines and reads after close
+     * @throws IOException if an I/O error occurs
+     */
+    @Test
+    public void testRangeReads() throws IOException {
+        final String expected = writeLines(50);
+        final int size = expected.length();
+
+        // complete content (partly buffered):
+        Assert.assertEquals(expected, _log.getContent(0l, Long.MAX_VALUE));
+
+        // ranges spanning segment boundaries:
+        for (int from = 0; from < size; from += 37) {
+            final int to = Math.min(size, from + 150);
+            Assert.assertEquals("[" + from + " - " + to + "]", expected.substring(from, to), _log.getContent(from, to));
+        }
+        // clamped and empty ranges:
+        Assert.assertEquals(expected.substring(size - 10), _log.getContent(size - 10, size + 1000));
+        Assert.assertEquals("", _log.getContent(size, size + 10));
+        Assert.assertEquals("", _log.getContent(20, 10));
+
+        // appended lines are visible and content remains readable once closed:
+        _log.write(null, "last");
+        _log.close();
+        Assert.assertTrue(_log.isClosed());
+        Assert.assertEquals(expected + "last\n", _log.getContent(0l, Long.MAX_VALUE));
+
+        // no more writes:
+        _log.write(null, "ignored");
+        Assert.assertEquals(size + 5, _log.getSize());
+    }
+
+    /**
+     * Test prefixed lines and multi-byte characters
+     * @throws IOException if an I/O error occurs
+     */
+    @Test
+    public void testPrefixAndEncoding() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            final String line = "\u00e9t\u00e9 \u20ac " + i;
+            _log.write("ERROR", line);
+            sb.append("ERROR : ").append(line).append('\n');
+        }
+        final String expected = sb.toString();
+        Assert.assertEquals(expected.getBytes("UTF-8").length, _log.getSize());
+        Assert.assertEquals(expected, _log.getContent(0l, _log.getSize()));
+        Assert.assertTrue(_log.getSegmentCount() > 1);
+    }
+
+    /**
+     * Write the given number of lines
+     * @param lines number of lines
+     * @return expected content
+     */
+    private String writeLines(final int lines) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            final String line = "line " + i + " of the segmented log test";
+            _log.write(null, line);
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the last byte of the given file
+     * @param file file to read
+     * @return last byte
+     * @throws IOException if an I/O error occurs
+     */
+    private static int lastByte(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(raf.length() - 1l);
+            return raf.read();
+        } finally {
+            raf.close();
+        }
+    }
+}
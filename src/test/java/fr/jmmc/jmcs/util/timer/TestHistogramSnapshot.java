@@ -0,0 +1,172 @@
+/*******************************************************************************
+ *                 jMCS project ( http://www.jmmc.fr/dev/jmcs )
+ *******************************************************************************
+ * Copyright (c) 2013, CNRS. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     - Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     - Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     - Neither the name of the CNRS nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL CNRS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package fr.jmmc.jmcs.util.timer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the histogram snapshots: bucket bounds, percentiles of known distributions,
+ * merge of snapshots and interval reset
+ * @author Laurent BOURGES.
+ */
+public class TestHistogramSnapshot {
+
+    /**
+     * Test the bucket bounds: every value belongs to its bucket and the bucket width is lower than value / 16
+     */
+    @Test
+    public void testBuckets() {
+        for (long value = 0L; value < 1L << 40; value = value * 3L / 2L + 1L) {
+            final int index = HistogramSnapshot.getBucketIndex(value);
+            final long lower = HistogramSnapshot.getBucketLowerBound(index);
+            final long upper = HistogramSnapshot.getBucketUpperBound(index);
+
+            Assert.assertTrue("value " + value + " in [" + lower + ", " + upper + "]", lower <= value && value <= upper);
+            Assert.assertTrue("bucket width for " + value, upper - lower <= value / 16L);
+            Assert.assertEquals(index + 1, HistogramSnapshot.getBucketIndex(upper + 1L));
+        }
+        Assert.assertTrue(HistogramSnapshot.getBucketIndex(Long.MAX_VALUE) < HistogramSnapshot.BUCKET_COUNT);
+    }
+
+    /**
+     * Test the percentiles of an uniform distribution within the bucket precision
+     */
+    @Test
+    public void testPercentiles() {
+        final HistogramTimer timer = new HistogramTimer("TestHistogramSnapshot.uniform", TimerFactory.UNIT.ns);
+        final int n = 100000;
+        for (int i = 1; i <= n; i++) {
+            timer.record(i);
+        }
+        final HistogramSnapshot snapshot = timer.getSnapshot();
+
+        Assert.assertEquals(n, snapshot.getCount());
+        Assert.assertEquals(1L, snapshot.getMin());
+        Assert.assertEquals(n, snapshot.getMax());
+        Assert.assertEquals((n + 1) / 2d, snapshot.getMean(), 1e-9d);
+
+        assertPercentile(snapshot, 50d, 50000L);
+        assertPercentile(snapshot, 99d, 99000L);
+        assertPercentile(snapshot, 99.9d, 99900L);
+        Assert.assertEquals(n, snapshot.getValueAtPercentile(100d));
+        Assert.assertEquals(1L, snapshot.getValueAtPercentile(0d));
+    }
+
+    /**
+     * Test the percentiles of a bimodal distribution (1% slow values)
+     */
+    @Test
+    public void testOutliers() {
+        final HistogramTimer timer = new HistogramTimer("TestHistogramSnapshot.bimodal", TimerFactory.UNIT.ms);
+        for (int i = 0; i < 990; i++) {
+            timer.record(1000000L);
+        }
+        for (int i = 0; i < 10; i++) {
+            timer.record(500000000L);
+        }
+        final HistogramSnapshot snapshot = timer.getSnapshot();
+
+        assertPercentile(snapshot, 50d, 1000000L);
+        assertPercentile(snapshot, 99d, 1000000L);
+        assertPercentile(snapshot, 99.9d, 500000000L);
+        // milliseconds:
+        Assert.assertEquals(500d, snapshot.getPercentile(99.9d), 500d / 16d);
+        Assert.assertEquals(1000, snapshot.toStatLong().getCounter());
+    }
+
+    /**
+     * Test the merge of two snapshots
+     */
+    @Test
+    public void testMerge() {
+        final HistogramTimer low = new HistogramTimer("TestHistogramSnapshot.low", TimerFactory.UNIT.ns);
+        final HistogramTimer high = new HistogramTimer("TestHistogramSnapshot.high", TimerFactory.UNIT.ns);
+        for (int i = 1; i <= 1000; i++) {
+            low.record(i);
+            high.record(1000L + i);
+        }
+        final HistogramSnapshot merged = new HistogramSnapshot(TimerFactory.UNIT.ns);
+        merged.add(low.getSnapshot());
+        merged.add(high.getSnapshot());
+
+        Assert.assertEquals(2000L, merged.getCount());
+        Assert.assertEquals(1L, merged.getMin());
+        Assert.assertEquals(2000L, merged.getMax());
+        Assert.assertEquals(2000L * 2001L / 2L, merged.getSum());
+
+        assertPercentile(merged, 25d, 500L);
+        assertPercentile(merged, 50d, 1000L);
+        assertPercentile(merged, 99d, 1980L);
+
+        // merging does not modify the source snapshots:
+        Assert.assertEquals(1000L, low.getSnapshot().getCount());
+        Assert.assertEquals(1000L, low.getSnapshot().getMax());
+    }
+
+    /**
+     * Test the interval snapshots: every recorded value belongs to exactly one interval
+     */
+    @Test
+    public void testIntervalReset() {
+        final HistogramTimer timer = new HistogramTimer("TestHistogramSnapshot.interval", TimerFactory.UNIT.ns);
+        for (int i = 1; i <= 100; i++) {
+            timer.record(i);
+        }
+        HistogramSnapshot interval = timer.getIntervalSnapshot();
+        Assert.assertEquals(100L, interval.getCount());
+        Assert.assertEquals(100L, interval.getMax());
+
+        final HistogramSnapshot empty = timer.getSnapshot();
+        Assert.assertEquals(0L, empty.getCount());
+        Assert.assertEquals(0L, empty.getMin());
+        Assert.assertEquals(0L, empty.getValueAtPercentile(50d));
+        Assert.assertEquals(0, timer.getUsage());
+
+        for (int i = 0; i < 10; i++) {
+            timer.record(5000L);
+        }
+        interval = timer.getIntervalSnapshot();
+        Assert.assertEquals(10L, interval.getCount());
+        Assert.assertEquals(5000L, interval.getMin());
+        Assert.assertEquals(50000L, interval.getSum());
+        assertPercentile(interval, 50d, 5000L);
+    }
+
+    /**
+     * Check the value at the given percentile within the bucket precision (1 / 16)
+     * @param snapshot histogram snapshot
+     * @param percentile percentile
+     * @param expected expected value (ns)
+     */
+    private static void assertPercentile(final HistogramSnapshot snapshot, final double percentile, final long expected) {
+        final long actual = snapshot.getValueAtPercentile(percentile);
+        Assert.assertTrue("p" + percentile + " = " + actual + " expected " + expected,
+                Math.abs(actual - expected) <= Math.max(1L, expected / 16L));
+    }
+}